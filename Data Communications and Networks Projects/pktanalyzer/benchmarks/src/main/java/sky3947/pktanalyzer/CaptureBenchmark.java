@@ -0,0 +1,150 @@
+package sky3947.pktanalyzer;
+
+import java.io.Closeable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The CaptureBenchmark class measures reading a large synthetic capture through CaptureReader: decoding each frame's
+ * headers, and printing each frame as pktanalyzer does by default. The capture is either every sample packet over and
+ * over, or mixed traffic from PcapGenerator. Scores are per frame, so "-prof gc" reports the bytes allocated per packet.
+ *
+ * decodeAndVerify also checks every IP, TCP, UDP, and ICMP checksum, as "-f badsum" does, so its score less decode's
+ * is what verification costs per frame.
+ *
+ * @author Steven Yu (sky3947)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureBenchmark {
+
+    private static final int FRAMES = 100_000;      // Frames in the synthetic capture.
+
+    @Param({"samples", "generated"})
+    public String traffic;
+
+    private Path capture;
+    private Object frame;
+    private Object packet;
+    private Object printer;
+    private Object renderer;
+    private Object badChecksum;
+
+    /**
+     * Writes the synthetic capture and creates the reused objects.
+     *
+     * @throws Throwable If the capture can't be written.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        capture = Files.createTempFile("pktanalyzer-benchmark", ".pcap");
+        if(traffic.equals("generated")) {
+            Samples.writeGeneratedCapture(capture, FRAMES);
+        } else {
+            Samples.writeCapture(capture, FRAMES);
+        }
+
+        frame = (Object) Handles.NEW_FRAME.invokeExact();
+        packet = (Object) Handles.NEW_PACKET.invokeExact();
+        printer = (Object) Handles.NEW_PRINTER.invokeExact();
+        renderer = (Object) Handles.NEW_RENDERER.invokeExact();
+        badChecksum = (Object) Handles.COMPILE_FILTER.invokeExact("badsum");
+    }
+
+    /**
+     * Deletes the synthetic capture.
+     *
+     * @throws Throwable If it can't be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        Files.deleteIfExists(capture);
+    }
+
+    /**
+     * Reads every frame and finds its IP and transport headers.
+     *
+     * @return The number of frames holding a transport header.
+     * @throws Throwable If the capture can't be read.
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int decode() throws Throwable {
+        int transports = 0;
+        try (Closeable reader = (Closeable) (Object) Handles.NEW_READER.invokeExact(capture)) {
+            while((boolean) Handles.NEXT.invokeExact((Object) reader, frame)) {
+                if((boolean) Handles.WRAP_FRAME.invokeExact(packet, frame)) {
+                    Object ip = (Object) Handles.GET_IP_HEADER.invokeExact(packet);
+                    if(ip != null && (Object) Handles.GET_SUB_HEADER.invokeExact(ip) != null) {
+                        transports++;
+                    }
+                }
+            }
+        }
+        return transports;
+    }
+
+    /**
+     * Reads every frame, finds its IP and transport headers, and verifies its checksums.
+     *
+     * @return The number of frames holding a transport header, plus the number with a bad checksum.
+     * @throws Throwable If the capture can't be read.
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int decodeAndVerify() throws Throwable {
+        int transports = 0;
+        try (Closeable reader = (Closeable) (Object) Handles.NEW_READER.invokeExact(capture)) {
+            while((boolean) Handles.NEXT.invokeExact((Object) reader, frame)) {
+                if((boolean) Handles.WRAP_FRAME.invokeExact(packet, frame)) {
+                    Object ip = (Object) Handles.GET_IP_HEADER.invokeExact(packet);
+                    if(ip != null && (Object) Handles.GET_SUB_HEADER.invokeExact(ip) != null) {
+                        transports++;
+                    }
+                }
+                if((boolean) Handles.MATCHES.invokeExact(badChecksum, frame)) {
+                    transports++;
+                }
+            }
+        }
+        return transports;
+    }
+
+    /**
+     * Reads every frame and prints it as pktanalyzer does by default, throwing the text away as it goes.
+     *
+     * @return The number of bytes left in the renderer.
+     * @throws Throwable If the capture can't be read.
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int decodeAndRender() throws Throwable {
+        try (Closeable reader = (Closeable) (Object) Handles.NEW_READER.invokeExact(capture)) {
+            while((boolean) Handles.NEXT.invokeExact((Object) reader, frame)) {
+                Handles.RESET.invokeExact(renderer);
+                Handles.ACCEPT.invokeExact(printer, frame, packet, renderer);
+            }
+        }
+        return (int) Handles.SIZE.invokeExact(renderer);
+    }
+}
@@ -0,0 +1,133 @@
+package sky3947.pktanalyzer;
+
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * The Handles class gives the benchmarks access to pktanalyzer's classes. They live in the unnamed package, which code
+ * in a named package (as JMH requires) can't import, so they are looked up by name once and called through method
+ * handles. The handles are static final, so the JIT compiles calls through them like direct calls.
+ *
+ * Every handle is adapted to take and return Object in place of pktanalyzer's types, so it can be called with
+ * invokeExact.
+ *
+ * @author Steven Yu (sky3947)
+ */
+final class Handles {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    static final MethodHandle NEW_PACKET = constructor("Packet");
+    static final MethodHandle NEW_PACKET_FROM_BYTES = constructor("Packet", byte[].class);
+    static final MethodHandle WRAP = method("Packet", "wrap", void.class, ByteBuffer.class, int.class, int.class);
+    static final MethodHandle WRAP_FRAME = method("Packet", "wrap", boolean.class, type("Frame"));
+    static final MethodHandle GET_IP_HEADER = method("Packet", "getIPHeader", type("IPHeader"));
+    static final MethodHandle GET_SUB_HEADER = method("IPHeader", "getSubHeader", type("Header"));
+    static final MethodHandle RENDER_PACKET = method("Packet", "render", void.class, type("TextRenderer"));
+
+    static final MethodHandle NEW_RENDERER = constructor("TextRenderer");
+    static final MethodHandle RESET = method("TextRenderer", "reset", void.class);
+    static final MethodHandle SIZE = method("TextRenderer", "size", int.class);
+
+    static final MethodHandle NEW_FRAME = constructor("Frame");
+    static final MethodHandle NEW_READER = constructor("CaptureReader", Path.class);
+    static final MethodHandle NEXT = method("CaptureReader", "next", boolean.class, type("Frame"));
+    static final MethodHandle NEW_PRINTER = constructor("PacketPrinter");
+    static final MethodHandle ACCEPT = method("Analysis", "accept", void.class, type("Frame"), type("Packet"), type("TextRenderer"));
+
+    static final MethodHandle COMPILE_FILTER = staticMethod("FilterCompiler", "compile", type("Filter"), String.class);
+    static final MethodHandle MATCHES = method("Filter", "matches", boolean.class, type("Frame"));
+
+    static final MethodHandle NEW_GENERATOR = constructor("PcapGenerator", OutputStream.class, long.class, int.class,
+            int.class, double.class, long.class);
+    static final MethodHandle WRITE_HEADER = method("PcapGenerator", "writeHeader", void.class);
+    static final MethodHandle GENERATE = method("PcapGenerator", "next", void.class);
+    static final MethodHandle GET_FRAMES = method("PcapGenerator", "getFrames", long.class);
+
+    /**
+     * Constructor for Handles, which only has static members.
+     */
+    private Handles() {
+    }
+
+    /**
+     * Finds one of pktanalyzer's classes.
+     *
+     * @param name The name of the class.
+     * @return The class.
+     */
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("pktanalyzer class " + name + " is missing from the benchmark jar", e);
+        }
+    }
+
+    /**
+     * Finds a public constructor, adapted to return Object.
+     *
+     * @param owner The name of the class.
+     * @param parameters The constructor's parameter types.
+     * @return The handle.
+     */
+    private static MethodHandle constructor(String owner, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(type(owner), MethodType.methodType(void.class, parameters));
+            return handle.asType(handle.type().changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds a public static method, adapted to return Object if it returns one of pktanalyzer's types.
+     *
+     * @param owner The name of the class declaring the method.
+     * @param name The name of the method.
+     * @param result The method's return type.
+     * @param parameters The method's parameter types.
+     * @return The handle.
+     */
+    private static MethodHandle staticMethod(String owner, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findStatic(type(owner), name, MethodType.methodType(result, parameters));
+            return result.getPackageName().isEmpty() && !result.isPrimitive()
+                    ? handle.asType(handle.type().changeReturnType(Object.class)) : handle;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds a public instance method, adapted to take its receiver, and any argument or result of pktanalyzer's types,
+     * as Object.
+     *
+     * @param owner The name of the class declaring the method.
+     * @param name The name of the method.
+     * @param result The method's return type.
+     * @param parameters The method's parameter types.
+     * @return The handle.
+     */
+    private static MethodHandle method(String owner, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(type(owner), name, MethodType.methodType(result, parameters));
+            MethodType generic = handle.type().changeParameterType(0, Object.class);
+            for(int i = 1; i < generic.parameterCount(); i++) {
+                if(generic.parameterType(i).getPackageName().isEmpty()) {
+                    generic = generic.changeParameterType(i, Object.class);
+                }
+            }
+            if(!result.isPrimitive() && result.getPackageName().isEmpty()) {
+                generic = generic.changeReturnType(Object.class);
+            }
+            return handle.asType(generic);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
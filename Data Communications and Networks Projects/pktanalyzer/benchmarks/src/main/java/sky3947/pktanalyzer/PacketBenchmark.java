@@ -0,0 +1,98 @@
+package sky3947.pktanalyzer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The PacketBenchmark class measures one sample packet at a time: locating its headers (decode), decoding and printing
+ * every field (render), and the old path of building a new Packet from a byte array and calling toString().
+ *
+ * Header fields are read lazily, so decode measures finding the headers and checking their bounds, and render is where
+ * the fields themselves are read. Run with "-prof gc" to see the bytes allocated per packet (gc.alloc.rate.norm).
+ *
+ * @author Steven Yu (sky3947)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark {
+
+    @Param({"arprequest.bin", "arpreply.bin", "ping.bin", "new_icmp_packet2.bin", "new_tcp_packet1.bin",
+            "new_udp_packet1.bin"})
+    public String sample;
+
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private Object packet;
+    private Object renderer;
+
+    /**
+     * Reads the sample and creates the reused packet and renderer.
+     *
+     * @throws Throwable If the sample can't be read.
+     */
+    @Setup
+    public void setup() throws Throwable {
+        bytes = Samples.read(sample);
+        buffer = ByteBuffer.wrap(bytes);
+        packet = (Object) Handles.NEW_PACKET.invokeExact();
+        renderer = (Object) Handles.NEW_RENDERER.invokeExact();
+    }
+
+    /**
+     * Points the reused packet at the sample and finds its IP and transport headers.
+     *
+     * @return The transport header, or the IP header or packet if there isn't one.
+     * @throws Throwable Never.
+     */
+    @Benchmark
+    public Object decode() throws Throwable {
+        Handles.WRAP.invokeExact(packet, buffer, 0, bytes.length);
+        Object ip = (Object) Handles.GET_IP_HEADER.invokeExact(packet);
+        if(ip == null) {
+            return packet;
+        }
+        Object transport = (Object) Handles.GET_SUB_HEADER.invokeExact(ip);
+        return (transport == null) ? ip : transport;
+    }
+
+    /**
+     * Points the reused packet at the sample and renders every header into the reused renderer.
+     *
+     * @return The number of bytes rendered.
+     * @throws Throwable Never.
+     */
+    @Benchmark
+    public int decodeAndRender() throws Throwable {
+        Handles.RESET.invokeExact(renderer);
+        Handles.WRAP.invokeExact(packet, buffer, 0, bytes.length);
+        Handles.RENDER_PACKET.invokeExact(packet, renderer);
+        return (int) Handles.SIZE.invokeExact(renderer);
+    }
+
+    /**
+     * Builds a new packet from the sample's bytes and prints it to a String, as a single packet file is printed.
+     *
+     * @return The printed packet.
+     * @throws Throwable Never.
+     */
+    @Benchmark
+    public String legacyToString() throws Throwable {
+        return ((Object) Handles.NEW_PACKET_FROM_BYTES.invokeExact(bytes)).toString();
+    }
+}
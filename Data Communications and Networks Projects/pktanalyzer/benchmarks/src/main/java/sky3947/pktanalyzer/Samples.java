@@ -0,0 +1,112 @@
+package sky3947.pktanalyzer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The Samples class finds the sample packets in packets/ and builds synthetic captures, either out of them or with
+ * PcapGenerator.
+ *
+ * @author Steven Yu (sky3947)
+ */
+final class Samples {
+
+    static final String[] NAMES = {
+            "arprequest.bin", "arpreply.bin", "ping.bin", "new_icmp_packet2.bin", "new_tcp_packet1.bin",
+            "new_udp_packet1.bin"
+    };
+
+    private static final int PCAP_MAGIC = 0xa1b2c3d4;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int SNAPLEN = 65535;
+
+    private static final long SEED = 1;                     // PcapGenerator settings, so every run reads the same capture.
+    private static final int HOSTS = 10_000;
+    private static final int CONVERSATIONS = 100_000;
+    private static final double ZIPF_EXPONENT = 1.1;
+    private static final long MEAN_GAP = 10_000;
+
+    /**
+     * Constructor for Samples, which only has static members.
+     */
+    private Samples() {
+    }
+
+    /**
+     * Reads a sample packet. The packets directory is taken from the pktanalyzer.packets system property, or else
+     * looked for in and above the working directory.
+     *
+     * @param name The file name of the sample.
+     * @return The packet's bytes.
+     * @throws IOException If the sample can't be found or read.
+     */
+    static byte[] read(String name) throws IOException {
+        String directory = System.getProperty("pktanalyzer.packets");
+        if(directory != null) {
+            return Files.readAllBytes(Paths.get(directory, name));
+        }
+
+        for(Path dir = Paths.get("").toAbsolutePath(); dir != null; dir = dir.getParent()) {
+            Path sample = dir.resolve("packets").resolve(name);
+            if(Files.isRegularFile(sample)) {
+                return Files.readAllBytes(sample);
+            }
+        }
+        throw new IOException("Can't find packets/" + name + "; set -Dpktanalyzer.packets=<dir>");
+    }
+
+    /**
+     * Writes a pcap capture that cycles through every sample packet.
+     *
+     * @param path Where to write the capture.
+     * @param frames The number of frames to write.
+     * @throws IOException If a sample can't be read or the capture can't be written.
+     */
+    static void writeCapture(Path path, int frames) throws IOException {
+        byte[][] samples = new byte[NAMES.length][];
+        for(int i = 0; i < NAMES.length; i++) {
+            samples[i] = read(NAMES[i]);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(PCAP_MAGIC).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(SNAPLEN)
+                .putInt(LINKTYPE_ETHERNET);
+
+        ByteBuffer record = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+            out.write(header.array());
+            for(int frame = 0; frame < frames; frame++) {
+                byte[] sample = samples[frame % samples.length];
+                record.clear();
+                record.putInt(1_600_000_000 + frame / 1000).putInt((frame % 1000) * 1000)
+                        .putInt(sample.length).putInt(sample.length);
+                out.write(record.array());
+                out.write(sample);
+            }
+        }
+    }
+
+    /**
+     * Writes a pcap capture of generated traffic: TCP, UDP, ICMP, ARP, and IP fragments between Zipf-distributed hosts.
+     *
+     * @param path Where to write the capture.
+     * @param frames The number of frames to write.
+     * @throws Throwable If the capture can't be written.
+     */
+    static void writeGeneratedCapture(Path path, int frames) throws Throwable {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+            Object generator = (Object) Handles.NEW_GENERATOR.invokeExact(out, SEED, HOSTS, CONVERSATIONS,
+                    ZIPF_EXPONENT, MEAN_GAP);
+            Handles.WRITE_HEADER.invokeExact(generator);
+            while((long) Handles.GET_FRAMES.invokeExact(generator) < frames) {
+                Handles.GENERATE.invokeExact(generator);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorChecksum class sums long regions for Checksum with the incubating Vector API: each lane adds up the two
+ * 32-bit halves of its long, as Checksum's scalar loop does, so a whole vector register is summed per step.
+ *
+ * It is kept apart from the other sources because it needs the jdk.incubator.vector module. Build it with mvn -Pvector
+ * and run with java --add-modules jdk.incubator.vector; Checksum finds it by name when it is there.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public final class VectorChecksum {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    public static final int BLOCK = SPECIES.vectorByteSize();  // Bytes summed at a time.
+
+    /**
+     * Constructor for VectorChecksum, which only has static members.
+     */
+    private VectorChecksum() {
+    }
+
+    /**
+     * Adds up a region as 32-bit words.
+     *
+     * @param buffer The buffer holding the region.
+     * @param offset The index in buffer where the region starts.
+     * @param length The length of the region. Must be a multiple of BLOCK.
+     * @return The sum, not folded.
+     */
+    public static long sum(ByteBuffer buffer, int offset, int length) {
+        LongVector sum = LongVector.zero(SPECIES);
+        for(int i = offset; i < offset + length; i += BLOCK) {
+            LongVector words = LongVector.fromByteBuffer(SPECIES, buffer, i, ByteOrder.BIG_ENDIAN);
+            sum = sum.add(words.lanewise(VectorOperators.LSHR, 32)).add(words.and(0xffffffffL));
+        }
+        return sum.reduceLanes(VectorOperators.ADD);
+    }
+}
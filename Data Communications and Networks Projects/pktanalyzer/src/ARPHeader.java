@@ -0,0 +1,173 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The ARPHeader class represents the ARP section of a packet, assuming the packet's ethertype is ARP. Only ARP for IPv4
+ * over ethernet has addresses pktanalyzer can print; other kinds print their lengths and operation only.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class ARPHeader extends Header {
+
+    private static final int HARDWARE_TYPE = 0;         // Byte location where hardware type starts.
+    private static final int PROTOCOL_TYPE = 2;         // Byte location where protocol type starts.
+    private static final int HARDWARE_LENGTH = 4;       // Byte location where hardware address length starts.
+    private static final int PROTOCOL_LENGTH = 5;       // Byte location where protocol address length starts.
+    private static final int OPERATION = 6;             // Byte location where operation starts.
+    private static final int SENDER_MAC = 8;            // Byte location where sender MAC address starts.
+    private static final int SENDER_ADDRESS = 14;       // Byte location where sender IP address starts.
+    private static final int TARGET_MAC = 18;           // Byte location where target MAC address starts.
+    private static final int TARGET_ADDRESS = 24;       // Byte location where target IP address starts.
+
+    private static final int MIN_HEADER_LENGTH = 8;     // Minimum length of header.
+    private static final int IPV4_LENGTH = 28;          // Length of ARP for IPv4 over ethernet.
+
+    public static final int REQUEST = 1;                // Operation of a request.
+    public static final int REPLY = 2;                  // Operation of a reply.
+
+    /**
+     * Constructor for an ARPHeader that isn't pointing at a packet yet. Use wrap() to give it one.
+     */
+    public ARPHeader() {
+        super("ARP");
+    }
+
+    /**
+     * Constructor for ARPHeader. It extracts information from a packet.
+     *
+     * @param raw The raw packet in a byte array.
+     */
+    public ARPHeader(byte[] raw) {
+        this();
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
+    }
+
+    /**
+     * Checks that the slice this header is pointing at can hold an ARP header.
+     */
+    @Override
+    protected void decode() {
+        require(MIN_HEADER_LENGTH);
+    }
+
+    /**
+     * Getter method for hardware type.
+     *
+     * @return The hardware type, 1 for ethernet.
+     */
+    public int getHardwareType() {
+        return Utility.readU16(buffer, offset + HARDWARE_TYPE);
+    }
+
+    /**
+     * Getter method for protocol type.
+     *
+     * @return The ethertype of the protocol addresses.
+     */
+    public int getProtocolType() {
+        return Utility.readU16(buffer, offset + PROTOCOL_TYPE);
+    }
+
+    /**
+     * Getter method for hardware address length.
+     *
+     * @return The length of a hardware address, in bytes.
+     */
+    public int getHardwareLength() {
+        return Utility.readU8(buffer, offset + HARDWARE_LENGTH);
+    }
+
+    /**
+     * Getter method for protocol address length.
+     *
+     * @return The length of a protocol address, in bytes.
+     */
+    public int getProtocolLength() {
+        return Utility.readU8(buffer, offset + PROTOCOL_LENGTH);
+    }
+
+    /**
+     * Getter method for operation.
+     *
+     * @return The operation, such as REQUEST or REPLY.
+     */
+    public int getOperation() {
+        return Utility.readU16(buffer, offset + OPERATION);
+    }
+
+    /**
+     * Checks whether this is ARP for IPv4 over ethernet, the only kind whose addresses can be read.
+     *
+     * @return True if the addresses are MAC and IPv4 addresses.
+     */
+    public boolean isIPv4OverEthernet() {
+        return getHardwareLength() == 6 && getProtocolLength() == 4
+                && getProtocolType() == Utility.EtherTypes.IP;
+    }
+
+    /**
+     * Getter method for sender MAC address.
+     *
+     * @return The sender MAC address, in the low 48 bits.
+     */
+    public long getSenderMac() {
+        require(IPV4_LENGTH);
+        return Utility.readU48(buffer, offset + SENDER_MAC);
+    }
+
+    /**
+     * Getter method for sender IP address.
+     *
+     * @return The sender IP address, most significant byte first.
+     */
+    public int getSenderAddress() {
+        require(IPV4_LENGTH);
+        return (int) Utility.readU32(buffer, offset + SENDER_ADDRESS);
+    }
+
+    /**
+     * Getter method for target MAC address.
+     *
+     * @return The target MAC address, in the low 48 bits.
+     */
+    public long getTargetMac() {
+        require(IPV4_LENGTH);
+        return Utility.readU48(buffer, offset + TARGET_MAC);
+    }
+
+    /**
+     * Getter method for target IP address.
+     *
+     * @return The target IP address, most significant byte first.
+     */
+    public int getTargetAddress() {
+        require(IPV4_LENGTH);
+        return (int) Utility.readU32(buffer, offset + TARGET_ADDRESS);
+    }
+
+    /**
+     * Renders this ARPHeader. Includes hardware type, protocol type, address lengths, operation, and, for IPv4 over
+     * ethernet, the sender and target addresses.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        int operation = getOperation();
+        int protocolType = getProtocolType();
+
+        beginHeader(out, "ARP Header");
+        line(out).append("Hardware type   = ").decimal(getHardwareType()).newline();
+        line(out).append("Protocol type   = ").hex(protocolType, 4).append(" (").append(Utility.getEtherType(protocolType)).append(')').newline();
+        line(out).append("Hardware length = ").decimal(getHardwareLength()).append(" bytes").newline();
+        line(out).append("Protocol length = ").decimal(getProtocolLength()).append(" bytes").newline();
+        line(out).append("Operation       = ").decimal(operation).append(" (").append((operation == REQUEST) ? "request"
+                : (operation == REPLY) ? "reply" : "unknown").append(')').newline();
+        if(isIPv4OverEthernet()) {
+            line(out).append("Sender MAC      = ").macAddress(getSenderMac()).newline();
+            line(out).append("Sender address  = ").ipAddress(getSenderAddress()).newline();
+            line(out).append("Target MAC      = ").macAddress(getTargetMac()).newline();
+            line(out).append("Target address  = ").ipAddress(getTargetAddress()).newline();
+        }
+        endHeader(out);
+    }
+}
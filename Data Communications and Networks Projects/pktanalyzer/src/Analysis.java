@@ -0,0 +1,87 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * This is an abstract class for the different things pktanalyzer can do with the frames of a capture, such as printing
+ * them or summarizing their flows. The capture is fed to an analysis one frame at a time, and the analysis writes any
+ * output to a renderer that is flushed to stdout as it fills up.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public abstract class Analysis {
+
+    /**
+     * Called before the first frame of the capture, for example to print a header row. Does nothing by default.
+     *
+     * @param out The renderer to write output to.
+     */
+    public void start(TextRenderer out) {
+    }
+
+    /**
+     * Handles one frame of the capture.
+     *
+     * @param frame The frame. Only valid until this method returns.
+     * @param packet A packet the analysis may decode the frame with. It is reused for every frame.
+     * @param out The renderer to write output to.
+     */
+    public abstract void accept(Frame frame, Packet packet, TextRenderer out);
+
+    /**
+     * Called after the last frame of the capture. Does nothing by default.
+     *
+     * @param out The renderer to write output to.
+     */
+    public void finish(TextRenderer out) {
+    }
+
+    /**
+     * Checks whether fork() would create a worker, without creating one.
+     *
+     * @return True if this analysis can be split across worker threads; false by default.
+     */
+    public boolean canFork() {
+        return false;
+    }
+
+    /**
+     * Creates an analysis for a worker thread to run over one chunk of the capture. The worker's output is written
+     * in chunk order, and then the worker is merged back into this analysis with merge().
+     *
+     * @return A new analysis for a worker, or null if this analysis has to see every frame itself (the default). Null
+     *         exactly when canFork() is false.
+     */
+    public Analysis fork() {
+        return null;
+    }
+
+    /**
+     * Folds the state of a worker created by fork() back into this analysis. Workers are merged in capture order.
+     * Does nothing by default.
+     *
+     * @param worker The worker to merge.
+     */
+    public void merge(Analysis worker) {
+    }
+
+    /**
+     * Writes the state this analysis has built up from the frames so far to a checkpoint, so that a later run can
+     * restore() it and carry on with the frames after them. Writes nothing by default, which is right for analyses
+     * that keep no state from one frame to the next.
+     *
+     * @param out The stream to write the state to.
+     * @throws IOException If the state can't be written.
+     */
+    public void save(DataOutputStream out) throws IOException {
+    }
+
+    /**
+     * Reads back the state written by save(). Called on a new analysis, before start(). Reads nothing by default.
+     *
+     * @param in The stream to read the state from.
+     * @throws IOException If the state can't be read.
+     */
+    public void restore(DataInputStream in) throws IOException {
+    }
+}
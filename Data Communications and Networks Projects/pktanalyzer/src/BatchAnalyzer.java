@@ -0,0 +1,491 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The BatchAnalyzer class runs an analysis over many files in one process: files, the captures in directories, and
+ * glob patterns such as "captures/**.pcap.gz". Several files are analyzed at once, one per thread, each with an
+ * analysis of its own. A file's output is buffered and written out whole, with nothing of another file in between,
+ * once the file is done; files are written in the order they finish. A summary of the whole batch comes last.
+ *
+ * What is in flight is capped by a memory budget shared by every file. A file is only started once its size fits in
+ * what is left of the budget, and holds that much until it is done; a file bigger than the whole budget waits for it
+ * all, and runs alone. Files are started in order, so a big file isn't held up for ever by smaller ones after it.
+ * Buffered output comes out of the same budget: a file whose output outgrows what it can get of it takes the output
+ * for itself and writes straight to it until it is done, so its output is still in one piece, while the others buffer
+ * theirs or wait.
+ *
+ * A file that fails, for whatever reason, is counted and listed in the summary, and what it had buffered is dropped.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class BatchAnalyzer extends Header {
+
+    private static final int OUTPUT_BUFFER = 1 << 16;       // Bytes of output written at a time once a file streams.
+    private static final int RESERVE_STEP = 64;             // Kilobytes of the budget taken by a file at a time.
+
+    /**
+     * Creates the analysis for one file.
+     */
+    public interface AnalysisFactory {
+
+        /**
+         * Creates a new analysis.
+         *
+         * @return An analysis no other file uses.
+         * @throws IOException If the analysis can't be created.
+         */
+        Analysis create() throws IOException;
+    }
+
+    private final int threads;
+    private final Semaphore budget;                         // Kilobytes that may still be taken by files and output.
+    private final int budgetKilobytes;
+    private final boolean banners;                          // Whether each file's output starts with its name.
+    private final Filter filter;                            // Raw frames have to pass it, if there is one.
+    private final ReentrantLock output = new ReentrantLock();
+
+    private final AtomicInteger analyzed = new AtomicInteger();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+    private long startTime;
+
+    /**
+     * Constructor for BatchAnalyzer.
+     *
+     * @param threads The number of files to analyze at once.
+     * @param budget Megabytes that the files being analyzed, by their size, and their buffered output may take up at
+     *        once, all together.
+     * @param banners Whether to start each file's output with its name, and print the summary with the output.
+     * @param filter The filter files holding a raw frame have to pass to be printed, or null.
+     */
+    public BatchAnalyzer(int threads, int budget, boolean banners, Filter filter) {
+        super("BATCH");
+        this.threads = threads;
+        this.budgetKilobytes = budget << 10;
+        this.budget = new Semaphore(budgetKilobytes, true);     // Fair, so files start in order
+        this.banners = banners;
+        this.filter = filter;
+    }
+
+    /**
+     * Finds the files a batch is made of.
+     *
+     * @param directory The directory names are relative to.
+     * @param names Files, directories and glob patterns. A directory stands for every capture under it, and a glob
+     *        pattern for every file it matches; a file given by name is analyzed even if it is a raw frame.
+     * @return The files, in the order given, with each directory's and pattern's files sorted.
+     * @throws IOException If a file or directory doesn't exist or can't be listed.
+     */
+    public static List<Path> expand(Path directory, List<String> names) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for(String name : names) {
+            if(isPattern(name)) {
+                List<Path> matches = glob(directory, name);
+                if(matches.isEmpty()) {
+                    throw new NoSuchFileException(name);
+                }
+                files.addAll(matches);
+                continue;
+            }
+
+            Path path = directory.resolve(name);
+            if(!Files.isDirectory(path)) {
+                if(!Files.exists(path)) {
+                    throw new NoSuchFileException(name);
+                }
+                files.add(path);
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(path)) {
+                for(Path file : walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                    // Skip what isn't a capture, such as indexes and checkpoints
+                    if(CaptureReader.isCapture(file)) {
+                        files.add(file);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Checks whether a name is a glob pattern rather than a file.
+     *
+     * @param name The name.
+     * @return True if the name holds any of *, ?, [ or {.
+     */
+    public static boolean isPattern(String name) {
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the regular files a glob pattern matches. Only the directories under the part of the pattern before its
+     * first wildcard are searched, and no deeper than the pattern reaches unless it holds "**".
+     *
+     * @param directory The directory the pattern is relative to.
+     * @param pattern The glob pattern, in the syntax of FileSystem.getPathMatcher().
+     * @return The matching files, sorted.
+     * @throws IOException If a directory can't be listed.
+     */
+    private static List<Path> glob(Path directory, String pattern) throws IOException {
+        Path absolute = directory.resolve(pattern);
+        Path base = absolute.getRoot();
+        int depth = 0;
+        boolean wild = false;
+        for(Path part : absolute) {
+            wild |= isPattern(part.toString());
+            if(wild) {
+                depth++;
+            } else {
+                base = base.resolve(part);
+            }
+        }
+        if(!Files.isDirectory(base)) {
+            return Collections.emptyList();
+        }
+
+        PathMatcher matcher = directory.getFileSystem().getPathMatcher("glob:" + absolute);
+        int maxDepth = pattern.contains("**") ? Integer.MAX_VALUE : depth;
+        try (Stream<Path> walk = Files.walk(base, maxDepth)) {
+            return walk.filter(file -> matcher.matches(file) && Files.isRegularFile(file)).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Runs an analysis over every file, and then prints the summary.
+     *
+     * @param files The files to analyze.
+     * @param directory The directory to name the files relative to in the output.
+     * @param factory Creates the analysis of each file.
+     * @param out The stream to write the analyses' output to.
+     * @throws IOException If the output can't be written.
+     */
+    public void analyze(List<Path> files, Path directory, AnalysisFactory factory, OutputStream out)
+            throws IOException {
+        startTime = System.nanoTime();
+        AtomicInteger workers = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "pktanalyzer-batch-" + workers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            for(Path file : files) {
+                String name = directory.relativize(file).toString();
+                int cost = cost(file);
+                pool.execute(() -> {
+                    try {
+                        budget.acquire(cost);
+                    } catch (InterruptedException e) {
+                        return;             // The batch is being stopped
+                    }
+                    try {
+                        analyzeFile(file, name, factory, out);
+                    } catch (IOException e) {
+                        errors.add(e);      // Only the output fails this way
+                    } finally {
+                        budget.release(cost);
+                    }
+                });
+            }
+            pool.shutdown();
+            while(!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Wait for every file to be done
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+        if(!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+
+        TextRenderer text = new TextRenderer();
+        render(text);
+        if(banners) {
+            text.writeTo(out);
+            out.flush();
+        } else {
+            System.err.print(text);     // Records would be broken by it
+        }
+    }
+
+    /**
+     * Works out how much of the budget a file takes while it is analyzed: its size, up to the whole budget.
+     *
+     * @param file The file.
+     * @return The file's cost, in kilobytes.
+     */
+    private int cost(Path file) {
+        try {
+            return (int) Math.min(budgetKilobytes, (Files.size(file) >> 10) + 1);
+        } catch (IOException e) {
+            return 1;       // Its analysis will fail and say why
+        }
+    }
+
+    /**
+     * Runs an analysis over one file and writes its output. If the analysis fails, the output it buffered is dropped.
+     *
+     * @param file The file.
+     * @param name The name to print for the file.
+     * @param factory Creates the file's analysis.
+     * @param out The stream to write the output to.
+     * @throws IOException If the output can't be written.
+     */
+    private void analyzeFile(Path file, String name, AnalysisFactory factory, OutputStream out) throws IOException {
+        Output text = new Output(name, out);
+        boolean complete = false;
+        try {
+            if(CaptureReader.isCapture(file)) {
+                analyzeCapture(file, factory.create(), text);
+            } else {
+                analyzePacket(file, text);
+            }
+            analyzed.incrementAndGet();
+            complete = true;
+        } catch (NoSuchFileException e) {
+            failures.add(name + ": no such file");
+        } catch (CaptureReader.CaptureFormatException e) {
+            failures.add(name + ": malformed capture: " + e.getMessage());
+        } catch (IOException e) {
+            if(text.failed != null) {
+                throw text.failed;
+            }
+            failures.add(name + ": " + e.getMessage());
+        } catch (IndexOutOfBoundsException e) {
+            failures.add(name + ": malformed packet: " + e.getMessage());
+        } catch (Throwable e) {
+            // Errors too, such as running out of memory: the file's analysis is garbage now, and the others go on
+            failures.add(name + ": " + e);
+        } finally {
+            text.close(complete);
+        }
+    }
+
+    /**
+     * Runs an analysis over every frame of a capture.
+     *
+     * @param file The capture.
+     * @param analysis The analysis to run.
+     * @param text Where the output goes.
+     * @throws IOException If the capture can't be read or the output can't be written.
+     */
+    private void analyzeCapture(Path file, Analysis analysis, Output text) throws IOException {
+        Frame frame = new Frame();
+        Packet packet = new Packet();     // Reused for every frame
+        long frameCount = 0;
+        long byteCount = 0;
+
+        try (CaptureReader reader = new CaptureReader(file)) {
+            analysis.start(text);
+            text.check();
+            while(reader.next(frame)) {
+                frameCount++;
+                byteCount += frame.getCapturedLength();
+                analysis.accept(frame, packet, text);
+                text.check();
+            }
+            analysis.finish(text);
+        } finally {
+            frames.addAndGet(frameCount);
+            bytes.addAndGet(byteCount);
+        }
+    }
+
+    /**
+     * Prints a file holding a single raw ethernet frame, if it passes the filter.
+     *
+     * @param file The file.
+     * @param text Where the output goes.
+     * @throws IOException If the file can't be read.
+     */
+    private void analyzePacket(Path file, Output text) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        frames.incrementAndGet();
+        bytes.addAndGet(data.length);
+
+        if(filter == null || filter.matches(ByteBuffer.wrap(data), 0, data.length)) {
+            new Packet(data).render(text);
+        }
+    }
+
+    /**
+     * Getter method for the number of files that failed.
+     *
+     * @return The number of files that couldn't be analyzed.
+     */
+    public int getFailed() {
+        return failures.size();
+    }
+
+    /**
+     * Writes the summary of the batch to a renderer.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        long elapsed = Math.max(1, System.nanoTime() - startTime);
+        long frameCount = frames.get();
+        long byteCount = bytes.get();
+
+        out.newline();
+        beginHeader(out, "Batch Summary");
+        line(out).append("Files            = ").decimal(analyzed.get() + failures.size()).newline();
+        line(out).append("Failed           = ").decimal(failures.size()).newline();
+        line(out).append("Frames           = ").decimal(frameCount).newline();
+        line(out).append("Bytes            = ").decimal(byteCount).newline();
+        line(out).append("Elapsed          = ").decimal(elapsed / 1_000_000).append(" ms").newline();
+        line(out).append("Throughput       = ").decimal(frameCount * 1_000_000_000L / elapsed).append(" frames/s, ")
+                .decimal(Math.round(byteCount * 1e9 / elapsed / (1 << 20))).append(" MB/s").newline();
+        synchronized (failures) {
+            Collections.sort(failures);
+            for(String failure : failures) {
+                line(out).append("  ").append(failure).newline();
+            }
+        }
+        endHeader(out);
+    }
+
+    /**
+     * The output of one file: buffered while its share of the budget lasts, and written straight out once it holds
+     * the output lock.
+     */
+    private final class Output extends TextRenderer {
+
+        private final String name;
+        private final OutputStream out;
+        private int reserved;               // Kilobytes of the budget taken.
+        private boolean streaming;          // Whether the output lock is held.
+        private boolean started;            // Whether anything has been written yet.
+        private IOException failed;         // Why writing the output failed, if it did.
+
+        /**
+         * Constructor for Output.
+         *
+         * @param name The name of the file the output is of.
+         * @param out The stream to write it to.
+         */
+        private Output(String name, OutputStream out) {
+            super(2 * OUTPUT_BUFFER);
+            this.name = name;
+            this.out = out;
+        }
+
+        /**
+         * Makes sure what has been buffered is within the budget taken, by taking more of it, or else by taking the
+         * output and writing it out. Called after each frame.
+         *
+         * @throws IOException If the output can't be written.
+         */
+        private void check() throws IOException {
+            if(streaming) {
+                if(size() >= OUTPUT_BUFFER) {
+                    write();
+                }
+                return;
+            }
+            if(size() <= reserved << 10) {
+                return;
+            }
+
+            int needed = Math.max(RESERVE_STEP, (size() >> 10) + 1 - reserved);
+            if(reserved + needed <= budgetKilobytes && budget.tryAcquire(needed)) {
+                reserved += needed;
+                return;
+            }
+
+            // The budget is spent; hand it back and write the output as it comes instead
+            output.lock();
+            streaming = true;
+            budget.release(reserved);
+            reserved = 0;
+            write();
+        }
+
+        /**
+         * Writes out what has been buffered, starting with the file's name the first time.
+         *
+         * @throws IOException If the output can't be written.
+         */
+        private void write() throws IOException {
+            try {
+                if(banners && !started) {
+                    TextRenderer banner = new TextRenderer();
+                    banner.append("===== ").append(name).append(" =====").newline();
+                    banner.writeTo(out);
+                }
+                started = true;
+                writeTo(out);
+            } catch (IOException e) {
+                failed = e;
+                throw e;
+            }
+        }
+
+        /**
+         * Writes out the rest of the output, and hands back the output lock and the budget taken. The output of a file
+         * that failed is dropped instead; if some of it was already written, a line in text format says it is cut short.
+         *
+         * @param complete Whether the file's analysis finished.
+         * @throws IOException If the output can't be written.
+         */
+        private void close(boolean complete) throws IOException {
+            try {
+                if(!complete) {
+                    reset();
+                    if(!started) {
+                        return;
+                    }
+                    if(banners) {
+                        append("===== ").append(name).append(" failed; its output is incomplete =====").newline();
+                    }
+                }
+                if(!streaming) {
+                    output.lock();
+                    streaming = true;
+                }
+                write();
+                out.flush();
+            } catch (IOException e) {
+                failed = e;
+                throw e;
+            } finally {
+                if(streaming) {
+                    output.unlock();
+                }
+                budget.release(reserved);
+                reserved = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The CaptureFollower class runs an analysis over a capture that is still being written, like tail -f: once it has
+ * read every complete record, it waits on a WatchService for the file to grow and reads the records appended since. A
+ * record that is only partly written is left where it is until the rest of it arrives, so nothing is read twice.
+ *
+ * Every few seconds while frames are arriving, and when it stops, the follower writes a checkpoint: where the next
+ * record starts, and the state the analysis has built up. A later run with the same options resumes from it instead of
+ * reading the capture from the start. The checkpoint is written to a temporary file that is then moved over the old
+ * one, so a crash leaves either the old checkpoint or the new one. Output is flushed before each checkpoint, so after a
+ * crash some output may be printed again, but none is lost.
+ *
+ * Following stops when the program is interrupted, or when the capture is replaced or cut short. The analysis is then
+ * finished as if the capture had ended there.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class CaptureFollower {
+
+    private static final int OUTPUT_BUFFER = 1 << 16;               // Bytes of output buffered before writing it.
+    private static final long CHECKPOINT_INTERVAL = 5_000_000_000L; // Nanoseconds between checkpoints.
+    private static final long POLL_INTERVAL = 1000;                 // Milliseconds to wait for a change at a time.
+    private static final int PREFIX_LENGTH = 4096;                  // Bytes of the capture checked against a checkpoint.
+
+    private static final int MAGIC = 0x504b4350;                    // "PKCP".
+    private static final int VERSION = 1;
+
+    private final Path capture;
+    private final Path checkpoint;
+    private final String arguments;
+
+    private volatile boolean stopping;
+
+    /**
+     * Constructor for CaptureFollower.
+     *
+     * @param capture The capture to follow.
+     * @param checkpoint The file to keep the checkpoint in.
+     * @param arguments The command line, which a checkpoint has to have been made with to be resumed from.
+     */
+    public CaptureFollower(Path capture, Path checkpoint, String arguments) {
+        this.capture = capture;
+        this.checkpoint = checkpoint;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Runs an analysis over the capture as it grows, until the program is interrupted or the capture is replaced.
+     *
+     * @param analysis The analysis to run. Its state is restored from the checkpoint, if there is one to resume.
+     * @param out The stream to write the analysis' output to.
+     * @throws IOException If the capture can't be read, the checkpoint can't be read or written, or the output can't
+     *         be written.
+     */
+    public void follow(Analysis analysis, OutputStream out) throws IOException {
+        TextRenderer text = new TextRenderer(2 * OUTPUT_BUFFER);
+        Frame frame = new Frame();
+        Packet packet = new Packet();     // Reused for every frame
+
+        // When interrupted, let the frames read so far be saved and the analysis finish before exiting
+        Thread follower = Thread.currentThread();
+        Thread hook = new Thread(() -> {
+            stop();
+            try {
+                follower.join();
+            } catch (InterruptedException e) {
+                // Exit without waiting
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        Object fileKey = Files.readAttributes(capture, BasicFileAttributes.class).fileKey();
+        try (CaptureReader reader = new CaptureReader(capture);
+             WatchService watcher = capture.getFileSystem().newWatchService()) {
+            if(reader.isCompressed()) {
+                throw new CaptureReader.CaptureFormatException("A compressed capture can't be followed.");
+            }
+            Path directory = capture.toAbsolutePath().getParent();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            resume(reader, analysis);
+            analysis.start(text);
+
+            long lastCheckpoint = System.nanoTime();
+            boolean unsaved = false;
+            do {
+                // Read every complete record; one that is still being written is left for the next time round
+                while(!stopping && reader.next(frame)) {
+                    analysis.accept(frame, packet, text);
+                    unsaved = true;
+
+                    if(text.size() >= OUTPUT_BUFFER) {
+                        text.writeTo(out);
+                    }
+                }
+                text.writeTo(out);
+                out.flush();
+
+                if(unsaved && System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                    save(reader, analysis);
+                    lastCheckpoint = System.nanoTime();
+                    unsaved = false;
+                }
+            } while(waitForRecords(reader, watcher, fileKey));
+
+            if(unsaved) {
+                save(reader, analysis);
+            }
+            analysis.finish(text);
+        } finally {
+            text.writeTo(out);
+            out.flush();
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // Already shutting down; the hook is waiting for this thread
+            }
+        }
+    }
+
+    /**
+     * Asks follow() to stop, as an interrupt does: the frames read so far are saved to the checkpoint and the analysis
+     * is finished. Can be called from any thread.
+     */
+    public void stop() {
+        stopping = true;
+    }
+
+    /**
+     * Waits until the capture grows.
+     *
+     * @param reader The reader of the capture.
+     * @param watcher Watches the capture's directory.
+     * @param fileKey The key of the capture file that was opened, or null if the file system has none.
+     * @return True if the capture has grown, false if following should stop.
+     * @throws IOException If the capture's size can't be read.
+     */
+    private boolean waitForRecords(CaptureReader reader, WatchService watcher, Object fileKey) throws IOException {
+        while(!stopping) {
+            if(reader.refresh()) {
+                return true;
+            }
+
+            // A capture that was rotated away or cut short won't grow any more
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(capture, BasicFileAttributes.class);
+                if(!Objects.equals(attributes.fileKey(), fileKey) || attributes.size() < reader.getPosition()) {
+                    System.err.println("Stopped following \"" + capture + "\": it was replaced or cut short.");
+                    return false;
+                }
+            } catch (NoSuchFileException e) {
+                System.err.println("Stopped following \"" + capture + "\": it was removed.");
+                return false;
+            }
+
+            // Events may be for other files of the directory, and some file systems only poll, so check either way
+            try {
+                WatchKey key = watcher.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if(key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Restores the reader's position and the analysis' state from the checkpoint, if there is one that was made for
+     * this capture with the same options. A checkpoint that wasn't is ignored, with a message, and left to be
+     * overwritten.
+     *
+     * @param reader The reader of the capture, before it has read anything.
+     * @param analysis The analysis, before it has started.
+     * @throws IOException If the checkpoint or capture can't be read, or the checkpoint is damaged.
+     */
+    private void resume(CaptureReader reader, Analysis analysis) throws IOException {
+        if(!Files.exists(checkpoint)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new CheckpointException("Not a checkpoint, or of another version.");
+            }
+            String savedArguments = in.readUTF();
+            int prefixLength = in.readInt();
+            long prefixChecksum = in.readLong();
+            long sectionStart = in.readLong();
+            long position = in.readLong();
+            long frameCount = in.readLong();
+
+            String mismatch = !savedArguments.equals(arguments) ? "it was made with other options"
+                    : (Files.size(capture) < position || prefixChecksum(prefixLength) != prefixChecksum)
+                    ? "it is of another capture" : null;
+            if(mismatch != null) {
+                System.err.println("Ignoring checkpoint \"" + checkpoint + "\": " + mismatch + ".");
+                return;
+            }
+
+            try {
+                analysis.restore(in);
+            } catch (EOFException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new CheckpointException(e.getMessage());
+            }
+            reader.seek(sectionStart, position, frameCount + 1);
+            System.err.println("Resuming \"" + capture + "\" after frame " + frameCount + " from checkpoint \""
+                    + checkpoint + "\".");
+        } catch (EOFException e) {
+            throw new CheckpointException("Checkpoint ends too soon.");
+        }
+    }
+
+    /**
+     * Writes the reader's position and the analysis' state to the checkpoint, replacing the old one.
+     *
+     * @param reader The reader of the capture.
+     * @param analysis The analysis.
+     * @throws IOException If the checkpoint can't be written.
+     */
+    private void save(CaptureReader reader, Analysis analysis) throws IOException {
+        int prefixLength = (int) Math.min(PREFIX_LENGTH, reader.getPosition());
+        Path temporary = Paths.get(checkpoint + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(arguments);
+            out.writeInt(prefixLength);
+            out.writeLong(prefixChecksum(prefixLength));
+            out.writeLong(reader.getSectionStart());
+            out.writeLong(reader.getPosition());
+            out.writeLong(reader.getFrameCount());
+            analysis.save(out);
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Computes a checksum of the start of the capture, to recognize it by.
+     *
+     * @param length The number of bytes to check.
+     * @return The CRC-32 of the bytes, or -1 if the capture is shorter.
+     * @throws IOException If the capture can't be read.
+     */
+    private long prefixChecksum(int length) throws IOException {
+        try (FileChannel in = FileChannel.open(capture, StandardOpenOption.READ)) {
+            ByteBuffer prefix = ByteBuffer.allocate(length);
+            while(prefix.hasRemaining() && in.read(prefix) >= 0) {
+                // Keep reading until the prefix is in
+            }
+            if(prefix.hasRemaining()) {
+                return -1;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(prefix.flip());
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Thrown when a checkpoint is damaged.
+     */
+    public static class CheckpointException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor for CheckpointException.
+         *
+         * @param msg What was wrong with the checkpoint.
+         */
+        public CheckpointException(String msg) {
+            super(msg);
+        }
+    }
+}
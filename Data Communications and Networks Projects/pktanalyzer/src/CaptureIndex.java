@@ -0,0 +1,424 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The CaptureIndex class reads the sidecar index IndexBuilder writes for a capture, so that a few frames can be found
+ * without reading the frames before them. The index is memory-mapped and read where it lies: nothing is loaded up
+ * front, and a lookup only touches the pages it needs.
+ *
+ * The index is laid out like this, little endian:
+ *
+ *     header     "PKTI", version (u16), 0 (u16), the capture's size and modification time (u64 each), the number of
+ *                frames (u64), frames per block (u32), the number of sections, addresses, and flows (u32 each), and
+ *                the offset of each table below (u64 each)
+ *     sections   per pcapng section: the number of its first frame and the offset of its header block (u64 each)
+ *     blocks     per block of frames: the first frame's position and timestamp, and where the rest of the block's
+ *                deltas start (u64 each)
+ *     deltas     per frame but the first of its block: the difference from the previous frame's position, and the
+ *                zigzag-encoded difference from its timestamp (varints)
+ *     addresses  per IPv4 address, in increasing order: the address and its number of frames (u32 each), and where
+ *                its posting list starts (u64)
+ *     flows      per flow, in increasing order: its addresses (u64), ports (u32), number of frames (u32), and where
+ *                its posting list starts (u64)
+ *     postings   per posting list: the gaps between its frame numbers (varints)
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class CaptureIndex implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer index;
+
+    private final long frames;
+    private final int framesPerBlock;
+    private final int sectionCount;
+    private final int addressCount;
+    private final int flowCount;
+    private final int sections;                 // Offsets of each table.
+    private final int blocks;
+    private final int deltas;
+    private final int addresses;
+    private final int flows;
+    private final int postings;
+
+    private long cachedNumber;                  // The frame decodeBlock() last stopped at, to go on from there.
+    private long cachedPosition;
+    private long cachedTimestamp;
+    private int cachedDelta;
+
+    /**
+     * The Postings class walks a set of frame numbers in increasing order, such as the frames an address appears in.
+     */
+    public abstract static class Postings {
+
+        /**
+         * Moves to the first frame number at or after a target.
+         *
+         * @param target The smallest frame number wanted.
+         * @return The frame number, or -1 if there is none.
+         */
+        public abstract long advance(long target);
+
+        /**
+         * Moves to the next frame number.
+         *
+         * @return The next frame number, or -1 if there are no more.
+         */
+        public abstract long next();
+
+        /**
+         * Creates the intersection of two sets of frame numbers.
+         *
+         * @param a The first set.
+         * @param b The second set.
+         * @return The frame numbers that are in both.
+         */
+        public static Postings and(Postings a, Postings b) {
+            return new Postings() {
+                private long last;
+
+                @Override
+                public long advance(long target) {
+                    long x = a.advance(target);
+                    while(x >= 0) {
+                        long y = b.advance(x);
+                        if(y == x || y < 0) {
+                            last = y;
+                            return y;
+                        }
+                        x = a.advance(y);
+                    }
+                    last = -1;
+                    return -1;
+                }
+
+                @Override
+                public long next() {
+                    return (last < 0) ? -1 : advance(last + 1);
+                }
+            };
+        }
+
+        /**
+         * Creates the union of two sets of frame numbers.
+         *
+         * @param a The first set.
+         * @param b The second set.
+         * @return The frame numbers that are in either.
+         */
+        public static Postings or(Postings a, Postings b) {
+            return new Postings() {
+                private long last;
+
+                @Override
+                public long advance(long target) {
+                    long x = a.advance(target);
+                    long y = b.advance(target);
+                    last = (x < 0) ? y : (y < 0) ? x : Math.min(x, y);
+                    return last;
+                }
+
+                @Override
+                public long next() {
+                    return (last < 0) ? -1 : advance(last + 1);
+                }
+            };
+        }
+
+        /**
+         * Creates a range of frame numbers.
+         *
+         * @param first The first frame number.
+         * @param last The last frame number.
+         * @return The frame numbers from first to last.
+         */
+        public static Postings range(long first, long last) {
+            return new Postings() {
+                private long current = first - 1;
+
+                @Override
+                public long advance(long target) {
+                    current = Math.max(current, target);
+                    return (current > last) ? -1 : current;
+                }
+
+                @Override
+                public long next() {
+                    return advance(current + 1);
+                }
+            };
+        }
+    }
+
+    /**
+     * The ListPostings class walks a posting list stored in the index.
+     */
+    private class ListPostings extends Postings {
+
+        private int position;
+        private long remaining;
+        private long current;
+
+        /**
+         * Constructor for ListPostings.
+         *
+         * @param position Where the list's gaps start in the index.
+         * @param count The number of frames in the list.
+         */
+        ListPostings(int position, long count) {
+            this.position = position;
+            this.remaining = count;
+        }
+
+        @Override
+        public long advance(long target) {
+            while(current < target) {
+                if(remaining == 0) {
+                    return -1;
+                }
+                long gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = index.get(position++);
+                    gap |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while(b < 0);
+                current += gap;
+                remaining--;
+            }
+            return current;
+        }
+
+        @Override
+        public long next() {
+            return advance(current + 1);
+        }
+    }
+
+    /**
+     * Constructor for CaptureIndex. Maps the index and checks that it belongs to the capture as it is now.
+     *
+     * @param path The index file.
+     * @param capture The capture the index is for.
+     * @throws IOException If the index can't be read.
+     * @throws CaptureReader.CaptureFormatException If the file isn't an index, or the capture changed since.
+     */
+    public CaptureIndex(Path path, Path capture) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if(size < IndexBuilder.HEADER_LENGTH) {
+                throw new CaptureReader.CaptureFormatException("Index is too short.");
+            }
+            if(size > Integer.MAX_VALUE) {
+                throw new CaptureReader.CaptureFormatException("Index is too big to map.");
+            }
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            index.order(ByteOrder.LITTLE_ENDIAN);
+
+            if(index.getInt(0) != IndexBuilder.MAGIC || index.getShort(4) != IndexBuilder.VERSION) {
+                throw new CaptureReader.CaptureFormatException("Not an index, or a different version.");
+            }
+            if(index.getLong(8) != Files.size(capture)
+                    || index.getLong(16) != Files.getLastModifiedTime(capture).toMillis()) {
+                throw new CaptureReader.CaptureFormatException("Index is out of date.");
+            }
+            frames = index.getLong(24);
+            framesPerBlock = index.getInt(32);
+            sectionCount = index.getInt(36);
+            addressCount = index.getInt(40);
+            flowCount = index.getInt(44);
+            sections = (int) index.getLong(48);
+            blocks = (int) index.getLong(56);
+            deltas = (int) index.getLong(64);
+            addresses = (int) index.getLong(72);
+            flows = (int) index.getLong(80);
+            postings = (int) index.getLong(88);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Getter method for the number of frames.
+     *
+     * @return The number of frames in the capture.
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Finds where a frame is in the capture.
+     *
+     * @param number The frame number, from 1 to getFrameCount().
+     * @return The file offset of the frame's record.
+     */
+    public long getPosition(long number) {
+        return decodeBlock(number, false);
+    }
+
+    /**
+     * Finds when a frame arrived.
+     *
+     * @param number The frame number, from 1 to getFrameCount().
+     * @return The frame's timestamp, in nanoseconds since the epoch.
+     */
+    public long getTimestamp(long number) {
+        return decodeBlock(number, true);
+    }
+
+    /**
+     * Reads a frame's position or timestamp: the first frame of its block is stored as is, and the rest are found by
+     * adding up the deltas from there. Frames are usually asked for in increasing order, so when the previous frame
+     * is earlier in the same block, the adding up goes on from it instead.
+     *
+     * @param number The frame number.
+     * @param timestamp True for the timestamp, false for the position.
+     * @return The position or timestamp.
+     */
+    private long decodeBlock(long number, boolean timestamp) {
+        if(number < 1 || number > frames) {
+            throw new IndexOutOfBoundsException("No frame " + number + " in the capture.");
+        }
+        long block = (number - 1) / framesPerBlock;
+        long position;
+        long time;
+        int delta;
+        long steps;
+        if(cachedNumber != 0 && cachedNumber <= number && (cachedNumber - 1) / framesPerBlock == block) {
+            position = cachedPosition;
+            time = cachedTimestamp;
+            delta = cachedDelta;
+            steps = number - cachedNumber;
+        } else {
+            int entry = blocks + (int) block * IndexBuilder.BLOCK_LENGTH;
+            position = index.getLong(entry);
+            time = index.getLong(entry + 8);
+            delta = deltas + (int) index.getLong(entry + 16);
+            steps = (number - 1) % framesPerBlock;
+        }
+
+        for(; steps > 0; steps--) {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = index.get(delta++);
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while(b < 0);
+            position += value;
+
+            value = 0;
+            shift = 0;
+            do {
+                b = index.get(delta++);
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while(b < 0);
+            time += (value >>> 1) ^ -(value & 1);
+        }
+        cachedNumber = number;
+        cachedPosition = position;
+        cachedTimestamp = time;
+        cachedDelta = delta;
+        return timestamp ? time : position;
+    }
+
+    /**
+     * Finds the section a frame is in.
+     *
+     * @param number The frame number.
+     * @return The file offset of the section header block before the frame, or 0 for a pcap capture.
+     */
+    public long getSectionStart(long number) {
+        int low = 0;
+        int high = sectionCount - 1;
+        while(low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if(index.getLong(sections + middle * IndexBuilder.SECTION_LENGTH) <= number) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return (sectionCount == 0) ? 0 : index.getLong(sections + low * IndexBuilder.SECTION_LENGTH + 8);
+    }
+
+    /**
+     * Finds the frames an IPv4 address appears in, as source or destination.
+     *
+     * @param address The address.
+     * @return The frame numbers, which are empty if the address isn't in the capture.
+     */
+    public Postings getAddressFrames(int address) {
+        long key = address & 0xffffffffL;
+        int low = 0;
+        int high = addressCount - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = addresses + middle * IndexBuilder.ADDRESS_LENGTH;
+            long found = index.getInt(entry) & 0xffffffffL;
+            if(found < key) {
+                low = middle + 1;
+            } else if(found > key) {
+                high = middle - 1;
+            } else {
+                return new ListPostings(postings + (int) index.getLong(entry + 8), index.getInt(entry + 4) & 0xffffffffL);
+            }
+        }
+        return Postings.range(1, 0);
+    }
+
+    /**
+     * Finds the frames of a TCP or UDP flow, in either direction.
+     *
+     * @param source One endpoint's address.
+     * @param sourcePort One endpoint's port.
+     * @param destination The other endpoint's address.
+     * @param destinationPort The other endpoint's port.
+     * @return The frame numbers, which are empty if the flow isn't in the capture.
+     */
+    public Postings getFlowFrames(int source, int sourcePort, int destination, int destinationPort) {
+        long key = IndexBuilder.flowKey(source, sourcePort, destination, destinationPort);
+        long subKey = IndexBuilder.flowSubKey(source, sourcePort, destination, destinationPort);
+        int low = 0;
+        int high = flowCount - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = flows + middle * IndexBuilder.FLOW_LENGTH;
+            int compare = Long.compareUnsigned(index.getLong(entry), key);
+            if(compare == 0) {
+                compare = Long.compare(index.getInt(entry + 8) & 0xffffffffL, subKey);
+            }
+            if(compare < 0) {
+                low = middle + 1;
+            } else if(compare > 0) {
+                high = middle - 1;
+            } else {
+                return new ListPostings(postings + (int) index.getLong(entry + 16),
+                        index.getInt(entry + 12) & 0xffffffffL);
+            }
+        }
+        return Postings.range(1, 0);
+    }
+
+    /**
+     * Closes the index.
+     *
+     * @throws IOException If the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,600 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The CaptureReader class walks the records of a libpcap or pcapng capture file. The file is memory-mapped a window at
+ * a time, so captures much larger than the heap can be read, and every record is handed out as a slice of the mapped
+ * window instead of being copied.
+ *
+ * A gzip-compressed capture, recognized by its magic number rather than its name, is inflated by a Decompressor on a
+ * thread of its own, into a window on the heap that slides along with the records instead of being mapped. It can
+ * only be read in order, so it can be split but not seeked in.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class CaptureReader implements Closeable {
+
+    public static final int LINKTYPE_ETHERNET = 1;
+
+    private static final long WINDOW_SIZE = 64L << 20;         // Bytes mapped at a time.
+    private static final int INFLATED_WINDOW = 4 << 20;         // Bytes of a compressed capture inflated at a time.
+    private static final int MAX_RECORD = 64 << 20;             // Longer records or blocks are corrupt.
+
+    private static final int PCAP_MAGIC = 0xa1b2c3d4;           // Classic pcap, microsecond timestamps.
+    private static final int PCAP_NANO_MAGIC = 0xa1b23c4d;      // Classic pcap, nanosecond timestamps.
+    private static final int PCAP_HEADER_LENGTH = 24;           // Length of the pcap file header.
+    private static final int PCAP_SNAPLEN = 16;                 // Byte location where the pcap snapshot length starts.
+    private static final int PCAP_LINK_TYPE = 20;               // Byte location where the pcap link type starts.
+    private static final int MIN_SNAPLEN_LIMIT = 262144;        // Records this long pass whatever the snaplen says.
+    private static final int PCAP_RECORD_LENGTH = 16;           // Length of a pcap record header.
+
+    private static final int PCAPNG_SECTION_HEADER = 0x0a0d0d0a;    // Block type of a section header block.
+    private static final int PCAPNG_INTERFACE = 0x00000001;         // Block type of an interface description block.
+    private static final int PCAPNG_ENHANCED_PACKET = 0x00000006;   // Block type of an enhanced packet block.
+    private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1a2b3c4d;  // Byte-order magic of a section header block.
+    private static final int PCAPNG_BLOCK_HEADER_LENGTH = 8;        // Length of a block's type and length fields.
+    private static final int PCAPNG_MIN_BLOCK_LENGTH = 12;          // Length of a block with an empty body.
+    private static final int PCAPNG_EPB_HEADER_LENGTH = 28;         // Length of an EPB before its packet data.
+    private static final int OPTION_END = 0;                        // Option code that ends an option list.
+    private static final int OPTION_TSRESOL = 9;                    // Option code of if_tsresol.
+    private static final int OPTION_TSOFFSET = 14;                  // Option code of if_tsoffset.
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+
+    private final FileChannel channel;      // Null for a compressed capture.
+    private final Decompressor decompressor;    // Null unless reading a compressed capture from its start.
+    private long size;                      // Where reading stops: the end of the file, or of a split's range.
+    private final boolean pcapng;
+    private final boolean ownsChannel;      // False for splits, which share their parent's file.
+
+    private ByteBuffer window;              // Read in the capture's byte order.
+    private ByteBuffer frames;              // The same window, read in network byte order.
+    private long windowStart;
+    private long windowEnd;
+    private long keepFrom = -1;             // Compressed: where split() started, so the window holds on to its bytes.
+
+    private ByteOrder order;
+    private long unitsPerSecond;            // pcap: timestamp resolution.
+    private int linkType;                   // pcap: link type of every record.
+    private int maxCapturedLength;          // pcap: longest record the snapshot length allows.
+
+    private int interfaceCount;             // pcapng: interfaces seen in the current section.
+    private int[] interfaceLinkTypes = new int[4];
+    private long[] interfaceUnits = new long[4];
+    private long[] interfaceOffsets = new long[4];
+
+    private long position;                  // File offset of the next record.
+    private long sectionStart;              // pcapng: file offset of the current section header block.
+    private long frameCount;
+
+    /**
+     * Constructor for CaptureReader. Opens the capture and reads its file header.
+     *
+     * @param path The capture file to read.
+     * @throws IOException If the file can't be read or isn't a pcap or pcapng capture.
+     */
+    public CaptureReader(Path path) throws IOException {
+        int magic = magic(path);
+        boolean compressed = Decompressor.isCompressed(path);
+        this.channel = compressed ? null : FileChannel.open(path, StandardOpenOption.READ);
+        this.decompressor = compressed ? new Decompressor(path) : null;
+        this.size = compressed ? Long.MAX_VALUE : channel.size();
+        this.ownsChannel = true;
+        this.pcapng = (magic == PCAPNG_SECTION_HEADER);
+
+        try {
+            if(pcapng) {
+                this.position = 0;      // Section headers are handled as ordinary blocks.
+            } else {
+                readPcapHeader();
+                this.position = PCAP_HEADER_LENGTH;
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Constructor for a CaptureReader that reads a range of the records of another reader's file.
+     *
+     * @param parent The reader to copy the file, format state and position from.
+     */
+    private CaptureReader(CaptureReader parent) {
+        this.channel = parent.channel;
+        this.decompressor = null;
+        this.size = parent.size;
+        this.pcapng = parent.pcapng;
+        this.ownsChannel = false;
+
+        this.order = parent.order;
+        this.unitsPerSecond = parent.unitsPerSecond;
+        this.linkType = parent.linkType;
+        this.maxCapturedLength = parent.maxCapturedLength;
+        this.interfaceCount = parent.interfaceCount;
+        this.interfaceLinkTypes = parent.interfaceLinkTypes.clone();
+        this.interfaceUnits = parent.interfaceUnits.clone();
+        this.interfaceOffsets = parent.interfaceOffsets.clone();
+
+        this.position = parent.position;
+        this.sectionStart = parent.sectionStart;
+        this.frameCount = parent.frameCount;
+    }
+
+    /**
+     * Skips over whole records until at least a number of bytes have been passed (or the capture ends), and returns a
+     * reader for the records that were skipped. This only reads record headers, so it is a cheap way of cutting a
+     * capture into record-aligned chunks that other threads can decode. Frames read from the returned reader are
+     * numbered as if this reader had read them. The returned reader of a compressed capture holds a copy of the
+     * skipped records.
+     *
+     * @param bytes The minimum number of bytes to skip.
+     * @param scratch A frame to read the skipped records into.
+     * @return A reader for the skipped records, or null if there were none. It shares this reader's file, so it must
+     *         be closed before this reader is.
+     * @throws IOException If the capture can't be read or is malformed.
+     */
+    public CaptureReader split(long bytes, Frame scratch) throws IOException {
+        CaptureReader chunk = new CaptureReader(this);
+        long start = position;
+
+        keepFrom = start;
+        while(position - start < bytes && next(scratch)) {
+            // Keep skipping
+        }
+        keepFrom = -1;
+        if(frameCount == chunk.frameCount) {
+            return null;
+        }
+
+        chunk.size = position;
+        if(channel == null) {
+            // This window moves on, so the chunk gets the inflated records for itself
+            byte[] records = Arrays.copyOfRange(window.array(), (int) (start - windowStart), (int) (position - windowStart));
+            chunk.window = ByteBuffer.wrap(records).order((chunk.order == null) ? ByteOrder.BIG_ENDIAN : chunk.order);
+            chunk.frames = chunk.window.duplicate().order(ByteOrder.BIG_ENDIAN);
+            chunk.windowStart = start;
+            chunk.windowEnd = position;
+        }
+        return chunk;
+    }
+
+    /**
+     * Moves to a record found earlier, such as through a CaptureIndex, so that the next call to next() reads it. In a
+     * pcapng capture the interfaces of the record's section are read first, unless they already have been.
+     *
+     * @param section The file offset of the section header block before the record. Ignored for pcap.
+     * @param record The file offset of the record.
+     * @param number The number the record's frame should get.
+     * @throws IOException If the capture can't be read or is malformed, or is compressed.
+     */
+    public void seek(long section, long record, long number) throws IOException {
+        if(channel == null) {
+            throw new CaptureFormatException("A compressed capture can only be read in order.");
+        }
+        if(pcapng && (interfaceCount == 0 || section != sectionStart)) {
+            position = section;
+            nextBlock(null);
+        }
+        position = record;
+        frameCount = number - 1;
+    }
+
+    /**
+     * Checks whether a file starts with a pcap or pcapng magic number, after inflating it if it is compressed.
+     *
+     * @param path The file to check.
+     * @return True if the file is a capture this class can read.
+     * @throws IOException If the file can't be read.
+     */
+    public static boolean isCapture(Path path) throws IOException {
+        try {
+            magic(path);
+            return true;
+        } catch (CaptureFormatException e) {
+            return Decompressor.isCompressed(path);     // Not a raw frame either, so report what is wrong with it
+        }
+    }
+
+    /**
+     * Reads the first four bytes of a file (inflated, if it is compressed) and checks them against the known capture
+     * magic numbers.
+     *
+     * @param path The file to check.
+     * @return The magic number, in big endian order.
+     * @throws IOException If the file can't be read or isn't a capture.
+     */
+    private static int magic(Path path) throws IOException {
+        boolean compressed = Decompressor.isCompressed(path);
+        InputStream file = Files.newInputStream(path);
+        try (InputStream in = compressed ? new GZIPInputStream(file) : file) {
+            byte[] head = in.readNBytes(4);
+            if(head.length < 4) {
+                throw new CaptureFormatException("File is too short to be a capture.");
+            }
+
+            int magic = ByteBuffer.wrap(head).getInt();
+            if(magic == PCAPNG_SECTION_HEADER || magic == PCAP_MAGIC || magic == PCAP_NANO_MAGIC
+                    || magic == Integer.reverseBytes(PCAP_MAGIC) || magic == Integer.reverseBytes(PCAP_NANO_MAGIC)) {
+                return magic;
+            }
+            throw new CaptureFormatException("Unrecognized capture magic number.");
+        } catch (ZipException | EOFException e) {
+            file.close();
+            throw new CaptureFormatException("Corrupt gzip data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the classic pcap file header: byte order, timestamp resolution, snapshot length and link type.
+     *
+     * @throws IOException If the header is missing.
+     */
+    private void readPcapHeader() throws IOException {
+        if(!map(0, PCAP_HEADER_LENGTH)) {
+            throw new CaptureFormatException("Truncated pcap file header.");
+        }
+
+        window.order(ByteOrder.BIG_ENDIAN);
+        int magic = window.getInt(0);
+        if(magic == PCAP_MAGIC || magic == PCAP_NANO_MAGIC) {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            order = ByteOrder.LITTLE_ENDIAN;
+            magic = Integer.reverseBytes(magic);
+        }
+        window.order(order);
+
+        this.unitsPerSecond = (magic == PCAP_NANO_MAGIC) ? NANOS_PER_SECOND : MICROS_PER_SECOND;
+        this.linkType = window.getInt(PCAP_LINK_TYPE) & 0xffff;     // Upper bits hold FCS information.
+
+        // Some writers put 0 or a too-small snaplen in the header, so like libpcap, allow at least 256 KiB
+        long snapLength = window.getInt(PCAP_SNAPLEN) & 0xffffffffL;
+        this.maxCapturedLength = (int) Math.min(MAX_RECORD - PCAP_RECORD_LENGTH,
+                Math.max(MIN_SNAPLEN_LIMIT, snapLength));
+    }
+
+    /**
+     * Reads the next frame of the capture.
+     *
+     * @param frame The frame to fill in. Its buffer is only valid until the next call.
+     * @return True if a frame was read, false at the end of the capture (or at a record that isn't fully written yet).
+     * @throws IOException If the capture can't be read or is malformed.
+     */
+    public boolean next(Frame frame) throws IOException {
+        return pcapng ? nextBlock(frame) : nextRecord(frame);
+    }
+
+    /**
+     * Reads the next classic pcap record.
+     *
+     * @param frame The frame to fill in.
+     * @return True if a frame was read.
+     * @throws IOException If the capture can't be read.
+     */
+    private boolean nextRecord(Frame frame) throws IOException {
+        if(!map(position, PCAP_RECORD_LENGTH)) {
+            return false;
+        }
+
+        int base = (int) (position - windowStart);
+        long seconds = window.getInt(base) & 0xffffffffL;
+        long fraction = window.getInt(base + 4) & 0xffffffffL;
+        int capturedLength = window.getInt(base + 8);
+        int originalLength = window.getInt(base + 12);
+        if(capturedLength < 0 || capturedLength > maxCapturedLength) {
+            throw new CaptureFormatException("Bad record length at offset " + position + ".");
+        }
+
+        if(!map(position, PCAP_RECORD_LENGTH + capturedLength)) {
+            return false;
+        }
+        base = (int) (position - windowStart);
+
+        int nanos = (int) ((unitsPerSecond == NANOS_PER_SECOND) ? fraction : fraction * 1000);
+        frame.set(++frameCount, seconds, nanos, capturedLength, originalLength, linkType, position, frames,
+                base + PCAP_RECORD_LENGTH);
+        position += PCAP_RECORD_LENGTH + capturedLength;
+        return true;
+    }
+
+    /**
+     * Reads pcapng blocks until the next enhanced packet block.
+     *
+     * @param frame The frame to fill in, or null to stop in front of the enhanced packet block instead.
+     * @return True if a frame was read (or found, if frame is null).
+     * @throws IOException If the capture can't be read or is malformed.
+     */
+    private boolean nextBlock(Frame frame) throws IOException {
+        while(map(position, PCAPNG_MIN_BLOCK_LENGTH)) {
+            int base = (int) (position - windowStart);
+            int type = window.getInt(base);
+
+            if(type == PCAPNG_SECTION_HEADER) {
+                // The byte-order magic follows the block length and decides how everything after it is read
+                window.order(ByteOrder.LITTLE_ENDIAN);
+                order = (window.getInt(base + PCAPNG_BLOCK_HEADER_LENGTH) == PCAPNG_BYTE_ORDER_MAGIC)
+                        ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+                window.order(order);
+                interfaceCount = 0;
+                sectionStart = position;
+            }
+
+            int blockLength = window.getInt(base + 4);
+            if(blockLength < PCAPNG_MIN_BLOCK_LENGTH || (blockLength & 3) != 0) {
+                throw new CaptureFormatException("Bad block length at offset " + position + ".");
+            }
+            if(!map(position, blockLength)) {
+                return false;
+            }
+            base = (int) (position - windowStart);
+            long blockStart = position;
+            position += blockLength;
+
+            if(type == PCAPNG_INTERFACE) {
+                readInterface(base, blockLength);
+            } else if(type == PCAPNG_ENHANCED_PACKET && frame == null) {
+                position = blockStart;
+                return true;
+            } else if(type == PCAPNG_ENHANCED_PACKET && blockLength >= PCAPNG_EPB_HEADER_LENGTH + 4) {
+                int id = window.getInt(base + 8);
+                if(id < 0 || id >= interfaceCount) {
+                    throw new CaptureFormatException("Unknown interface " + id + " at offset " + blockStart + ".");
+                }
+                long ticks = (window.getInt(base + 12) & 0xffffffffL) << 32 | (window.getInt(base + 16) & 0xffffffffL);
+                int capturedLength = window.getInt(base + 20);
+                int originalLength = window.getInt(base + 24);
+                if(capturedLength < 0 || capturedLength > blockLength - PCAPNG_EPB_HEADER_LENGTH - 4) {
+                    throw new CaptureFormatException("Bad captured length at offset " + blockStart + ".");
+                }
+
+                long units = interfaceUnits[id];
+                long seconds = Long.divideUnsigned(ticks, units);
+                long remainder = Long.remainderUnsigned(ticks, units);
+                int nanos = (int) ((units <= NANOS_PER_SECOND) ? remainder * NANOS_PER_SECOND / units
+                        : (long) (remainder * ((double) NANOS_PER_SECOND / units)));
+
+                frame.set(++frameCount, seconds + interfaceOffsets[id], nanos, capturedLength, originalLength,
+                        interfaceLinkTypes[id], blockStart, frames, base + PCAPNG_EPB_HEADER_LENGTH);
+                return true;
+            }
+            // Any other block (statistics, name resolution, ...) is skipped
+        }
+        return false;
+    }
+
+    /**
+     * Records the link type and timestamp resolution of a pcapng interface description block.
+     *
+     * @param base The index in the window where the block starts.
+     * @param blockLength The total length of the block.
+     */
+    private void readInterface(int base, int blockLength) {
+        if(interfaceCount == interfaceLinkTypes.length) {
+            interfaceLinkTypes = Arrays.copyOf(interfaceLinkTypes, interfaceCount * 2);
+            interfaceUnits = Arrays.copyOf(interfaceUnits, interfaceCount * 2);
+            interfaceOffsets = Arrays.copyOf(interfaceOffsets, interfaceCount * 2);
+        }
+
+        long units = MICROS_PER_SECOND;
+        long offset = 0;
+
+        // Options start after link type, reserved and snap length, and stop before the trailing length
+        int option = base + 16;
+        int end = base + blockLength - 4;
+        while(option + 4 <= end) {
+            int code = window.getShort(option) & 0xffff;
+            int length = window.getShort(option + 2) & 0xffff;
+            if(code == OPTION_END || option + 4 + length > end) {
+                break;
+            }
+            if(code == OPTION_TSRESOL && length >= 1) {
+                int resolution = window.get(option + 4);
+                int exponent = resolution & 0x7f;
+                units = ((resolution & 0x80) == 0) ? pow(10, exponent) : pow(2, exponent);
+            } else if(code == OPTION_TSOFFSET && length >= 8) {
+                offset = window.getLong(option + 4);
+            }
+            option += 4 + ((length + 3) & ~3);
+        }
+
+        interfaceLinkTypes[interfaceCount] = window.getShort(base + 8) & 0xffff;
+        interfaceUnits[interfaceCount] = units;
+        interfaceOffsets[interfaceCount] = offset;
+        interfaceCount++;
+    }
+
+    /**
+     * Computes base to the power of exponent, saturating instead of overflowing.
+     *
+     * @param base The base.
+     * @param exponent The exponent.
+     * @return base^exponent, or Long.MAX_VALUE if that doesn't fit.
+     */
+    private static long pow(long base, int exponent) {
+        long result = 1;
+        for(int i = 0; i < exponent; i++) {
+            if(result > Long.MAX_VALUE / base) {
+                return Long.MAX_VALUE;
+            }
+            result *= base;
+        }
+        return result;
+    }
+
+    /**
+     * Makes sure a range of the file is inside the mapped window, moving the window if it isn't.
+     *
+     * @param start The file offset where the range starts.
+     * @param length The length of the range.
+     * @return True if the range is mapped, false if it runs past the end of the file.
+     * @throws IOException If the file can't be mapped, or the range is longer than any record or block can be.
+     */
+    private boolean map(long start, int length) throws IOException {
+        if(length > MAX_RECORD) {
+            throw new CaptureFormatException("Bad record length at offset " + start + ".");
+        }
+        long end = start + length;
+        if(end > size) {
+            return false;
+        }
+        if(window != null && start >= windowStart && end <= windowEnd) {
+            return true;
+        }
+        if(channel == null) {
+            return inflate(start, length);
+        }
+
+        long mapLength = Math.min(Math.max(WINDOW_SIZE, length), size - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, mapLength);
+        window.order((order == null) ? ByteOrder.BIG_ENDIAN : order);
+        frames = window.duplicate().order(ByteOrder.BIG_ENDIAN);
+        windowStart = start;
+        windowEnd = start + mapLength;
+        return true;
+    }
+
+    /**
+     * Makes sure a range of a compressed capture is inside the window, by inflating more of it. The bytes before the
+     * range are dropped from the window, unless split() still needs them.
+     *
+     * @param start The offset in the inflated capture where the range starts.
+     * @param length The length of the range.
+     * @return True if the range is in the window, false if it runs past the end of the capture.
+     * @throws IOException If the capture can't be inflated.
+     */
+    private boolean inflate(long start, int length) throws IOException {
+        if(decompressor == null) {
+            return false;           // A split's window already holds all of its range
+        }
+        long keep = (keepFrom >= 0) ? Math.min(keepFrom, start) : start;
+        int kept = (window == null) ? 0 : (int) (windowEnd - keep);
+        int needed = (int) (start + length - keep);
+        byte[] bytes = (window != null && needed <= window.capacity()) ? window.array()
+                : new byte[Math.max(INFLATED_WINDOW, Integer.highestOneBit(needed) << 1)];
+        if(kept > 0) {
+            System.arraycopy(window.array(), (int) (keep - windowStart), bytes, 0, kept);
+        }
+
+        // Inflate as much as fits, or at least up to the end of the range
+        int filled = kept;
+        while(filled < needed) {
+            int read = decompressor.read(bytes, filled, bytes.length - filled);
+            if(read < 0) {
+                break;
+            }
+            filled += read;
+        }
+
+        if(window == null || bytes != window.array()) {
+            window = ByteBuffer.wrap(bytes);
+            frames = window.duplicate().order(ByteOrder.BIG_ENDIAN);
+        }
+        window.order((order == null) ? ByteOrder.BIG_ENDIAN : order);
+        windowStart = keep;
+        windowEnd = keep + filled;
+        if(filled < needed) {
+            size = windowEnd;       // The end of the capture
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Picks up records appended to the file since it was opened or last refreshed, for a capture that is still being
+     * written. If next() stopped at a record that wasn't fully written, it is read again from the start.
+     *
+     * @return True if the file has grown.
+     * @throws IOException If the file's size can't be read.
+     */
+    public boolean refresh() throws IOException {
+        long length = (channel == null) ? 0 : channel.size();
+        if(!ownsChannel || channel == null || length <= size) {
+            return false;
+        }
+        size = length;
+        return true;
+    }
+
+    /**
+     * Checks whether the capture is compressed, and so can only be read in order.
+     *
+     * @return True if the capture is inflated as it is read.
+     */
+    public boolean isCompressed() {
+        return channel == null;
+    }
+
+    /**
+     * Getter method for the read position.
+     *
+     * @return The file offset of the next record.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Getter method for the section start.
+     *
+     * @return The file offset of the section header block of the last frame read, or 0 for a pcap capture.
+     */
+    public long getSectionStart() {
+        return sectionStart;
+    }
+
+    /**
+     * Getter method for the number of frames read so far.
+     *
+     * @return The number of frames read so far.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Closes the capture file.
+     *
+     * @throws IOException If the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        window = null;
+        frames = null;
+        if(decompressor != null) {
+            decompressor.close();
+        }
+        if(ownsChannel && channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Thrown when a file isn't a capture, or a capture's records don't make sense.
+     */
+    public static class CaptureFormatException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor for CaptureFormatException.
+         *
+         * @param msg What was wrong with the capture.
+         */
+        public CaptureFormatException(String msg) {
+            super(msg);
+        }
+    }
+}
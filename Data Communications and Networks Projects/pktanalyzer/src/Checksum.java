@@ -0,0 +1,171 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+
+/**
+ * The Checksum class computes the ones' complement sums that the IP, TCP, UDP, and ICMP checksums are made of. A
+ * region with a correct checksum in it sums to 0xffff.
+ *
+ * Since the sum of 16-bit words can be folded from sums of wider words, the region is read 8 bytes at a time and the
+ * two 32-bit halves of each long are added to a 64-bit total, which is folded down to 16 bits once at the end. When
+ * the optional VectorChecksum class was built (mvn -Pvector) and the jdk.incubator.vector module is available
+ * (java --add-modules jdk.incubator.vector), long regions are summed a whole vector register at a time instead.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public final class Checksum {
+
+    private static final int VECTOR_MIN_LENGTH = 256;       // Regions shorter than this aren't worth vectorizing.
+
+    private static final MethodHandle VECTOR_SUM;           // VectorChecksum.sum(), or null if it isn't available
+    private static final int VECTOR_BLOCK;                  // Bytes VectorChecksum.sum() reads at a time
+
+    /**
+     * Whether a checksum was found to be correct.
+     */
+    public enum Status {
+        VALID("valid"),                 // The checksum is correct
+        INVALID("invalid"),             // The checksum is wrong
+        UNVERIFIED("not verified"),     // Not everything the checksum covers was captured
+        UNUSED("not used");             // The sender left the checksum out, as UDP may
+
+        private final String label;
+
+        /**
+         * Constructor for Status.
+         *
+         * @param label How the status is printed.
+         */
+        Status(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Getter method for the label.
+         *
+         * @return How the status is printed.
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    static {
+        MethodHandle sum = null;
+        int block = 0;
+        if(!"false".equals(System.getProperty("pktanalyzer.vector"))) {
+            try {
+                Class<?> vector = Class.forName("VectorChecksum");
+                sum = MethodHandles.publicLookup().findStatic(vector, "sum",
+                        MethodType.methodType(long.class, ByteBuffer.class, int.class, int.class));
+                block = vector.getField("BLOCK").getInt(null);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not built, or the module isn't there: the scalar loop does everything
+                sum = null;
+            }
+        }
+        VECTOR_SUM = sum;
+        VECTOR_BLOCK = block;
+    }
+
+    /**
+     * Constructor for Checksum, which only has static members.
+     */
+    private Checksum() {
+    }
+
+    /**
+     * Computes the ones' complement sum of a region.
+     *
+     * @param buffer The buffer holding the region. Must be big endian.
+     * @param offset The index in buffer where the region starts.
+     * @param length The length of the region. An odd last byte is summed as if followed by a zero byte.
+     * @param initial A sum to start from, such as a pseudo-header's.
+     * @return The sum, folded to 16 bits.
+     */
+    public static int sum(ByteBuffer buffer, int offset, int length, long initial) {
+        long sum = initial;
+        int i = offset;
+        int end = offset + length;
+
+        if(VECTOR_SUM != null && length >= VECTOR_MIN_LENGTH) {
+            int bulk = length - length % VECTOR_BLOCK;
+            try {
+                sum += (long) VECTOR_SUM.invokeExact(buffer, i, bulk);
+            } catch (Throwable e) {
+                throw new IllegalStateException("VectorChecksum failed", e);
+            }
+            i += bulk;
+        }
+
+        for(; end - i >= Long.BYTES; i += Long.BYTES) {
+            long word = buffer.getLong(i);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        if(end - i >= Integer.BYTES) {
+            sum += buffer.getInt(i) & 0xffffffffL;
+            i += Integer.BYTES;
+        }
+        if(end - i >= Short.BYTES) {
+            sum += buffer.getShort(i) & 0xffff;
+            i += Short.BYTES;
+        }
+        if(end - i == 1) {
+            sum += (buffer.get(i) & 0xff) << 8;
+        }
+        return fold(sum);
+    }
+
+    /**
+     * Computes the sum of the pseudo-header that the TCP and UDP checksums cover along with the segment.
+     *
+     * @param source The source address.
+     * @param destination The destination address.
+     * @param protocol The IP protocol.
+     * @param length The length of the segment.
+     * @return The sum, not folded.
+     */
+    public static long pseudoHeaderSum(int source, int destination, int protocol, int length) {
+        return (source >>> 16) + (source & 0xffff) + (destination >>> 16) + (destination & 0xffff) + protocol + length;
+    }
+
+    /**
+     * Checks a region that holds its own checksum.
+     *
+     * @param buffer The buffer holding the region. Must be big endian.
+     * @param offset The index in buffer where the region starts.
+     * @param length The length of the region.
+     * @param initial A sum to start from, such as a pseudo-header's.
+     * @param captured The number of bytes captured from offset on.
+     * @return VALID or INVALID, or UNVERIFIED if not all of the region was captured.
+     */
+    public static Status verify(ByteBuffer buffer, int offset, int length, long initial, int captured) {
+        if(length < 0 || length > captured) {
+            return Status.UNVERIFIED;
+        }
+        return (sum(buffer, offset, length, initial) == 0xffff) ? Status.VALID : Status.INVALID;
+    }
+
+    /**
+     * Folds a sum down to 16 bits, adding the carries back in.
+     *
+     * @param sum The sum.
+     * @return The folded sum.
+     */
+    public static int fold(long sum) {
+        while((sum >>> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >>> 16);
+        }
+        return (int) sum;
+    }
+
+    /**
+     * Checks whether long regions are summed with the Vector API.
+     *
+     * @return True if VectorChecksum is in use.
+     */
+    public static boolean isVectorized() {
+        return VECTOR_SUM != null;
+    }
+}
@@ -0,0 +1,400 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The ColumnarReader class reads the files ColumnarWriter writes. Opening a file only reads its header and footer;
+ * after that each column chunk is read on its own when it is asked for, so scanning one column reads that column's
+ * bytes and nothing else. The smallest and largest value of every chunk are in the footer, so a scan can skip the row
+ * groups that can't hold what it is looking for without reading them at all.
+ *
+ * Run on its own, it prints the columns of a file and their statistics, or every value of one column:
+ *
+ *     java ColumnarReader <file> [column]
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class ColumnarReader implements Closeable {
+
+    private final FileChannel channel;
+    private final String[] names;
+    private final int[] types;
+    private final int rowGroupSize;
+
+    private final int[] rowCounts;              // Rows of each row group.
+    private final long[][] positions;           // Indexed by row group, then column.
+    private final int[][] lengths;
+    private final int[][] encodings;
+    private final long[][] mins;
+    private final long[][] maxes;
+    private final long rows;
+
+    private ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Constructor for ColumnarReader. Reads the header and footer of the file.
+     *
+     * @param path The file to read.
+     * @throws IOException If the file can't be read.
+     * @throws CaptureReader.CaptureFormatException If the file isn't a columnar file.
+     */
+    public ColumnarReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if(size < 12 + ColumnarWriter.TRAILER_LENGTH) {
+                throw new CaptureReader.CaptureFormatException("too short to be a columnar file");
+            }
+            ByteBuffer trailer = read(size - ColumnarWriter.TRAILER_LENGTH, ColumnarWriter.TRAILER_LENGTH);
+            long footerPosition = trailer.getLong();
+            if(trailer.getInt() != ColumnarWriter.MAGIC || footerPosition < 12
+                    || footerPosition > size - ColumnarWriter.TRAILER_LENGTH) {
+                throw new CaptureReader.CaptureFormatException("not a columnar file");
+            }
+
+            ByteBuffer header = read(0, 12);
+            if(header.getInt() != ColumnarWriter.MAGIC || header.getShort() != ColumnarWriter.VERSION) {
+                throw new CaptureReader.CaptureFormatException("unsupported columnar file version");
+            }
+            int columns = header.getShort() & 0xffff;
+            rowGroupSize = header.getInt();
+
+            // Each column is described in at most 3 bytes and a 255 character name
+            header = read(12, (int) Math.min(footerPosition - 12, 258L * columns));
+            names = new String[columns];
+            types = new int[columns];
+            for(int i = 0; i < columns; i++) {
+                types[i] = header.get();
+                header.get();
+                byte[] name = new byte[header.get() & 0xff];
+                header.get(name);
+                names[i] = new String(name, StandardCharsets.US_ASCII);
+            }
+
+            ByteBuffer footer = read(footerPosition, (int) (size - ColumnarWriter.TRAILER_LENGTH - footerPosition));
+            int groups = footer.getInt();
+            if(footer.remaining() != (long) groups * (4 + columns * ColumnarWriter.FOOTER_COLUMN_LENGTH)) {
+                throw new CaptureReader.CaptureFormatException("corrupt columnar file footer");
+            }
+            rowCounts = new int[groups];
+            positions = new long[groups][columns];
+            lengths = new int[groups][columns];
+            encodings = new int[groups][columns];
+            mins = new long[groups][columns];
+            maxes = new long[groups][columns];
+            long total = 0;
+            for(int group = 0; group < groups; group++) {
+                rowCounts[group] = footer.getInt();
+                total += rowCounts[group];
+                for(int i = 0; i < columns; i++) {
+                    positions[group][i] = footer.getLong();
+                    lengths[group][i] = footer.getInt();
+                    encodings[group][i] = footer.get();
+                    mins[group][i] = footer.getLong();
+                    maxes[group][i] = footer.getLong();
+                }
+            }
+            rows = total;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads part of the file into the chunk buffer.
+     *
+     * @param position Where to start reading.
+     * @param length The number of bytes to read.
+     * @return The chunk buffer, holding the bytes.
+     * @throws IOException If the bytes can't be read.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        if(chunk.capacity() < length) {
+            chunk = ByteBuffer.allocate(Math.max(length, 2 * chunk.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        chunk.clear().limit(length);
+        while(chunk.hasRemaining()) {
+            if(channel.read(chunk, position + chunk.position()) < 0) {
+                throw new EOFException("columnar file ends early");
+            }
+        }
+        return chunk.flip();
+    }
+
+    /**
+     * Reads one column of one row group.
+     *
+     * @param column The column.
+     * @param group The row group.
+     * @param values Where to put the values. Needs room for getRowCount(group) of them.
+     * @return The number of values read.
+     * @throws IOException If the chunk can't be read.
+     */
+    public int read(int column, int group, long[] values) throws IOException {
+        int count = rowCounts[group];
+        int type = types[column];
+        ByteBuffer data = read(positions[group][column], lengths[group][column]);
+
+        if(encodings[group][column] == ColumnarWriter.DICTIONARY) {
+            int distinct = data.getInt();
+            long[] dictionary = new long[distinct];
+            decode(data, type, dictionary, distinct);
+            if(distinct <= 256) {
+                for(int row = 0; row < count; row++) {
+                    values[row] = dictionary[data.get() & 0xff];
+                }
+            } else {
+                for(int row = 0; row < count; row++) {
+                    values[row] = dictionary[data.getShort() & 0xffff];
+                }
+            }
+        } else {
+            decode(data, type, values, count);
+        }
+        return count;
+    }
+
+    /**
+     * Unpacks values stored one after another.
+     *
+     * @param data The packed values.
+     * @param type The column's type.
+     * @param values Where to put the values.
+     * @param count The number of values.
+     */
+    private static void decode(ByteBuffer data, int type, long[] values, int count) {
+        switch (type) {
+            case ColumnarWriter.U8:
+                for(int i = 0; i < count; i++) {
+                    values[i] = data.get() & 0xffL;
+                }
+                break;
+            case ColumnarWriter.U16:
+                for(int i = 0; i < count; i++) {
+                    values[i] = data.getShort() & 0xffffL;
+                }
+                break;
+            case ColumnarWriter.U32:
+                for(int i = 0; i < count; i++) {
+                    values[i] = data.getInt() & 0xffffffffL;
+                }
+                break;
+            default:
+                for(int i = 0; i < count; i++) {
+                    values[i] = data.getLong();
+                }
+        }
+    }
+
+    /**
+     * Finds a column by name.
+     *
+     * @param name The column's name.
+     * @return The column, or -1 if there is no column with that name.
+     */
+    public int findColumn(String name) {
+        for(int i = 0; i < names.length; i++) {
+            if(names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Getter method for the number of columns.
+     *
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    /**
+     * Getter method for a column's name.
+     *
+     * @param column The column.
+     * @return The column's name.
+     */
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    /**
+     * Getter method for a column's type.
+     *
+     * @param column The column.
+     * @return ColumnarWriter.U8, U16, U32, or I64.
+     */
+    public int getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * Getter method for the number of rows in a full row group.
+     *
+     * @return The number of rows in every row group but the last.
+     */
+    public int getRowGroupSize() {
+        return rowGroupSize;
+    }
+
+    /**
+     * Getter method for the number of row groups.
+     *
+     * @return The number of row groups.
+     */
+    public int getRowGroupCount() {
+        return rowCounts.length;
+    }
+
+    /**
+     * Getter method for the number of rows in a row group.
+     *
+     * @param group The row group.
+     * @return The number of rows in it.
+     */
+    public int getRowCount(int group) {
+        return rowCounts[group];
+    }
+
+    /**
+     * Getter method for the number of rows.
+     *
+     * @return The number of rows in the file.
+     */
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Getter method for a column's smallest value in a row group.
+     *
+     * @param column The column.
+     * @param group The row group.
+     * @return The smallest value, read as unsigned unless the column is I64.
+     */
+    public long getMin(int column, int group) {
+        return mins[group][column];
+    }
+
+    /**
+     * Getter method for a column's largest value in a row group.
+     *
+     * @param column The column.
+     * @param group The row group.
+     * @return The largest value, read as unsigned unless the column is I64.
+     */
+    public long getMax(int column, int group) {
+        return maxes[group][column];
+    }
+
+    /**
+     * Getter method for how a column chunk is encoded.
+     *
+     * @param column The column.
+     * @param group The row group.
+     * @return ColumnarWriter.PLAIN or DICTIONARY.
+     */
+    public int getEncoding(int column, int group) {
+        return encodings[group][column];
+    }
+
+    /**
+     * Getter method for the size of a column chunk.
+     *
+     * @param column The column.
+     * @param group The row group.
+     * @return The length of the chunk, in bytes.
+     */
+    public int getChunkLength(int column, int group) {
+        return lengths[group][column];
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException If the file can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Prints the columns of a file, or every value of one of them.
+     *
+     * @param args The file, and optionally the name of a column.
+     */
+    public static void main(String[] args) {
+        if(args.length < 1 || args.length > 2) {
+            System.out.println("Usage: java ColumnarReader <file> [column]");
+            return;
+        }
+
+        TextRenderer out = new TextRenderer(1 << 17);
+        try (ColumnarReader reader = new ColumnarReader(Paths.get(args[0]))) {
+            if(args.length == 1) {
+                reader.describe(out);
+            } else {
+                int column = reader.findColumn(args[1]);
+                if(column < 0) {
+                    System.out.println("Error: No column \"" + args[1] + "\" in \"" + args[0] + "\".");
+                    return;
+                }
+                long[] values = new long[reader.getRowGroupSize()];
+                for(int group = 0; group < reader.getRowGroupCount(); group++) {
+                    int count = reader.read(column, group, values);
+                    for(int row = 0; row < count; row++) {
+                        out.decimal(values[row]).newline();
+                    }
+                    if(out.size() >= 1 << 16) {
+                        out.writeTo(System.out);
+                    }
+                }
+            }
+            out.writeTo(System.out);
+            System.out.flush();
+        } catch (IOException e) {
+            System.out.println("Error: Couldn't read \"" + args[0] + "\": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes one line per column: its name, type, size, how many chunks use a dictionary, and its smallest and largest
+     * value.
+     *
+     * @param out The renderer to write to.
+     */
+    private void describe(TextRenderer out) {
+        out.decimal(rows).append(" rows in ").decimal(rowCounts.length).append(" row groups").newline();
+        for(int i = 0; i < names.length; i++) {
+            long bytes = 0;
+            int dictionaryChunks = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for(int group = 0; group < rowCounts.length; group++) {
+                bytes += lengths[group][i];
+                dictionaryChunks += (encodings[group][i] == ColumnarWriter.DICTIONARY) ? 1 : 0;
+                min = Math.min(min, mins[group][i]);
+                max = Math.max(max, maxes[group][i]);
+            }
+            String type = (types[i] == ColumnarWriter.I64) ? "i64" : "u" + 8 * types[i];
+            out.append(names[i]).repeat(' ', Math.max(1, 16 - names[i].length())).append(type)
+                    .repeat(' ', 5 - type.length()).decimal(bytes).append(" bytes, ")
+                    .decimal(dictionaryChunks).append(" dictionary chunks");
+            if(rowCounts.length > 0) {
+                out.append(", min ").decimal(min).append(", max ").decimal(max);
+            }
+            out.newline();
+        }
+    }
+}
@@ -0,0 +1,428 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The ColumnarWriter class writes rows of numbers to a columnar file, which ColumnarReader reads back. Rows are
+ * collected into row groups of a fixed number of rows, and each row group is written one column at a time: a column
+ * chunk is the column's values for those rows, packed into the column's width. A column that allows it is written as
+ * a dictionary of its distinct values followed by a 1 or 2 byte index per row instead, whenever that is smaller.
+ *
+ * The file is laid out like this, little endian:
+ *
+ *     header      "PKTC", version (u16), column count (u16), rows per row group (u32), then for each column: its
+ *                 type (u8), whether it may use a dictionary (u8), the length of its name (u8), and its name
+ *     row groups  the column chunks of each row group, back to back
+ *     footer      row group count (u32), then for each row group: its row count (u32), and for each column: the
+ *                 chunk's position (u64), length (u32), encoding (u8), and the column's smallest and largest value
+ *                 in the row group (i64 each)
+ *     trailer     the position of the footer (u64), "PKTC"
+ *
+ * Since every chunk's position is in the footer, a reader can read one column without touching the others, and can
+ * skip row groups whose smallest and largest values rule them out.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class ColumnarWriter extends Header implements Closeable {
+
+    public static final int U8 = 1;                         // Column types, named by how values are stored.
+    public static final int U16 = 2;                        // The type is also the width of a value, in bytes.
+    public static final int U32 = 4;
+    public static final int I64 = 8;
+
+    public static final int PLAIN = 0;                      // Encodings of a column chunk: values one after another.
+    public static final int DICTIONARY = 1;                 // Distinct values, then an index into them per row.
+
+    public static final int DEFAULT_ROW_GROUP = 1 << 16;    // Rows per row group unless told otherwise.
+
+    static final int MAGIC = 0x43544b50;                    // "PKTC", read little endian.
+    static final int VERSION = 1;
+    static final int TRAILER_LENGTH = 12;                   // Footer position and magic.
+    static final int FOOTER_COLUMN_LENGTH = 29;             // Bytes of footer per column per row group.
+    static final int MAX_DICTIONARY = 1 << 16;              // Most distinct values a 2 byte index can address.
+
+    private static final int EMPTY = -1;                   // Free slot of the dictionary's hash table.
+
+    private final FileChannel channel;
+    private final String[] names;
+    private final int[] types;
+    private final boolean[] dictionaries;
+    private final int rowGroupSize;
+    private final Rows pending;                             // Rows of the row group being filled.
+
+    private ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer footer = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+    private long position;                                  // Where the next chunk goes.
+    private int rowGroups;
+    private long rows;
+    private long dictionaryChunks;
+
+    private int[] slots = new int[0];                       // Hash table of the dictionary being built.
+    private long[] dictionary = new long[0];
+    private int[] indexes = new int[0];
+
+    /**
+     * The Rows class collects rows before they are written: a growable array per column.
+     */
+    public static class Rows {
+
+        private long[][] columns;
+        private int count;
+
+        /**
+         * Constructor for Rows.
+         *
+         * @param columns The number of columns.
+         * @param capacity The number of rows there is room for at first.
+         */
+        public Rows(int columns, int capacity) {
+            this.columns = new long[columns][Math.max(1, capacity)];
+        }
+
+        /**
+         * Starts a new row with every value 0.
+         *
+         * @return The index of the row.
+         */
+        public int add() {
+            if(count == columns[0].length) {
+                for(int i = 0; i < columns.length; i++) {
+                    columns[i] = Arrays.copyOf(columns[i], 2 * count);
+                }
+            }
+            for(long[] column : columns) {
+                column[count] = 0;
+            }
+            return count++;
+        }
+
+        /**
+         * Sets a value of the last row.
+         *
+         * @param column The column.
+         * @param value The value. Only the column's width of it is kept.
+         */
+        public void set(int column, long value) {
+            columns[column][count - 1] = value;
+        }
+
+        /**
+         * Getter method for a value.
+         *
+         * @param column The column.
+         * @param row The row.
+         * @return The value.
+         */
+        public long get(int column, int row) {
+            return columns[column][row];
+        }
+
+        /**
+         * Getter method for the number of rows.
+         *
+         * @return The number of rows.
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Forgets every row, keeping the arrays for the next ones.
+         */
+        public void clear() {
+            count = 0;
+        }
+    }
+
+    /**
+     * Constructor for ColumnarWriter. Creates the file, or replaces it if it exists.
+     *
+     * @param path The file to write.
+     * @param names The name of each column. Only ASCII, and no longer than 255 characters.
+     * @param types The type of each column: U8, U16, U32, or I64.
+     * @param dictionaries Whether each column may be dictionary encoded.
+     * @param rowGroupSize The number of rows in a row group.
+     * @throws IOException If the file can't be created.
+     */
+    public ColumnarWriter(Path path, String[] names, int[] types, boolean[] dictionaries, int rowGroupSize)
+            throws IOException {
+        super("EXPORT");
+        this.names = names;
+        this.types = types;
+        this.dictionaries = dictionaries;
+        this.rowGroupSize = rowGroupSize;
+        this.pending = new Rows(names.length, rowGroupSize);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(12 + 3 * names.length + 255 * names.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) names.length).putInt(rowGroupSize);
+        for(int i = 0; i < names.length; i++) {
+            byte[] name = names[i].getBytes(StandardCharsets.US_ASCII);
+            header.put((byte) types[i]).put((byte) (dictionaries[i] ? 1 : 0)).put((byte) name.length).put(name);
+        }
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Adds rows, writing a row group each time one fills up.
+     *
+     * @param rows The rows to add. Left unchanged.
+     * @throws IOException If the file can't be written.
+     */
+    public void write(Rows rows) throws IOException {
+        int done = 0;
+        while(done < rows.size()) {
+            int count = Math.min(rows.size() - done, rowGroupSize - pending.size());
+            for(int i = 0; i < names.length; i++) {
+                System.arraycopy(rows.columns[i], done, pending.columns[i], pending.size(), count);
+            }
+            pending.count += count;
+            done += count;
+            if(pending.size() == rowGroupSize) {
+                writeRowGroup();
+            }
+        }
+    }
+
+    /**
+     * Writes the rows collected so far as a row group, then the footer, and closes the file.
+     *
+     * @throws IOException If the file can't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if(pending.size() > 0) {
+                writeRowGroup();
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(footer.position() + 4 + TRAILER_LENGTH)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long footerPosition = position;
+            trailer.putInt(rowGroups).put(footer.flip()).putLong(footerPosition).putInt(MAGIC).flip();
+            write(trailer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the pending rows as one row group and records its chunks in the footer.
+     *
+     * @throws IOException If the file can't be written.
+     */
+    private void writeRowGroup() throws IOException {
+        int count = pending.size();
+        footer = ensure(footer, 4 + names.length * FOOTER_COLUMN_LENGTH);
+        footer.putInt(count);
+
+        for(int i = 0; i < names.length; i++) {
+            long[] values = pending.columns[i];
+            long mask = (types[i] == I64) ? -1L : (1L << (8 * types[i])) - 1;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for(int row = 0; row < count; row++) {
+                long value = values[row] & mask;
+                values[row] = value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+
+            int encoding = PLAIN;
+            int distinct = dictionaries[i] ? buildDictionary(values, count) : -1;
+            int plainLength = count * types[i];
+            if(distinct > 0) {
+                int indexWidth = (distinct <= 256) ? 1 : 2;
+                if(4 + distinct * types[i] + count * indexWidth < plainLength) {
+                    encoding = DICTIONARY;
+                    encodeDictionary(types[i], distinct, indexWidth, count);
+                }
+            }
+            if(encoding == PLAIN) {
+                encodePlain(types[i], values, count);
+            }
+
+            long chunkPosition = position;
+            int chunkLength = chunk.position();
+            write(chunk.flip());
+            footer.putLong(chunkPosition).putInt(chunkLength).put((byte) encoding).putLong(min).putLong(max);
+            if(encoding == DICTIONARY) {
+                dictionaryChunks++;
+            }
+        }
+
+        rowGroups++;
+        rows += count;
+        pending.clear();
+    }
+
+    /**
+     * Finds the distinct values of a column chunk and the index of each row's value among them.
+     *
+     * @param values The values.
+     * @param count The number of rows.
+     * @return The number of distinct values, or -1 if there are too many for a dictionary.
+     */
+    private int buildDictionary(long[] values, int count) {
+        int limit = Math.min(MAX_DICTIONARY, count / 2);
+        int capacity = Integer.highestOneBit(Math.max(2, 2 * limit - 1)) << 1;
+        if(slots.length < capacity) {
+            slots = new int[capacity];
+            dictionary = new long[capacity / 2];
+        }
+        if(indexes.length < count) {
+            indexes = new int[count];
+        }
+        Arrays.fill(slots, 0, capacity, EMPTY);
+
+        int mask = capacity - 1;
+        int distinct = 0;
+        for(int row = 0; row < count; row++) {
+            long value = values[row];
+            int slot = (int) ((value * 0x9e3779b97f4a7c15L) >>> 40) & mask;
+            while(slots[slot] != EMPTY && dictionary[slots[slot]] != value) {
+                slot = (slot + 1) & mask;
+            }
+            if(slots[slot] == EMPTY) {
+                if(distinct == limit) {
+                    return -1;
+                }
+                dictionary[distinct] = value;
+                slots[slot] = distinct++;
+            }
+            indexes[row] = slots[slot];
+        }
+        return distinct;
+    }
+
+    /**
+     * Packs the dictionary built by buildDictionary() and the index of each row into the chunk buffer.
+     *
+     * @param type The column's type.
+     * @param distinct The number of distinct values.
+     * @param indexWidth The width of an index, 1 or 2 bytes.
+     * @param count The number of rows.
+     */
+    private void encodeDictionary(int type, int distinct, int indexWidth, int count) {
+        chunk.clear();
+        chunk = ensure(chunk, 4 + distinct * type + count * indexWidth);
+        chunk.putInt(distinct);
+        encodePlain(type, dictionary, distinct, false);
+        for(int row = 0; row < count; row++) {
+            if(indexWidth == 1) {
+                chunk.put((byte) indexes[row]);
+            } else {
+                chunk.putShort((short) indexes[row]);
+            }
+        }
+    }
+
+    /**
+     * Packs values into the chunk buffer, replacing what it held.
+     *
+     * @param type The column's type.
+     * @param values The values.
+     * @param count The number of values.
+     */
+    private void encodePlain(int type, long[] values, int count) {
+        chunk.clear();
+        encodePlain(type, values, count, true);
+    }
+
+    /**
+     * Packs values into the chunk buffer after what it holds.
+     *
+     * @param type The column's type.
+     * @param values The values.
+     * @param count The number of values.
+     * @param grow True to make room for the values first.
+     */
+    private void encodePlain(int type, long[] values, int count, boolean grow) {
+        if(grow) {
+            chunk = ensure(chunk, count * type);
+        }
+        switch (type) {
+            case U8:
+                for(int i = 0; i < count; i++) {
+                    chunk.put((byte) values[i]);
+                }
+                break;
+            case U16:
+                for(int i = 0; i < count; i++) {
+                    chunk.putShort((short) values[i]);
+                }
+                break;
+            case U32:
+                for(int i = 0; i < count; i++) {
+                    chunk.putInt((int) values[i]);
+                }
+                break;
+            default:
+                for(int i = 0; i < count; i++) {
+                    chunk.putLong(values[i]);
+                }
+        }
+    }
+
+    /**
+     * Makes sure a buffer has room for more bytes, copying it into a bigger one if it doesn't.
+     *
+     * @param buffer The buffer, in write mode.
+     * @param bytes The number of bytes needed after its position.
+     * @return The buffer, or a bigger one holding the same bytes.
+     */
+    private static ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+        if(buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        int capacity = Math.max(2 * buffer.capacity(), buffer.position() + bytes);
+        ByteBuffer bigger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        return bigger.put(buffer.flip());
+    }
+
+    /**
+     * Writes a buffer at the end of the file.
+     *
+     * @param buffer The buffer, in read mode.
+     * @throws IOException If the file can't be written.
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Getter method for the number of rows written.
+     *
+     * @return The number of rows in the row groups written so far.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Writes a summary of what was written: rows, row groups, and the size of the file.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        out.newline();
+        beginHeader(out, "Export Summary");
+        line(out).append("Rows              = ").decimal(rows).newline();
+        line(out).append("Row groups        = ").decimal(rowGroups).newline();
+        line(out).append("Columns           = ").decimal(names.length).newline();
+        line(out).append("Dictionary chunks = ").decimal(dictionaryChunks).newline();
+        line(out).append("Bytes             = ").decimal(position).newline();
+        endHeader(out);
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The CountMinSketch class estimates how often each key of a stream has been counted, in a fixed amount of memory
+ * however many distinct keys there are. It is a grid of counters, one row per hash function: counting a key adds to one
+ * counter in each row, and the estimate is the smallest of them. Keys that share counters can only make estimates too
+ * high, never too low.
+ *
+ * With a width of w and a depth of d, an estimate is at most (e / w) * total too high, except with a probability of
+ * e^-d at most. Two sketches of the same size can be merged by adding their counters, which gives exactly the sketch of
+ * both streams together.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class CountMinSketch {
+
+    private static final long[] SEEDS = {       // One per row; odd, so multiplying by them loses nothing.
+            0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0xd6e8feb86659fd93L,
+            0xff51afd7ed558ccdL, 0xc4ceb9fe1a85ec53L, 0x94d049bb133111ebL, 0xbf58476d1ce4e5b9L,
+            0x8cb92ba72f3d8dd7L, 0xa0761d6478bd642fL, 0xe7037ed1a0b428dbL, 0x8ebc6af09c88c6e3L,
+            0x589965cc75374cc3L, 0x1d8e4e27c47d124fL, 0xaf251af3b0f025b5L, 0xe2ea05f0bd4a3f4fL};
+
+    public static final int MAX_DEPTH = SEEDS.length;
+
+    private final int depth;
+    private final int mask;                     // Width - 1; the width is a power of two.
+    private final long[] counters;              // Row by row.
+    private long total;                         // Sum of everything counted.
+
+    /**
+     * Constructor for CountMinSketch.
+     *
+     * @param width The number of counters per row. Rounded up to a power of two.
+     * @param depth The number of rows, from 1 to MAX_DEPTH.
+     */
+    public CountMinSketch(int width, int depth) {
+        if(depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("A sketch needs from 1 to " + MAX_DEPTH + " rows, not " + depth + ".");
+        }
+        int columns = (width <= 1) ? 1 : Integer.highestOneBit(width - 1) << 1;
+        this.depth = depth;
+        this.mask = columns - 1;
+        this.counters = new long[columns * depth];
+    }
+
+    /**
+     * Creates a sketch sized for an error bound.
+     *
+     * @param error The most an estimate may be too high by, as a fraction of the total, such as 0.001.
+     * @param failure The largest chance of an estimate being off by more than that, such as 0.001.
+     * @return A new sketch.
+     */
+    public static CountMinSketch forError(double error, double failure) {
+        int width = (int) Math.min(1 << 30, Math.ceil(Math.E / error));
+        int depth = (int) Math.min(MAX_DEPTH, Math.max(1, Math.ceil(Math.log(1 / failure))));
+        return new CountMinSketch(width, depth);
+    }
+
+    /**
+     * Creates an empty sketch of the same size, which can be merged into this one.
+     *
+     * @return A new sketch.
+     */
+    public CountMinSketch copySize() {
+        return new CountMinSketch(mask + 1, depth);
+    }
+
+    /**
+     * Counts a key.
+     *
+     * @param key The key.
+     * @param count How much to add to it.
+     * @return The key's new estimate.
+     */
+    public long add(long key, long count) {
+        total += count;
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0, base = 0; row < depth; row++, base += mask + 1) {
+            int index = base + column(key, row);
+            counters[index] += count;
+            estimate = Math.min(estimate, counters[index]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Estimates how much a key has been counted.
+     *
+     * @param key The key.
+     * @return The estimate. Never less than the true count.
+     */
+    public long estimate(long key) {
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0, base = 0; row < depth; row++, base += mask + 1) {
+            estimate = Math.min(estimate, counters[base + column(key, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Adds the counters of another sketch of the same size to this one.
+     *
+     * @param other The sketch to merge.
+     */
+    public void merge(CountMinSketch other) {
+        if(other.depth != depth || other.mask != mask) {
+            throw new IllegalArgumentException("Only sketches of the same size can be merged.");
+        }
+        for(int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        total += other.total;
+    }
+
+    /**
+     * Writes the counters of this sketch to a checkpoint.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the counters can't be written.
+     */
+    public void save(DataOutputStream out) throws IOException {
+        out.writeInt(depth);
+        out.writeInt(mask + 1);
+        out.writeLong(total);
+        for(long counter : counters) {
+            out.writeLong(counter);
+        }
+    }
+
+    /**
+     * Reads back counters written by save() into this sketch, replacing its own.
+     *
+     * @param in The stream to read from.
+     * @throws IOException If the counters can't be read, or are of a sketch of another size.
+     */
+    public void restore(DataInputStream in) throws IOException {
+        if(in.readInt() != depth || in.readInt() != mask + 1) {
+            throw new IOException("Saved sketch isn't the same size.");
+        }
+        total = in.readLong();
+        for(int i = 0; i < counters.length; i++) {
+            counters[i] = in.readLong();
+        }
+    }
+
+    /**
+     * Finds the column of a key in one row.
+     *
+     * @param key The key.
+     * @param row The row.
+     * @return The column.
+     */
+    private int column(long key, int row) {
+        long hash = (key ^ (key >>> 32)) * SEEDS[row];
+        hash = (hash ^ (hash >>> 29)) * 0xbf58476d1ce4e5b9L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Getter method for the width.
+     *
+     * @return The number of counters per row.
+     */
+    public int getWidth() {
+        return mask + 1;
+    }
+
+    /**
+     * Getter method for the depth.
+     *
+     * @return The number of rows.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Getter method for the total.
+     *
+     * @return The sum of everything counted.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Getter method for the error bound.
+     *
+     * @return The most an estimate is too high by, except with a probability of e^-depth at most.
+     */
+    public long getErrorBound() {
+        return (long) Math.ceil(Math.E * total / (mask + 1));
+    }
+
+    /**
+     * Getter method for the memory used by the counters.
+     *
+     * @return The size of the counters, in bytes.
+     */
+    public long getMemory() {
+        return 8L * counters.length;
+    }
+}
@@ -1,3 +1,5 @@
+import java.nio.ByteBuffer;
+
 /**
  * The Data class represents the data sent in a packet.
  *
@@ -8,8 +10,14 @@ public class Data extends Header {
     private static final int BYTES_PER_LINE = 16;
     private static final int ASCII_MIN = 32;
     private static final int ASCII_MAX = 126;
+    private static final int HEX_COLUMN_WIDTH = 3 * BYTES_PER_LINE;    // Width of the hex part of a line
 
-    private byte[] raw;
+    /**
+     * Constructor for Data that isn't pointing at a packet yet. Use wrap() to give it one.
+     */
+    public Data() {
+        super("DATA");
+    }
 
     /**
      * The Data class represents the sent data in a packet.
@@ -17,45 +25,36 @@ public class Data extends Header {
      * @param raw The raw data in a byte array.
      */
     public Data(byte[] raw) {
-        super("DATA");
-
-        this.raw = raw;
+        this();
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
     }
 
     /**
-     * Creates a String representation of this Data. This is done by a hex dump.
+     * Renders this Data as a hex dump: 16 bytes per line, followed by their printable characters.
      *
-     * @return A String representation of this Data.
+     * @param out The renderer to write to.
      */
     @Override
-    public String toString() {
-        String[] pieces = new String[(raw.length + BYTES_PER_LINE - 1) / BYTES_PER_LINE];   // Align 16 bytes per line
-
-        String current = "";
-        String characters = "";
-        int align = 0;
-        int line = 0;
-        for (byte data : raw) {
-            if (align == BYTES_PER_LINE) {
-                align = 0;
-                pieces[line] = String.format("%-48s'%s'", current, characters);
-                current = "";
-                characters = "";
-                line++;
+    public void render(TextRenderer out) {
+        beginHeader(out, "Data");
+
+        for(int line = offset; line < offset + length; line += BYTES_PER_LINE) {
+            int end = Math.min(line + BYTES_PER_LINE, offset + length);
+
+            line(out);
+            for(int i = line; i < end; i++) {
+                out.hexByte(buffer.get(i)).append(' ');
             }
+            out.repeat(' ', HEX_COLUMN_WIDTH - 3 * (end - line));   // Align the characters of a short last line
 
-            current += Utility.byteToHexString(data, Utility.HexStringType.NO_PREFIX) + " ";
-            if ((Utility.byteToInt(data) >= ASCII_MIN) && (Utility.byteToInt(data) <= ASCII_MAX)) {
-                characters += (char) data;
-            } else {
-                characters += ".";
+            out.append('\'');
+            for(int i = line; i < end; i++) {
+                int data = Utility.readU8(buffer, i);
+                out.append(((data >= ASCII_MIN) && (data <= ASCII_MAX)) ? (char) data : '.');
             }
-            align++;
-        }
-        if(!current.equals("")) {
-            pieces[line] = String.format("%-48s'%s'", current, characters);
+            out.append('\'').newline();
         }
 
-        return buildHeader("Data", pieces);
+        endHeader(out);
     }
 }
@@ -0,0 +1,189 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The Decompressor class inflates a gzip file on a thread of its own, so that decompressing runs alongside decoding
+ * instead of in front of it. The thread inflates into a fixed set of buffers and queues them up in order; the reader
+ * copies out of them and hands each one back when it is drained. With every buffer queued, the thread waits, so it
+ * never gets more than that far ahead and nothing is allocated once it is going. Files made of several gzip members
+ * one after the other, as from cat a.gz b.gz, are read as one.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class Decompressor implements Closeable {
+
+    private static final int GZIP_MAGIC = 0x1f8b;           // The first two bytes of a gzip file.
+    private static final int INPUT_BUFFER = 1 << 18;        // Compressed bytes read from the file at a time.
+    private static final int BUFFER_SIZE = 1 << 20;         // Inflated bytes per queued buffer.
+    private static final int BUFFERS = 8;                   // Buffers inflated ahead of the reader, at most.
+
+    /**
+     * A buffer of inflated bytes, or the end of the file, or an error.
+     */
+    private static final class Buffer {
+
+        private final byte[] bytes = new byte[BUFFER_SIZE];
+        private int length;                 // -1 at the end of the file.
+        private IOException error;
+    }
+
+    private final BlockingQueue<Buffer> filled = new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<Buffer> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final Thread thread;
+
+    private Buffer current;                 // The buffer being read from, if any.
+    private int offset;                     // Where the next byte is in it.
+    private volatile boolean closed;
+
+    /**
+     * Constructor for Decompressor. Starts inflating the file.
+     *
+     * @param path The gzip file.
+     * @throws IOException If the file can't be opened.
+     */
+    public Decompressor(Path path) throws IOException {
+        for(int i = 0; i < BUFFERS; i++) {
+            free.add(new Buffer());
+        }
+
+        InputStream file = Files.newInputStream(path);
+        GZIPInputStream in;
+        try {
+            in = new GZIPInputStream(file, INPUT_BUFFER);
+        } catch (IOException e) {
+            file.close();
+            throw new CaptureReader.CaptureFormatException("Corrupt gzip header: " + e.getMessage());
+        }
+        this.thread = new Thread(() -> inflate(in), "pktanalyzer-gunzip");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Checks whether a file is gzip-compressed, by its magic number.
+     *
+     * @param path The file to check.
+     * @return True if the file starts with the gzip magic number.
+     * @throws IOException If the file can't be read.
+     */
+    public static boolean isCompressed(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] head = in.readNBytes(2);
+            return head.length == 2 && ((head[0] & 0xff) << 8 | (head[1] & 0xff)) == GZIP_MAGIC;
+        }
+    }
+
+    /**
+     * Inflates the whole file into buffers, queueing each one as it fills. Runs on the decompressor's thread.
+     *
+     * @param in The inflating stream.
+     */
+    private void inflate(InputStream in) {
+        try (InputStream stream = in) {
+            boolean end = false;
+            while(!end && !closed) {
+                Buffer buffer = free.take();
+                buffer.length = 0;
+                try {
+                    int read = 0;
+                    while(buffer.length < BUFFER_SIZE
+                            && (read = stream.read(buffer.bytes, buffer.length, BUFFER_SIZE - buffer.length)) >= 0) {
+                        buffer.length += read;
+                    }
+                    end = (read < 0);
+                } catch (EOFException e) {
+                    end = true;     // Cut short; like an uncompressed capture, it ends where its data does
+                }
+                filled.put(buffer);
+            }
+
+            Buffer last = free.take();
+            last.length = -1;
+            filled.put(last);
+        } catch (InterruptedException e) {
+            // Closed while waiting for a buffer
+        } catch (IOException e) {
+            if(closed) {
+                return;
+            }
+            Buffer failed = new Buffer();
+            failed.error = (e instanceof ZipException)
+                    ? new CaptureReader.CaptureFormatException("Corrupt gzip data: " + e.getMessage()) : e;
+            failed.length = -1;
+            try {
+                filled.put(failed);
+            } catch (InterruptedException interrupted) {
+                // Closed; nobody is waiting for it
+            }
+        }
+    }
+
+    /**
+     * Reads inflated bytes, waiting for the thread to inflate them if it hasn't yet.
+     *
+     * @param destination The array to copy the bytes to.
+     * @param start Where in the array to put them.
+     * @param length The most bytes to read.
+     * @return The number of bytes read, which is only less than length at the end of the file, or -1 if the end was
+     *         already reached.
+     * @throws IOException If the file can't be read or isn't valid gzip.
+     */
+    public int read(byte[] destination, int start, int length) throws IOException {
+        int read = 0;
+        while(read < length) {
+            if(current == null || offset >= current.length) {
+                if(!next()) {
+                    break;
+                }
+            }
+            int count = Math.min(length - read, current.length - offset);
+            System.arraycopy(current.bytes, offset, destination, start + read, count);
+            offset += count;
+            read += count;
+        }
+        return (read == 0 && length > 0) ? -1 : read;
+    }
+
+    /**
+     * Hands the drained buffer back to the thread and takes the next one.
+     *
+     * @return False at the end of the file.
+     * @throws IOException If the thread failed to inflate the next bytes.
+     */
+    private boolean next() throws IOException {
+        // The end of the file, or an error, stays where it is
+        if(current == null || current.length >= 0) {
+            if(current != null) {
+                free.add(current);
+            }
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for decompression.", e);
+            }
+            offset = 0;
+        }
+        if(current.error != null) {
+            throw current.error;
+        }
+        return current.length >= 0;
+    }
+
+    /**
+     * Stops the thread and closes the file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+}
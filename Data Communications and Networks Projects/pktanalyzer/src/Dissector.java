@@ -0,0 +1,81 @@
+/**
+ * This is an abstract class for the protocols pktanalyzer can decode. A dissector names a protocol, says which
+ * ethertypes, IP protocol numbers, or TCP/UDP ports carry it, and creates the headers that decode it. DissectorRegistry
+ * turns those keys into dispatch tables, so finding the header of a payload is one array lookup per layer.
+ *
+ * Besides the dissectors built into DissectorRegistry, any dissector on the class path is found with ServiceLoader: list
+ * its class in a META-INF/services/Dissector file. A dissector found that way takes over the keys it names from the
+ * built-in ones. It needs a public constructor without arguments, for example:
+ *
+ *     public class DNSDissector extends Dissector {
+ *         public DNSDissector() {
+ *             super("DNS", PORT, 53);
+ *         }
+ *
+ *         public Header createHeader(Header parent) {
+ *             return new DNSHeader();
+ *         }
+ *     }
+ *
+ * @author Steven Yu (sky3947)
+ */
+public abstract class Dissector {
+
+    public static final int ETHERTYPE = 0;          // Kinds of key a dissector can be found by.
+    public static final int PROTOCOL = 1;           // An IP protocol number, or an IPv6 next header.
+    public static final int PORT = 2;               // A TCP or UDP port.
+
+    private final String name;
+    private final int table;
+    private final int[] keys;
+
+    /**
+     * The constructor for a dissector.
+     *
+     * @param name The name of the protocol, such as "ARP".
+     * @param table ETHERTYPE, PROTOCOL, or PORT.
+     * @param keys The ethertypes, protocol numbers, or ports that carry the protocol.
+     */
+    protected Dissector(String name, int table, int ... keys) {
+        this.name = name;
+        this.table = table;
+        this.keys = keys;
+    }
+
+    /**
+     * Getter method for the name.
+     *
+     * @return The name of the protocol.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter method for the kind of key.
+     *
+     * @return ETHERTYPE, PROTOCOL, or PORT.
+     */
+    public int getTable() {
+        return table;
+    }
+
+    /**
+     * Getter method for the keys.
+     *
+     * @return The ethertypes, protocol numbers, or ports that carry the protocol.
+     */
+    public int[] getKeys() {
+        return keys;
+    }
+
+    /**
+     * Creates a header that decodes the protocol. Each layer that can hold the protocol creates its own, once, and
+     * wraps it around every payload of the protocol from then on, so it must not hold on to anything from one payload
+     * to the next.
+     *
+     * @param parent The header whose payload the new header will decode.
+     * @return A header that isn't pointing at anything yet.
+     */
+    public abstract Header createHeader(Header parent);
+}
@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.Function;
+
+/**
+ * The DissectorRegistry class knows every dissector: the built-in ones (IP, ARP, 802.1Q VLAN, IPv6, ICMP, TCP and UDP)
+ * and any found with ServiceLoader. When the class is loaded it builds one dispatch table per kind of key, indexed by
+ * the ethertype, IP protocol number, or port itself, so a layer finds the header of its payload with a single array
+ * lookup however many dissectors there are.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class DissectorRegistry {
+
+    private static final int[] TABLE_SIZES = {1 << 16, 1 << 8, 1 << 16};    // Keys of each kind, by Dissector table.
+
+    private static final Dissector[][] DISSECTORS = new Dissector[TABLE_SIZES.length][];  // By table, then index.
+    private static final short[][] INDEXES = new short[TABLE_SIZES.length][];              // By table, then key.
+
+    static {
+        List<Dissector> all = new ArrayList<>(Arrays.asList(
+                new BuiltIn("IP", Dissector.ETHERTYPE, parent -> new IPHeader(), Utility.EtherTypes.IP),
+                new BuiltIn("ARP", Dissector.ETHERTYPE, parent -> new ARPHeader(), Utility.EtherTypes.ARP),
+                new BuiltIn("802.1Q VLAN", Dissector.ETHERTYPE, parent -> new VLANHeader(),
+                        Utility.EtherTypes.VLAN, Utility.EtherTypes.QINQ),
+                new BuiltIn("IPv6", Dissector.ETHERTYPE, parent -> new IPv6Header(), Utility.EtherTypes.IPV6),
+                new BuiltIn("ICMP", Dissector.PROTOCOL, parent -> {
+                    ICMPHeader icmp = new ICMPHeader();
+                    icmp.setIPHeader(asIPv4(parent));
+                    return icmp;
+                }, Utility.Protocols.ICMP),
+                new BuiltIn("TCP", Dissector.PROTOCOL, parent -> {
+                    TCPHeader tcp = new TCPHeader();
+                    tcp.setIPHeader(asIPv4(parent));
+                    return tcp;
+                }, Utility.Protocols.TCP),
+                new BuiltIn("UDP", Dissector.PROTOCOL, parent -> {
+                    UDPHeader udp = new UDPHeader();
+                    udp.setIPHeader(asIPv4(parent));
+                    return udp;
+                }, Utility.Protocols.UDP)));
+
+        // Dissectors on the class path come last, so they take over the keys they share with the built-in ones
+        Iterator<Dissector> found = ServiceLoader.load(Dissector.class).iterator();
+        while(true) {
+            try {
+                if(!found.hasNext()) {
+                    break;
+                }
+                all.add(found.next());
+            } catch (ServiceConfigurationError e) {
+                System.err.println("Warning: Skipping a dissector that couldn't be loaded: " + e.getMessage());
+            }
+        }
+
+        for(int table = 0; table < TABLE_SIZES.length; table++) {
+            List<Dissector> dissectors = new ArrayList<>();
+            short[] indexes = new short[TABLE_SIZES[table]];
+            Arrays.fill(indexes, (short) -1);
+            for(Dissector dissector : all) {
+                if(dissector.getTable() != table) {
+                    continue;
+                }
+                for(int key : dissector.getKeys()) {
+                    if(key >= 0 && key < indexes.length) {
+                        indexes[key] = (short) dissectors.size();
+                    }
+                }
+                dissectors.add(dissector);
+            }
+            DISSECTORS[table] = dissectors.toArray(new Dissector[0]);
+            INDEXES[table] = indexes;
+        }
+    }
+
+    /**
+     * Finds the dissector for a key.
+     *
+     * @param table Dissector.ETHERTYPE, PROTOCOL, or PORT.
+     * @param key The ethertype, protocol number, or port.
+     * @return The dissector, or null if no dissector decodes it.
+     */
+    public static Dissector find(int table, int key) {
+        int index = INDEXES[table][key];
+        return (index < 0) ? null : DISSECTORS[table][index];
+    }
+
+    /**
+     * Finds the name of the protocol for a key.
+     *
+     * @param table Dissector.ETHERTYPE, PROTOCOL, or PORT.
+     * @param key The ethertype, protocol number, or port.
+     * @return The name of the protocol, or null if no dissector decodes it.
+     */
+    public static String getName(int table, int key) {
+        Dissector dissector = find(table, key);
+        return (dissector == null) ? null : dissector.getName();
+    }
+
+    /**
+     * Getter method for the dissectors.
+     *
+     * @param table Dissector.ETHERTYPE, PROTOCOL, or PORT.
+     * @return The dissectors found by that kind of key, built-in ones first.
+     */
+    public static Dissector[] getDissectors(int table) {
+        return DISSECTORS[table].clone();
+    }
+
+    /**
+     * Treats a parent header as an IPv4 header, for the headers whose checksums cover an IPv4 pseudo-header.
+     *
+     * @param parent The parent header.
+     * @return The parent, or null if it isn't an IPv4 header.
+     */
+    private static IPHeader asIPv4(Header parent) {
+        return (parent instanceof IPHeader) ? (IPHeader) parent : null;
+    }
+
+    /**
+     * The Headers class is the dispatch table of one layer: the headers that can decode its payload, one per
+     * dissector, created the first time a payload of that protocol turns up and reused after that.
+     */
+    public static class Headers {
+
+        private final short[] indexes;
+        private final Dissector[] dissectors;
+        private final Header parent;
+        private final Header[] headers;
+
+        /**
+         * Constructor for Headers.
+         *
+         * @param table Dissector.ETHERTYPE, PROTOCOL, or PORT: what the layer's payload is found by.
+         * @param parent The header of the layer, or null if it has none.
+         */
+        public Headers(int table, Header parent) {
+            this.indexes = INDEXES[table];
+            this.dissectors = DISSECTORS[table];
+            this.parent = parent;
+            this.headers = new Header[dissectors.length];
+        }
+
+        /**
+         * Finds the header for a payload. The header isn't pointed at the payload; wrap() it before using it.
+         *
+         * @param key The ethertype, protocol number, or port of the payload.
+         * @return The header, or null if no dissector decodes it.
+         */
+        public Header get(int key) {
+            int index = indexes[key];
+            if(index < 0) {
+                return null;
+            }
+            Header header = headers[index];
+            if(header == null) {
+                header = dissectors[index].createHeader(parent);
+                headers[index] = header;
+            }
+            return header;
+        }
+    }
+
+    /**
+     * The BuiltIn class is a dissector that comes with pktanalyzer.
+     */
+    private static class BuiltIn extends Dissector {
+
+        private final Function<Header, Header> factory;
+
+        /**
+         * Constructor for BuiltIn.
+         *
+         * @param name The name of the protocol.
+         * @param table Dissector.ETHERTYPE, PROTOCOL, or PORT.
+         * @param factory Creates a header, given its parent.
+         * @param keys The ethertypes, protocol numbers, or ports that carry the protocol.
+         */
+        BuiltIn(String name, int table, Function<Header, Header> factory, int ... keys) {
+            super(name, table, keys);
+            this.factory = factory;
+        }
+
+        /**
+         * Creates a header that decodes the protocol.
+         *
+         * @param parent The header whose payload the new header will decode.
+         * @return A new header.
+         */
+        @Override
+        public Header createHeader(Header parent) {
+            return factory.apply(parent);
+        }
+    }
+}
@@ -1,4 +1,4 @@
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * The EtherHeader class represents the ether header section of a packet.
@@ -12,10 +12,12 @@ public class EtherHeader extends Header {
     private static final int ETHERTYPE = 12;        // Byte location where the ethertype starts.
     private static final int PAYLOAD = 14;          // Byte location where the payload starts.
 
-    private int packetSize;
-    private byte[] destinationMac;
-    private byte[] sourceMac;
-    private byte[] ethertype;
+    /**
+     * Constructor for an EtherHeader that isn't pointing at a packet yet. Use wrap() to give it one.
+     */
+    public EtherHeader() {
+        super("ETHER");    // The prefix for printing ether information
+    }
 
     /**
      * Constructor for EtherHeader. It extracts header information from a packet.
@@ -23,35 +25,77 @@ public class EtherHeader extends Header {
      * @param raw The raw packet in a byte array.
      */
     public EtherHeader(byte[] raw) {
-        super("ETHER");    // The prefix for printing ether information
+        this();
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
+    }
+
+    /**
+     * Checks that the slice this header is pointing at can hold an ether header.
+     */
+    @Override
+    protected void decode() {
+        require(PAYLOAD);
+    }
+
+    /**
+     * Getter method for packet size.
+     *
+     * @return The size of the whole packet, in bytes.
+     */
+    public int getPacketSize() {
+        return length;
+    }
 
-        // Extract ether header information
-        this.packetSize = raw.length;
-        this.destinationMac = Arrays.copyOfRange(raw, DESTINATION_MAC, SOURCE_MAC);
-        this.sourceMac = Arrays.copyOfRange(raw, SOURCE_MAC, ETHERTYPE);
-        this.ethertype = Arrays.copyOfRange(raw, ETHERTYPE, PAYLOAD);
+    /**
+     * Getter method for destination MAC address.
+     *
+     * @return The destination MAC address, in the low 48 bits.
+     */
+    public long getDestinationMac() {
+        return Utility.readU48(buffer, offset + DESTINATION_MAC);
+    }
+
+    /**
+     * Getter method for source MAC address.
+     *
+     * @return The source MAC address, in the low 48 bits.
+     */
+    public long getSourceMac() {
+        return Utility.readU48(buffer, offset + SOURCE_MAC);
     }
 
     /**
      * Getter method for ethertype.
      *
-     * @return The ethertype in a byte array.
+     * @return The ethertype.
      */
-    public byte[] getEthertype() {
-        return ethertype;
+    public int getEthertype() {
+        return Utility.readU16(buffer, offset + ETHERTYPE);
     }
 
     /**
-     * Creates a string representation of this EtherHeader. Includes packet size, destination, source, and ethertype.
+     * Getter method for the payload's offset.
      *
-     * @return A string representation of this EtherHeader.
+     * @return The index in the buffer where the payload starts.
+     */
+    public int getPayloadOffset() {
+        return offset + PAYLOAD;
+    }
+
+    /**
+     * Renders this EtherHeader. Includes packet size, destination, source, and ethertype.
+     *
+     * @param out The renderer to write to.
      */
     @Override
-    public String toString() {
-        return buildHeader("Ether Header",
-                String.format("Packet size = %d bytes", packetSize),
-                String.format("Destination = %s", Utility.byteToHexString(destinationMac, Utility.HexStringType.COLON)),
-                String.format("Source      = %s", Utility.byteToHexString(sourceMac, Utility.HexStringType.COLON)),
-                String.format("Ethertype   = %s (%s)", Utility.byteToHexString(ethertype, Utility.HexStringType.NO_PREFIX), Utility.getEtherType(ethertype)));
+    public void render(TextRenderer out) {
+        int ethertype = getEthertype();
+
+        beginHeader(out, "Ether Header");
+        line(out).append("Packet size = ").decimal(getPacketSize()).append(" bytes").newline();
+        line(out).append("Destination = ").macAddress(getDestinationMac()).newline();
+        line(out).append("Source      = ").macAddress(getSourceMac()).newline();
+        line(out).append("Ethertype   = ").hex(ethertype, 4).append(" (").append(Utility.getEtherType(ethertype)).append(')').newline();
+        endHeader(out);
     }
 }
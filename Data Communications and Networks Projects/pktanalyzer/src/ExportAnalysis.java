@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The ExportAnalysis class writes the decoded header fields of every frame to a columnar file instead of printing
+ * them: one row per frame, with a column per field. Fields a frame doesn't have, such as the ports of an ARP frame, are
+ * 0, and the layers column says which headers the frame did have.
+ *
+ * Workers collect their chunk's rows, and the rows are handed to the ColumnarWriter as workers are merged, so the
+ * file holds the frames in capture order however many threads decoded them.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class ExportAnalysis extends Analysis {
+
+    public static final int TIMESTAMP = 0;                  // Columns of the file.
+    public static final int CAPTURED_LENGTH = 1;
+    public static final int ORIGINAL_LENGTH = 2;
+    public static final int LAYERS = 3;
+    public static final int DESTINATION_MAC = 4;
+    public static final int SOURCE_MAC = 5;
+    public static final int ETHERTYPE = 6;
+    public static final int SOURCE_ADDRESS = 7;
+    public static final int DESTINATION_ADDRESS = 8;
+    public static final int PROTOCOL = 9;
+    public static final int TTL = 10;
+    public static final int IP_LENGTH = 11;
+    public static final int IP_ID = 12;
+    public static final int FRAGMENT = 13;
+    public static final int SOURCE_PORT = 14;
+    public static final int DESTINATION_PORT = 15;
+    public static final int TCP_FLAGS = 16;
+    public static final int TCP_SEQUENCE = 17;
+    public static final int TCP_ACK = 18;
+    public static final int TCP_WINDOW = 19;
+    public static final int ICMP_TYPE = 20;
+    public static final int ICMP_CODE = 21;
+    public static final int PAYLOAD_LENGTH = 22;
+
+    public static final String[] COLUMN_NAMES = {"timestamp", "captured_length", "original_length", "layers",
+            "dst_mac", "src_mac", "ethertype", "src_ip", "dst_ip", "protocol", "ttl", "ip_length", "ip_id", "fragment",
+            "src_port", "dst_port", "tcp_flags", "tcp_seq", "tcp_ack", "tcp_window", "icmp_type", "icmp_code",
+            "payload_length"};
+    public static final int[] COLUMN_TYPES = {ColumnarWriter.I64, ColumnarWriter.U32, ColumnarWriter.U32,
+            ColumnarWriter.U8, ColumnarWriter.I64, ColumnarWriter.I64, ColumnarWriter.U16, ColumnarWriter.U32,
+            ColumnarWriter.U32, ColumnarWriter.U8, ColumnarWriter.U8, ColumnarWriter.U16, ColumnarWriter.U16,
+            ColumnarWriter.U16, ColumnarWriter.U16, ColumnarWriter.U16, ColumnarWriter.U16, ColumnarWriter.U32,
+            ColumnarWriter.U32, ColumnarWriter.U16, ColumnarWriter.U8, ColumnarWriter.U8, ColumnarWriter.U32};
+    public static final boolean[] COLUMN_DICTIONARIES = {false, false, false, false, true, true, false, true, true,
+            false, false, false, false, false, false, false, false, false, false, false, false, false, false};
+
+    public static final int ETHERNET_LAYER = 0x01;          // Bits of the layers column.
+    public static final int IP_LAYER = 0x02;
+    public static final int TCP_LAYER = 0x04;
+    public static final int UDP_LAYER = 0x08;
+    public static final int ICMP_LAYER = 0x10;
+    public static final int MALFORMED = 0x80;               // The frame ended before a header it announced.
+
+    private static final int BATCH = 4096;                  // Rows collected before they are handed to the writer.
+
+    private final ColumnarWriter writer;                    // Null for a worker.
+    private final ColumnarWriter.Rows rows = new ColumnarWriter.Rows(COLUMN_NAMES.length, BATCH);
+
+    /**
+     * Constructor for ExportAnalysis.
+     *
+     * @param writer The file to write the rows to.
+     */
+    public ExportAnalysis(ColumnarWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Adds a row for one frame.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param out Unused, since nothing is printed until the end.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        rows.add();
+        rows.set(TIMESTAMP, frame.getTimestamp());
+        rows.set(CAPTURED_LENGTH, frame.getCapturedLength());
+        rows.set(ORIGINAL_LENGTH, frame.getOriginalLength());
+
+        int layers = 0;
+        try {
+            if(packet.wrap(frame)) {
+                EtherHeader ether = packet.getEtherHeader();
+                rows.set(DESTINATION_MAC, ether.getDestinationMac());
+                rows.set(SOURCE_MAC, ether.getSourceMac());
+                rows.set(ETHERTYPE, ether.getEthertype());
+                layers |= ETHERNET_LAYER;
+
+                IPHeader ip = packet.getIPHeader();
+                if(ip != null) {
+                    layers |= IP_LAYER;
+                    layers = setIP(ip, layers);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            layers |= MALFORMED;
+        }
+        rows.set(LAYERS, layers);
+
+        if(writer != null && rows.size() == BATCH) {
+            flush();
+        }
+    }
+
+    /**
+     * Sets the fields of an IP datagram and its TCP, UDP, or ICMP header.
+     *
+     * @param ip The IP header.
+     * @param layers The layers found so far.
+     * @return The layers found, including these.
+     */
+    private int setIP(IPHeader ip, int layers) {
+        rows.set(SOURCE_ADDRESS, ip.getSourceAddress());
+        rows.set(DESTINATION_ADDRESS, ip.getDestinationAddress());
+        rows.set(PROTOCOL, ip.getProtocol());
+        rows.set(TTL, ip.getTtl());
+        rows.set(IP_LENGTH, ip.getTotalLength());
+        rows.set(IP_ID, ip.getIdentification());
+        rows.set(FRAGMENT, (ip.getFlags() << 13) | ip.getFragmentOffset());
+
+        TCPHeader tcp;
+        UDPHeader udp;
+        ICMPHeader icmp;
+        if((tcp = ip.getTCPHeader()) != null) {
+            rows.set(SOURCE_PORT, tcp.getSourcePort());
+            rows.set(DESTINATION_PORT, tcp.getDestinationPort());
+            rows.set(TCP_FLAGS, tcp.getFlags());
+            rows.set(TCP_SEQUENCE, tcp.getSequenceNumber());
+            rows.set(TCP_ACK, tcp.getAckNumber());
+            rows.set(TCP_WINDOW, tcp.getWindow());
+            rows.set(PAYLOAD_LENGTH, Math.max(0, ip.getPayloadLength() - tcp.getDataOffset()));
+            layers |= TCP_LAYER;
+        } else if((udp = ip.getUDPHeader()) != null) {
+            rows.set(SOURCE_PORT, udp.getSourcePort());
+            rows.set(DESTINATION_PORT, udp.getDestinationPort());
+            rows.set(PAYLOAD_LENGTH, Math.max(0, udp.getDatagramLength() - 8));
+            layers |= UDP_LAYER;
+        } else if((icmp = ip.getICMPHeader()) != null) {
+            rows.set(ICMP_TYPE, icmp.getType());
+            rows.set(ICMP_CODE, icmp.getCode());
+            rows.set(PAYLOAD_LENGTH, Math.max(0, ip.getPayloadLength() - 8));
+            layers |= ICMP_LAYER;
+        } else {
+            rows.set(PAYLOAD_LENGTH, Math.max(0, ip.getPayloadLength()));
+        }
+        return layers;
+    }
+
+    /**
+     * Hands the collected rows to the writer.
+     */
+    private void flush() {
+        try {
+            writer.write(rows);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        rows.clear();
+    }
+
+    /**
+     * Writes the last rows and the footer, then prints a summary of the file.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void finish(TextRenderer out) {
+        flush();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writer.render(out);
+    }
+
+    /**
+     * Workers collect rows that are merged in capture order, so exporting can be split across workers.
+     *
+     * @return True.
+     */
+    @Override
+    public boolean canFork() {
+        return true;
+    }
+
+    /**
+     * A worker collects the rows of its chunk until it is merged.
+     *
+     * @return A new ExportAnalysis without a writer.
+     */
+    @Override
+    public Analysis fork() {
+        return new ExportAnalysis(null);
+    }
+
+    /**
+     * Writes a worker's rows.
+     *
+     * @param worker A worker created by fork().
+     */
+    @Override
+    public void merge(Analysis worker) {
+        try {
+            writer.write(((ExportAnalysis) worker).rows);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+import java.nio.ByteBuffer;
+
+/**
+ * This is an abstract class for compiled capture filters. A filter is a tree of predicates built once by
+ * FilterCompiler; each predicate tests an Ethernet frame by reading a few raw bytes at fixed offsets (or offsets found
+ * from the IP header length), so frames can be rejected before any header objects look at them.
+ *
+ * Only IPv4 over Ethernet is understood: host, net, port, and protocol tests never match anything else. As in tcpdump,
+ * port and TCP flag tests never match fragments after the first, since those don't hold a transport header.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public abstract class Filter {
+
+    private static final int ETHERTYPE = 12;                // Byte location where the ethertype starts.
+    private static final int IP = 14;                       // Byte location where the IP header starts.
+    private static final int IP_TOTAL_LENGTH = IP + 2;      // Byte location where the IP total length starts.
+    private static final int IP_FRAGMENT = IP + 6;          // Byte location where the IP flags and fragment offset start.
+    private static final int IP_PROTOCOL = IP + 9;          // Byte location where the IP protocol starts.
+    private static final int IP_SOURCE = IP + 12;           // Byte location where the IP source address starts.
+    private static final int IP_DESTINATION = IP + 16;      // Byte location where the IP destination address starts.
+    private static final int MIN_IP_FRAME = IP + 20;        // Smallest frame holding an IP header.
+    private static final int TCP_FLAGS = 12;                // Byte location in the TCP header where the flags start.
+    private static final int UDP_CHECKSUM = 6;              // Byte location in the UDP header where the checksum starts.
+
+    public static final int SOURCE = 1;                     // Test the source address or port.
+    public static final int DESTINATION = 2;                // Test the destination address or port.
+    public static final int EITHER = SOURCE | DESTINATION;  // Test the source and the destination.
+
+    /**
+     * Tests a frame.
+     *
+     * @param buffer The buffer holding the frame.
+     * @param offset The index in buffer where the frame starts.
+     * @param length The number of bytes captured of the frame.
+     * @return True if the frame passes the filter.
+     */
+    public abstract boolean matches(ByteBuffer buffer, int offset, int length);
+
+    /**
+     * Tests a frame of a capture.
+     *
+     * @param frame The frame.
+     * @return True if the frame is Ethernet and passes the filter.
+     */
+    public boolean matches(Frame frame) {
+        return frame.getLinkType() == CaptureReader.LINKTYPE_ETHERNET
+                && matches(frame.getBuffer(), frame.getOffset(), frame.getCapturedLength());
+    }
+
+    /**
+     * Uses an index to narrow down the frames that can pass, so the others don't have to be read at all. The frames
+     * found still have to be tested with matches().
+     *
+     * @param index The index of the capture.
+     * @return Every frame that can pass, and maybe others, or null if the index doesn't help (the default).
+     */
+    public CaptureIndex.Postings candidates(CaptureIndex index) {
+        return null;
+    }
+
+    /**
+     * Checks whether a frame holds an IPv4 header.
+     *
+     * @param buffer The buffer holding the frame.
+     * @param offset The index in buffer where the frame starts.
+     * @param length The number of bytes captured of the frame.
+     * @return True if the frame is long enough for an IPv4 header and its ethertype says IP.
+     */
+    private static boolean isIP(ByteBuffer buffer, int offset, int length) {
+        return length >= MIN_IP_FRAME && Utility.readU16(buffer, offset + ETHERTYPE) == Utility.EtherTypes.IP
+                && Utility.highNibble(Utility.readU8(buffer, offset + IP)) == 4;
+    }
+
+    /**
+     * Finds the transport header of an IPv4 frame.
+     *
+     * @param buffer The buffer holding the frame.
+     * @param offset The index in buffer where the frame starts.
+     * @param length The number of bytes captured of the frame.
+     * @param bytes The number of transport header bytes that need to be captured.
+     * @return The index in buffer where the transport header starts, or -1 if the frame isn't IPv4, is a later
+     * fragment, or is too short.
+     */
+    private static int transport(ByteBuffer buffer, int offset, int length, int bytes) {
+        if(!isIP(buffer, offset, length) || Utility.bits(Utility.readU16(buffer, offset + IP_FRAGMENT), 0, 13) != 0) {
+            return -1;
+        }
+        int start = IP + 4 * Utility.lowNibble(Utility.readU8(buffer, offset + IP));
+        return (start + bytes <= length) ? offset + start : -1;
+    }
+
+    /**
+     * Passes frames that pass both of two filters.
+     */
+    static final class And extends Filter {
+
+        private final Filter left;
+        private final Filter right;
+
+        /**
+         * Constructor for And.
+         *
+         * @param left The filter tested first.
+         * @param right The filter tested if the first one passes.
+         */
+        And(Filter left, Filter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int offset, int length) {
+            return left.matches(buffer, offset, length) && right.matches(buffer, offset, length);
+        }
+
+        @Override
+        public CaptureIndex.Postings candidates(CaptureIndex index) {
+            CaptureIndex.Postings a = left.candidates(index);
+            CaptureIndex.Postings b = right.candidates(index);
+            return (a == null) ? b : (b == null) ? a : CaptureIndex.Postings.and(a, b);
+        }
+    }
+
+    /**
+     * Passes frames that pass either of two filters.
+     */
+    static final class Or extends Filter {
+
+        private final Filter left;
+        private final Filter right;
+
+        /**
+         * Constructor for Or.
+         *
+         * @param left The filter tested first.
+         * @param right The filter tested if the first one fails.
+         */
+        Or(Filter left, Filter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int offset, int length) {
+            return left.matches(buffer, offset, length) || right.matches(buffer, offset, length);
+        }
+
+        @Override
+        public CaptureIndex.Postings candidates(CaptureIndex index) {
+            CaptureIndex.Postings a = left.candidates(index);
+            CaptureIndex.Postings b = right.candidates(index);
+            return (a == null || b == null) ? null : CaptureIndex.Postings.or(a, b);
+        }
+    }
+
+    /**
+     * Passes frames that fail a filter.
+     */
+    static final class Not extends Filter {
+
+        private final Filter filter;
+
+        /**
+         * Constructor for Not.
+         *
+         * @param filter The filter to negate.
+         */
+        Not(Filter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int offset, int length) {
+            return !filter.matches(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Passes frames with a given ethertype.
+     */
+    static final class EtherType extends Filter {
+
+        private final int ethertype;
+
+        /**
+         * Constructor for EtherType.
+         *
+         * @param ethertype The ethertype to pass.
+         */
+        EtherType(int ethertype) {
+            this.ethertype = ethertype;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int offset, int length) {
+            return length >= IP && Utility.readU16(buffer, offset + ETHERTYPE) == ethertype;
+        }
+    }
+
+    /**
+     * Passes IPv4 frames carrying a given protocol.
+     */
+    static final class Protocol extends Filter {
+
+        private final int protocol;
+
+        /**
+         * Constructor for Protocol.
+         *
+         * @param protocol The IP protocol number to pass.
+         */
+        Protocol(int protocol) {
+            this.protocol = protocol;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int offset, int length) {
+            return isIP(buffer, offset, length) && Utility.readU8(buffer, offset + IP_PROTOCOL) == protocol;
+        }
+    }
+
+    /**
+     * Passes IPv4 frames whose source or destination address is in a network.
+     */
+    static final class Net extends Filter {
+
+        private final int address;
+        private final int mask;
+        private final int direction;
+
+        /**
+         * Constructor for Net.
+         *
+         * @param address The network address.
+         * @param mask The network mask; -1 for a single host.
+         * @param direction SOURCE, DESTINATION, or EITHER.
+         */
+        Net(int address, int mask, int direction) {
+            this.address = address & mask;
+            this.mask = mask;
+            this.direction = direction;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int offset, int length) {
+            if(!isIP(buffer, offset, length)) {
+                return false;
+            }
+            return ((direction & SOURCE) != 0 && (buffer.getInt(offset + IP_SOURCE) & mask) == address)
+                    || ((direction & DESTINATION) != 0 && (buffer.getInt(offset + IP_DESTINATION) & mask) == address);
+        }
+
+        @Override
+        public CaptureIndex.Postings candidates(CaptureIndex index) {
+            // Only single hosts have posting lists
+            return (mask == -1) ? index.getAddressFrames(address) : null;
+        }
+    }
+
+    /**
+     * Passes TCP or UDP frames whose source or destination port is a given port.
+     */
+    static final class Port extends Filter {
+
+        private final int port;
+        private final int protocol;
+        private final int direction;
+
+        /**
+         * Constructor for Port.
+         *
+         * @param port The port.
+         * @param protocol The IP protocol number (TCP or UDP), or -1 for both.
+         * @param direction SOURCE, DESTINATION, or EITHER.
+         */
+        Port(int port, int protocol, int direction) {
+            this.port = port;
+            this.protocol = protocol;
+            this.direction = direction;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int offset, int length) {
+            int start = transport(buffer, offset, length, 4);
+            if(start < 0) {
+                return false;
+            }
+            int frameProtocol = Utility.readU8(buffer, offset + IP_PROTOCOL);
+            if((protocol < 0) ? (frameProtocol != Utility.Protocols.TCP && frameProtocol != Utility.Protocols.UDP)
+                    : frameProtocol != protocol) {
+                return false;
+            }
+            return ((direction & SOURCE) != 0 && Utility.readU16(buffer, start) == port)
+                    || ((direction & DESTINATION) != 0 && Utility.readU16(buffer, start + 2) == port);
+        }
+    }
+
+    /**
+     * Passes TCP frames whose flags, after masking, compare equal (or unequal) to a value.
+     */
+    static final class TcpFlags extends Filter {
+
+        private final int mask;
+        private final int value;
+        private final boolean equal;
+
+        /**
+         * Constructor for TcpFlags.
+         *
+         * @param mask The flags to look at, as in TCPHeader.getFlags().
+         * @param value The value to compare the masked flags with.
+         * @param equal True to pass frames whose masked flags equal value, false to pass the others.
+         */
+        TcpFlags(int mask, int value, boolean equal) {
+            this.mask = mask;
+            this.value = value;
+            this.equal = equal;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int offset, int length) {
+            int start = transport(buffer, offset, length, TCP_FLAGS + 2);
+            if(start < 0 || Utility.readU8(buffer, offset + IP_PROTOCOL) != Utility.Protocols.TCP) {
+                return false;
+            }
+            int flags = Utility.bits(Utility.readU16(buffer, start + TCP_FLAGS), 0, 9);
+            return ((flags & mask) == value) == equal;
+        }
+    }
+
+    /**
+     * Passes IPv4 frames with a wrong IP header checksum, or a wrong TCP, UDP, or ICMP checksum. Checksums covering
+     * bytes that weren't captured, and the transport checksums of fragments, can't be checked and never match.
+     */
+    static final class BadChecksum extends Filter {
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int offset, int length) {
+            if(!isIP(buffer, offset, length)) {
+                return false;
+            }
+            int headerLength = 4 * Utility.lowNibble(Utility.readU8(buffer, offset + IP));
+            int captured = length - IP;
+            if(Checksum.verify(buffer, offset + IP, headerLength, 0, captured) == Checksum.Status.INVALID) {
+                return true;
+            }
+            if(headerLength < MIN_IP_FRAME - IP || (Utility.readU16(buffer, offset + IP_FRAGMENT) & 0x3fff) != 0) {
+                return false;
+            }
+
+            int protocol = Utility.readU8(buffer, offset + IP_PROTOCOL);
+            int start = offset + IP + headerLength;
+            int payload = Utility.readU16(buffer, offset + IP_TOTAL_LENGTH) - headerLength;
+            int rest = captured - headerLength;
+            long pseudo = Checksum.pseudoHeaderSum(buffer.getInt(offset + IP_SOURCE),
+                    buffer.getInt(offset + IP_DESTINATION), protocol, payload);
+            switch (protocol) {
+                case Utility.Protocols.TCP:
+                    return Checksum.verify(buffer, start, payload, pseudo, rest) == Checksum.Status.INVALID;
+                case Utility.Protocols.UDP:
+                    // A zero UDP checksum means the sender didn't compute one
+                    return payload >= UDP_CHECKSUM + 2 && Utility.readU16(buffer, start + UDP_CHECKSUM) != 0
+                            && Checksum.verify(buffer, start, payload, pseudo, rest) == Checksum.Status.INVALID;
+                case Utility.Protocols.ICMP:
+                    return Checksum.verify(buffer, start, payload, 0, rest) == Checksum.Status.INVALID;
+                default:
+                    return false;
+            }
+        }
+    }
+}
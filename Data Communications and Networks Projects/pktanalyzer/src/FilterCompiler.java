@@ -0,0 +1,363 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The FilterCompiler class turns a tcpdump-like filter expression into a Filter. The language is:
+ *
+ *     expression := term { ("or" | "||") term }
+ *     term       := factor { ["and" | "&&"] factor }
+ *     factor     := ("not" | "!") factor | "(" expression ")" | primitive
+ *     primitive  := ["src" | "dst"] "host" address
+ *                 | ["src" | "dst"] "net" address ["/" bits]
+ *                 | ["tcp" | "udp"] ["src" | "dst"] "port" number
+ *                 | "proto" (name | number)
+ *                 | "ip" | "arp" | "tcp" | "udp" | "icmp"
+ *                 | "badsum"
+ *                 | "tcp[flags]" "&" flags [("=" | "!=") (flags | number)]
+ *     flags      := flag { "|" flag } | "(" flags ")" | number
+ *
+ * where a flag is one of fin, syn, rst, psh, ack, urg, ece, cwr (optionally written tcp-syn and so on). A masked flag
+ * test without a comparison passes frames where any of the masked flags is set. "badsum" passes frames with a wrong IP,
+ * TCP, UDP, or ICMP checksum.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class FilterCompiler {
+
+    private static final Pattern TOKEN = Pattern.compile("\\s*(&&|\\|\\||!=|[()\\[\\]&|!=/]|[^\\s()\\[\\]&|!=/]+)");
+
+    private final List<String> tokens = new ArrayList<>();
+    private int position;
+
+    /**
+     * Compiles a filter expression.
+     *
+     * @param expression The expression.
+     * @return The compiled filter.
+     * @throws IllegalArgumentException If the expression is invalid. The message says what was wrong.
+     */
+    public static Filter compile(String expression) {
+        FilterCompiler compiler = new FilterCompiler(expression);
+        if(compiler.tokens.isEmpty()) {
+            throw new IllegalArgumentException("The filter is empty.");
+        }
+
+        Filter filter = compiler.expression();
+        if(compiler.position < compiler.tokens.size()) {
+            throw compiler.error("Unexpected \"" + compiler.peek() + "\"");
+        }
+        return filter;
+    }
+
+    /**
+     * Constructor for FilterCompiler. Splits the expression into tokens.
+     *
+     * @param expression The expression.
+     */
+    private FilterCompiler(String expression) {
+        Matcher matcher = TOKEN.matcher(expression);
+        int end = 0;
+        while(matcher.find() && matcher.start() == end) {
+            tokens.add(matcher.group(1).toLowerCase());
+            end = matcher.end();
+        }
+        if(!expression.substring(end).trim().isEmpty()) {
+            throw new IllegalArgumentException("Can't read the filter from \"" + expression.substring(end).trim() + "\".");
+        }
+    }
+
+    /**
+     * Parses alternatives joined by "or".
+     *
+     * @return The filter.
+     */
+    private Filter expression() {
+        Filter filter = term();
+        while(accept("or") || accept("||")) {
+            filter = new Filter.Or(filter, term());
+        }
+        return filter;
+    }
+
+    /**
+     * Parses factors joined by "and", which may be left out.
+     *
+     * @return The filter.
+     */
+    private Filter term() {
+        Filter filter = factor();
+        while(position < tokens.size() && !peek().equals("or") && !peek().equals("||") && !peek().equals(")")) {
+            if(!accept("and")) {
+                accept("&&");
+            }
+            filter = new Filter.And(filter, factor());
+        }
+        return filter;
+    }
+
+    /**
+     * Parses a negation, a parenthesized expression, or a primitive.
+     *
+     * @return The filter.
+     */
+    private Filter factor() {
+        if(accept("not") || accept("!")) {
+            return new Filter.Not(factor());
+        }
+        if(accept("(")) {
+            Filter filter = expression();
+            expect(")");
+            return filter;
+        }
+        return primitive();
+    }
+
+    /**
+     * Parses a single test.
+     *
+     * @return The filter.
+     */
+    private Filter primitive() {
+        String token = next();
+        int protocol = -1;
+
+        switch (token) {
+            case "ip":
+                return new Filter.EtherType(Utility.EtherTypes.IP);
+            case "arp":
+                return new Filter.EtherType(Utility.EtherTypes.ARP);
+            case "icmp":
+                return new Filter.Protocol(Utility.Protocols.ICMP);
+            case "badsum":
+                return new Filter.BadChecksum();
+            case "proto":
+                return new Filter.Protocol(protocol(next()));
+            case "tcp":
+            case "udp":
+                protocol = protocol(token);
+                if(protocol == Utility.Protocols.TCP && accept("[")) {
+                    return tcpFlags();
+                }
+                if(position >= tokens.size() || !(peek().equals("port") || peek().equals("src") || peek().equals("dst"))) {
+                    return new Filter.Protocol(protocol);
+                }
+                token = next();
+                break;
+            default:
+                break;
+        }
+
+        int direction = Filter.EITHER;
+        if(token.equals("src") || token.equals("dst")) {
+            direction = token.equals("src") ? Filter.SOURCE : Filter.DESTINATION;
+            token = next();
+        }
+
+        switch (token) {
+            case "port":
+                return new Filter.Port(number(next(), 0xffff), protocol, direction);
+            case "host":
+                if(protocol < 0) {
+                    return new Filter.Net(address(next()), -1, direction);
+                }
+                break;
+            case "net":
+                if(protocol < 0) {
+                    int address = address(next());
+                    int bits = accept("/") ? number(next(), 32) : 32;
+                    return new Filter.Net(address, (bits == 0) ? 0 : -1 << (32 - bits), direction);
+                }
+                break;
+            default:
+                break;
+        }
+        throw error("Unexpected \"" + token + "\"");
+    }
+
+    /**
+     * Parses the rest of a "tcp[flags] & ..." test, after the opening bracket.
+     *
+     * @return The filter.
+     */
+    private Filter tcpFlags() {
+        String field = next();
+        if(!field.equals("flags") && !field.equals("tcpflags")) {
+            throw error("Only tcp[flags] is supported, not tcp[" + field + "]");
+        }
+        expect("]");
+        expect("&");
+        int mask = flags();
+
+        if(accept("=")) {
+            return new Filter.TcpFlags(mask, flags(), true);
+        }
+        if(accept("!=")) {
+            return new Filter.TcpFlags(mask, flags(), false);
+        }
+        return new Filter.TcpFlags(mask, 0, false);
+    }
+
+    /**
+     * Parses a set of TCP flags.
+     *
+     * @return The flags, as in TCPHeader.getFlags().
+     */
+    private int flags() {
+        if(accept("(")) {
+            int flags = flags();
+            expect(")");
+            return flags;
+        }
+
+        int flags = flag(next());
+        while(accept("|")) {
+            flags |= flag(next());
+        }
+        return flags;
+    }
+
+    /**
+     * Parses one TCP flag name or a number.
+     *
+     * @param token The token.
+     * @return The flag's bit, or the number.
+     */
+    private int flag(String token) {
+        switch (token.startsWith("tcp-") ? token.substring(4) : token) {
+            case "fin":
+                return TCPHeader.FIN;
+            case "syn":
+                return TCPHeader.SYN;
+            case "rst":
+                return TCPHeader.RST;
+            case "psh":
+            case "push":
+                return TCPHeader.PSH;
+            case "ack":
+                return TCPHeader.ACK;
+            case "urg":
+                return TCPHeader.URG;
+            case "ece":
+                return TCPHeader.ECE;
+            case "cwr":
+                return TCPHeader.CWR;
+            default:
+                return number(token, 0x1ff);
+        }
+    }
+
+    /**
+     * Parses an IP protocol name or number.
+     *
+     * @param token The token.
+     * @return The protocol number.
+     */
+    private int protocol(String token) {
+        switch (token) {
+            case "icmp":
+                return Utility.Protocols.ICMP;
+            case "tcp":
+                return Utility.Protocols.TCP;
+            case "udp":
+                return Utility.Protocols.UDP;
+            default:
+                return number(token, 0xff);
+        }
+    }
+
+    /**
+     * Parses a dotted IPv4 address. Missing trailing bytes are 0, so "10.1" is 10.1.0.0.
+     *
+     * @param token The token.
+     * @return The address, most significant byte first.
+     */
+    private int address(String token) {
+        String[] parts = token.split("\\.", -1);
+        if(parts.length > 4) {
+            throw error("\"" + token + "\" isn't an IP address");
+        }
+
+        int address = 0;
+        for(int i = 0; i < 4; i++) {
+            address = (address << 8) | ((i < parts.length) ? number(parts[i], 0xff) : 0);
+        }
+        return address;
+    }
+
+    /**
+     * Parses a decimal or 0x-prefixed hex number.
+     *
+     * @param token The token.
+     * @param max The largest allowed value.
+     * @return The number.
+     */
+    private int number(String token, int max) {
+        try {
+            int value = token.startsWith("0x") ? Integer.parseInt(token.substring(2), 16) : Integer.parseInt(token);
+            if(value >= 0 && value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw error("Expected a number up to " + max + ", not \"" + token + "\"");
+    }
+
+    /**
+     * Getter method for the next token, without consuming it.
+     *
+     * @return The next token.
+     */
+    private String peek() {
+        return tokens.get(position);
+    }
+
+    /**
+     * Consumes the next token.
+     *
+     * @return The token.
+     */
+    private String next() {
+        if(position >= tokens.size()) {
+            throw error("The filter ends too soon");
+        }
+        return tokens.get(position++);
+    }
+
+    /**
+     * Consumes the next token if it is the given one.
+     *
+     * @param token The token to look for.
+     * @return True if it was consumed.
+     */
+    private boolean accept(String token) {
+        if(position < tokens.size() && tokens.get(position).equals(token)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Consumes the next token, which must be the given one.
+     *
+     * @param token The token to look for.
+     */
+    private void expect(String token) {
+        if(!accept(token)) {
+            throw error("Expected \"" + token + "\"");
+        }
+    }
+
+    /**
+     * Creates the exception for a syntax error.
+     *
+     * @param message What was wrong.
+     * @return The exception to throw.
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Bad filter: " + message + ".");
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The FilteredAnalysis class runs another analysis over only the frames that pass a filter. Frames are tested on their
+ * raw bytes before the other analysis decodes anything, so frames that are filtered out cost almost nothing.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class FilteredAnalysis extends Analysis {
+
+    private final Filter filter;
+    private final Analysis analysis;
+
+    /**
+     * Constructor for FilteredAnalysis.
+     *
+     * @param filter The filter frames have to pass.
+     * @param analysis The analysis to run over the frames that pass.
+     */
+    public FilteredAnalysis(Filter filter, Analysis analysis) {
+        this.filter = filter;
+        this.analysis = analysis;
+    }
+
+    /**
+     * Starts the other analysis.
+     *
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void start(TextRenderer out) {
+        analysis.start(out);
+    }
+
+    /**
+     * Passes a frame to the other analysis if it passes the filter.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        if(filter.matches(frame)) {
+            analysis.accept(frame, packet, out);
+        }
+    }
+
+    /**
+     * Finishes the other analysis.
+     *
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void finish(TextRenderer out) {
+        analysis.finish(out);
+    }
+
+    /**
+     * A worker can be forked if the other analysis can be forked.
+     *
+     * @return True if the other analysis can be forked.
+     */
+    @Override
+    public boolean canFork() {
+        return analysis.canFork();
+    }
+
+    /**
+     * Filters are stateless, so a worker filters with the same filter as this analysis.
+     *
+     * @return A filtered worker of the other analysis, or null if it can't be forked.
+     */
+    @Override
+    public Analysis fork() {
+        Analysis worker = analysis.fork();
+        return (worker == null) ? null : new FilteredAnalysis(filter, worker);
+    }
+
+    /**
+     * Merges a worker of the other analysis.
+     *
+     * @param worker A worker created by fork().
+     */
+    @Override
+    public void merge(Analysis worker) {
+        analysis.merge(((FilteredAnalysis) worker).analysis);
+    }
+
+    /**
+     * Saves the other analysis' state.
+     *
+     * @param out The stream to write the state to.
+     * @throws IOException If the state can't be written.
+     */
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        analysis.save(out);
+    }
+
+    /**
+     * Restores the other analysis' state.
+     *
+     * @param in The stream to read the state from.
+     * @throws IOException If the state can't be read.
+     */
+    @Override
+    public void restore(DataInputStream in) throws IOException {
+        analysis.restore(in);
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The FlowAnalysis class summarizes a capture by flow instead of printing every packet. Each IPv4 packet is counted
+ * towards its 5-tuple in a FlowTable; a flow is printed when it is evicted for being idle, and the flows still active
+ * at the end of the capture are printed after the last frame, followed by totals.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class FlowAnalysis extends Analysis implements FlowTable.EvictionListener {
+
+    private final FlowTable table;
+    private final FragmentReassembler fragments;
+    private final FlowRecord record = new FlowRecord();
+
+    private TextRenderer out;       // Where evicted flows are printed; set for every frame.
+
+    private long frames;
+    private long ipFrames;
+    private long malformedFrames;
+
+    /**
+     * Constructor for FlowAnalysis.
+     *
+     * @param maxFlows The largest number of flows to keep at once.
+     * @param idleTimeout How long a flow may go without packets before it is evicted, in nanoseconds.
+     * @param fragments Puts fragmented datagrams back together.
+     */
+    public FlowAnalysis(int maxFlows, long idleTimeout, FragmentReassembler fragments) {
+        this.table = new FlowTable(maxFlows, idleTimeout, this);
+        this.fragments = fragments;
+    }
+
+    /**
+     * Counts one frame towards its flow.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param out The renderer to print evicted flows to.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        this.out = out;
+        frames++;
+
+        try {
+            if(!packet.wrap(frame)) {
+                return;
+            }
+            IPHeader ip = packet.getIPHeader();
+            if(ip == null) {
+                return;
+            }
+            ipFrames++;
+
+            // A fragmented datagram is counted once, when its last fragment arrives
+            ip = fragments.accept(ip, frame.getTimestamp(), frame.getOriginalLength());
+            if(ip == null) {
+                return;
+            }
+
+            int sourcePort = 0;
+            int destinationPort = 0;
+            int tcpFlags = 0;
+
+            TCPHeader tcp;
+            UDPHeader udp;
+            ICMPHeader icmp;
+            if((tcp = ip.getTCPHeader()) != null) {
+                sourcePort = tcp.getSourcePort();
+                destinationPort = tcp.getDestinationPort();
+                tcpFlags = tcp.getFlags();
+            } else if((udp = ip.getUDPHeader()) != null) {
+                sourcePort = udp.getSourcePort();
+                destinationPort = udp.getDestinationPort();
+            } else if((icmp = ip.getICMPHeader()) != null) {
+                destinationPort = (icmp.getType() << 8) | icmp.getCode();     // As NetFlow does
+            }
+
+            table.add(ip.getSourceAddress(), ip.getDestinationAddress(), sourcePort, destinationPort, ip.getProtocol(),
+                    fragments.getWireLength(), frame.getTimestamp(), tcpFlags);
+        } catch (IndexOutOfBoundsException e) {
+            malformedFrames++;
+        }
+    }
+
+    /**
+     * Prints a flow that is being evicted.
+     *
+     * @param table The table holding the flow.
+     * @param slot The flow's slot.
+     */
+    @Override
+    public void evicted(FlowTable table, int slot) {
+        record.set(table, slot);
+        record.render(out);
+    }
+
+    /**
+     * Prints the flows that are still active, followed by totals.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void finish(TextRenderer out) {
+        this.out = out;
+        long idle = table.getEvictedFlows();
+        table.evictAll();
+
+        out.newline();
+        record.beginHeader(out, "Flow Summary");
+        record.line(out).append("Frames           = ").decimal(frames).newline();
+        record.line(out).append("IP frames        = ").decimal(ipFrames).newline();
+        record.line(out).append("Malformed frames = ").decimal(malformedFrames).newline();
+        record.line(out).append("IP fragments     = ").decimal(fragments.getFragments()).newline();
+        record.line(out).append("Reassembled      = ").decimal(fragments.getReassembled()).newline();
+        record.line(out).append("Incomplete       = ").decimal(fragments.getTimedOut() + fragments.getDropped() + fragments.getPending()).newline();
+        record.line(out).append("Flows            = ").decimal(table.getTotalFlows()).newline();
+        record.line(out).append("Evicted idle     = ").decimal(idle).newline();
+        record.endHeader(out);
+    }
+
+    /**
+     * Saves the frame counts, the flows still in the table, and the fragment counts.
+     *
+     * @param out The stream to write the state to.
+     * @throws IOException If the state can't be written.
+     */
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        out.writeLong(frames);
+        out.writeLong(ipFrames);
+        out.writeLong(malformedFrames);
+        table.save(out);
+        fragments.save(out);
+    }
+
+    /**
+     * Restores the frame counts, the flows, and the fragment counts.
+     *
+     * @param in The stream to read the state from.
+     * @throws IOException If the state can't be read.
+     */
+    @Override
+    public void restore(DataInputStream in) throws IOException {
+        frames = in.readLong();
+        ipFrames = in.readLong();
+        malformedFrames = in.readLong();
+        table.restore(in);
+        fragments.restore(in);
+    }
+}
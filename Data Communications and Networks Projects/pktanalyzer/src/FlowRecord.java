@@ -0,0 +1,73 @@
+/**
+ * The FlowRecord class prints one flow of a FlowTable on a single line: its 5-tuple, packet and byte counts, when it
+ * was first and last seen, and (for TCP) how many packets carried each flag.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class FlowRecord extends Header {
+
+    private static final String[] FLAG_NAMES = {"FIN", "SYN", "RST", "PSH", "ACK", "URG"};
+
+    private FlowTable table;
+    private int slot;
+
+    /**
+     * Constructor for a FlowRecord that isn't pointing at a flow yet. Use set() to give it one.
+     */
+    public FlowRecord() {
+        super("FLOW");
+    }
+
+    /**
+     * Points this record at a flow.
+     *
+     * @param table The table holding the flow.
+     * @param slot The flow's slot.
+     */
+    public void set(FlowTable table, int slot) {
+        this.table = table;
+        this.slot = slot;
+    }
+
+    /**
+     * Renders this flow on one line.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        int protocol = table.getProtocol(slot);
+        String name = Utility.getProtocolName(protocol);
+
+        line(out);
+        if(name != null) {
+            out.append(name);
+        } else {
+            out.decimal(protocol);
+        }
+        out.append(' ')
+                .ipAddress(table.getSourceAddress(slot)).append(':').decimal(table.getSourcePort(slot)).append(" -> ")
+                .ipAddress(table.getDestinationAddress(slot)).append(':').decimal(table.getDestinationPort(slot))
+                .append(" packets=").decimal(table.getPackets(slot))
+                .append(" bytes=").decimal(table.getBytes(slot));
+        timestamp(out.append(" first="), table.getFirstSeen(slot));
+        timestamp(out.append(" last="), table.getLastSeen(slot));
+
+        if(protocol == Utility.Protocols.TCP) {
+            for(int flag = 0; flag < FlowTable.TRACKED_FLAGS; flag++) {
+                out.append(' ').append(FLAG_NAMES[flag]).append('=').decimal(table.getFlagCount(slot, flag));
+            }
+        }
+        out.newline();
+    }
+
+    /**
+     * Appends a timestamp in seconds, with nine decimal places.
+     *
+     * @param out The renderer to write to.
+     * @param nanos The timestamp, in nanoseconds.
+     */
+    private static void timestamp(TextRenderer out, long nanos) {
+        out.decimal(Math.floorDiv(nanos, 1_000_000_000L)).append('.').decimal(Math.floorMod(nanos, 1_000_000_000L), 9);
+    }
+}
@@ -0,0 +1,510 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * The FlowTable class keeps per-flow statistics for the 5-tuples (source address, destination address, source port,
+ * destination port, protocol) of a capture. It is an open-addressing hash table with linear probing whose keys and
+ * values live in parallel primitive arrays, so a flow costs a few dozen bytes and no objects. Flows that have been idle
+ * for too long are evicted, which keeps the table bounded however many flows the capture holds.
+ *
+ * The table starts small and doubles, rehashing its flows, whenever it would become more than half full, until it is
+ * big enough for the largest number of flows it may keep. A capture with a handful of flows never pays for the rest.
+ *
+ * Flows are referred to by their slot in the table. A slot is only valid until the next call to add() or sweep().
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class FlowTable {
+
+    public static final int TRACKED_FLAGS = 6;      // FIN, SYN, RST, PSH, ACK and URG, in TCPHeader bit order.
+
+    private static final long OCCUPIED = 1L << 63;  // Set in the port key of every used slot; empty slots are 0.
+    private static final int SAMPLE_SIZE = 1024;    // Slots sampled to pick which flows to evict from a full table.
+    private static final int EVICT_FRACTION = 4;    // A full table with no idle flows evicts its oldest quarter.
+    private static final int INITIAL_CAPACITY = 64; // Slots of a new table.
+    private static final int MAX_FLOWS = 1 << 29;   // Most flows a table keeps, so its slots still fit in an int.
+
+    /**
+     * Called for every flow just before it is evicted from the table.
+     */
+    public interface EvictionListener {
+
+        /**
+         * Handles a flow that is about to be evicted.
+         *
+         * @param table The table holding the flow.
+         * @param slot The flow's slot.
+         */
+        void evicted(FlowTable table, int slot);
+    }
+
+    private final int maxFlows;
+    private final long idleTimeout;
+    private final EvictionListener listener;
+    private final int maxCapacity;      // Slots of the table once it has grown as far as it will.
+    private int mask;
+
+    private long[] addresses;           // Source address in the high half, destination address in the low half.
+    private long[] ports;               // OCCUPIED | protocol << 32 | source port << 16 | destination port.
+    private long[] packets;
+    private long[] bytes;
+    private long[] firstSeen;
+    private long[] lastSeen;
+    private int[] flagCounts;           // TRACKED_FLAGS counters per slot.
+
+    private int size;
+    private long lastSweep = Long.MIN_VALUE;
+    private long totalFlows;
+    private long evictedFlows;
+
+    /**
+     * Constructor for FlowTable.
+     *
+     * @param maxFlows The largest number of flows to keep at once. The table only grows this big if it needs to.
+     * @param idleTimeout How long a flow may go without packets before it is evicted, in nanoseconds.
+     * @param listener Called for every evicted flow. May be null.
+     */
+    public FlowTable(int maxFlows, long idleTimeout, EvictionListener listener) {
+        this.maxFlows = Math.min(maxFlows, MAX_FLOWS);
+        this.idleTimeout = idleTimeout;
+        this.listener = listener;
+
+        // Keep the load factor at or below one half so probe sequences stay short
+        this.maxCapacity = Integer.highestOneBit(Math.max(this.maxFlows, 8) * 2 - 1) << 1;
+        allocate(Math.min(INITIAL_CAPACITY, maxCapacity));
+    }
+
+    /**
+     * Replaces the table's arrays with empty ones.
+     *
+     * @param capacity The number of slots, a power of two.
+     */
+    private void allocate(int capacity) {
+        this.mask = capacity - 1;
+        this.addresses = new long[capacity];
+        this.ports = new long[capacity];
+        this.packets = new long[capacity];
+        this.bytes = new long[capacity];
+        this.firstSeen = new long[capacity];
+        this.lastSeen = new long[capacity];
+        this.flagCounts = new int[capacity * TRACKED_FLAGS];
+    }
+
+    /**
+     * Doubles the table until it holds a number of flows at a load factor of at most one half, or has grown as far as
+     * it will, and moves the flows into their slots in the bigger table.
+     *
+     * @param flows The number of flows.
+     */
+    private void growFor(int flows) {
+        int capacity = mask + 1;
+        while(2L * flows > capacity && capacity < maxCapacity) {
+            capacity <<= 1;
+        }
+        if(capacity == mask + 1) {
+            return;
+        }
+
+        long[] oldAddresses = addresses;
+        long[] oldPorts = ports;
+        long[] oldPackets = packets;
+        long[] oldBytes = bytes;
+        long[] oldFirstSeen = firstSeen;
+        long[] oldLastSeen = lastSeen;
+        int[] oldFlagCounts = flagCounts;
+        allocate(capacity);
+
+        for(int from = 0; from < oldPorts.length; from++) {
+            if(oldPorts[from] != 0) {
+                int to = find(oldAddresses[from], oldPorts[from]);
+                addresses[to] = oldAddresses[from];
+                ports[to] = oldPorts[from];
+                packets[to] = oldPackets[from];
+                bytes[to] = oldBytes[from];
+                firstSeen[to] = oldFirstSeen[from];
+                lastSeen[to] = oldLastSeen[from];
+                System.arraycopy(oldFlagCounts, from * TRACKED_FLAGS, flagCounts, to * TRACKED_FLAGS, TRACKED_FLAGS);
+            }
+        }
+    }
+
+    /**
+     * Counts a packet towards its flow, creating the flow if it is new.
+     *
+     * @param source The source address.
+     * @param destination The destination address.
+     * @param sourcePort The source port (0 if the protocol has none).
+     * @param destinationPort The destination port (0 if the protocol has none).
+     * @param protocol The IP protocol number.
+     * @param length The length of the packet, in bytes.
+     * @param timestamp The arrival time of the packet, in nanoseconds.
+     * @param tcpFlags The packet's TCP flags, or 0 if it isn't TCP.
+     * @return The flow's slot.
+     */
+    public int add(int source, int destination, int sourcePort, int destinationPort, int protocol, long length,
+                   long timestamp, int tcpFlags) {
+        if(timestamp - lastSweep >= idleTimeout || lastSweep == Long.MIN_VALUE) {
+            sweep(timestamp);
+        }
+
+        long addressKey = ((long) source << 32) | (destination & 0xffffffffL);
+        long portKey = OCCUPIED | ((long) (protocol & 0xff) << 32) | ((long) (sourcePort & 0xffff) << 16) | (destinationPort & 0xffff);
+
+        int slot = find(addressKey, portKey);
+        if(ports[slot] == 0) {
+            if(size >= maxFlows) {
+                makeRoom(timestamp);
+                slot = find(addressKey, portKey);
+            } else if(2 * (size + 1) > mask + 1) {
+                growFor(size + 1);
+                slot = find(addressKey, portKey);
+            }
+            addresses[slot] = addressKey;
+            ports[slot] = portKey;
+            packets[slot] = 0;
+            bytes[slot] = 0;
+            firstSeen[slot] = timestamp;
+            Arrays.fill(flagCounts, slot * TRACKED_FLAGS, (slot + 1) * TRACKED_FLAGS, 0);
+            size++;
+            totalFlows++;
+        }
+
+        packets[slot]++;
+        bytes[slot] += length;
+        lastSeen[slot] = timestamp;
+        for(int flag = 0; flag < TRACKED_FLAGS; flag++) {
+            flagCounts[slot * TRACKED_FLAGS + flag] += Utility.bit(tcpFlags, flag);
+        }
+        return slot;
+    }
+
+    /**
+     * Finds the slot of a flow, or the empty slot where it would go.
+     *
+     * @param addressKey The packed addresses of the flow.
+     * @param portKey The packed ports and protocol of the flow.
+     * @return The slot.
+     */
+    private int find(long addressKey, long portKey) {
+        long hash = addressKey * 0x9e3779b97f4a7c15L ^ portKey * 0xc2b2ae3d27d4eb4fL;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+        while(ports[slot] != 0 && (ports[slot] != portKey || addresses[slot] != addressKey)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Evicts every flow that has been idle for longer than the idle timeout.
+     *
+     * @param now The current time, in nanoseconds.
+     */
+    public void sweep(long now) {
+        lastSweep = now;
+        evictOlderThan(now - idleTimeout);
+    }
+
+    /**
+     * Frees up room in a full table: first by evicting idle flows, and if there are none, by evicting roughly the
+     * least recently seen quarter of the flows.
+     *
+     * @param now The current time, in nanoseconds.
+     */
+    private void makeRoom(long now) {
+        sweep(now);
+        if(size < maxFlows) {
+            return;
+        }
+
+        // Estimate the last-seen time below which a quarter of the flows fall from an even sample of the table
+        long[] sample = new long[Math.min(SAMPLE_SIZE, size)];
+        int sampled = 0;
+        int step = Math.max(1, (mask + 1) / (2 * sample.length));
+        for(int slot = 0; slot <= mask && sampled < sample.length; slot += step) {
+            if(ports[slot] != 0) {
+                sample[sampled++] = lastSeen[slot];
+            }
+        }
+        Arrays.sort(sample, 0, sampled);
+        evictOlderThan(sample[sampled / EVICT_FRACTION] + 1);
+    }
+
+    /**
+     * Evicts every flow last seen before a given time.
+     *
+     * @param threshold The time, in nanoseconds.
+     */
+    private void evictOlderThan(long threshold) {
+        for(int slot = 0; slot <= mask; slot++) {
+            // Removing a flow shifts a later one into its slot, so look at the same slot again
+            while(ports[slot] != 0 && lastSeen[slot] < threshold) {
+                if(listener != null) {
+                    listener.evicted(this, slot);
+                }
+                remove(slot);
+                evictedFlows++;
+            }
+        }
+    }
+
+    /**
+     * Removes a flow, shifting later flows of the same probe sequence back so that no lookup is cut short.
+     *
+     * @param slot The slot of the flow to remove.
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+
+        while(ports[next] != 0) {
+            long hash = addresses[next] * 0x9e3779b97f4a7c15L ^ ports[next] * 0xc2b2ae3d27d4eb4fL;
+            int home = (int) (hash ^ (hash >>> 32)) & mask;
+
+            // The flow at next can move into the hole if its home slot isn't cyclically between the hole and next
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                move(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        ports[hole] = 0;
+        addresses[hole] = 0;
+        size--;
+    }
+
+    /**
+     * Moves a flow from one slot to another.
+     *
+     * @param from The slot of the flow.
+     * @param to The slot to move it to.
+     */
+    private void move(int from, int to) {
+        addresses[to] = addresses[from];
+        ports[to] = ports[from];
+        packets[to] = packets[from];
+        bytes[to] = bytes[from];
+        firstSeen[to] = firstSeen[from];
+        lastSeen[to] = lastSeen[from];
+        System.arraycopy(flagCounts, from * TRACKED_FLAGS, flagCounts, to * TRACKED_FLAGS, TRACKED_FLAGS);
+    }
+
+    /**
+     * Evicts every flow, for example at the end of a capture.
+     */
+    public void evictAll() {
+        evictOlderThan(Long.MAX_VALUE);
+    }
+
+    /**
+     * Calls an action for the slot of every flow in the table.
+     *
+     * @param action The action to call. It must not add or evict flows.
+     */
+    public void forEach(IntConsumer action) {
+        for(int slot = 0; slot <= mask; slot++) {
+            if(ports[slot] != 0) {
+                action.accept(slot);
+            }
+        }
+    }
+
+    /**
+     * Writes every flow in the table, and the table's counts, to a checkpoint.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the flows can't be written.
+     */
+    public void save(DataOutputStream out) throws IOException {
+        out.writeLong(lastSweep);
+        out.writeLong(totalFlows);
+        out.writeLong(evictedFlows);
+        out.writeInt(size);
+        for(int slot = 0; slot <= mask; slot++) {
+            if(ports[slot] != 0) {
+                out.writeLong(addresses[slot]);
+                out.writeLong(ports[slot]);
+                out.writeLong(packets[slot]);
+                out.writeLong(bytes[slot]);
+                out.writeLong(firstSeen[slot]);
+                out.writeLong(lastSeen[slot]);
+                for(int flag = 0; flag < TRACKED_FLAGS; flag++) {
+                    out.writeInt(flagCounts[slot * TRACKED_FLAGS + flag]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads back flows written by save() into this table, which should be empty.
+     *
+     * @param in The stream to read from.
+     * @throws IOException If the flows can't be read, or there are more than the table can hold.
+     */
+    public void restore(DataInputStream in) throws IOException {
+        lastSweep = in.readLong();
+        totalFlows = in.readLong();
+        evictedFlows = in.readLong();
+        int count = in.readInt();
+        if(count < 0 || size + count > maxFlows) {
+            throw new IOException("Saved flows don't fit in the table.");
+        }
+        growFor(size + count);
+        for(int i = 0; i < count; i++) {
+            long addressKey = in.readLong();
+            long portKey = in.readLong();
+            int slot = find(addressKey, portKey);
+            addresses[slot] = addressKey;
+            ports[slot] = portKey;
+            packets[slot] = in.readLong();
+            bytes[slot] = in.readLong();
+            firstSeen[slot] = in.readLong();
+            lastSeen[slot] = in.readLong();
+            for(int flag = 0; flag < TRACKED_FLAGS; flag++) {
+                flagCounts[slot * TRACKED_FLAGS + flag] = in.readInt();
+            }
+            size++;
+        }
+    }
+
+    /**
+     * Getter method for the source address of a flow.
+     *
+     * @param slot The flow's slot.
+     * @return The source address.
+     */
+    public int getSourceAddress(int slot) {
+        return (int) (addresses[slot] >>> 32);
+    }
+
+    /**
+     * Getter method for the destination address of a flow.
+     *
+     * @param slot The flow's slot.
+     * @return The destination address.
+     */
+    public int getDestinationAddress(int slot) {
+        return (int) addresses[slot];
+    }
+
+    /**
+     * Getter method for the source port of a flow.
+     *
+     * @param slot The flow's slot.
+     * @return The source port.
+     */
+    public int getSourcePort(int slot) {
+        return (int) Utility.bits(ports[slot], 16, 16);
+    }
+
+    /**
+     * Getter method for the destination port of a flow.
+     *
+     * @param slot The flow's slot.
+     * @return The destination port.
+     */
+    public int getDestinationPort(int slot) {
+        return (int) Utility.bits(ports[slot], 0, 16);
+    }
+
+    /**
+     * Getter method for the protocol of a flow.
+     *
+     * @param slot The flow's slot.
+     * @return The IP protocol number.
+     */
+    public int getProtocol(int slot) {
+        return (int) Utility.bits(ports[slot], 32, 8);
+    }
+
+    /**
+     * Getter method for the number of packets of a flow.
+     *
+     * @param slot The flow's slot.
+     * @return The number of packets.
+     */
+    public long getPackets(int slot) {
+        return packets[slot];
+    }
+
+    /**
+     * Getter method for the number of bytes of a flow.
+     *
+     * @param slot The flow's slot.
+     * @return The number of bytes.
+     */
+    public long getBytes(int slot) {
+        return bytes[slot];
+    }
+
+    /**
+     * Getter method for when a flow was first seen.
+     *
+     * @param slot The flow's slot.
+     * @return The arrival time of the flow's first packet, in nanoseconds.
+     */
+    public long getFirstSeen(int slot) {
+        return firstSeen[slot];
+    }
+
+    /**
+     * Getter method for when a flow was last seen.
+     *
+     * @param slot The flow's slot.
+     * @return The arrival time of the flow's latest packet, in nanoseconds.
+     */
+    public long getLastSeen(int slot) {
+        return lastSeen[slot];
+    }
+
+    /**
+     * Getter method for how many of a flow's packets had a TCP flag set.
+     *
+     * @param slot The flow's slot.
+     * @param flag The flag's bit position in TCPHeader.getFlags(), from 0 (FIN) to 5 (URG).
+     * @return The number of packets with the flag set.
+     */
+    public int getFlagCount(int slot, int flag) {
+        return flagCounts[slot * TRACKED_FLAGS + flag];
+    }
+
+    /**
+     * Getter method for the number of flows in the table.
+     *
+     * @return The number of flows in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Getter method for the number of slots.
+     *
+     * @return The number of slots the table has grown to.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Getter method for the number of flows ever added.
+     *
+     * @return The number of flows ever added.
+     */
+    public long getTotalFlows() {
+        return totalFlows;
+    }
+
+    /**
+     * Getter method for the number of flows evicted.
+     *
+     * @return The number of flows evicted, including by evictAll().
+     */
+    public long getEvictedFlows() {
+        return evictedFlows;
+    }
+}
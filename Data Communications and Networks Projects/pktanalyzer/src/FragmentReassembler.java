@@ -0,0 +1,510 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The FragmentReassembler class puts fragmented IPv4 datagrams back together, so that transport headers are only ever
+ * decoded from whole datagrams. Fragments are keyed by source address, destination address, identification, and
+ * protocol, and may arrive in any order, more than once, or overlapping.
+ *
+ * Memory is bounded: the fragments waiting for the rest of their datagram are copied into a shared SegmentPool, and at
+ * most a fixed number of datagrams are waited for. Both the pool's segments and the per-datagram bookkeeping are
+ * created as fragments first need them, up to their caps, and recycled from then on, so a run with few fragments
+ * doesn't pay for the whole cap. When the pool or the datagram slots run out, the datagrams that have waited longest
+ * are dropped. Datagrams that don't complete within the timeout are dropped too.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class FragmentReassembler {
+
+    private static final int MAX_DATAGRAM = 65535;                          // Largest IPv4 datagram, header included.
+    private static final int MAX_HEADER = 60;                               // Largest IPv4 header.
+    private static final int UNIT = 8;                                      // Fragment offsets count 8-byte units.
+    private static final int BLOCKS = (MAX_DATAGRAM + SegmentPool.SEGMENT_SIZE - 1) / SegmentPool.SEGMENT_SIZE;
+    private static final int UNIT_WORDS = (MAX_DATAGRAM / UNIT + 64) / 64;  // Longs in the bitmap of received units.
+
+    private static final int FLAGS_FRAGMENT_OFFSET = 6;                     // Byte location of flags and fragment offset.
+    private static final int TOTAL_LENGTH = 2;                              // Byte location of total length.
+    private static final int HEADER_CHECKSUM = 10;                          // Byte location of the header checksum.
+
+    /**
+     * A datagram waiting for the rest of its fragments. Slots are created when first needed and reused.
+     */
+    private static final class Datagram {
+
+        private final SegmentPool.Segment[] blocks = new SegmentPool.Segment[BLOCKS];  // Payload, by offset.
+        private final long[] received = new long[UNIT_WORDS];                           // Bit per 8-byte unit.
+        private final byte[] header = new byte[MAX_HEADER];                            // From the first fragment.
+
+        private int headerLength;           // 0 until the first fragment arrives.
+        private int payloadLength;          // -1 until the last fragment arrives.
+        private int receivedUnits;
+        private long firstSeen;
+        private int wireLength;
+        private Datagram nextFree;
+    }
+
+    /**
+     * The addresses, identification and protocol of a datagram.
+     */
+    private static final class Key {
+
+        private long addresses;
+        private int idProtocol;
+
+        /**
+         * Sets the key to a fragment's datagram.
+         *
+         * @param ip The fragment.
+         * @return This key.
+         */
+        private Key set(IPHeader ip) {
+            this.addresses = ((long) ip.getSourceAddress() << 32) | (ip.getDestinationAddress() & 0xffffffffL);
+            this.idProtocol = (ip.getIdentification() << 8) | ip.getProtocol();
+            return this;
+        }
+
+        /**
+         * Sets the key to a copy of another one.
+         *
+         * @param other The key to copy.
+         * @return This key.
+         */
+        private Key set(Key other) {
+            this.addresses = other.addresses;
+            this.idProtocol = other.idProtocol;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).addresses == addresses && ((Key) other).idProtocol == idProtocol;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = addresses * 0x9e3779b97f4a7c15L ^ idProtocol * 0xc2b2ae3d27d4eb4fL;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    private final SegmentPool pool;
+    private final long timeout;
+    private final int maxDatagrams;
+    private int slots;                                                  // Datagram slots created so far.
+
+    private final Map<Key, Datagram> pending = new LinkedHashMap<>();  // Oldest first.
+    private final Key lookup = new Key();                               // Reused to look up pending datagrams
+    private Datagram free;                                              // Unused slots, linked through nextFree.
+
+    private final byte[] output = new byte[MAX_DATAGRAM];               // Holds the last reassembled datagram
+    private final ByteBuffer outputBuffer = ByteBuffer.wrap(output);
+    private final IPHeader reassembled = new IPHeader();
+
+    private long lastSweep = Long.MIN_VALUE;
+    private int lastWireLength;
+    private long fragments;
+    private long reassembledDatagrams;
+    private long timedOut;
+    private long dropped;
+    private long malformed;
+
+    /**
+     * Constructor for FragmentReassembler.
+     *
+     * @param poolBytes The most memory used to hold fragments, in bytes.
+     * @param maxDatagrams The most datagrams waited for at once.
+     * @param timeout How long to wait for the rest of a datagram after its first fragment arrives, in nanoseconds.
+     */
+    public FragmentReassembler(long poolBytes, int maxDatagrams, long timeout) {
+        this.pool = new SegmentPool(poolBytes);
+        this.timeout = timeout;
+        this.maxDatagrams = maxDatagrams;
+    }
+
+    /**
+     * Handles one IP datagram or fragment.
+     *
+     * @param ip The datagram or fragment.
+     * @param timestamp Its arrival time, in nanoseconds.
+     * @param wireLength The length of the frame that carried it, in bytes.
+     * @return The datagram itself if it isn't a fragment; the whole datagram if this was its missing fragment (only
+     * valid until the next call); null otherwise.
+     */
+    public IPHeader accept(IPHeader ip, long timestamp, int wireLength) {
+        if(timestamp - lastSweep >= timeout || lastSweep == Long.MIN_VALUE) {
+            sweep(timestamp);
+        }
+
+        if(!ip.isFragment()) {
+            lastWireLength = wireLength;
+            return ip;
+        }
+        fragments++;
+
+        int headerLength = ip.getHeaderLength();
+        int start = ip.getFragmentOffset() * UNIT;
+        int length = Math.min(ip.getTotalLength(), ip.getLength()) - headerLength;
+        if(headerLength < 20 || length < 0) {
+            throw new IndexOutOfBoundsException("IP fragment is shorter than its header");
+        }
+        if(start + length > MAX_DATAGRAM - headerLength) {
+            malformed++;
+            return null;
+        }
+
+        Datagram datagram = pending.get(lookup.set(ip));
+        if(datagram == null) {
+            datagram = allocate();
+            if(datagram == null) {
+                dropped++;
+                return null;
+            }
+            datagram.firstSeen = timestamp;
+            pending.put(new Key().set(lookup), datagram);
+        }
+        datagram.wireLength += wireLength;
+
+        if(start == 0) {
+            ip.getBuffer().get(ip.getOffset(), datagram.header, 0, headerLength);
+            datagram.headerLength = headerLength;
+        }
+        if(!ip.isMoreFragments()) {
+            datagram.payloadLength = start + length;
+        }
+        if(!store(datagram, ip.getBuffer(), ip.getOffset() + headerLength, start, length)) {
+            // Dropping older datagrams didn't free enough memory for this one
+            pending.remove(lookup);
+            release(datagram);
+            dropped++;
+            return null;
+        }
+
+        if(!isComplete(datagram)) {
+            return null;
+        }
+        pending.remove(lookup);
+        if(datagram.headerLength + datagram.payloadLength > MAX_DATAGRAM) {
+            // The first fragment's header was longer than the later fragments allowed for
+            release(datagram);
+            malformed++;
+            return null;
+        }
+        build(datagram);
+        lastWireLength = datagram.wireLength;
+        release(datagram);
+        reassembledDatagrams++;
+        return reassembled;
+    }
+
+    /**
+     * Takes a free datagram slot, creating one if there are fewer than maxDatagrams, and otherwise dropping the oldest
+     * pending datagram if there is no free one.
+     *
+     * @return A cleared slot, or null if there are no slots at all.
+     */
+    private Datagram allocate() {
+        if(free == null && slots < maxDatagrams) {
+            free = new Datagram();
+            slots++;
+        }
+        if(free == null && !dropOldest(null)) {
+            return null;
+        }
+
+        Datagram datagram = free;
+        free = datagram.nextFree;
+        datagram.headerLength = 0;
+        datagram.payloadLength = -1;
+        datagram.receivedUnits = 0;
+        datagram.wireLength = 0;
+        return datagram;
+    }
+
+    /**
+     * Copies a fragment's payload into a datagram and marks its units as received. Where fragments overlap, the copy
+     * that arrived first is kept, as TCPStream does for TCP segments, so a later fragment can't rewrite data that has
+     * already been received. A unit the fragment only covers part of is filled in but not marked, unless the fragment
+     * ends the datagram, so that the fragment with the rest of it still fills it in.
+     *
+     * @param datagram The datagram.
+     * @param buffer The buffer holding the fragment.
+     * @param from The index in buffer where the payload starts.
+     * @param start The offset of the payload in the datagram.
+     * @param length The length of the payload.
+     * @return False if there wasn't enough memory to hold it.
+     */
+    private boolean store(Datagram datagram, ByteBuffer buffer, int from, int start, int length) {
+        int end = start + length;
+        int unit = start / UNIT;
+        int lastUnit = (end + UNIT - 1) / UNIT;
+        while(unit < lastUnit) {
+            // Find the next run of units that haven't been received yet
+            if((datagram.received[unit >>> 6] & (1L << unit)) != 0) {
+                unit++;
+                continue;
+            }
+            int runStart = unit;
+            while(unit < lastUnit && (datagram.received[unit >>> 6] & (1L << unit)) == 0) {
+                unit++;
+            }
+
+            int copyStart = Math.max(start, runStart * UNIT);
+            int copyEnd = Math.min(end, unit * UNIT);
+            if(!copy(datagram, buffer, from + copyStart - start, copyStart, copyEnd - copyStart)) {
+                return false;
+            }
+            for(int u = runStart; u < unit; u++) {
+                if(Math.min(end, (u + 1) * UNIT) - u * UNIT == UNIT || end == datagram.payloadLength) {
+                    datagram.received[u >>> 6] |= 1L << u;
+                    datagram.receivedUnits++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies bytes into a datagram's blocks, taking segments from the pool for blocks that don't have one yet.
+     *
+     * @param datagram The datagram.
+     * @param buffer The buffer holding the bytes.
+     * @param from The index in buffer where the bytes start.
+     * @param start The offset of the bytes in the datagram.
+     * @param length The number of bytes.
+     * @return False if there wasn't enough memory to hold them.
+     */
+    private boolean copy(Datagram datagram, ByteBuffer buffer, int from, int start, int length) {
+        int position = start;
+        while(position < start + length) {
+            int block = position / SegmentPool.SEGMENT_SIZE;
+            int inBlock = position % SegmentPool.SEGMENT_SIZE;
+            int chunk = Math.min(SegmentPool.SEGMENT_SIZE - inBlock, start + length - position);
+
+            if(datagram.blocks[block] == null) {
+                SegmentPool.Segment segment;
+                while((segment = pool.acquire()) == null) {
+                    if(!dropOldest(datagram)) {
+                        return false;
+                    }
+                }
+                datagram.blocks[block] = segment;
+            }
+            buffer.get(from + position - start, datagram.blocks[block].data, inBlock, chunk);
+            position += chunk;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether every fragment of a datagram has arrived.
+     *
+     * @param datagram The datagram.
+     * @return True if the datagram can be put together.
+     */
+    private boolean isComplete(Datagram datagram) {
+        if(datagram.headerLength == 0 || datagram.payloadLength < 0) {
+            return false;
+        }
+
+        int units = (datagram.payloadLength + UNIT - 1) / UNIT;
+        if(datagram.receivedUnits < units) {
+            return false;
+        }
+        // Fragments past the end may have been counted too, so check the units that matter
+        for(int word = 0; word < units >>> 6; word++) {
+            if(datagram.received[word] != -1L) {
+                return false;
+            }
+        }
+        if((units & 63) == 0) {
+            return true;
+        }
+        long last = (1L << (units & 63)) - 1;
+        return (datagram.received[units >>> 6] & last) == last;
+    }
+
+    /**
+     * Copies a complete datagram into the output buffer and points the reassembled header at it. The header loses its
+     * fragment offset and more fragments flag, and gets the total length of the whole datagram. Its checksum is updated
+     * for those changes (as in RFC 1624), so it stays valid if the first fragment's was, and invalid if it wasn't.
+     *
+     * @param datagram The datagram.
+     */
+    private void build(Datagram datagram) {
+        int headerLength = datagram.headerLength;
+        System.arraycopy(datagram.header, 0, output, 0, headerLength);
+        for(int position = 0; position < datagram.payloadLength; position += SegmentPool.SEGMENT_SIZE) {
+            int chunk = Math.min(SegmentPool.SEGMENT_SIZE, datagram.payloadLength - position);
+            System.arraycopy(datagram.blocks[position / SegmentPool.SEGMENT_SIZE].data, 0, output, headerLength + position, chunk);
+        }
+
+        int totalLength = headerLength + datagram.payloadLength;
+        int flags = outputBuffer.getShort(FLAGS_FRAGMENT_OFFSET) & 0x4000;
+        long sum = (~outputBuffer.getShort(HEADER_CHECKSUM) & 0xffff)
+                + (~outputBuffer.getShort(TOTAL_LENGTH) & 0xffff) + totalLength
+                + (~outputBuffer.getShort(FLAGS_FRAGMENT_OFFSET) & 0xffff) + flags;
+        outputBuffer.putShort(TOTAL_LENGTH, (short) totalLength);
+        outputBuffer.putShort(FLAGS_FRAGMENT_OFFSET, (short) flags);
+        outputBuffer.putShort(HEADER_CHECKSUM, (short) ~Checksum.fold(sum));
+        reassembled.wrap(outputBuffer, 0, totalLength);
+    }
+
+    /**
+     * Drops the datagram that has waited longest.
+     *
+     * @param keep A datagram that must not be dropped, or null.
+     * @return False if there was nothing to drop.
+     */
+    private boolean dropOldest(Datagram keep) {
+        Iterator<Datagram> iterator = pending.values().iterator();
+        while(iterator.hasNext()) {
+            Datagram datagram = iterator.next();
+            if(datagram != keep) {
+                iterator.remove();
+                release(datagram);
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives a datagram's memory and slot back.
+     *
+     * @param datagram The datagram, already removed from the pending datagrams.
+     */
+    private void release(Datagram datagram) {
+        for(int block = 0; block < BLOCKS; block++) {
+            if(datagram.blocks[block] != null) {
+                pool.release(datagram.blocks[block]);
+                datagram.blocks[block] = null;
+            }
+        }
+        Arrays.fill(datagram.received, 0L);
+
+        datagram.nextFree = free;
+        free = datagram;
+    }
+
+    /**
+     * Drops every datagram that has waited longer than the timeout.
+     *
+     * @param now The current time, in nanoseconds.
+     */
+    public void sweep(long now) {
+        lastSweep = now;
+
+        // Datagrams are kept in the order they started, so stop at the first one still in time
+        Iterator<Datagram> iterator = pending.values().iterator();
+        while(iterator.hasNext()) {
+            Datagram datagram = iterator.next();
+            if(now - datagram.firstSeen <= timeout) {
+                break;
+            }
+            iterator.remove();
+            release(datagram);
+            timedOut++;
+        }
+    }
+
+    /**
+     * Writes the counts to a checkpoint. The fragments of pending datagrams aren't saved, so those datagrams are
+     * counted as dropped in the checkpoint; this reassembler carries on waiting for them.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the counts can't be written.
+     */
+    public void save(DataOutputStream out) throws IOException {
+        out.writeLong(lastSweep);
+        out.writeLong(fragments);
+        out.writeLong(reassembledDatagrams);
+        out.writeLong(timedOut);
+        out.writeLong(dropped + pending.size());
+        out.writeLong(malformed);
+    }
+
+    /**
+     * Reads back counts written by save(), replacing this reassembler's own.
+     *
+     * @param in The stream to read from.
+     * @throws IOException If the counts can't be read.
+     */
+    public void restore(DataInputStream in) throws IOException {
+        lastSweep = in.readLong();
+        fragments = in.readLong();
+        reassembledDatagrams = in.readLong();
+        timedOut = in.readLong();
+        dropped = in.readLong();
+        malformed = in.readLong();
+    }
+
+    /**
+     * Getter method for the wire length of the last datagram returned by accept().
+     *
+     * @return The total length of the frames that carried it, in bytes.
+     */
+    public int getWireLength() {
+        return lastWireLength;
+    }
+
+    /**
+     * Getter method for the number of fragments seen.
+     *
+     * @return The number of fragments seen.
+     */
+    public long getFragments() {
+        return fragments;
+    }
+
+    /**
+     * Getter method for the number of datagrams put back together.
+     *
+     * @return The number of reassembled datagrams.
+     */
+    public long getReassembled() {
+        return reassembledDatagrams;
+    }
+
+    /**
+     * Getter method for the number of datagrams that never completed.
+     *
+     * @return The number of datagrams dropped after the timeout.
+     */
+    public long getTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Getter method for the number of datagrams dropped for lack of memory.
+     *
+     * @return The number of datagrams dropped to make room for others.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Getter method for the number of fragments that didn't fit in a datagram.
+     *
+     * @return The number of fragments ending past the largest possible datagram.
+     */
+    public long getMalformed() {
+        return malformed;
+    }
+
+    /**
+     * Getter method for the number of datagrams still waiting for fragments.
+     *
+     * @return The number of pending datagrams.
+     */
+    public int getPending() {
+        return pending.size();
+    }
+}
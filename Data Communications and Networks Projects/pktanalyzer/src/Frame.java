@@ -0,0 +1,137 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The Frame class represents one record read out of a capture file. It does not own the frame's bytes; it only points
+ * at the slice of a (usually memory-mapped) buffer that holds them, so one Frame can be reused for every record.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class Frame extends Header {
+
+    private long number;
+    private long seconds;
+    private int nanos;
+    private int originalLength;
+    private int linkType;
+    private long position;
+
+    /**
+     * Constructor for Frame. The frame is empty until a CaptureReader fills it in.
+     */
+    public Frame() {
+        super("FRAME");
+    }
+
+    /**
+     * Points this frame at a new record. Called by CaptureReader.
+     *
+     * @param number The 1-based number of the record in its capture.
+     * @param seconds The arrival time, in seconds since the epoch.
+     * @param nanos The fraction of a second of the arrival time, in nanoseconds.
+     * @param capturedLength The number of bytes that were captured.
+     * @param originalLength The number of bytes that were on the wire.
+     * @param linkType The link-layer header type of the record.
+     * @param position The file offset where the record starts.
+     * @param buffer The buffer holding the captured bytes.
+     * @param offset The index in buffer where the captured bytes start.
+     */
+    void set(long number, long seconds, int nanos, int capturedLength, int originalLength, int linkType, long position,
+             ByteBuffer buffer, int offset) {
+        this.number = number;
+        this.seconds = seconds;
+        this.nanos = nanos;
+        this.originalLength = originalLength;
+        this.linkType = linkType;
+        this.position = position;
+
+        wrap(buffer, offset, capturedLength);
+    }
+
+    /**
+     * Getter method for the frame number.
+     *
+     * @return The 1-based number of the record in its capture.
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * Getter method for the arrival time's seconds.
+     *
+     * @return The arrival time, in seconds since the epoch.
+     */
+    public long getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * Getter method for the arrival time's fraction of a second.
+     *
+     * @return The fraction of a second of the arrival time, in nanoseconds.
+     */
+    public int getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Getter method for the arrival time.
+     *
+     * @return The arrival time, in nanoseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return seconds * 1_000_000_000L + nanos;
+    }
+
+    /**
+     * Getter method for the captured length.
+     *
+     * @return The number of bytes that were captured.
+     */
+    public int getCapturedLength() {
+        return length;
+    }
+
+    /**
+     * Getter method for the original length.
+     *
+     * @return The number of bytes that were on the wire.
+     */
+    public int getOriginalLength() {
+        return originalLength;
+    }
+
+    /**
+     * Getter method for the link type.
+     *
+     * @return The link-layer header type of the record (1 is Ethernet).
+     */
+    public int getLinkType() {
+        return linkType;
+    }
+
+    /**
+     * Getter method for the record's file offset.
+     *
+     * @return The file offset where the record starts.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Renders this Frame. Includes the frame number, arrival time, lengths, and link type.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        line(out).append("----- Frame ").decimal(number).append(" -----").newline();
+        line(out).newline();
+        line(out).append("Arrival time    = ").decimal(seconds).append('.').decimal(nanos, 9).append(" seconds").newline();
+        line(out).append("Captured length = ").decimal(length).append(" bytes").newline();
+        line(out).append("Original length = ").decimal(originalLength).append(" bytes").newline();
+        line(out).append("Link type       = ").decimal(linkType).append(" (").append((linkType == CaptureReader.LINKTYPE_ETHERNET) ? "Ethernet" : "unsupported").append(')').newline();
+        endHeader(out);
+    }
+}
@@ -1,13 +1,23 @@
+import java.nio.ByteBuffer;
+
 /**
  * This is an abstract class for all the different types of headers. All headers must have a prefix (for example,
  * EtherHeader has prefix "EH").
  *
+ * A header is a view over a slice of a (big endian) ByteBuffer: it never copies the bytes it describes, and it can be
+ * pointed at a new slice with wrap(), so the same header objects can be reused for every frame of a capture. Fields are
+ * decoded lazily: wrap() only records where the header is, and each getter reads its field when it is called.
+ *
  * @author Steven Yu (sky3947)
  */
 public abstract class Header {
 
     private String PFX;
 
+    protected ByteBuffer buffer;    // The buffer this header is a view over.
+    protected int offset;           // The index in buffer where this header starts.
+    protected int length;           // The number of bytes from offset on that belong to this header and its payload.
+
     /**
      * The constructor for a header.
      *
@@ -17,6 +27,67 @@ public abstract class Header {
         PFX = pfx;
     }
 
+    /**
+     * Points this header at a new slice of a buffer. Nothing is decoded until a getter asks for it.
+     *
+     * @param buffer The buffer holding the header. Must be big endian.
+     * @param offset The index in buffer where the header starts.
+     * @param length The number of bytes belonging to the header and its payload.
+     */
+    public void wrap(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+
+        decode();
+    }
+
+    /**
+     * Checks the header after it has been pointed at a new slice, and forgets anything decoded from the previous one.
+     * Does nothing by default.
+     */
+    protected void decode() {
+    }
+
+    /**
+     * Makes sure the slice is long enough to hold a number of bytes. Since the buffer is usually shared with other
+     * frames, reading past the end of the slice wouldn't fail on its own.
+     *
+     * @param bytes The number of bytes the slice needs.
+     */
+    protected void require(int bytes) {
+        if(bytes > length) {
+            throw new IndexOutOfBoundsException(String.format("%s needs %d bytes, only %d captured", PFX, bytes, length));
+        }
+    }
+
+    /**
+     * Getter method for the buffer this header is a view over.
+     *
+     * @return The buffer holding the header. Only valid for as long as the slice is.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Getter method for the header's offset in its buffer.
+     *
+     * @return The index in the buffer where the header starts.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Getter method for the header's length.
+     *
+     * @return The number of bytes belonging to the header and its payload.
+     */
+    public int getLength() {
+        return length;
+    }
+
     /**
      * Gets the header's prefix.
      *
@@ -31,7 +102,9 @@ public abstract class Header {
      *
      * @param text The String to print.
      * @return A formatted String.
+     * @deprecated Builds a String for every line. Use {@link #line(TextRenderer)} in render() instead.
      */
+    @Deprecated
     public String prettyPrint(String text) {
         return getPrefix() + ": \t" + text + "\n";
     }
@@ -39,25 +112,71 @@ public abstract class Header {
     /**
      * Function to streamline the printing of headers.
      *
+     * @param title The title of the section.
      * @param strings The individual parts of the header to print.
      * @return The finished header section.
+     * @deprecated Builds a String for every line. Use {@link #beginHeader(TextRenderer, String)},
+     *             {@link #line(TextRenderer)} and {@link #endHeader(TextRenderer)} in render() instead.
      */
+    @Deprecated
     public String buildHeader(String title, String ... strings) {
-        String output = prettyPrint(String.format("----- %s -----", title));
-        output += prettyPrint("");
+        StringBuilder output = new StringBuilder(prettyPrint("----- " + title + " -----"));
+        output.append(prettyPrint(""));
 
         for(String str : strings) {
-            output += prettyPrint(str);
+            output.append(prettyPrint(str));
         }
-        output += prettyPrint("");
+        output.append(prettyPrint(""));
 
-        return output;
+        return output.toString();
     }
 
+    /**
+     * Starts a line of output with the header's prefix.
+     *
+     * @param out The renderer to write to.
+     * @return The renderer, ready for the rest of the line.
+     */
+    protected TextRenderer line(TextRenderer out) {
+        return out.append(PFX).append(": \t");
+    }
+
+    /**
+     * Writes the title and blank line that start a header section.
+     *
+     * @param out The renderer to write to.
+     * @param title The title of the section.
+     */
+    protected void beginHeader(TextRenderer out, String title) {
+        line(out).append("----- ").append(title).append(" -----").newline();
+        line(out).newline();
+    }
+
+    /**
+     * Writes the blank line that ends a header section.
+     *
+     * @param out The renderer to write to.
+     */
+    protected void endHeader(TextRenderer out) {
+        line(out).newline();
+    }
+
+    /**
+     * Writes the text representation of the header (and anything it encapsulates) to a renderer.
+     *
+     * @param out The renderer to write to.
+     */
+    public abstract void render(TextRenderer out);
+
     /**
      * Creates a String representation of the header.
      *
      * @return A String representation of the header.
      */
-    public abstract String toString();
+    @Override
+    public String toString() {
+        TextRenderer out = new TextRenderer();
+        render(out);
+        return out.toString();
+    }
 }
@@ -0,0 +1,317 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The HeavyHitters class finds the keys of a stream that are counted the most, such as the addresses sending the most
+ * bytes, in a fixed amount of memory. Every key is counted in a CountMinSketch, and the k keys with the highest
+ * estimates so far are kept in a min-heap, with an open-addressing index from key to heap position. A key whose
+ * estimate rises above the smallest one in the heap takes its place.
+ *
+ * Two HeavyHitters of the same size can be merged: their sketches are added together, and the keys of both heaps are
+ * estimated again in the merged sketch, which keeps the k best of them.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class HeavyHitters {
+
+    private final CountMinSketch sketch;
+    private final int capacity;
+
+    private final long[] heapKeys;      // Min-heap of the top keys, ordered by heapCounts.
+    private final long[] heapCounts;
+    private final int[] heapSlots;      // The index slot of each heap entry.
+    private int size;
+
+    private final int mask;
+    private final long[] slotKeys;      // Open-addressing index from key to heap position.
+    private final int[] slotPositions;  // Heap position + 1; 0 for an empty slot.
+
+    /**
+     * Constructor for HeavyHitters.
+     *
+     * @param capacity The number of top keys to keep.
+     * @param sketch The sketch to count every key in. It should be empty.
+     */
+    public HeavyHitters(int capacity, CountMinSketch sketch) {
+        this.sketch = sketch;
+        this.capacity = capacity;
+        this.heapKeys = new long[capacity];
+        this.heapCounts = new long[capacity];
+        this.heapSlots = new int[capacity];
+
+        // Keep the load factor at or below one half so probe sequences stay short
+        int slots = Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+        this.mask = slots - 1;
+        this.slotKeys = new long[slots];
+        this.slotPositions = new int[slots];
+    }
+
+    /**
+     * Creates an empty HeavyHitters of the same size, which can be merged into this one.
+     *
+     * @return A new HeavyHitters.
+     */
+    public HeavyHitters copySize() {
+        return new HeavyHitters(capacity, sketch.copySize());
+    }
+
+    /**
+     * Counts a key.
+     *
+     * @param key The key.
+     * @param count How much to add to it.
+     */
+    public void add(long key, long count) {
+        offer(key, sketch.add(key, count));
+    }
+
+    /**
+     * Puts a key in the heap if its estimate is among the top ones, or updates it if it is already there.
+     *
+     * @param key The key.
+     * @param estimate The key's estimate, which can't be lower than the last one offered for it.
+     */
+    private void offer(long key, long estimate) {
+        int slot = find(key);
+        if(slotPositions[slot] != 0) {
+            int position = slotPositions[slot] - 1;
+            heapCounts[position] = estimate;
+            siftDown(position);
+        } else if(size < capacity) {
+            slotKeys[slot] = key;
+            slotPositions[slot] = size + 1;
+            heapKeys[size] = key;
+            heapCounts[size] = estimate;
+            heapSlots[size] = slot;
+            siftUp(size++);
+        } else if(size > 0 && estimate > heapCounts[0]) {
+            // Replace the smallest key; removing it from the index may move the new key's slot
+            remove(heapSlots[0]);
+            slot = find(key);
+            slotKeys[slot] = key;
+            slotPositions[slot] = 1;
+            heapKeys[0] = key;
+            heapCounts[0] = estimate;
+            heapSlots[0] = slot;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Adds another HeavyHitters of the same size to this one.
+     *
+     * @param other The HeavyHitters to merge.
+     */
+    public void merge(HeavyHitters other) {
+        sketch.merge(other.sketch);
+
+        long[] candidates = Arrays.copyOf(heapKeys, size + other.size);
+        System.arraycopy(other.heapKeys, 0, candidates, size, other.size);
+        clear();
+        for(long key : candidates) {
+            offer(key, sketch.estimate(key));
+        }
+    }
+
+    /**
+     * Writes the sketch and the top keys to a checkpoint.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If they can't be written.
+     */
+    public void save(DataOutputStream out) throws IOException {
+        sketch.save(out);
+        out.writeInt(size);
+        for(int i = 0; i < size; i++) {
+            out.writeLong(heapKeys[i]);
+        }
+    }
+
+    /**
+     * Reads back a sketch and top keys written by save(), replacing this HeavyHitters' own. The keys are estimated
+     * again in the restored sketch, as when merging.
+     *
+     * @param in The stream to read from.
+     * @throws IOException If they can't be read, or are of a HeavyHitters of another size.
+     */
+    public void restore(DataInputStream in) throws IOException {
+        sketch.restore(in);
+        int count = in.readInt();
+        if(count < 0 || count > capacity) {
+            throw new IOException("Saved top keys don't fit.");
+        }
+        clear();
+        for(int i = 0; i < count; i++) {
+            long key = in.readLong();
+            offer(key, sketch.estimate(key));
+        }
+    }
+
+    /**
+     * Empties the heap and its index, but not the sketch.
+     */
+    private void clear() {
+        size = 0;
+        Arrays.fill(slotPositions, 0);
+    }
+
+    /**
+     * Getter method for the top keys.
+     *
+     * @return The keys in the heap, highest estimate first.
+     */
+    public long[] getTopKeys() {
+        Integer[] order = new Integer[size];
+        for(int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> (heapCounts[a] != heapCounts[b]) ? Long.compare(heapCounts[b], heapCounts[a])
+                : Long.compare(heapKeys[a], heapKeys[b]));
+
+        long[] keys = new long[size];
+        for(int i = 0; i < size; i++) {
+            keys[i] = heapKeys[order[i]];
+        }
+        return keys;
+    }
+
+    /**
+     * Estimates how much a key has been counted.
+     *
+     * @param key The key.
+     * @return The estimate. Never less than the true count, and at most getErrorBound() more, most likely.
+     */
+    public long estimate(long key) {
+        return sketch.estimate(key);
+    }
+
+    /**
+     * Getter method for the sketch.
+     *
+     * @return The sketch every key is counted in.
+     */
+    public CountMinSketch getSketch() {
+        return sketch;
+    }
+
+    /**
+     * Getter method for the memory used.
+     *
+     * @return The size of the sketch, heap and index, in bytes.
+     */
+    public long getMemory() {
+        return sketch.getMemory() + 20L * capacity + 12L * (mask + 1);
+    }
+
+    /**
+     * Finds the index slot of a key, or the empty slot where it would go.
+     *
+     * @param key The key.
+     * @return The slot.
+     */
+    private int find(long key) {
+        int slot = home(key);
+        while(slotPositions[slot] != 0 && slotKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Finds the slot where a key's probe sequence starts.
+     *
+     * @param key The key.
+     * @return The slot.
+     */
+    private int home(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Removes a key from the index, shifting later keys of the same probe sequence back so that no lookup is cut short.
+     *
+     * @param slot The slot of the key to remove.
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+
+        while(slotPositions[next] != 0) {
+            int home = home(slotKeys[next]);
+
+            // The key at next can move into the hole if its home slot isn't cyclically between the hole and next
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                slotKeys[hole] = slotKeys[next];
+                slotPositions[hole] = slotPositions[next];
+                heapSlots[slotPositions[hole] - 1] = hole;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        slotPositions[hole] = 0;
+    }
+
+    /**
+     * Moves a heap entry up until its parent is no bigger.
+     *
+     * @param position The entry's heap position.
+     */
+    private void siftUp(int position) {
+        while(position > 0) {
+            int parent = (position - 1) >>> 1;
+            if(heapCounts[parent] <= heapCounts[position]) {
+                break;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    /**
+     * Moves a heap entry down until neither child is smaller.
+     *
+     * @param position The entry's heap position.
+     */
+    private void siftDown(int position) {
+        while(true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            if(left < size && heapCounts[left] < heapCounts[smallest]) {
+                smallest = left;
+            }
+            if(left + 1 < size && heapCounts[left + 1] < heapCounts[smallest]) {
+                smallest = left + 1;
+            }
+            if(smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    /**
+     * Swaps two heap entries, keeping the index pointing at them.
+     *
+     * @param a The heap position of one entry.
+     * @param b The heap position of the other.
+     */
+    private void swap(int a, int b) {
+        long key = heapKeys[a];
+        long count = heapCounts[a];
+        int slot = heapSlots[a];
+        heapKeys[a] = heapKeys[b];
+        heapCounts[a] = heapCounts[b];
+        heapSlots[a] = heapSlots[b];
+        heapKeys[b] = key;
+        heapCounts[b] = count;
+        heapSlots[b] = slot;
+
+        slotPositions[heapSlots[a]] = a + 1;
+        slotPositions[heapSlots[b]] = b + 1;
+    }
+}
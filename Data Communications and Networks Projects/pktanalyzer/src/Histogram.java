@@ -0,0 +1,129 @@
+/**
+ * The Histogram class counts how often values fall into log-linear buckets, as HdrHistogram does: values below 32 get
+ * a bucket each, and each power of two above that is split into 16 equal buckets, so any recorded value is known to
+ * within about 6% using a few kilobytes, however many values there are. Recording is a few shifts and an array
+ * increment, with no allocation.
+ *
+ * A histogram isn't thread-safe. Each thread records into its own, and they are added together afterwards.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;                           // Bits of a value kept by its bucket.
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;            // Values below this get a bucket each.
+    private static final int HALF = SUB_BUCKETS / 2;                        // Buckets per power of two above that.
+    private static final int MAX_MAGNITUDE = 64 - SUB_BUCKET_BITS;         // Largest shift a bucket can have.
+    private static final int BUCKETS = SUB_BUCKETS + MAX_MAGNITUDE * HALF;  // Enough for every non-negative long.
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * Counts one value.
+     *
+     * @param value The value. Negative values are counted as 0.
+     */
+    public void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if(value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds every value counted by another histogram to this one.
+     *
+     * @param other The other histogram.
+     */
+    public void add(Histogram other) {
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Finds the bucket of a value.
+     *
+     * @param value The value, not negative.
+     * @return The index of its bucket.
+     */
+    private static int index(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // The shift that leaves the top SUB_BUCKET_BITS bits, which are HALF to SUB_BUCKETS - 1
+        int magnitude = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (magnitude - 1) * HALF + (int) (value >>> magnitude) - HALF;
+    }
+
+    /**
+     * Finds the largest value that falls into a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return The largest value counted by the bucket.
+     */
+    private static long highestValue(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKETS) / HALF + 1;
+        long top = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((top + 1) << magnitude) - 1;
+    }
+
+    /**
+     * Getter method for a percentile.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return A value that at least that percent of the values are no greater than, or 0 if nothing was counted.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Getter method for the number of values counted.
+     *
+     * @return The number of values counted.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Getter method for the mean.
+     *
+     * @return The mean of the values counted, or 0 if there are none.
+     */
+    public double getMean() {
+        return (count == 0) ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Getter method for the largest value.
+     *
+     * @return The largest value counted, or 0 if there are none.
+     */
+    public long getMax() {
+        return max;
+    }
+}
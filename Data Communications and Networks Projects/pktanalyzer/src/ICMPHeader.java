@@ -1,4 +1,4 @@
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * The ICMPHeader class represents the ICMP section of a packet, assuming the packet uses ICMP protocol.
@@ -15,11 +15,17 @@ public class ICMPHeader extends Header {
 
     private static final int MIN_PKT_LENGTH = 8;    // Minimum length of packet.
 
-    private int type;
-    private int code;
-    private byte[] checksum;
+    private Data data = null;                   // Set the first time it is asked for
+    private boolean dataDecoded;
+    private final Data dataView = new Data();   // Reused from packet to packet
+    private IPHeader ipHeader = null;           // The datagram this is the payload of, if any
 
-    private Data data = null;
+    /**
+     * Constructor for an ICMPHeader that isn't pointing at a packet yet. Use wrap() to give it one.
+     */
+    public ICMPHeader() {
+        super("ICMP");
+    }
 
     /**
      * The constructor for ICMPHeader. It extract information from a packet.
@@ -27,27 +33,98 @@ public class ICMPHeader extends Header {
      * @param raw The raw packet in a byte array.
      */
     public ICMPHeader(byte[] raw) {
-        super("ICMP");
+        this();
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
+    }
+
+    /**
+     * Checks that the slice this header is pointing at can hold an ICMP header, and forgets the previous data.
+     */
+    @Override
+    protected void decode() {
+        require(REST);
+
+        this.data = null;
+        this.dataDecoded = false;
+    }
+
+    /**
+     * Getter method for type.
+     *
+     * @return The ICMP type.
+     */
+    public int getType() {
+        return Utility.readU8(buffer, offset + TYPE);
+    }
+
+    /**
+     * Getter method for code.
+     *
+     * @return The ICMP code.
+     */
+    public int getCode() {
+        return Utility.readU8(buffer, offset + CODE);
+    }
 
-        // Extract ICMP header information.
-        this.type = Utility.byteToInt(Arrays.copyOfRange(raw, TYPE, CODE));
-        this.code = Utility.byteToInt(Arrays.copyOfRange(raw, CODE, CHECKSUM));
-        this.checksum = Arrays.copyOfRange(raw, CHECKSUM, REST);
+    /**
+     * Getter method for checksum.
+     *
+     * @return The checksum.
+     */
+    public int getChecksum() {
+        return Utility.readU16(buffer, offset + CHECKSUM);
+    }
 
-        if(raw.length > MIN_PKT_LENGTH) {
-            this.data = new Data(Arrays.copyOfRange(raw, DATA, raw.length));
+    /**
+     * Checks the checksum, which covers the whole message.
+     *
+     * @return Whether the checksum is correct, or UNVERIFIED if the message wasn't all captured or isn't in an IP
+     * datagram.
+     */
+    public Checksum.Status getChecksumStatus() {
+        if(ipHeader == null) {
+            return Checksum.Status.UNVERIFIED;
         }
+        return Checksum.verify(buffer, offset, ipHeader.getPayloadLength(), 0, length);
     }
 
     /**
-     * Creates a String representation of this ICMPHeader. Includes type, code, and checksum.
+     * Tells this header which IP header it is the payload of, so it can check its checksum.
      *
-     * @return A String representation of this ICMPHeader.
+     * @param ipHeader The IP header.
+     */
+    void setIPHeader(IPHeader ipHeader) {
+        this.ipHeader = ipHeader;
+    }
+
+    /**
+     * Getter method for data. It is decoded the first time it is asked for.
+     *
+     * @return The message's data, or null if the message has none.
+     */
+    public Data getData() {
+        if(!dataDecoded) {
+            if(length > MIN_PKT_LENGTH) {
+                dataView.wrap(buffer, offset + DATA, length - DATA);
+                this.data = dataView;
+            }
+            dataDecoded = true;
+        }
+        return data;
+    }
+
+    /**
+     * Renders this ICMPHeader. Includes type, code, checksum, and its data.
+     *
+     * @param out The renderer to write to.
      */
     @Override
-    public String toString() {
+    public void render(TextRenderer out) {
         String typeName;
 
+        int type = getType();
+        Data payload = getData();
+
         switch (type) {
             case Utility.ICMPTypes.ECHO_REPLAY:
                 typeName = "Echo replay";
@@ -80,12 +157,16 @@ public class ICMPHeader extends Header {
                 typeName = "Unknown";
         }
 
-        return buildHeader("ICMP Header",
-                String.format("Type     = %d (%s)", type, typeName),
-                String.format("Code     = %d", code),
-                String.format("Checksum = %s", Utility.byteToHexString(checksum, Utility.HexStringType.NORMAL))) +
+        beginHeader(out, "ICMP Header");
+        line(out).append("Type     = ").decimal(type).append(" (").append(typeName).append(')').newline();
+        line(out).append("Code     = ").decimal(getCode()).newline();
+        line(out).append("Checksum = 0x").hex(getChecksum(), 4)
+                .append(" (").append(getChecksumStatus().getLabel()).append(')').newline();
+        endHeader(out);
 
-                // Now, get the data
-                ((data == null) ? "" : data.toString());
+        // Now, get the data
+        if(payload != null) {
+            payload.render(out);
+        }
     }
 }
@@ -1,4 +1,4 @@
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * The IPHeader class represents the IP header section of a packet.
@@ -19,24 +19,21 @@ public class IPHeader extends Header {
     private static final int DESTINATION_ADDRESS = 16;      // Byte location where destination address starts.
     private static final int OPTIONS = 20;                  // Byte location where options start.
 
-    private int version;
-    private int headerLength;
-    private byte dscp_ecn;                  // For toString aesthetic purposes only
-    private byte dscp;
-    private byte ecn;
-    private int totalLength;
-    private int identification;
-    private byte flags;
-    private byte rawFlags;                  // For toString aesthetic purposes only
-    private int fragmentOffset;
-    private int ttl;
-    private int protocol;
-    private byte[] headerChecksum;
-    private byte[] sourceAddress;
-    private byte[] destinationAddress;
-    private boolean hasOptions;
-
-    private Header subHeader = null;        // Set depending on a packet's protocol
+    private static final int MIN_HEADER_LENGTH = 20;        // Minimum length of header.
+
+    private Header subHeader = null;        // Set depending on a packet's protocol, the first time it is asked for
+    private boolean subHeaderDecoded;
+
+    // Reused from packet to packet; subHeader points at whichever one matches the protocol
+    private final DissectorRegistry.Headers subHeaders = new DissectorRegistry.Headers(Dissector.PROTOCOL, this);
+    private final Data fragmentData = new Data();
+
+    /**
+     * Constructor for an IPHeader that isn't pointing at a packet yet. Use wrap() to give it one.
+     */
+    public IPHeader() {
+        super("IP");
+    }
 
     /**
      * Constructor for IPHeader. It extracts information from a packet.
@@ -44,80 +41,306 @@ public class IPHeader extends Header {
      * @param raw The raw packet in a byte array.
      */
     public IPHeader(byte[] raw) {
-        super("IP");
+        this();
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
+    }
+
+    /**
+     * Checks that the slice this header is pointing at can hold an IP header, and forgets the previous sub-header.
+     */
+    @Override
+    protected void decode() {
+        require(MIN_HEADER_LENGTH);
+
+        this.subHeader = null;
+        this.subHeaderDecoded = false;
+    }
+
+    /**
+     * Getter method for version.
+     *
+     * @return The IP version.
+     */
+    public int getVersion() {
+        return Utility.highNibble(Utility.readU8(buffer, offset + VERSION_HEADER_LENGTH));
+    }
+
+    /**
+     * Getter method for header length.
+     *
+     * @return The length of the IP header, in bytes.
+     */
+    public int getHeaderLength() {
+        return 4 * Utility.lowNibble(Utility.readU8(buffer, offset + VERSION_HEADER_LENGTH));
+    }
+
+    /**
+     * Getter method for the DSCP and ECN byte.
+     *
+     * @return The DSCP and ECN byte.
+     */
+    public int getDscpEcn() {
+        return Utility.readU8(buffer, offset + DSCP_ECN);
+    }
 
-        // Extract IP header information.
-        byte[] ver_hl = Utility.splitByte(raw[VERSION_HEADER_LENGTH]);
-        this.version = Utility.byteToInt(ver_hl[0]);
-        this.headerLength = 4 * Utility.byteToInt(ver_hl[1]);
-        this.dscp_ecn = raw[DSCP_ECN];
-        byte[] dscp_ecn_split = Utility.splitByte(dscp_ecn, 6);
-        this.dscp = dscp_ecn_split[0];
-        this.ecn = dscp_ecn_split[1];
-        this.totalLength = Utility.byteToInt(Arrays.copyOfRange(raw, TOTAL_LENGTH, IDENTIFICATION));
-        this.identification = Utility.byteToInt(Arrays.copyOfRange(raw, IDENTIFICATION, FLAGS_FRAGMENT_OFFSET));
-        byte[] flags_fragoffset = Utility.splitByte(raw[FLAGS_FRAGMENT_OFFSET], 3);
-        this.rawFlags = raw[FLAGS_FRAGMENT_OFFSET];
-        this.flags = flags_fragoffset[0];
-        this.fragmentOffset = Utility.byteToInt(Utility.combine(flags_fragoffset[1], Arrays.copyOfRange(raw, FLAGS_FRAGMENT_OFFSET + 1, TIME_TO_LIVE)));
-        this.ttl = Utility.byteToInt(Arrays.copyOfRange(raw, TIME_TO_LIVE, PROTOCOL));
-        this.protocol = Utility.byteToInt(Arrays.copyOfRange(raw, PROTOCOL, HEADER_CHECKSUM));
-        this.headerChecksum = Arrays.copyOfRange(raw, HEADER_CHECKSUM, SOURCE_ADDRESS);
-        this.sourceAddress = Arrays.copyOfRange(raw, SOURCE_ADDRESS, DESTINATION_ADDRESS);
-        this.destinationAddress = Arrays.copyOfRange(raw, DESTINATION_ADDRESS, OPTIONS);
-        this.hasOptions = (headerLength > 20);
-
-        // Figure out protocol type.
-        switch (protocol) {
-            case Utility.Protocols.ICMP:
-                this.subHeader = new ICMPHeader(Arrays.copyOfRange(raw, headerLength, raw.length));
-                break;
-            case Utility.Protocols.TCP:
-                this.subHeader = new TCPHeader(Arrays.copyOfRange(raw, headerLength, raw.length));
-                break;
-            case Utility.Protocols.UDP:
-                this.subHeader = new UDPHeader(Arrays.copyOfRange(raw, headerLength, raw.length));
-                break;
-            default:
-                // Unsupported protocol: subHeader == null
+    /**
+     * Getter method for DSCP.
+     *
+     * @return The differentiated services code point.
+     */
+    public int getDscp() {
+        return Utility.bits(getDscpEcn(), 2, 6);
+    }
+
+    /**
+     * Getter method for ECN.
+     *
+     * @return The explicit congestion notification bits.
+     */
+    public int getEcn() {
+        return Utility.bits(getDscpEcn(), 0, 2);
+    }
+
+    /**
+     * Getter method for total length.
+     *
+     * @return The length of the datagram (header and data), in bytes.
+     */
+    public int getTotalLength() {
+        return Utility.readU16(buffer, offset + TOTAL_LENGTH);
+    }
+
+    /**
+     * Getter method for identification.
+     *
+     * @return The identification field.
+     */
+    public int getIdentification() {
+        return Utility.readU16(buffer, offset + IDENTIFICATION);
+    }
+
+    /**
+     * Getter method for flags.
+     *
+     * @return The three flag bits (reserved, don't fragment, more fragments).
+     */
+    public int getFlags() {
+        return Utility.bits(Utility.readU16(buffer, offset + FLAGS_FRAGMENT_OFFSET), 13, 3);
+    }
+
+    /**
+     * Getter method for the don't fragment flag.
+     *
+     * @return True if the datagram may not be fragmented.
+     */
+    public boolean isDontFragment() {
+        return Utility.bit(getFlags(), 1) == 1;
+    }
+
+    /**
+     * Getter method for the more fragments flag.
+     *
+     * @return True if more fragments of the datagram follow this one.
+     */
+    public boolean isMoreFragments() {
+        return Utility.bit(getFlags(), 0) == 1;
+    }
+
+    /**
+     * Getter method for fragment offset.
+     *
+     * @return The fragment offset, in units of 8 bytes.
+     */
+    public int getFragmentOffset() {
+        return Utility.bits(Utility.readU16(buffer, offset + FLAGS_FRAGMENT_OFFSET), 0, 13);
+    }
+
+    /**
+     * Checks whether the datagram is a fragment of a larger one.
+     *
+     * @return True if more fragments follow or the fragment offset isn't 0.
+     */
+    public boolean isFragment() {
+        return (Utility.readU16(buffer, offset + FLAGS_FRAGMENT_OFFSET) & 0x3fff) != 0;
+    }
+
+    /**
+     * Getter method for time to live.
+     *
+     * @return The time to live.
+     */
+    public int getTtl() {
+        return Utility.readU8(buffer, offset + TIME_TO_LIVE);
+    }
+
+    /**
+     * Getter method for protocol.
+     *
+     * @return The protocol number of the datagram's payload.
+     */
+    public int getProtocol() {
+        return Utility.readU8(buffer, offset + PROTOCOL);
+    }
+
+    /**
+     * Getter method for header checksum.
+     *
+     * @return The header checksum.
+     */
+    public int getHeaderChecksum() {
+        return Utility.readU16(buffer, offset + HEADER_CHECKSUM);
+    }
+
+    /**
+     * Checks the header checksum.
+     *
+     * @return Whether the header checksum is correct, or UNVERIFIED if the header wasn't all captured.
+     */
+    public Checksum.Status getHeaderChecksumStatus() {
+        return Checksum.verify(buffer, offset, getHeaderLength(), 0, length);
+    }
+
+    /**
+     * Getter method for the payload length.
+     *
+     * @return The number of bytes after the header, according to the total length.
+     */
+    public int getPayloadLength() {
+        return getTotalLength() - getHeaderLength();
+    }
+
+    /**
+     * Computes the sum of the pseudo-header that the TCP or UDP checksum of the payload covers.
+     *
+     * @return The sum of the addresses, protocol, and payload length, not folded.
+     */
+    public long getPseudoHeaderSum() {
+        return Checksum.pseudoHeaderSum(getSourceAddress(), getDestinationAddress(), getProtocol(), getPayloadLength());
+    }
+
+    /**
+     * Getter method for source address.
+     *
+     * @return The source address, most significant byte first.
+     */
+    public int getSourceAddress() {
+        return (int) Utility.readU32(buffer, offset + SOURCE_ADDRESS);
+    }
+
+    /**
+     * Getter method for destination address.
+     *
+     * @return The destination address, most significant byte first.
+     */
+    public int getDestinationAddress() {
+        return (int) Utility.readU32(buffer, offset + DESTINATION_ADDRESS);
+    }
+
+    /**
+     * Checks whether the header has options.
+     *
+     * @return True if the header is longer than 20 bytes.
+     */
+    public boolean hasOptions() {
+        return getHeaderLength() > OPTIONS;
+    }
+
+    /**
+     * Getter method for the sub-header. It is decoded the first time it is asked for. A fragment only holds part of
+     * the payload, so it has no sub-header; see FragmentReassembler.
+     *
+     * @return The header of the datagram's payload, or null if the protocol isn't supported or this is a fragment.
+     */
+    public Header getSubHeader() {
+        if(!subHeaderDecoded) {
+            // Figure out protocol type. Unsupported protocol: subHeader == null
+            this.subHeader = isFragment() ? null : subHeaders.get(getProtocol());
+            if(subHeader != null) {
+                int headerLength = getHeaderLength();
+                require(headerLength);
+                // Ethernet pads short frames, and the padding isn't part of the payload
+                int payloadLength = Math.max(0, Math.min(getTotalLength(), length) - headerLength);
+                subHeader.wrap(buffer, offset + headerLength, payloadLength);
+            }
+            subHeaderDecoded = true;
         }
+        return subHeader;
     }
 
     /**
-     * Creates a String representation of this IPHeader. Includes version, header length, DSCP, ECN, total length,
-     * identification, flags, fragment offset, time to live, protocol, header checksum, source address, destination
-     * address, existence of options, and its data.
+     * Getter method for the TCP sub-header.
      *
-     * @return A string representation of this EtherHeader.
+     * @return The TCP header, or null if the datagram isn't TCP.
+     */
+    public TCPHeader getTCPHeader() {
+        Header sub = getSubHeader();
+        return (sub instanceof TCPHeader) ? (TCPHeader) sub : null;
+    }
+
+    /**
+     * Getter method for the UDP sub-header.
+     *
+     * @return The UDP header, or null if the datagram isn't UDP.
+     */
+    public UDPHeader getUDPHeader() {
+        Header sub = getSubHeader();
+        return (sub instanceof UDPHeader) ? (UDPHeader) sub : null;
+    }
+
+    /**
+     * Getter method for the ICMP sub-header.
+     *
+     * @return The ICMP header, or null if the datagram isn't ICMP.
+     */
+    public ICMPHeader getICMPHeader() {
+        Header sub = getSubHeader();
+        return (sub instanceof ICMPHeader) ? (ICMPHeader) sub : null;
+    }
+
+    /**
+     * Renders this IPHeader. Includes version, header length, DSCP, ECN, total length, identification, flags, fragment
+     * offset, time to live, protocol, header checksum, source address, destination address, existence of options, and
+     * its data.
+     *
+     * @param out The renderer to write to.
      */
     @Override
-    public String toString() {
-        byte[] temp = Utility.splitByte(Utility.splitByte(flags, 6)[1], 7);
-        byte fragment = temp[0];
-        byte more = temp[1];
-        int i_fragment = Utility.byteToInt(fragment);
-        int i_more = Utility.byteToInt(more);
-
-        return buildHeader("IP Header",
-                String.format("Version             = %d", version),
-                String.format("Header length       = %d bytes", headerLength),
-                String.format("DSCP and ECN field  = %s", Utility.byteToHexString(dscp_ecn, Utility.HexStringType.NORMAL)),
-                String.format("\txxxx xx.. = %d (DSCP)", Utility.byteToInt(dscp)),
-                String.format("\t.... ..xx = %d (ECN)", Utility.byteToInt(ecn)),
-                String.format("Total length        = %d bytes", totalLength),
-                String.format("Identification      = %d", identification),
-                String.format("Flags               = %s", Utility.byteToHexString(rawFlags, Utility.HexStringType.NORMAL)),
-                String.format("\t.%d.. .... = %s fragment", i_fragment, (i_fragment == 0) ? "OK to" : "do not"),
-                String.format("\t..%d. .... = %s fragment(s)", i_more, (i_more == 0) ? "last" : "more"),
-                String.format("Fragment offset     = %d bytes", fragmentOffset),
-                String.format("Time to live        = %d seconds/hops", ttl),
-                String.format("Protocol            = %d (%s)", protocol, (subHeader == null) ? "unknown" : subHeader.getPrefix()),
-                String.format("Header checksum     = %s", Utility.byteToHexString(headerChecksum, Utility.HexStringType.NORMAL)),
-                String.format("Source address      = %s", Utility.byteToIPAddress(sourceAddress)),
-                String.format("Destination address = %s", Utility.byteToIPAddress(destinationAddress)),
-                (hasOptions) ? "Has options" : "No options") +
-
-                // Now, get the protocol's header
-                ((subHeader == null) ? "" : subHeader.toString());
+    public void render(TextRenderer out) {
+        int flags = getFlags();
+        int i_fragment = Utility.bit(flags, 1);
+        int i_more = Utility.bit(flags, 0);
+        String protocolName = Utility.getProtocolName(getProtocol());
+        Header protocolHeader = getSubHeader();
+
+        beginHeader(out, "IP Header");
+        line(out).append("Version             = ").decimal(getVersion()).newline();
+        line(out).append("Header length       = ").decimal(getHeaderLength()).append(" bytes").newline();
+        line(out).append("DSCP and ECN field  = 0x").hex(getDscpEcn(), 2).newline();
+        line(out).append("\txxxx xx.. = ").decimal(getDscp()).append(" (DSCP)").newline();
+        line(out).append("\t.... ..xx = ").decimal(getEcn()).append(" (ECN)").newline();
+        line(out).append("Total length        = ").decimal(getTotalLength()).append(" bytes").newline();
+        line(out).append("Identification      = ").decimal(getIdentification()).newline();
+        line(out).append("Flags               = 0x").hex(Utility.readU8(buffer, offset + FLAGS_FRAGMENT_OFFSET), 2).newline();
+        line(out).append("\t.").decimal(i_fragment).append(".. .... = ").append((i_fragment == 0) ? "OK to" : "do not").append(" fragment").newline();
+        line(out).append("\t..").decimal(i_more).append(". .... = ").append((i_more == 0) ? "last" : "more").append(" fragment(s)").newline();
+        line(out).append("Fragment offset     = ").decimal(getFragmentOffset() * 8).append(" bytes").newline();
+        line(out).append("Time to live        = ").decimal(getTtl()).append(" seconds/hops").newline();
+        line(out).append("Protocol            = ").decimal(getProtocol()).append(" (").append((protocolName == null) ? "unknown" : protocolName).append(')').newline();
+        line(out).append("Header checksum     = 0x").hex(getHeaderChecksum(), 4)
+                .append(" (").append(getHeaderChecksumStatus().getLabel()).append(')').newline();
+        line(out).append("Source address      = ").ipAddress(getSourceAddress()).newline();
+        line(out).append("Destination address = ").ipAddress(getDestinationAddress()).newline();
+        line(out).append((hasOptions()) ? "Has options" : "No options").newline();
+        endHeader(out);
+
+        // Now, get the protocol's header, or the piece of the payload a fragment holds
+        if(protocolHeader != null) {
+            protocolHeader.render(out);
+        } else if(isFragment()) {
+            int headerLength = getHeaderLength();
+            require(headerLength);
+            fragmentData.wrap(buffer, offset + headerLength, Math.max(0, Math.min(getTotalLength(), length) - headerLength));
+            fragmentData.render(out);
+        }
     }
 }
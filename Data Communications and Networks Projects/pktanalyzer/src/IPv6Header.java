@@ -0,0 +1,168 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The IPv6Header class represents the IPv6 header section of a packet, assuming the packet's ethertype is IPv6. The
+ * payload is found through DissectorRegistry by the next header field, like the payload of an IPv4 datagram; extension
+ * headers aren't walked, so a datagram that has them has no sub-header.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class IPv6Header extends Header {
+
+    private static final int VERSION_CLASS_FLOW = 0;        // Byte location where version, traffic class, and flow label start.
+    private static final int PAYLOAD_LENGTH = 4;            // Byte location where payload length starts.
+    private static final int NEXT_HEADER = 6;               // Byte location where next header starts.
+    private static final int HOP_LIMIT = 7;                 // Byte location where hop limit starts.
+    private static final int SOURCE_ADDRESS = 8;            // Byte location where source address starts.
+    private static final int DESTINATION_ADDRESS = 24;      // Byte location where destination address starts.
+    private static final int PAYLOAD = 40;                  // Byte location where the payload starts.
+
+    private Header subHeader = null;        // Set depending on the next header, the first time it is asked for
+    private boolean subHeaderDecoded;
+    private final DissectorRegistry.Headers subHeaders = new DissectorRegistry.Headers(Dissector.PROTOCOL, this);
+
+    /**
+     * Constructor for an IPv6Header that isn't pointing at a packet yet. Use wrap() to give it one.
+     */
+    public IPv6Header() {
+        super("IPv6");
+    }
+
+    /**
+     * Constructor for IPv6Header. It extracts information from a packet.
+     *
+     * @param raw The raw packet in a byte array.
+     */
+    public IPv6Header(byte[] raw) {
+        this();
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
+    }
+
+    /**
+     * Checks that the slice this header is pointing at can hold an IPv6 header, and forgets the previous sub-header.
+     */
+    @Override
+    protected void decode() {
+        require(PAYLOAD);
+
+        this.subHeader = null;
+        this.subHeaderDecoded = false;
+    }
+
+    /**
+     * Getter method for version.
+     *
+     * @return The IP version.
+     */
+    public int getVersion() {
+        return Utility.highNibble(Utility.readU8(buffer, offset + VERSION_CLASS_FLOW));
+    }
+
+    /**
+     * Getter method for traffic class.
+     *
+     * @return The traffic class: DSCP in the high six bits, ECN in the low two.
+     */
+    public int getTrafficClass() {
+        return Utility.bits((int) Utility.readU32(buffer, offset + VERSION_CLASS_FLOW), 20, 8);
+    }
+
+    /**
+     * Getter method for flow label.
+     *
+     * @return The flow label, in the low 20 bits.
+     */
+    public int getFlowLabel() {
+        return Utility.bits((int) Utility.readU32(buffer, offset + VERSION_CLASS_FLOW), 0, 20);
+    }
+
+    /**
+     * Getter method for payload length.
+     *
+     * @return The number of bytes after the header.
+     */
+    public int getPayloadLength() {
+        return Utility.readU16(buffer, offset + PAYLOAD_LENGTH);
+    }
+
+    /**
+     * Getter method for next header.
+     *
+     * @return The protocol number of the payload.
+     */
+    public int getNextHeader() {
+        return Utility.readU8(buffer, offset + NEXT_HEADER);
+    }
+
+    /**
+     * Getter method for hop limit.
+     *
+     * @return The hop limit.
+     */
+    public int getHopLimit() {
+        return Utility.readU8(buffer, offset + HOP_LIMIT);
+    }
+
+    /**
+     * Getter method for the index of the source address.
+     *
+     * @return The index in the buffer where the 16 bytes of the source address start.
+     */
+    public int getSourceAddressOffset() {
+        return offset + SOURCE_ADDRESS;
+    }
+
+    /**
+     * Getter method for the index of the destination address.
+     *
+     * @return The index in the buffer where the 16 bytes of the destination address start.
+     */
+    public int getDestinationAddressOffset() {
+        return offset + DESTINATION_ADDRESS;
+    }
+
+    /**
+     * Getter method for the sub-header. It is decoded the first time it is asked for.
+     *
+     * @return The header of the datagram's payload, or null if no dissector decodes the next header.
+     */
+    public Header getSubHeader() {
+        if(!subHeaderDecoded) {
+            subHeader = subHeaders.get(getNextHeader());
+            if(subHeader != null) {
+                subHeader.wrap(buffer, offset + PAYLOAD, length - PAYLOAD);
+            }
+            subHeaderDecoded = true;
+        }
+        return subHeader;
+    }
+
+    /**
+     * Renders this IPv6Header. Includes version, traffic class, flow label, payload length, next header, hop limit,
+     * source address, destination address, and its payload.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        int nextHeader = getNextHeader();
+        String protocolName = Utility.getProtocolName(nextHeader);
+        Header protocolHeader = getSubHeader();
+
+        beginHeader(out, "IPv6 Header");
+        line(out).append("Version             = ").decimal(getVersion()).newline();
+        line(out).append("Traffic class       = 0x").hex(getTrafficClass(), 2).newline();
+        line(out).append("Flow label          = 0x").hex(getFlowLabel(), 5).newline();
+        line(out).append("Payload length      = ").decimal(getPayloadLength()).append(" bytes").newline();
+        line(out).append("Next header         = ").decimal(nextHeader).append(" (").append((protocolName == null) ? "unknown" : protocolName).append(')').newline();
+        line(out).append("Hop limit           = ").decimal(getHopLimit()).newline();
+        line(out).append("Source address      = ").ipv6Address(buffer, getSourceAddressOffset()).newline();
+        line(out).append("Destination address = ").ipv6Address(buffer, getDestinationAddressOffset()).newline();
+        endHeader(out);
+
+        // Now, get the protocol's header
+        if(protocolHeader != null) {
+            protocolHeader.render(out);
+        }
+    }
+}
@@ -0,0 +1,449 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The IndexBuilder class reads a capture once and writes a CaptureIndex for it: where each frame is in the capture
+ * file and when it arrived, and for every IPv4 address and every flow, the numbers of the frames it appears in.
+ *
+ * Frames are numbered from 1, as CaptureReader numbers them. Everything variable-length is stored as unsigned LEB128
+ * varints of differences: each frame's position and timestamp relative to the previous frame's, and each posting list
+ * as the gaps between its frame numbers, so most entries take one or two bytes. See CaptureIndex for the layout.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class IndexBuilder extends Header {
+
+    static final int MAGIC = 0x49544b50;                    // "PKTI", read little endian.
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 96;
+    static final int SECTION_LENGTH = 16;                   // Bytes per entry of each table.
+    static final int BLOCK_LENGTH = 24;
+    static final int ADDRESS_LENGTH = 16;
+    static final int FLOW_LENGTH = 24;
+    static final int FRAMES_PER_BLOCK = 128;                // Frames per block of positions and timestamps.
+
+    private static final int ETHERTYPE = 12;                // Byte location where the ethertype starts.
+    private static final int IP_SOURCE = 26;                // Byte location where the IP source address starts.
+    private static final int IP_DESTINATION = 30;           // Byte location where the IP destination address starts.
+    private static final int MIN_IP_FRAME = 34;             // Smallest frame holding an IP header.
+
+    private final Path capture;
+    private final Path index;
+
+    private final ByteSink deltas = new ByteSink(1 << 16);
+    private ByteBuffer blocks = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer sections = ByteBuffer.allocate(SECTION_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    private final PostingTable addresses = new PostingTable();
+    private final PostingTable flows = new PostingTable();
+
+    private long frames;
+    private long ipFrames;
+    private long malformedFrames;
+    private long lastPosition;
+    private long lastTimestamp;
+    private long lastSection = -1;
+    private long indexBytes;
+
+    /**
+     * The ByteSink class is a growable byte array that varints are appended to.
+     */
+    static class ByteSink {
+
+        private byte[] data;
+        private int size;
+
+        /**
+         * Constructor for ByteSink.
+         *
+         * @param capacity The number of bytes there is room for at first.
+         */
+        ByteSink(int capacity) {
+            this.data = new byte[capacity];
+        }
+
+        /**
+         * Appends an unsigned LEB128 varint: 7 bits per byte, low bits first, with the top bit set on every byte but
+         * the last.
+         *
+         * @param value The value, taken as unsigned.
+         */
+        void putVarint(long value) {
+            if(data.length - size < 10) {
+                data = Arrays.copyOf(data, 2 * data.length + 10);
+            }
+            while((value & ~0x7fL) != 0) {
+                data[size++] = (byte) (value | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        /**
+         * Getter method for the size.
+         *
+         * @return The number of bytes appended.
+         */
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * The Postings class is the posting list of one address or flow while it is being built.
+     */
+    static class Postings {
+
+        private final long key;
+        private final long subKey;
+        private final ByteSink gaps = new ByteSink(8);
+        private long last;
+        private long count;
+
+        /**
+         * Constructor for Postings.
+         *
+         * @param key The address, or the two addresses of a flow.
+         * @param subKey 0, or the two ports of a flow.
+         */
+        Postings(long key, long subKey) {
+            this.key = key;
+            this.subKey = subKey;
+        }
+
+        /**
+         * Adds a frame, unless it is already the last one in the list.
+         *
+         * @param frame The frame number, no smaller than the last one added.
+         */
+        void add(long frame) {
+            if(frame != last) {
+                gaps.putVarint(frame - last);
+                last = frame;
+                count++;
+            }
+        }
+    }
+
+    /**
+     * The PostingTable class finds the posting list of a key: an open-addressing hash table with linear probing.
+     */
+    static class PostingTable {
+
+        private Postings[] slots = new Postings[1 << 10];
+        private int size;
+
+        /**
+         * Finds the posting list of a key, adding an empty one if there isn't one yet.
+         *
+         * @param key The address, or the two addresses of a flow.
+         * @param subKey 0, or the two ports of a flow.
+         * @return The posting list.
+         */
+        Postings get(long key, long subKey) {
+            int mask = slots.length - 1;
+            int slot = hash(key, subKey) & mask;
+            Postings postings;
+            while((postings = slots[slot]) != null) {
+                if(postings.key == key && postings.subKey == subKey) {
+                    return postings;
+                }
+                slot = (slot + 1) & mask;
+            }
+            postings = new Postings(key, subKey);
+            slots[slot] = postings;
+            if(++size > slots.length / 2) {
+                grow();
+            }
+            return postings;
+        }
+
+        /**
+         * Doubles the number of slots.
+         */
+        private void grow() {
+            Postings[] old = slots;
+            slots = new Postings[2 * old.length];
+            int mask = slots.length - 1;
+            for(Postings postings : old) {
+                if(postings != null) {
+                    int slot = hash(postings.key, postings.subKey) & mask;
+                    while(slots[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots[slot] = postings;
+                }
+            }
+        }
+
+        /**
+         * Mixes a key into a slot number.
+         *
+         * @param key The key.
+         * @param subKey The sub-key.
+         * @return The hash.
+         */
+        private static int hash(long key, long subKey) {
+            long h = (key * 0x9e3779b97f4a7c15L) ^ (subKey * 0xc2b2ae3d27d4eb4fL);
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * Lists the posting lists in the order they are stored in: by key, then sub-key, as unsigned numbers.
+         *
+         * @return The posting lists, sorted.
+         */
+        Postings[] sorted() {
+            Postings[] sorted = new Postings[size];
+            int i = 0;
+            for(Postings postings : slots) {
+                if(postings != null) {
+                    sorted[i++] = postings;
+                }
+            }
+            Arrays.sort(sorted, Comparator.<Postings>comparingLong(p -> p.key ^ Long.MIN_VALUE)
+                    .thenComparingLong(p -> p.subKey ^ Long.MIN_VALUE));
+            return sorted;
+        }
+    }
+
+    /**
+     * Constructor for IndexBuilder.
+     *
+     * @param capture The capture to index.
+     * @param index Where to write the index.
+     */
+    public IndexBuilder(Path capture, Path index) {
+        super("INDEX");
+        this.capture = capture;
+        this.index = index;
+    }
+
+    /**
+     * Reads the whole capture and writes the index.
+     *
+     * @throws IOException If the capture can't be read or the index can't be written.
+     */
+    public void build() throws IOException {
+        long size = Files.size(capture);
+        long modified = Files.getLastModifiedTime(capture).toMillis();
+        Frame frame = new Frame();
+        Packet packet = new Packet();
+
+        try (CaptureReader reader = new CaptureReader(capture)) {
+            while(reader.next(frame)) {
+                add(frame, packet, reader.getSectionStart());
+            }
+        }
+        write(size, modified);
+    }
+
+    /**
+     * Adds one frame: its position and timestamp, and its addresses and flow.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param section The file offset of the frame's section.
+     */
+    private void add(Frame frame, Packet packet, long section) {
+        long number = ++frames;
+        if(section != lastSection) {
+            sections = ensure(sections, SECTION_LENGTH);
+            sections.putLong(number).putLong(section);
+            lastSection = section;
+        }
+
+        if((number - 1) % FRAMES_PER_BLOCK == 0) {
+            blocks = ensure(blocks, BLOCK_LENGTH);
+            blocks.putLong(frame.getPosition()).putLong(frame.getTimestamp()).putLong(deltas.size());
+        } else {
+            deltas.putVarint(frame.getPosition() - lastPosition);
+            long gap = frame.getTimestamp() - lastTimestamp;
+            deltas.putVarint((gap << 1) ^ (gap >> 63));     // Zigzag, since timestamps can go backwards
+        }
+        lastPosition = frame.getPosition();
+        lastTimestamp = frame.getTimestamp();
+
+        // Addresses are read straight from the frame, as Filter reads them, so that a frame whose IP header is too
+        // short to decode is still found by a host filter that would pass it
+        if(frame.getLinkType() != CaptureReader.LINKTYPE_ETHERNET || frame.getCapturedLength() < MIN_IP_FRAME
+                || Utility.readU16(frame.getBuffer(), frame.getOffset() + ETHERTYPE) != Utility.EtherTypes.IP) {
+            return;
+        }
+        ipFrames++;
+        int source = frame.getBuffer().getInt(frame.getOffset() + IP_SOURCE);
+        int destination = frame.getBuffer().getInt(frame.getOffset() + IP_DESTINATION);
+        addresses.get(source & 0xffffffffL, 0).add(number);
+        addresses.get(destination & 0xffffffffL, 0).add(number);
+
+        try {
+            packet.wrap(frame);
+            IPHeader ip = packet.getIPHeader();
+            int sourcePort;
+            int destinationPort;
+            TCPHeader tcp;
+            UDPHeader udp;
+            if((tcp = ip.getTCPHeader()) != null) {
+                sourcePort = tcp.getSourcePort();
+                destinationPort = tcp.getDestinationPort();
+            } else if((udp = ip.getUDPHeader()) != null) {
+                sourcePort = udp.getSourcePort();
+                destinationPort = udp.getDestinationPort();
+            } else {
+                return;
+            }
+            flows.get(flowKey(source, sourcePort, destination, destinationPort),
+                    flowSubKey(source, sourcePort, destination, destinationPort)).add(number);
+        } catch (IndexOutOfBoundsException e) {
+            malformedFrames++;
+        }
+    }
+
+    /**
+     * Computes the key of a flow, which is the same for both of its directions.
+     *
+     * @param source The source address.
+     * @param sourcePort The source port.
+     * @param destination The destination address.
+     * @param destinationPort The destination port.
+     * @return The lower endpoint's address in the high half, and the higher endpoint's in the low half.
+     */
+    static long flowKey(int source, int sourcePort, int destination, int destinationPort) {
+        long a = ((source & 0xffffffffL) << 16) | sourcePort;
+        long b = ((destination & 0xffffffffL) << 16) | destinationPort;
+        long low = Math.min(a, b);
+        long high = Math.max(a, b);
+        return ((low >>> 16) << 32) | (high >>> 16);
+    }
+
+    /**
+     * Computes the sub-key of a flow, which is the same for both of its directions.
+     *
+     * @param source The source address.
+     * @param sourcePort The source port.
+     * @param destination The destination address.
+     * @param destinationPort The destination port.
+     * @return The lower endpoint's port in the high half, and the higher endpoint's in the low half.
+     */
+    static long flowSubKey(int source, int sourcePort, int destination, int destinationPort) {
+        long a = ((source & 0xffffffffL) << 16) | sourcePort;
+        long b = ((destination & 0xffffffffL) << 16) | destinationPort;
+        return ((Math.min(a, b) & 0xffff) << 16) | (Math.max(a, b) & 0xffff);
+    }
+
+    /**
+     * Writes the index file.
+     *
+     * @param captureSize The size of the capture, to tell later whether the index is out of date.
+     * @param captureModified When the capture was last modified, in milliseconds since the epoch.
+     * @throws IOException If the file can't be written.
+     */
+    private void write(long captureSize, long captureModified) throws IOException {
+        Postings[] addressList = addresses.sorted();
+        Postings[] flowList = flows.sorted();
+
+        long sectionsOffset = HEADER_LENGTH;
+        long blocksOffset = sectionsOffset + sections.position();
+        long deltasOffset = blocksOffset + blocks.position();
+        long addressesOffset = deltasOffset + deltas.size();
+        long flowsOffset = addressesOffset + (long) addressList.length * ADDRESS_LENGTH;
+        long postingsOffset = flowsOffset + (long) flowList.length * FLOW_LENGTH;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).putLong(captureSize)
+                .putLong(captureModified).putLong(frames).putInt(FRAMES_PER_BLOCK)
+                .putInt(sections.position() / SECTION_LENGTH).putInt(addressList.length).putInt(flowList.length)
+                .putLong(sectionsOffset).putLong(blocksOffset).putLong(deltasOffset).putLong(addressesOffset)
+                .putLong(flowsOffset).putLong(postingsOffset);
+
+        ByteBuffer table = ByteBuffer.allocate(Math.max(addressList.length * ADDRESS_LENGTH,
+                flowList.length * FLOW_LENGTH)).order(ByteOrder.LITTLE_ENDIAN);
+
+        try (FileChannel out = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            position = write(out, position, header.flip());
+            position = write(out, position, sections.flip());
+            position = write(out, position, blocks.flip());
+            position = write(out, position, ByteBuffer.wrap(deltas.data, 0, deltas.size));
+
+            long postings = 0;
+            for(Postings address : addressList) {
+                table.putInt((int) address.key).putInt((int) Math.min(address.count, 0xffffffffL)).putLong(postings);
+                postings += address.gaps.size;
+            }
+            position = write(out, position, table.flip());
+
+            table.clear();
+            for(Postings flow : flowList) {
+                table.putLong(flow.key).putInt((int) flow.subKey).putInt((int) Math.min(flow.count, 0xffffffffL))
+                        .putLong(postings);
+                postings += flow.gaps.size;
+            }
+            position = write(out, position, table.flip());
+
+            for(Postings address : addressList) {
+                position = write(out, position, ByteBuffer.wrap(address.gaps.data, 0, address.gaps.size));
+            }
+            for(Postings flow : flowList) {
+                position = write(out, position, ByteBuffer.wrap(flow.gaps.data, 0, flow.gaps.size));
+            }
+            indexBytes = position;
+        }
+    }
+
+    /**
+     * Writes a buffer to the index file.
+     *
+     * @param out The index file.
+     * @param position Where to write the buffer.
+     * @param buffer The buffer, in read mode.
+     * @return The position after the buffer.
+     * @throws IOException If the file can't be written.
+     */
+    private static long write(FileChannel out, long position, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * Makes sure a buffer has room for more bytes, copying it into a bigger one if it doesn't.
+     *
+     * @param buffer The buffer, in write mode.
+     * @param bytes The number of bytes needed after its position.
+     * @return The buffer, or a bigger one holding the same bytes.
+     */
+    private static ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+        if(buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        return bigger.put(buffer.flip());
+    }
+
+    /**
+     * Writes a summary of the index: what was indexed and how big the index is.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        beginHeader(out, "Index Summary");
+        line(out).append("Frames           = ").decimal(frames).newline();
+        line(out).append("IP frames        = ").decimal(ipFrames).newline();
+        line(out).append("Malformed frames = ").decimal(malformedFrames).newline();
+        line(out).append("Addresses        = ").decimal(addresses.size).newline();
+        line(out).append("Flows            = ").decimal(flows.size).newline();
+        line(out).append("Index bytes      = ").decimal(indexBytes).newline();
+        endHeader(out);
+    }
+}
@@ -0,0 +1,242 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The MeteredAnalysis class runs another analysis while collecting Metrics: it counts every frame, decodes each one
+ * layer by layer to find its protocol and whether it is malformed, and for one frame in Metrics.SAMPLE_INTERVAL times
+ * each layer, the other analysis, and the time since the previous frame (reading the capture and writing output).
+ *
+ * Counts are kept in plain fields and added to the Metrics every few hundred frames, and timings go into this
+ * analysis' own histograms, so a worker never touches anything another worker writes to until it is merged.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class MeteredAnalysis extends Analysis {
+
+    private static final int FLUSH_INTERVAL = 256;          // Frames counted before the counts are added to the Metrics.
+
+    private final Metrics metrics;
+    private final Analysis analysis;
+    private final Histogram[] stages = new Histogram[Metrics.STAGE_NAMES.length];
+
+    private final long[] protocols = new long[Metrics.PROTOCOL_NAMES.length];
+    private long frames;                                    // Frames seen by this analysis.
+    private long unflushedFrames;                           // Frames not yet added to the Metrics.
+    private long bytes;
+    private long malformed;
+    private long lastEnd;                                   // When the previous frame was done, if it is to be timed.
+
+    /**
+     * Constructor for MeteredAnalysis.
+     *
+     * @param metrics The metrics to add to.
+     * @param analysis The analysis to run.
+     */
+    public MeteredAnalysis(Metrics metrics, Analysis analysis) {
+        this.metrics = metrics;
+        this.analysis = analysis;
+        for(int i = 0; i < stages.length; i++) {
+            stages[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Starts the other analysis.
+     *
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void start(TextRenderer out) {
+        analysis.start(out);
+    }
+
+    /**
+     * Counts and decodes a frame, then passes it to the other analysis.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        boolean timed = frames % Metrics.SAMPLE_INTERVAL == 0;
+        long start = timed ? System.nanoTime() : 0;
+        if(timed && lastEnd != 0) {
+            stages[Metrics.READ].record(start - lastEnd);
+        }
+
+        frames++;
+        unflushedFrames++;
+        bytes += frame.getCapturedLength();
+        decode(frame, packet, timed, start);
+
+        long render = timed ? System.nanoTime() : 0;
+        analysis.accept(frame, packet, out);
+
+        if(timed) {
+            stages[Metrics.RENDER].record(System.nanoTime() - render);
+        }
+        if(unflushedFrames == FLUSH_INTERVAL) {
+            flush();
+        }
+        // The next frame is timed from here, so the gap covers reading it
+        lastEnd = (frames % Metrics.SAMPLE_INTERVAL == 0) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Decodes a frame one layer at a time, counting its protocol, and timing each layer if asked to.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param timed True to time each layer.
+     * @param start When the frame was started on, if it is timed.
+     */
+    private void decode(Frame frame, Packet packet, boolean timed, long start) {
+        int stage = Metrics.ETHER;
+        long time = start;
+        try {
+            if(!packet.wrap(frame)) {
+                protocols[Metrics.OTHER]++;
+                return;
+            }
+            int ethertype = packet.getEtherHeader().getEthertype();
+            time = lap(timed, stage, time);
+
+            stage = Metrics.IP;
+            IPHeader ip = packet.getIPHeader();
+            if(ip == null) {
+                protocols[(ethertype == Utility.EtherTypes.ARP) ? Metrics.ARP : Metrics.OTHER]++;
+                return;
+            }
+            int protocol = ip.getProtocol();
+            time = lap(timed, stage, time);
+
+            stage = Metrics.TRANSPORT;
+            Header transport = ip.getSubHeader();
+            time = lap(timed, stage, time);
+
+            stage = Metrics.DATA;
+            if(transport instanceof TCPHeader) {
+                protocols[Metrics.TCP]++;
+                ((TCPHeader) transport).getData();
+            } else if(transport instanceof UDPHeader) {
+                protocols[Metrics.UDP]++;
+                ((UDPHeader) transport).getData();
+            } else if(transport instanceof ICMPHeader) {
+                protocols[Metrics.ICMP]++;
+                ((ICMPHeader) transport).getData();
+            } else {
+                protocols[(protocol == Utility.Protocols.TCP) ? Metrics.TCP
+                        : (protocol == Utility.Protocols.UDP) ? Metrics.UDP
+                        : (protocol == Utility.Protocols.ICMP) ? Metrics.ICMP
+                        : Metrics.OTHER_IP]++;
+            }
+            lap(timed, stage, time);
+        } catch (IndexOutOfBoundsException e) {
+            // Truncated or corrupt: the other analysis decides what to do with it
+            malformed++;
+            if(stage <= Metrics.IP) {
+                protocols[Metrics.OTHER]++;
+            }
+        }
+    }
+
+    /**
+     * Records how long a stage took, if the frame is timed.
+     *
+     * @param timed True if the frame is timed.
+     * @param stage The stage that just finished.
+     * @param since When the stage started.
+     * @return When the stage finished, which is when the next one starts.
+     */
+    private long lap(boolean timed, int stage, long since) {
+        if(!timed) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        stages[stage].record(now - since);
+        return now;
+    }
+
+    /**
+     * Adds the counts so far to the Metrics and starts counting from 0.
+     */
+    private void flush() {
+        metrics.add(unflushedFrames, bytes, malformed, protocols);
+        unflushedFrames = 0;
+        bytes = 0;
+        malformed = 0;
+        Arrays.fill(protocols, 0);
+    }
+
+    /**
+     * Finishes the other analysis, then prints the summary of the run.
+     *
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void finish(TextRenderer out) {
+        analysis.finish(out);
+        flush();
+        metrics.add(stages);
+        metrics.stop();
+    }
+
+    /**
+     * A worker can be forked if the other analysis can be forked.
+     *
+     * @return True if the other analysis can be forked.
+     */
+    @Override
+    public boolean canFork() {
+        return analysis.canFork();
+    }
+
+    /**
+     * A worker meters its frames with its own counters and histograms.
+     *
+     * @return A metered worker of the other analysis, or null if it can't be forked.
+     */
+    @Override
+    public Analysis fork() {
+        Analysis worker = analysis.fork();
+        return (worker == null) ? null : new MeteredAnalysis(metrics, worker);
+    }
+
+    /**
+     * Merges a worker of the other analysis, and adds the worker's remaining counts and its timings to the Metrics.
+     *
+     * @param worker A worker created by fork().
+     */
+    @Override
+    public void merge(Analysis worker) {
+        MeteredAnalysis metered = (MeteredAnalysis) worker;
+        analysis.merge(metered.analysis);
+        metered.flush();
+        metrics.add(metered.stages);
+    }
+
+    /**
+     * Saves the other analysis' state. The metrics are only of this run, so they aren't saved.
+     *
+     * @param out The stream to write the state to.
+     * @throws IOException If the state can't be written.
+     */
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        analysis.save(out);
+    }
+
+    /**
+     * Restores the other analysis' state.
+     *
+     * @param in The stream to read the state from.
+     * @throws IOException If the state can't be read.
+     */
+    @Override
+    public void restore(DataInputStream in) throws IOException {
+        analysis.restore(in);
+    }
+}
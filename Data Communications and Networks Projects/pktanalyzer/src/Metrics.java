@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+/**
+ * The Metrics class collects the runtime statistics of one run: how many frames and bytes were read, how many frames
+ * of each protocol there were, how many were malformed, and how long each stage of handling a frame took. It can print
+ * a throughput line every few seconds while the run goes on, and prints a summary at the end. Output goes to stderr,
+ * so it never mixes with the analysis' output.
+ *
+ * Counters are LongAdders, which are striped across threads, and MeteredAnalysis only adds to them every few hundred
+ * frames, so workers don't contend on them. Stage timings are kept in a Histogram per worker and added together here
+ * as workers are merged.
+ *
+ * The same numbers are available to Java Flight Recorder: a pktanalyzer.Stats event every second while a recording
+ * runs, and a pktanalyzer.Stage event per stage at the end.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class Metrics extends Header {
+
+    public static final int READ = 0;                       // Stages of handling a frame: reading it (and writing output).
+    public static final int ETHER = 1;                      // Decoding the Ethernet header.
+    public static final int IP = 2;                         // Decoding the IP header.
+    public static final int TRANSPORT = 3;                  // Decoding the TCP, UDP, or ICMP header.
+    public static final int DATA = 4;                       // Finding the payload.
+    public static final int RENDER = 5;                     // Running the analysis, which usually renders the frame.
+    public static final String[] STAGE_NAMES = {"read", "ether", "ip", "transport", "data", "render"};
+
+    public static final int ARP = 0;                        // Protocols frames are counted under.
+    public static final int TCP = 1;
+    public static final int UDP = 2;
+    public static final int ICMP = 3;
+    public static final int OTHER_IP = 4;
+    public static final int OTHER = 5;
+    public static final String[] PROTOCOL_NAMES = {"ARP", "TCP", "UDP", "ICMP", "Other IP", "Other"};
+
+    public static final int SAMPLE_INTERVAL = 8;            // Stages are timed for one frame in this many.
+
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder[] protocols = new LongAdder[PROTOCOL_NAMES.length];
+    private final Histogram[] stages = new Histogram[STAGE_NAMES.length];
+
+    private final int period;
+    private final OutputStream out;
+    private final Runnable recorderHook = this::emitStats;
+    private ScheduledExecutorService reporter;
+    private long startTime;
+    private long lastReportTime;
+    private long lastReportFrames;
+    private long lastReportBytes;
+
+    /**
+     * Java Flight Recorder event with the totals so far, taken every second while a recording runs.
+     */
+    @Name("pktanalyzer.Stats")
+    @Label("pktanalyzer Statistics")
+    @Category("pktanalyzer")
+    @Description("Frames, bytes, and malformed frames read so far")
+    @Period("1 s")
+    static class StatsEvent extends Event {
+
+        @Label("Frames")
+        long frames;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Malformed Frames")
+        long malformed;
+    }
+
+    /**
+     * Java Flight Recorder event with the timings of one stage over the whole run.
+     */
+    @Name("pktanalyzer.Stage")
+    @Label("pktanalyzer Stage Timing")
+    @Category("pktanalyzer")
+    @Description("How long one stage of handling a frame took, over the frames that were timed")
+    static class StageEvent extends Event {
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Timed Frames")
+        long count;
+
+        @Label("Mean")
+        @Timespan(Timespan.NANOSECONDS)
+        long mean;
+
+        @Label("50th Percentile")
+        @Timespan(Timespan.NANOSECONDS)
+        long p50;
+
+        @Label("99th Percentile")
+        @Timespan(Timespan.NANOSECONDS)
+        long p99;
+
+        @Label("Maximum")
+        @Timespan(Timespan.NANOSECONDS)
+        long max;
+    }
+
+    /**
+     * Constructor for Metrics.
+     *
+     * @param period Seconds between throughput lines, or 0 for only the summary at the end.
+     * @param out Where to print the throughput lines and the summary.
+     */
+    public Metrics(int period, OutputStream out) {
+        super("STATS");
+        this.period = period;
+        this.out = out;
+        for(int i = 0; i < protocols.length; i++) {
+            protocols[i] = new LongAdder();
+        }
+        for(int i = 0; i < stages.length; i++) {
+            stages[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Starts the clock, the throughput lines, and the Flight Recorder events.
+     */
+    public void start() {
+        startTime = System.nanoTime();
+        lastReportTime = startTime;
+
+        FlightRecorder.addPeriodicEvent(StatsEvent.class, recorderHook);
+        if(period > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "pktanalyzer-stats");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(this::report, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the throughput lines, emits the stage events, and prints the summary.
+     */
+    public void stop() {
+        if(reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        FlightRecorder.removePeriodicEvent(recorderHook);
+        emitStats();
+
+        for(int stage = 0; stage < stages.length; stage++) {
+            StageEvent event = new StageEvent();
+            event.stage = STAGE_NAMES[stage];
+            event.count = stages[stage].getCount();
+            event.mean = Math.round(stages[stage].getMean());
+            event.p50 = stages[stage].getValueAtPercentile(50);
+            event.p99 = stages[stage].getValueAtPercentile(99);
+            event.max = stages[stage].getMax();
+            event.commit();
+        }
+
+        TextRenderer text = new TextRenderer();
+        render(text);
+        print(text);
+    }
+
+    /**
+     * Adds counts from one worker. Can be called from any thread.
+     *
+     * @param frames The number of frames read.
+     * @param bytes The number of bytes captured of those frames.
+     * @param malformed The number of those frames that were malformed.
+     * @param protocols The number of those frames of each protocol, indexed like PROTOCOL_NAMES. Left unchanged.
+     */
+    public void add(long frames, long bytes, long malformed, long[] protocols) {
+        this.frames.add(frames);
+        this.bytes.add(bytes);
+        if(malformed != 0) {
+            this.malformed.add(malformed);
+        }
+        for(int i = 0; i < protocols.length; i++) {
+            if(protocols[i] != 0) {
+                this.protocols[i].add(protocols[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds stage timings from one worker. Only called by the thread that merges workers.
+     *
+     * @param stages The worker's histograms, indexed like STAGE_NAMES.
+     */
+    public void add(Histogram[] stages) {
+        for(int i = 0; i < stages.length; i++) {
+            this.stages[i].add(stages[i]);
+        }
+    }
+
+    /**
+     * Prints one throughput line: totals so far, and rates since the previous line. Runs on the reporter thread.
+     */
+    private void report() {
+        long now = System.nanoTime();
+        long frameCount = frames.sum();
+        long byteCount = bytes.sum();
+        double seconds = (now - lastReportTime) / 1e9;
+
+        TextRenderer text = new TextRenderer();
+        line(text).decimal((now - startTime) / 1_000_000_000L).append(" s: ")
+                .decimal(frameCount).append(" frames (").decimal(Math.round((frameCount - lastReportFrames) / seconds))
+                .append("/s), ").decimal(byteCount >> 20).append(" MB (")
+                .decimal(Math.round((byteCount - lastReportBytes) / seconds / (1 << 20))).append(" MB/s), ")
+                .decimal(malformed.sum()).append(" malformed").newline();
+        print(text);
+
+        lastReportTime = now;
+        lastReportFrames = frameCount;
+        lastReportBytes = byteCount;
+    }
+
+    /**
+     * Emits a Flight Recorder event with the totals so far. Called by the recorder while a recording runs.
+     */
+    private void emitStats() {
+        StatsEvent event = new StatsEvent();
+        if(event.shouldCommit()) {
+            event.frames = frames.sum();
+            event.bytes = bytes.sum();
+            event.malformed = malformed.sum();
+            event.commit();
+        }
+    }
+
+    /**
+     * Writes the summary of the run: totals, rates, frames per protocol, and stage timings.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        long elapsed = Math.max(1, System.nanoTime() - startTime);
+        long frameCount = frames.sum();
+        long byteCount = bytes.sum();
+
+        out.newline();
+        beginHeader(out, "Run Statistics");
+        line(out).append("Elapsed          = ").decimal(elapsed / 1_000_000).append(" ms").newline();
+        line(out).append("Frames           = ").decimal(frameCount)
+                .append(" (").decimal(frameCount * 1_000_000_000L / elapsed).append("/s)").newline();
+        line(out).append("Bytes            = ").decimal(byteCount)
+                .append(" (").decimal(Math.round(byteCount * 1e9 / elapsed / (1 << 20))).append(" MB/s)").newline();
+        line(out).append("Malformed frames = ").decimal(malformed.sum()).newline();
+        for(int i = 0; i < protocols.length; i++) {
+            line(out).append(PROTOCOL_NAMES[i]).repeat(' ', 17 - PROTOCOL_NAMES[i].length()).append("= ")
+                    .decimal(protocols[i].sum()).newline();
+        }
+
+        line(out).newline();
+        line(out).append("Stage timings in ns, 1 frame in ").decimal(SAMPLE_INTERVAL).append(':').newline();
+        for(int i = 0; i < stages.length; i++) {
+            Histogram stage = stages[i];
+            line(out).append(STAGE_NAMES[i]).repeat(' ', 10 - STAGE_NAMES[i].length())
+                    .append("count=").decimal(stage.getCount())
+                    .append(" mean=").decimal(Math.round(stage.getMean()))
+                    .append(" p50=").decimal(stage.getValueAtPercentile(50))
+                    .append(" p90=").decimal(stage.getValueAtPercentile(90))
+                    .append(" p99=").decimal(stage.getValueAtPercentile(99))
+                    .append(" p99.9=").decimal(stage.getValueAtPercentile(99.9))
+                    .append(" max=").decimal(stage.getMax()).newline();
+        }
+        endHeader(out);
+    }
+
+    /**
+     * Writes text to the output stream, ignoring failures since statistics aren't worth stopping the run for.
+     *
+     * @param text The text to write.
+     */
+    private void print(TextRenderer text) {
+        try {
+            synchronized(out) {
+                text.writeTo(out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Nowhere left to report it
+        }
+    }
+}
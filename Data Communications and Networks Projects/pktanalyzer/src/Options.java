@@ -0,0 +1,715 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The Options class holds the command line options of pktanalyzer.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class Options {
+
+    private static final int DEFAULT_FLOW_TIMEOUT = 60;     // Seconds a flow may be idle before it is printed.
+    private static final int DEFAULT_MAX_FLOWS = 1 << 20;   // Flows kept at once before the oldest are printed.
+    private static final int DEFAULT_STREAM_MEMORY = 64;    // Megabytes of out-of-order TCP data buffered in total.
+    private static final int DEFAULT_STREAM_BUFFER = 1024;  // Kilobytes of out-of-order TCP data buffered per stream.
+    private static final int DEFAULT_FRAGMENT_MEMORY = 16;  // Megabytes of IP fragments buffered in total.
+    private static final int MAX_DATAGRAMS = 4096;          // Fragmented datagrams waited for at once.
+    private static final int FRAGMENT_TIMEOUT = 30;         // Seconds to wait for the rest of a datagram.
+    private static final int DEFAULT_TOP = 10;              // Top talkers printed of each kind.
+    private static final double DEFAULT_TOP_ERROR = 0.001;  // Most a top talker count may be too high by, of the total.
+    private static final double DEFAULT_TOP_FAILURE = 0.001;    // Chance of a count being off by more than that.
+    private static final int DEFAULT_BATCH_MEMORY = 64;     // Megabytes of files and output in flight in a batch.
+    private static final int DEFAULT_RING_SIZE = 4096;      // Slots of the pipeline's ring buffer.
+    private static final int DEFAULT_RING_BATCH = 64;       // Slots a pipeline stage handles at a time.
+
+    /**
+     * What to do with the frames of a capture.
+     */
+    public enum Mode {
+        PACKETS,    // Print every packet
+        FLOWS,      // Print a summary of each flow
+        STREAMS,    // Reassemble TCP connections and print a summary of each stream
+        TOP,        // Print the addresses, ports and conversations with the most packets and bytes
+        EXPORT,     // Write the decoded header fields of every frame to a columnar file
+        INDEX       // Write a sidecar index of the capture
+    }
+
+    private List<String> files = new ArrayList<>();         // Files, directories and glob patterns, as given.
+    private int threads = 0;                                // 0 unless -j was given.
+    private Mode mode = Mode.PACKETS;
+    private int flowTimeout = DEFAULT_FLOW_TIMEOUT;
+    private int maxFlows = DEFAULT_MAX_FLOWS;
+    private int streamMemory = DEFAULT_STREAM_MEMORY;
+    private int streamBuffer = DEFAULT_STREAM_BUFFER;
+    private int fragmentMemory = DEFAULT_FRAGMENT_MEMORY;
+    private Filter filter = null;
+    private int statsPeriod = -1;
+    private String exportFile = null;
+    private long firstFrame = 0;                            // 0 unless --frames was given.
+    private long lastFrame = Long.MAX_VALUE;
+    private int[] flow = null;                              // Address, port, address, port of --flow.
+    private String format = "text";                         // How packets are printed: text, json, or csv.
+    private RecordPrinter.Field[] fields = null;            // Null for the default fields.
+    private int top = DEFAULT_TOP;
+    private double topError = DEFAULT_TOP_ERROR;
+    private double topFailure = DEFAULT_TOP_FAILURE;
+    private String sampling = null;                         // The sampling option given, if any.
+    private double sampleValue;                             // Its value: an interval, probability, or frame count.
+    private long sampleSeed = 1;
+    private List<String> patterns = null;                  // Patterns to search payloads for, if any.
+    private boolean follow = false;
+    private String checkpointFile = null;                   // Null for the default, next to the capture.
+    private String arguments;                               // The whole command line, to match checkpoints to.
+    private int batchMemory = DEFAULT_BATCH_MEMORY;
+    private boolean pipeline = false;
+    private int ringSize = DEFAULT_RING_SIZE;
+    private int ringBatch = DEFAULT_RING_BATCH;
+    private PipelineAnalyzer.WaitStrategy ringWait = PipelineAnalyzer.WaitStrategy.SLEEP;
+    private String ringOption = null;                       // A pipeline option given, if any.
+
+    /**
+     * Parses the command line arguments.
+     *
+     * @param args The command line arguments.
+     * @return The parsed options.
+     * @throws IllegalArgumentException If the arguments are invalid. The message says what was wrong.
+     */
+    public static Options parse(String[] args) {
+        Options options = new Options();
+        options.arguments = String.join(" ", args);
+
+        for(int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-j":
+                case "--threads":
+                    options.threads = parseInt(args, ++i, 1);
+                    break;
+                case "-f":
+                case "--filter":
+                    if(++i >= args.length) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+                    }
+                    options.filter = FilterCompiler.compile(args[i]);
+                    break;
+                case "--flows":
+                    options.mode = Mode.FLOWS;
+                    break;
+                case "--streams":
+                    options.mode = Mode.STREAMS;
+                    break;
+                case "--top-talkers":
+                    options.mode = Mode.TOP;
+                    break;
+                case "--top":
+                    options.top = parseInt(args, ++i, 1);
+                    break;
+                case "--top-error":
+                    options.topError = parseFraction(args, ++i);
+                    break;
+                case "--top-failure":
+                    options.topFailure = parseFraction(args, ++i);
+                    break;
+                case "--search":
+                    if(++i >= args.length) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+                    }
+                    addPattern(options, args[i]);
+                    break;
+                case "--search-file":
+                    if(++i >= args.length) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+                    }
+                    try {
+                        for(String line : Files.readAllLines(Paths.get(args[i]), StandardCharsets.UTF_8)) {
+                            if(!line.isEmpty() && !line.startsWith("#")) {
+                                addPattern(options, line);
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Couldn't read patterns from \"" + args[i] + "\": "
+                                + e.getMessage());
+                    }
+                    break;
+                case "--sample":
+                case "--reservoir":
+                    checkSampling(options, args[i]);
+                    options.sampling = args[i];
+                    options.sampleValue = parseInt(args, ++i, 1);
+                    break;
+                case "--sample-rate":
+                case "--sample-flows":
+                    checkSampling(options, args[i]);
+                    options.sampling = args[i];
+                    options.sampleValue = parseFraction(args, ++i);
+                    break;
+                case "--sample-seed":
+                    options.sampleSeed = parseInt(args, ++i, 0);
+                    break;
+                case "--stream-memory":
+                    options.streamMemory = parseInt(args, ++i, 1);
+                    break;
+                case "--stream-buffer":
+                    options.streamBuffer = parseInt(args, ++i, 1);
+                    break;
+                case "--fragment-memory":
+                    options.fragmentMemory = parseInt(args, ++i, 1);
+                    break;
+                case "--flow-timeout":
+                    options.flowTimeout = parseInt(args, ++i, 1);
+                    break;
+                case "--max-flows":
+                    options.maxFlows = parseInt(args, ++i, 1);
+                    break;
+                case "--follow":
+                    options.follow = true;
+                    break;
+                case "--checkpoint":
+                    if(++i >= args.length) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+                    }
+                    options.checkpointFile = args[i];
+                    break;
+                case "--pipeline":
+                    options.pipeline = true;
+                    break;
+                case "--ring":
+                    options.ringOption = args[i];
+                    options.ringSize = parseInt(args, ++i, 2);
+                    break;
+                case "--ring-batch":
+                    options.ringOption = args[i];
+                    options.ringBatch = parseInt(args, ++i, 1);
+                    break;
+                case "--ring-wait":
+                    options.ringOption = args[i];
+                    if(++i >= args.length) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+                    }
+                    try {
+                        options.ringWait = PipelineAnalyzer.WaitStrategy.valueOf(args[i].toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs spin, yield, or sleep, "
+                                + "not \"" + args[i] + "\".");
+                    }
+                    break;
+                case "--batch-memory":
+                    options.batchMemory = parseInt(args, ++i, 1);
+                    break;
+                case "--stats":
+                    options.statsPeriod = parseInt(args, ++i, 0);
+                    break;
+                case "--export":
+                    if(++i >= args.length) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+                    }
+                    options.mode = Mode.EXPORT;
+                    options.exportFile = args[i];
+                    break;
+                case "--index":
+                    options.mode = Mode.INDEX;
+                    break;
+                case "--frames":
+                    parseFrames(options, args, ++i);
+                    break;
+                case "--flow":
+                    options.flow = parseFlow(args, ++i);
+                    break;
+                case "--format":
+                    if(++i >= args.length) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+                    }
+                    if(!args[i].equals("text") && !args[i].equals("json") && !args[i].equals("csv")) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs text, json, or csv, "
+                                + "not \"" + args[i] + "\".");
+                    }
+                    options.format = args[i];
+                    break;
+                case "--fields":
+                    if(++i >= args.length) {
+                        throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+                    }
+                    options.fields = RecordPrinter.parseFields(args[i]);
+                    break;
+                default:
+                    if(args[i].startsWith("-") && args[i].length() > 1) {
+                        throw new IllegalArgumentException("Unknown option \"" + args[i] + "\".");
+                    }
+                    options.files.add(args[i]);
+            }
+        }
+
+        if(options.files.isEmpty()) {
+            throw new IllegalArgumentException("No was packet supplied.");
+        }
+        if(!options.format.equals("text") && options.mode != Mode.PACKETS) {
+            throw new IllegalArgumentException("Option \"--format\" only applies to printing packets.");
+        }
+        if(options.patterns != null && (options.mode != Mode.PACKETS && options.mode != Mode.STREAMS
+                || !options.format.equals("text"))) {
+            throw new IllegalArgumentException("Option \"--search\" only applies to packets or \"--streams\".");
+        }
+        if(options.fields != null && options.format.equals("text")) {
+            throw new IllegalArgumentException("Option \"--fields\" needs \"--format json\" or \"--format csv\".");
+        }
+        if(options.checkpointFile != null && !options.follow) {
+            throw new IllegalArgumentException("Option \"--checkpoint\" needs \"--follow\".");
+        }
+        if(options.ringOption != null && !options.pipeline) {
+            throw new IllegalArgumentException("Option \"" + options.ringOption + "\" needs \"--pipeline\".");
+        }
+        if(options.pipeline && options.mode == Mode.EXPORT) {
+            throw new IllegalArgumentException("Option \"--pipeline\" can't be used with \"--export\".");
+        }
+        if(options.follow) {
+            checkFollow(options);
+        }
+        if(options.files.size() > 1 || BatchAnalyzer.isPattern(options.files.get(0))) {
+            options.checkBatch();
+        }
+        return options;
+    }
+
+    /**
+     * Parses the value of a numeric option.
+     *
+     * @param args The command line arguments.
+     * @param i The index of the value.
+     * @param min The smallest allowed value.
+     * @return The value.
+     */
+    private static int parseInt(String[] args, int i, int min) {
+        if(i >= args.length) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+        }
+        try {
+            int value = Integer.parseInt(args[i]);
+            if(value < min) {
+                throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" must be at least " + min + ".");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a number, not \"" + args[i] + "\".");
+        }
+    }
+
+    /**
+     * Adds a pattern to search payloads for.
+     *
+     * @param options The options parsed so far.
+     * @param pattern The pattern, in the syntax of PatternMatcher.parse().
+     */
+    private static void addPattern(Options options, String pattern) {
+        PatternMatcher.parse(pattern);      // Fails here if the pattern isn't valid
+        if(options.patterns == null) {
+            options.patterns = new ArrayList<>();
+        }
+        options.patterns.add(pattern);
+    }
+
+    /**
+     * Makes sure only one way of sampling is asked for.
+     *
+     * @param options The options parsed so far.
+     * @param option The sampling option about to be parsed.
+     */
+    private static void checkSampling(Options options, String option) {
+        if(options.sampling != null) {
+            throw new IllegalArgumentException("Option \"" + option + "\" can't be used with \"" + options.sampling + "\".");
+        }
+    }
+
+    /**
+     * Makes sure nothing else asked for needs the whole capture up front, or keeps state a checkpoint can't hold.
+     *
+     * @param options The parsed options.
+     */
+    private static void checkFollow(Options options) {
+        String conflict = null;
+        if(options.mode == Mode.STREAMS || options.mode == Mode.EXPORT || options.mode == Mode.INDEX) {
+            conflict = "--" + options.mode.name().toLowerCase();
+        } else if("--reservoir".equals(options.sampling)) {
+            conflict = options.sampling;
+        } else if(options.firstFrame > 0) {
+            conflict = "--frames";
+        } else if(options.flow != null) {
+            conflict = "--flow";
+        } else if(options.threads > 1) {
+            conflict = "-j";
+        } else if(options.pipeline) {
+            conflict = "--pipeline";
+        }
+        if(conflict != null) {
+            throw new IllegalArgumentException("Option \"--follow\" can't be used with \"" + conflict + "\".");
+        }
+    }
+
+    /**
+     * Makes sure nothing asked for needs a single capture: writing files next to it, reading through its index, or
+     * printing statistics of one run over it. Called when there is more than one file to analyze, or a directory or
+     * glob pattern of them.
+     *
+     * @throws IllegalArgumentException If an option can't be used with a batch of files.
+     */
+    public void checkBatch() {
+        String conflict = null;
+        if(follow || mode == Mode.EXPORT || mode == Mode.INDEX) {
+            conflict = follow ? "--follow" : "--" + mode.name().toLowerCase();
+        } else if(firstFrame > 0) {
+            conflict = "--frames";
+        } else if(flow != null) {
+            conflict = "--flow";
+        } else if(statsPeriod >= 0) {
+            conflict = "--stats";
+        } else if(pipeline) {
+            conflict = "--pipeline";
+        }
+        if(conflict != null) {
+            throw new IllegalArgumentException("Option \"" + conflict + "\" only applies to a single capture.");
+        }
+    }
+
+    /**
+     * Parses the value of an option that is a fraction, such as 0.001.
+     *
+     * @param args The command line arguments.
+     * @param i The index of the value.
+     * @return The value, greater than 0 and less than 1.
+     */
+    private static double parseFraction(String[] args, int i) {
+        if(i >= args.length) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+        }
+        try {
+            double value = Double.parseDouble(args[i]);
+            if(!(value > 0 && value < 1)) {
+                throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" must be between 0 and 1.");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a fraction, not \"" + args[i] + "\".");
+        }
+    }
+
+    /**
+     * Parses the value of --frames: a frame number, or a range of them such as 100-200 or 100-.
+     *
+     * @param options The options to set the range of.
+     * @param args The command line arguments.
+     * @param i The index of the value.
+     */
+    private static void parseFrames(Options options, String[] args, int i) {
+        if(i >= args.length) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+        }
+        String value = args[i];
+        int dash = value.indexOf('-');
+        try {
+            options.firstFrame = Long.parseLong((dash < 0) ? value : value.substring(0, dash));
+            options.lastFrame = (dash < 0) ? options.firstFrame
+                    : (dash == value.length() - 1) ? Long.MAX_VALUE : Long.parseLong(value.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a frame number or range, not \""
+                    + value + "\".");
+        }
+        if(options.firstFrame < 1 || options.lastFrame < options.firstFrame) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs frames numbered from 1 up.");
+        }
+    }
+
+    /**
+     * Parses the value of --flow: two endpoints, such as 10.0.0.1:1234,10.0.0.2:80.
+     *
+     * @param args The command line arguments.
+     * @param i The index of the value.
+     * @return The first address and port, then the second address and port.
+     */
+    private static int[] parseFlow(String[] args, int i) {
+        if(i >= args.length) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+        }
+        String[] endpoints = args[i].split(",", -1);
+        int[] flow = new int[4];
+        try {
+            if(endpoints.length != 2) {
+                throw new NumberFormatException();
+            }
+            for(int end = 0; end < 2; end++) {
+                String[] parts = endpoints[end].split("[.:]", -1);
+                if(parts.length != 5) {
+                    throw new NumberFormatException();
+                }
+                for(int part = 0; part < 4; part++) {
+                    int octet = Integer.parseInt(parts[part]);
+                    if(octet < 0 || octet > 0xff) {
+                        throw new NumberFormatException();
+                    }
+                    flow[2 * end] = (flow[2 * end] << 8) | octet;
+                }
+                flow[2 * end + 1] = Integer.parseInt(parts[4]);
+                if(flow[2 * end + 1] < 0 || flow[2 * end + 1] > 0xffff) {
+                    throw new NumberFormatException();
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs two endpoints such as "
+                    + "10.0.0.1:1234,10.0.0.2:80, not \"" + args[i] + "\".");
+        }
+        return flow;
+    }
+
+    /**
+     * Getter method for the file to analyze.
+     *
+     * @return The path to the packet or capture, as given, or the first of them if there are several.
+     */
+    public String getFile() {
+        return files.get(0);
+    }
+
+    /**
+     * Getter method for the files to analyze.
+     *
+     * @return The paths to the packets, captures, directories and glob patterns, as given.
+     */
+    public List<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * Getter method for the number of decoding threads.
+     *
+     * @return The number of threads to decode a capture with.
+     */
+    public int getThreads() {
+        return Math.max(1, threads);
+    }
+
+    /**
+     * Getter method for the number of files of a batch to analyze at once.
+     *
+     * @return The number of threads given with -j, or else the number of processors.
+     */
+    public int getBatchThreads() {
+        return (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Getter method for the output a batch may buffer.
+     *
+     * @return Megabytes of output that may be buffered at once, by all files together.
+     */
+    public int getBatchMemory() {
+        return batchMemory;
+    }
+
+    /**
+     * Getter method for pipeline mode.
+     *
+     * @return True if a capture should be analyzed by a pipeline of reader, decoder and writer threads.
+     */
+    public boolean isPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Getter method for the size of the pipeline's ring buffer.
+     *
+     * @return The number of slots to give the ring, before rounding up.
+     */
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    /**
+     * Getter method for the pipeline's batch size.
+     *
+     * @return The number of slots a pipeline stage handles at a time.
+     */
+    public int getRingBatch() {
+        return ringBatch;
+    }
+
+    /**
+     * Getter method for how the pipeline's stages wait for each other.
+     *
+     * @return The wait strategy.
+     */
+    public PipelineAnalyzer.WaitStrategy getRingWait() {
+        return ringWait;
+    }
+
+    /**
+     * Getter method for the output format.
+     *
+     * @return How packets are printed: text, json, or csv.
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Getter method for the mode.
+     *
+     * @return What to do with the frames of a capture.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Getter method for the filter.
+     *
+     * @return The filter frames have to pass, or null if every frame is analyzed.
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Getter method for the file to export to.
+     *
+     * @return The path to write the columnar file to, as given, or null if not exporting.
+     */
+    public String getExportFile() {
+        return exportFile;
+    }
+
+    /**
+     * Getter method for follow mode.
+     *
+     * @return True if the capture should be followed as it grows.
+     */
+    public boolean isFollow() {
+        return follow;
+    }
+
+    /**
+     * Getter method for the checkpoint file.
+     *
+     * @return The path to keep the checkpoint of --follow in, as given, or null for the default.
+     */
+    public String getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * Getter method for the command line.
+     *
+     * @return Every argument, separated by spaces.
+     */
+    public String getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Checks whether the options can only be carried out with an index.
+     *
+     * @return True if --frames or --flow was given.
+     */
+    public boolean needsIndex() {
+        return firstFrame > 0 || flow != null;
+    }
+
+    /**
+     * Uses an index to find the frames to analyze: those in the --frames range, of the --flow, and that can pass the
+     * filter, as far as the index can tell.
+     *
+     * @param index The index of the capture.
+     * @return The frame numbers to read, or null if the index can't narrow them down.
+     */
+    public CaptureIndex.Postings selectFrames(CaptureIndex index) {
+        CaptureIndex.Postings frames = (firstFrame > 0) ? CaptureIndex.Postings.range(firstFrame, lastFrame) : null;
+        if(flow != null) {
+            CaptureIndex.Postings flowFrames = index.getFlowFrames(flow[0], flow[1], flow[2], flow[3]);
+            frames = (frames == null) ? flowFrames : CaptureIndex.Postings.and(frames, flowFrames);
+        }
+        CaptureIndex.Postings candidates = (filter == null) ? null : filter.candidates(index);
+        if(candidates != null) {
+            frames = (frames == null) ? candidates : CaptureIndex.Postings.and(frames, candidates);
+        }
+        return frames;
+    }
+
+    /**
+     * Creates the analysis to run over a capture.
+     *
+     * @return The analysis for the chosen mode, sampled if a sampling option was given, behind the filter if there is
+     * one, and metered if --stats was given.
+     * @throws IOException If the file to export to can't be created.
+     */
+    public Analysis createAnalysis() throws IOException {
+        Analysis analysis;
+        switch (mode) {
+            case FLOWS:
+                analysis = new FlowAnalysis(maxFlows, flowTimeout * 1_000_000_000L, createFragmentReassembler());
+                break;
+            case STREAMS:
+                if(patterns != null) {
+                    analysis = new SearchAnalysis(new PatternMatcher(patterns), streamMemory * (1L << 20),
+                            streamBuffer << 10, flowTimeout * 1_000_000_000L, createFragmentReassembler());
+                    break;
+                }
+                analysis = new StreamAnalysis(streamMemory * (1L << 20), streamBuffer << 10,
+                        flowTimeout * 1_000_000_000L, createFragmentReassembler());
+                break;
+            case TOP:
+                analysis = new TopTalkerAnalysis(top, topError, topFailure);
+                break;
+            case EXPORT:
+                analysis = new ExportAnalysis(new ColumnarWriter(Paths.get(exportFile), ExportAnalysis.COLUMN_NAMES,
+                        ExportAnalysis.COLUMN_TYPES, ExportAnalysis.COLUMN_DICTIONARIES, ColumnarWriter.DEFAULT_ROW_GROUP));
+                break;
+            default:
+                if(patterns != null) {
+                    analysis = new SearchAnalysis(new PatternMatcher(patterns));
+                    break;
+                }
+                analysis = format.equals("text") ? new PacketPrinter() : new RecordPrinter(
+                        (fields == null) ? RecordPrinter.parseFields(RecordPrinter.DEFAULT_FIELDS) : fields,
+                        format.equals("json"));
+        }
+        // The filter comes before sampling, so the sampling rate is of the frames that pass it
+        if(sampling != null) {
+            PrintStream summary = format.equals("text") ? null : System.err;   // Records would be broken by it
+            switch (sampling) {
+                case "--sample":
+                    analysis = new SampledAnalysis(new Sampler.Systematic((long) sampleValue), analysis, summary);
+                    break;
+                case "--sample-rate":
+                    analysis = new SampledAnalysis(new Sampler.Random(sampleValue, new SplittableRandom(sampleSeed)),
+                            analysis, summary);
+                    break;
+                case "--sample-flows":
+                    analysis = new SampledAnalysis(new Sampler.Flow(sampleValue, sampleSeed), analysis, summary);
+                    break;
+                default:
+                    analysis = new ReservoirAnalysis((int) sampleValue, analysis, new SplittableRandom(sampleSeed),
+                            summary);
+            }
+        }
+        if(filter != null) {
+            analysis = new FilteredAnalysis(filter, analysis);
+        }
+        if(statsPeriod >= 0) {
+            Metrics metrics = new Metrics(statsPeriod, System.err);
+            metrics.start();
+            analysis = new MeteredAnalysis(metrics, analysis);
+        }
+        return analysis;
+    }
+
+    /**
+     * Creates the reassembler for fragmented IP datagrams.
+     *
+     * @return A new FragmentReassembler.
+     */
+    private FragmentReassembler createFragmentReassembler() {
+        return new FragmentReassembler(fragmentMemory * (1L << 20), MAX_DATAGRAMS, FRAGMENT_TIMEOUT * 1_000_000_000L);
+    }
+}
@@ -1,7 +1,8 @@
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
- * The Packet class takes in a byte array of data from a packet and separates it into EtherHeader and IPHeader parts.
+ * The Packet class takes in a byte array (or a slice of a buffer) of data from a packet and separates it into an
+ * EtherHeader and the header of its payload, found through DissectorRegistry by the ethertype.
  *
  * @author Steven Yu (sky3947)
  */
@@ -9,18 +10,111 @@ public class Packet {
 
     private static final int PAYLOAD = 14;    // The byte location where the payload starts
 
-    private EtherHeader etherHeader;
-    private IPHeader ipHeader;
+    private final EtherHeader etherHeader = new EtherHeader();
+    private final DissectorRegistry.Headers payloadHeaders = new DissectorRegistry.Headers(Dissector.ETHERTYPE, null);
+    private Header payload;
+    private boolean payloadDecoded;
 
     /**
-     * Constructor for Packet. Instantiates an EtherHeader and an IPHeader.
+     * Constructor for a Packet that isn't pointing at any data yet. Use wrap() to give it some.
+     */
+    public Packet() {
+    }
+
+    /**
+     * Constructor for Packet. Instantiates an EtherHeader and the header of its payload.
      *
      * @param raw The byte array of data from the incoming packet.
      */
     public Packet(byte[] raw) {
-        // Instantiate etherHeader and ipHeader
-        etherHeader = new EtherHeader(raw);
-        ipHeader = new IPHeader(Arrays.copyOfRange(raw, PAYLOAD, raw.length));
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
+    }
+
+    /**
+     * Constructor for Packet from a slice of a buffer, such as a frame in a memory-mapped capture.
+     *
+     * @param buffer The buffer holding the packet.
+     * @param offset The index in buffer where the packet starts.
+     * @param length The length of the packet.
+     */
+    public Packet(ByteBuffer buffer, int offset, int length) {
+        wrap(buffer, offset, length);
+    }
+
+    /**
+     * Points this packet at a new slice of a buffer. Nothing is copied or decoded up front, so the packet is cheap to
+     * wrap but only valid for as long as the slice is.
+     *
+     * @param buffer The buffer holding the packet. Must be big endian.
+     * @param offset The index in buffer where the packet starts.
+     * @param length The length of the packet.
+     */
+    public void wrap(ByteBuffer buffer, int offset, int length) {
+        etherHeader.wrap(buffer, offset, length);
+        payloadDecoded = false;
+    }
+
+    /**
+     * Points this packet at the bytes of a captured frame.
+     *
+     * @param frame The frame to decode.
+     * @return True if the frame is an ethernet frame (and this packet now points at it), false otherwise.
+     */
+    public boolean wrap(Frame frame) {
+        if(frame.getLinkType() != CaptureReader.LINKTYPE_ETHERNET) {
+            return false;
+        }
+        wrap(frame.getBuffer(), frame.getOffset(), frame.getCapturedLength());
+        return true;
+    }
+
+    /**
+     * Getter method for the ether header.
+     *
+     * @return The packet's ether header.
+     */
+    public EtherHeader getEtherHeader() {
+        return etherHeader;
+    }
+
+    /**
+     * Getter method for the header of the payload. It is decoded the first time it is asked for.
+     *
+     * @return The header of the packet's payload, or null if no dissector decodes its ethertype.
+     */
+    public Header getPayload() {
+        if(!payloadDecoded) {
+            payload = payloadHeaders.get(etherHeader.getEthertype());
+            if(payload != null) {
+                payload.wrap(etherHeader.getBuffer(), etherHeader.getPayloadOffset(), etherHeader.getLength() - PAYLOAD);
+            }
+            payloadDecoded = true;
+        }
+        return payload;
+    }
+
+    /**
+     * Getter method for the IP header. It is decoded the first time it is asked for.
+     *
+     * @return The packet's IP header, or null if the packet doesn't hold an IPv4 datagram right after the ether header.
+     */
+    public IPHeader getIPHeader() {
+        Header header = getPayload();
+        return (header instanceof IPHeader) ? (IPHeader) header : null;
+    }
+
+    /**
+     * Writes the packet details to a renderer: the ether header, and its payload if it can be decoded.
+     *
+     * @param out The renderer to write to.
+     */
+    public void render(TextRenderer out) {
+        etherHeader.render(out);
+
+        Header header = getPayload();
+        if(header != null) {
+            header.render(out);
+        }
     }
 
     /**
@@ -29,6 +123,8 @@ public class Packet {
      * @return A string representing this packet
      */
     public String toString() {
-        return etherHeader.toString() + ((Utility.getEtherType(etherHeader.getEthertype()).equals("IP")) ? ipHeader.toString() : "");
+        TextRenderer out = new TextRenderer();
+        render(out);
+        return out.toString();
     }
 }
@@ -0,0 +1,52 @@
+/**
+ * The PacketPrinter class is the default analysis: it prints every header of every frame.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class PacketPrinter extends Analysis {
+
+    /**
+     * Renders one frame of a capture, followed by a blank line.
+     *
+     * @param frame The frame to render.
+     * @param packet A packet to decode the frame with.
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        frame.render(out);
+
+        if(frame.getLinkType() == CaptureReader.LINKTYPE_ETHERNET) {
+            int mark = out.size();
+            try {
+                packet.wrap(frame);
+                packet.render(out);
+            } catch (IndexOutOfBoundsException e) {
+                // Truncated or corrupt frame: take back what was rendered of it, report it and keep going
+                out.truncate(mark);
+                frame.line(out).append("Malformed frame").newline();
+            }
+        }
+        out.newline();
+    }
+
+    /**
+     * Printing frames needs no state, so any number of workers can print chunks of the capture.
+     *
+     * @return True.
+     */
+    @Override
+    public boolean canFork() {
+        return true;
+    }
+
+    /**
+     * Makes a printer for a worker.
+     *
+     * @return A new PacketPrinter.
+     */
+    @Override
+    public Analysis fork() {
+        return new PacketPrinter();
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ParallelAnalyzer class runs an analysis over a capture using several threads. The capture is cut into
+ * record-aligned chunks of a few megabytes, each chunk is decoded and rendered into its own buffer by a worker, and the
+ * buffers are written out in the order of the chunks, so the output is exactly what a single thread would print.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class ParallelAnalyzer {
+
+    private static final long CHUNK_BYTES = 4L << 20;      // Minimum number of capture bytes per chunk.
+    private static final int CHUNKS_PER_THREAD = 4;         // Chunks that may be in flight per worker.
+
+    private final int threads;
+    private final ConcurrentLinkedQueue<TextRenderer> buffers = new ConcurrentLinkedQueue<>();   // Free chunk buffers
+
+    /**
+     * Constructor for ParallelAnalyzer.
+     *
+     * @param threads The number of worker threads.
+     */
+    public ParallelAnalyzer(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Runs an analysis over every frame of a capture. Each chunk is handled by a fork of the analysis, and the forks
+     * are merged back into it in capture order.
+     *
+     * @param filePath The path to the capture.
+     * @param analysis The analysis to run. Its canFork() must be true.
+     * @param out The stream to write the analysis' output to.
+     * @throws IOException If the capture can't be read or the output can't be written.
+     */
+    public void analyze(Path filePath, Analysis analysis, OutputStream out) throws IOException {
+        AtomicInteger workers = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "pktanalyzer-worker-" + workers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();   // Chunks in capture order
+        Frame scratch = new Frame();
+
+        try (CaptureReader reader = new CaptureReader(filePath)) {
+            TextRenderer text = new TextRenderer();
+            analysis.start(text);
+            text.writeTo(out);
+
+            CaptureReader chunk;
+            while((chunk = reader.split(CHUNK_BYTES, scratch)) != null) {
+                // Don't let the reader run too far ahead of the output
+                if(pending.size() >= CHUNKS_PER_THREAD * threads) {
+                    write(pending.poll(), analysis, out);
+                }
+
+                CaptureReader range = chunk;
+                Analysis worker = analysis.fork();
+                pending.add(pool.submit(() -> run(range, worker)));
+            }
+
+            while(!pending.isEmpty()) {
+                write(pending.poll(), analysis, out);
+            }
+
+            analysis.finish(text);
+            text.writeTo(out);
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+        }
+    }
+
+    /**
+     * Runs a fork of the analysis over every frame of a chunk. Runs on a worker thread.
+     *
+     * @param range The reader for the chunk.
+     * @param worker The fork of the analysis.
+     * @return The finished chunk.
+     * @throws IOException If the capture can't be read.
+     */
+    private Chunk run(CaptureReader range, Analysis worker) throws IOException {
+        TextRenderer text = buffers.poll();
+        if(text == null) {
+            text = new TextRenderer((int) CHUNK_BYTES);
+        }
+        Frame frame = new Frame();
+        Packet packet = new Packet();
+
+        try (CaptureReader reader = range) {
+            while(reader.next(frame)) {
+                worker.accept(frame, packet, text);
+            }
+        }
+        return new Chunk(worker, text);
+    }
+
+    /**
+     * Waits for a chunk to finish, writes its output, merges its worker, and recycles its buffer.
+     *
+     * @param chunk The chunk to write.
+     * @param analysis The analysis to merge the chunk's worker into.
+     * @param out The stream to write to.
+     * @throws IOException If the chunk couldn't be read or the output can't be written.
+     */
+    private void write(Future<Chunk> chunk, Analysis analysis, OutputStream out) throws IOException {
+        Chunk done;
+        try {
+            done = chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a worker.", e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("A worker failed.", e.getCause());
+        }
+
+        done.text.writeTo(out);
+        buffers.add(done.text);
+        analysis.merge(done.worker);
+    }
+
+    /**
+     * A chunk that a worker has finished: the fork that ran over it, and its output.
+     */
+    private static class Chunk {
+
+        private final Analysis worker;
+        private final TextRenderer text;
+
+        /**
+         * Constructor for Chunk.
+         *
+         * @param worker The fork of the analysis that ran over the chunk.
+         * @param text The chunk's output.
+         */
+        private Chunk(Analysis worker, TextRenderer text) {
+            this.worker = worker;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The PatternMatcher class finds every occurrence of a set of byte patterns in a payload with one pass over its bytes,
+ * however many patterns there are. The patterns are compiled into an Aho-Corasick automaton whose failure links are
+ * folded into a dense transition table, so each byte costs one table lookup and a check for matches.
+ *
+ * To keep the table small, bytes are first mapped to classes: one class per byte value that appears in some pattern,
+ * and one shared by every other byte. The table holds, for each state and class, the row of the next state (its number
+ * times the number of classes), so no multiplication is needed while scanning; the row is complemented when a pattern
+ * ends at the next state, so the check for matches is a sign test.
+ *
+ * A matcher doesn't change once it is built, so any number of threads can scan with it at once; the state of a scan is
+ * a single int, which lets a scan carry on from one buffer to the next, as with the segments of a TCP stream.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class PatternMatcher {
+
+    /**
+     * Called for every occurrence of a pattern.
+     */
+    public interface MatchListener {
+
+        /**
+         * Handles an occurrence of a pattern.
+         *
+         * @param pattern The number of the pattern, in the order they were given.
+         * @param end The index in the buffer just after the occurrence's last byte.
+         */
+        void matched(int pattern, int end);
+    }
+
+    private final String[] names;          // The patterns as given, by pattern number.
+    private final int[] lengths;            // The length of each pattern, in bytes.
+    private final int[] classes;            // The class of each byte value.
+    private final int classCount;
+    private final int[] transitions;        // By row + class: the row of the next state, complemented if anything matches there.
+    private final int[] matches;            // By state: the pattern ending at the state, or -1.
+    private final int[] outputLinks;        // By state: the nearest state on its failure chain where a pattern ends, or -1.
+
+    /**
+     * Constructor for PatternMatcher.
+     *
+     * @param patterns The patterns, in the syntax of parse(). Patterns given more than once are only kept once.
+     */
+    public PatternMatcher(List<String> patterns) {
+        // Parse the patterns, keeping the first of any duplicates ("/" and "|2f|" are the same pattern)
+        Map<String, String> unique = new LinkedHashMap<>();
+        for(String pattern : patterns) {
+            unique.putIfAbsent(new String(parse(pattern), StandardCharsets.ISO_8859_1), pattern);
+        }
+        this.names = new String[unique.size()];
+        this.lengths = new int[unique.size()];
+        byte[][] bytes = new byte[unique.size()][];
+        int number = 0;
+        for(Map.Entry<String, String> entry : unique.entrySet()) {
+            bytes[number] = entry.getKey().getBytes(StandardCharsets.ISO_8859_1);
+            names[number] = entry.getValue();
+            lengths[number] = bytes[number].length;
+            number++;
+        }
+
+        // Give each byte value that appears in a pattern a class of its own
+        this.classes = new int[256];
+        int count = 1;
+        for(byte[] pattern : bytes) {
+            for(byte b : pattern) {
+                if(classes[b & 0xff] == 0) {
+                    classes[b & 0xff] = count++;
+                }
+            }
+        }
+        this.classCount = count;
+
+        // Build the trie, with -1 for missing edges
+        int states = 1;
+        for(byte[] pattern : bytes) {
+            states += pattern.length;
+        }
+        int[] table = new int[states * classCount];
+        Arrays.fill(table, -1);
+        int[] ends = new int[states];
+        Arrays.fill(ends, -1);
+        int used = 1;
+        for(int p = 0; p < bytes.length; p++) {
+            int state = 0;
+            for(byte b : bytes[p]) {
+                int edge = state * classCount + classes[b & 0xff];
+                if(table[edge] < 0) {
+                    table[edge] = used++;
+                }
+                state = table[edge];
+            }
+            ends[state] = p;
+        }
+
+        // Breadth first, fill in every missing edge with the edge of the failure state, and link each state to the
+        // nearest state on its failure chain where a pattern ends
+        int[] failure = new int[used];
+        int[] links = new int[used];
+        Arrays.fill(links, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for(int c = 0; c < classCount; c++) {
+            if(table[c] < 0) {
+                table[c] = 0;
+            } else {
+                failure[table[c]] = 0;
+                queue.add(table[c]);
+            }
+        }
+        while(!queue.isEmpty()) {
+            int state = queue.poll();
+            int fail = failure[state];
+            links[state] = (ends[fail] >= 0) ? fail : links[fail];
+            for(int c = 0; c < classCount; c++) {
+                int edge = state * classCount + c;
+                if(table[edge] < 0) {
+                    table[edge] = table[fail * classCount + c];
+                } else {
+                    failure[table[edge]] = table[fail * classCount + c];
+                    queue.add(table[edge]);
+                }
+            }
+        }
+
+        this.matches = Arrays.copyOf(ends, used);
+        this.outputLinks = links;
+        this.transitions = new int[used * classCount];
+        for(int i = 0; i < transitions.length; i++) {
+            int next = table[i];
+            transitions[i] = (ends[next] >= 0 || links[next] >= 0) ? ~(next * classCount) : next * classCount;
+        }
+    }
+
+    /**
+     * Parses a pattern into its bytes. Text is taken as UTF-8, except that bytes can be given in hex between pipes, as
+     * in Snort rules: "GET |2f|" is the same as "GET /", and "|0d 0a 0d 0a|" is two line breaks.
+     *
+     * @param pattern The pattern.
+     * @return The bytes of the pattern.
+     * @throws IllegalArgumentException If the pattern is empty or its hex isn't valid.
+     */
+    public static byte[] parse(String pattern) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        String[] parts = pattern.split("\\|", -1);
+        if(parts.length % 2 == 0) {
+            throw new IllegalArgumentException("Pattern \"" + pattern + "\" has a \"|\" without a match.");
+        }
+        for(int i = 0; i < parts.length; i++) {
+            if(i % 2 == 0) {
+                bytes.writeBytes(parts[i].getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            String hex = parts[i].replace(" ", "");
+            if(hex.length() % 2 != 0 || !hex.matches("[0-9a-fA-F]*")) {
+                throw new IllegalArgumentException("Pattern \"" + pattern + "\" has hex bytes that aren't valid: \""
+                        + parts[i] + "\".");
+            }
+            for(int c = 0; c < hex.length(); c += 2) {
+                bytes.write(Integer.parseInt(hex.substring(c, c + 2), 16));
+            }
+        }
+        if(bytes.size() == 0) {
+            throw new IllegalArgumentException("Pattern \"" + pattern + "\" is empty.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Getter method for the state a scan starts in.
+     *
+     * @return The start state.
+     */
+    public int getStartState() {
+        return 0;
+    }
+
+    /**
+     * Scans bytes for the patterns, reporting every occurrence, including ones that overlap.
+     *
+     * @param buffer The buffer holding the bytes.
+     * @param offset The index in buffer where the bytes start.
+     * @param length The number of bytes.
+     * @param state The state to start in: getStartState(), or what the scan of the bytes before these returned.
+     * @param listener Called for every occurrence that ends in these bytes.
+     * @return The state after the last byte, to carry on from.
+     */
+    public int scan(ByteBuffer buffer, int offset, int length, int state, MatchListener listener) {
+        int[] transitions = this.transitions;
+        int[] classes = this.classes;
+
+        int row = state;
+        for(int i = offset, end = offset + length; i < end; i++) {
+            row = transitions[row + classes[buffer.get(i) & 0xff]];
+            if(row < 0) {
+                row = ~row;
+                report(row / classCount, i + 1, listener);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Reports every pattern that ends at a state: its own, and those of the states it links to.
+     *
+     * @param state The state.
+     * @param end The index just after the last byte of the occurrences.
+     * @param listener Called for every occurrence.
+     */
+    private void report(int state, int end, MatchListener listener) {
+        for(; state >= 0; state = outputLinks[state]) {
+            if(matches[state] >= 0) {
+                listener.matched(matches[state], end);
+            }
+        }
+    }
+
+    /**
+     * Getter method for the number of patterns.
+     *
+     * @return The number of distinct patterns.
+     */
+    public int getPatternCount() {
+        return names.length;
+    }
+
+    /**
+     * Getter method for a pattern as it was given.
+     *
+     * @param pattern The number of the pattern.
+     * @return The pattern.
+     */
+    public String getName(int pattern) {
+        return names[pattern];
+    }
+
+    /**
+     * Getter method for the length of a pattern.
+     *
+     * @param pattern The number of the pattern.
+     * @return The length of the pattern, in bytes.
+     */
+    public int getLength(int pattern) {
+        return lengths[pattern];
+    }
+
+    /**
+     * Getter method for the number of states.
+     *
+     * @return The number of states of the automaton.
+     */
+    public int getStateCount() {
+        return matches.length;
+    }
+
+    /**
+     * Getter method for the number of byte classes.
+     *
+     * @return The number of byte classes, and so of columns in the transition table.
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+}
@@ -0,0 +1,663 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * The PcapGenerator program writes synthetic pcap captures for load and scale testing. Traffic is a mix of TCP
+ * connections (handshake, data both ways, FIN), UDP with some datagrams too large for one frame (sent as IP fragments),
+ * ICMP echo, and ARP, between hosts on 10.0.0.0/8. Conversations are picked with a Zipf distribution, and so are the
+ * hosts of each conversation, so a few host pairs carry most of the traffic as on real links. Every IP, TCP, UDP, and
+ * ICMP checksum is valid.
+ *
+ * The same seed always gives the same capture.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class PcapGenerator {
+
+    private static final int PCAP_MAGIC = 0xa1b2c3d4;           // Microsecond timestamps.
+    private static final int SNAPLEN = 65535;
+    private static final long START_SECONDS = 1_600_000_000L;   // Arrival time of the first frame.
+
+    private static final int MTU = 1500;                        // Largest IP datagram sent in one frame.
+    private static final int MSS = MTU - 40;                    // Largest TCP payload.
+    private static final int ETHER_LENGTH = 14;
+    private static final int IP_LENGTH = 20;
+    private static final int TCP_LENGTH = 20;
+    private static final int UDP_LENGTH = 8;
+    private static final int ICMP_LENGTH = 8;
+    private static final int ARP_LENGTH = 28;
+    private static final int MIN_FRAME = 60;                    // Shorter frames are padded, as on the wire.
+
+    private static final int TCP = 0;                           // Kinds of conversation.
+    private static final int UDP = 1;
+    private static final int ICMP = 2;
+
+    private static final double ARP_SHARE = 0.02;               // Share of frames that are ARP.
+    private static final double UDP_SHARE = 0.30;               // Share of conversations that are UDP.
+    private static final double ICMP_SHARE = 0.05;              // Share of conversations that are ICMP echo.
+    private static final double LARGE_UDP_SHARE = 0.05;         // Share of UDP datagrams that need fragmenting.
+    private static final double TCP_CLOSE_CHANCE = 0.02;        // Chance a TCP data segment is the connection's last.
+
+    private static final int CLOSED = 0;                        // States of a TCP conversation: SYN next.
+    private static final int SYN_SENT = 1;                      // SYN-ACK next.
+    private static final int SYN_RECEIVED = 2;                  // ACK of the SYN-ACK next.
+    private static final int ESTABLISHED = 3;                   // Data or a FIN from either side next.
+    private static final int CLIENT_CLOSED = 4;                 // The server's FIN next.
+    private static final int SERVER_CLOSED = 5;                 // The client's FIN next.
+
+    private final SplittableRandom random;
+    private final OutputStream out;
+    private final double[] hostWeights;
+    private final double[] conversationWeights;
+    private final long meanGap;                                 // Mean time between frames, in nanoseconds.
+
+    // One entry per conversation
+    private final int[] kind;
+    private final int[] client;
+    private final int[] server;
+    private final int[] clientPort;
+    private final int[] serverPort;
+    private final int[] state;                                  // TCP: what is sent next, one of the states below.
+    private final int[] clientSequence;
+    private final int[] serverSequence;
+    private final Set<Long> portsInUse = new HashSet<>();      // Client, server, and client port of open connections
+
+    private final byte[] frame = new byte[ETHER_LENGTH + SNAPLEN];
+    private final ByteBuffer frameBuffer = ByteBuffer.wrap(frame);
+    private final byte[] datagram = new byte[SNAPLEN];         // A whole UDP datagram, before it is fragmented
+    private final ByteBuffer datagramBuffer = ByteBuffer.wrap(datagram);
+    private final ByteBuffer record = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+    private long time = START_SECONDS * 1_000_000_000L;
+    private int identification;
+    private long frames;
+    private long bytes;
+
+    /**
+     * Constructor for PcapGenerator.
+     *
+     * @param out Where to write the capture.
+     * @param seed The seed of the random number generator.
+     * @param hosts The number of hosts.
+     * @param conversations The number of conversations.
+     * @param exponent The exponent of the Zipf distributions.
+     * @param meanGap The mean time between frames, in nanoseconds.
+     */
+    public PcapGenerator(OutputStream out, long seed, int hosts, int conversations, double exponent, long meanGap) {
+        this.random = new SplittableRandom(seed);
+        this.out = out;
+        this.hostWeights = zipf(hosts, exponent);
+        this.conversationWeights = zipf(conversations, exponent);
+        this.meanGap = meanGap;
+
+        this.kind = new int[conversations];
+        this.client = new int[conversations];
+        this.server = new int[conversations];
+        this.clientPort = new int[conversations];
+        this.serverPort = new int[conversations];
+        this.state = new int[conversations];
+        this.clientSequence = new int[conversations];
+        this.serverSequence = new int[conversations];
+
+        for(int i = 0; i < conversations; i++) {
+            double pick = random.nextDouble();
+            kind[i] = (pick < ICMP_SHARE) ? ICMP : (pick < ICMP_SHARE + UDP_SHARE) ? UDP : TCP;
+            client[i] = pick(hostWeights);
+            do {
+                server[i] = pick(hostWeights);
+            } while(server[i] == client[i] && hosts > 1);
+            serverPort[i] = (kind[i] == UDP) ? pickUdpService() : pickTcpService();
+            open(i);
+        }
+    }
+
+    /**
+     * Builds the cumulative distribution of a Zipf distribution.
+     *
+     * @param n The number of ranks.
+     * @param exponent The exponent.
+     * @return The cumulative probability of each rank, ending at 1.
+     */
+    private static double[] zipf(int n, double exponent) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for(int rank = 0; rank < n; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for(int rank = 0; rank < n; rank++) {
+            cumulative[rank] /= sum;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Picks a rank of a distribution.
+     *
+     * @param cumulative The cumulative probability of each rank.
+     * @return The rank.
+     */
+    private int pick(double[] cumulative) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min((rank < 0) ? -rank - 1 : rank, cumulative.length - 1);
+    }
+
+    /**
+     * Picks the server port of a TCP conversation.
+     *
+     * @return The port.
+     */
+    private int pickTcpService() {
+        int[] services = {443, 443, 443, 80, 80, 22, 25, 3306, 8080};
+        return services[random.nextInt(services.length)];
+    }
+
+    /**
+     * Picks the server port of a UDP conversation.
+     *
+     * @return The port.
+     */
+    private int pickUdpService() {
+        int[] services = {53, 53, 53, 123, 161, 514, 2049, 4789};
+        return services[random.nextInt(services.length)];
+    }
+
+    /**
+     * Starts a new connection for a conversation, from a client port that no open connection between the same hosts
+     * uses, so connections never get mixed up.
+     *
+     * @param i The conversation.
+     */
+    private void open(int i) {
+        long hosts = ((long) client[i] << 40) | ((long) server[i] << 16);
+        portsInUse.remove(hosts | clientPort[i]);
+        do {
+            clientPort[i] = 32768 + random.nextInt(28232);
+        } while(!portsInUse.add(hosts | clientPort[i]));
+        state[i] = CLOSED;
+        clientSequence[i] = random.nextInt();
+        serverSequence[i] = random.nextInt();
+    }
+
+    /**
+     * Writes the pcap file header.
+     *
+     * @throws IOException If the header can't be written.
+     */
+    public void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(PCAP_MAGIC).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(SNAPLEN)
+                .putInt(CaptureReader.LINKTYPE_ETHERNET);
+        out.write(header.array());
+        bytes += header.capacity();
+    }
+
+    /**
+     * Writes the next frame, or the next few frames if a datagram had to be fragmented.
+     *
+     * @throws IOException If the frames can't be written.
+     */
+    public void next() throws IOException {
+        if(random.nextDouble() < ARP_SHARE) {
+            arp();
+            return;
+        }
+
+        int i = pick(conversationWeights);
+        switch (kind[i]) {
+            case UDP:
+                udp(i);
+                break;
+            case ICMP:
+                icmp(i);
+                break;
+            default:
+                tcp(i);
+        }
+    }
+
+    /**
+     * Writes an ARP request or reply between two hosts.
+     */
+    private void arp() throws IOException {
+        int sender = pick(hostWeights);
+        int target = pick(hostWeights);
+        boolean reply = random.nextBoolean();
+
+        ether(reply ? mac(target) : 0xffffffffffffL, mac(sender), Utility.EtherTypes.ARP);
+        frameBuffer.putShort(ETHER_LENGTH, (short) 1)                       // Hardware type: Ethernet
+                .putShort(ETHER_LENGTH + 2, (short) Utility.EtherTypes.IP)  // Protocol type: IP
+                .put(ETHER_LENGTH + 4, (byte) 6)
+                .put(ETHER_LENGTH + 5, (byte) 4)
+                .putShort(ETHER_LENGTH + 6, (short) (reply ? 2 : 1))
+                .putInt(ETHER_LENGTH + 14, address(sender))
+                .putInt(ETHER_LENGTH + 24, address(target));
+        putMac(ETHER_LENGTH + 8, mac(sender));
+        putMac(ETHER_LENGTH + 18, reply ? mac(target) : 0);
+        write(ETHER_LENGTH + ARP_LENGTH);
+    }
+
+    /**
+     * Writes the next segment of a TCP conversation.
+     *
+     * @param i The conversation.
+     */
+    private void tcp(int i) throws IOException {
+        int flags;
+        int length = 0;
+        boolean fromClient;
+
+        switch (state[i]) {
+            case SYN_SENT:
+                flags = TCPHeader.SYN | TCPHeader.ACK;
+                fromClient = false;
+                break;
+            case SYN_RECEIVED:
+                flags = TCPHeader.ACK;
+                fromClient = true;
+                break;
+            case ESTABLISHED:
+                flags = TCPHeader.ACK;
+                fromClient = random.nextInt(3) == 0;    // Servers send most of the data
+                int size = random.nextInt(10);
+                length = (size < 3) ? 0
+                        : (size < 6) ? 1 + random.nextInt(200)
+                        : (size < 8) ? 200 + random.nextInt(MSS - 200)
+                        : MSS;
+                if(length > 0) {
+                    flags |= TCPHeader.PSH;
+                }
+                if(random.nextDouble() < TCP_CLOSE_CHANCE) {
+                    flags |= TCPHeader.FIN;
+                }
+                break;
+            case CLIENT_CLOSED:
+            case SERVER_CLOSED:
+                flags = TCPHeader.FIN | TCPHeader.ACK;
+                fromClient = state[i] == SERVER_CLOSED;
+                break;
+            default:
+                flags = TCPHeader.SYN;
+                fromClient = true;
+        }
+
+        int source = fromClient ? client[i] : server[i];
+        int destination = fromClient ? server[i] : client[i];
+        int sequence = fromClient ? clientSequence[i] : serverSequence[i];
+        int ack = fromClient ? serverSequence[i] : clientSequence[i];
+
+        int tcp = ip(source, destination, Utility.Protocols.TCP, TCP_LENGTH + length, nextIdentification(), 0);
+        frameBuffer.putShort(tcp, (short) (fromClient ? clientPort[i] : serverPort[i]))
+                .putShort(tcp + 2, (short) (fromClient ? serverPort[i] : clientPort[i]))
+                .putInt(tcp + 4, sequence)
+                .putInt(tcp + 8, ((flags & TCPHeader.ACK) != 0) ? ack : 0)
+                .putShort(tcp + 12, (short) ((TCP_LENGTH / 4) << 12 | flags))
+                .putShort(tcp + 14, (short) 65535)
+                .putShort(tcp + 16, (short) 0)
+                .putShort(tcp + 18, (short) 0);
+        payload(frame, tcp + TCP_LENGTH, length);
+        int checksum = transportChecksum(frame, tcp, TCP_LENGTH + length, source, destination, Utility.Protocols.TCP);
+        frameBuffer.putShort(tcp + 16, (short) checksum);
+        write(tcp + TCP_LENGTH + length);
+
+        // SYN and FIN take up a sequence number each
+        int used = length + (((flags & (TCPHeader.SYN | TCPHeader.FIN)) != 0) ? 1 : 0);
+        if(fromClient) {
+            clientSequence[i] += used;
+        } else {
+            serverSequence[i] += used;
+        }
+
+        if(state[i] == CLIENT_CLOSED || state[i] == SERVER_CLOSED) {
+            open(i);
+        } else if((flags & TCPHeader.FIN) != 0) {
+            state[i] = fromClient ? CLIENT_CLOSED : SERVER_CLOSED;
+        } else if(state[i] < ESTABLISHED) {
+            state[i]++;
+        }
+    }
+
+    /**
+     * Writes the next datagram of a UDP conversation, fragmenting it if it doesn't fit in one frame.
+     *
+     * @param i The conversation.
+     */
+    private void udp(int i) throws IOException {
+        boolean fromClient = random.nextBoolean();
+        int source = fromClient ? client[i] : server[i];
+        int destination = fromClient ? server[i] : client[i];
+        int length = (random.nextDouble() < LARGE_UDP_SHARE)
+                ? MTU + random.nextInt(9000 - MTU)
+                : 20 + random.nextInt(MTU - IP_LENGTH - UDP_LENGTH - 20);
+
+        // Build the whole datagram first, since the checksum covers all of it
+        int udpLength = UDP_LENGTH + length;
+        datagramBuffer.putShort(0, (short) (fromClient ? clientPort[i] : serverPort[i]))
+                .putShort(2, (short) (fromClient ? serverPort[i] : clientPort[i]))
+                .putShort(4, (short) udpLength)
+                .putShort(6, (short) 0);
+        payload(datagram, UDP_LENGTH, length);
+        int checksum = transportChecksum(datagram, 0, udpLength, source, destination, Utility.Protocols.UDP);
+        datagramBuffer.putShort(6, (short) ((checksum == 0) ? 0xffff : checksum));
+
+        int id = nextIdentification();
+        int maxFragment = (MTU - IP_LENGTH) & ~7;
+        for(int start = 0; start < udpLength; start += maxFragment) {
+            int fragment = Math.min(maxFragment, udpLength - start);
+            boolean more = start + fragment < udpLength;
+            int data = ip(source, destination, Utility.Protocols.UDP, fragment, id, (more ? 0x2000 : 0) | (start / 8));
+            System.arraycopy(datagram, start, frame, data, fragment);
+            write(data + fragment);
+        }
+    }
+
+    /**
+     * Writes the next echo request or reply of an ICMP conversation.
+     *
+     * @param i The conversation.
+     */
+    private void icmp(int i) throws IOException {
+        boolean request = (clientSequence[i] & 1) == 0;
+        int length = 32 + 8 * random.nextInt(4);
+        int source = request ? client[i] : server[i];
+        int destination = request ? server[i] : client[i];
+
+        int icmp = ip(source, destination, Utility.Protocols.ICMP, ICMP_LENGTH + length, nextIdentification(), 0);
+        frameBuffer.put(icmp, (byte) (request ? 8 : 0))
+                .put(icmp + 1, (byte) 0)
+                .putShort(icmp + 2, (short) 0)
+                .putShort(icmp + 4, (short) i)
+                .putShort(icmp + 6, (short) (clientSequence[i] >>> 1));
+        payload(frame, icmp + ICMP_LENGTH, length);
+        frameBuffer.putShort(icmp + 2, (short) ~sum(frame, icmp, ICMP_LENGTH + length, 0));
+        write(icmp + ICMP_LENGTH + length);
+        clientSequence[i]++;
+    }
+
+    /**
+     * Fills in the Ethernet and IP headers of a frame.
+     *
+     * @param source The sending host.
+     * @param destination The receiving host.
+     * @param protocol The IP protocol.
+     * @param length The length of the IP payload.
+     * @param id The identification.
+     * @param fragment The flags and fragment offset field.
+     * @return The index in the frame where the IP payload starts.
+     */
+    private int ip(int source, int destination, int protocol, int length, int id, int fragment) {
+        ether(mac(destination), mac(source), Utility.EtherTypes.IP);
+        frameBuffer.put(ETHER_LENGTH, (byte) 0x45)
+                .put(ETHER_LENGTH + 1, (byte) 0)
+                .putShort(ETHER_LENGTH + 2, (short) (IP_LENGTH + length))
+                .putShort(ETHER_LENGTH + 4, (short) id)
+                .putShort(ETHER_LENGTH + 6, (short) fragment)
+                .put(ETHER_LENGTH + 8, (byte) 64)
+                .put(ETHER_LENGTH + 9, (byte) protocol)
+                .putShort(ETHER_LENGTH + 10, (short) 0)
+                .putInt(ETHER_LENGTH + 12, address(source))
+                .putInt(ETHER_LENGTH + 16, address(destination));
+        frameBuffer.putShort(ETHER_LENGTH + 10, (short) ~sum(frame, ETHER_LENGTH, IP_LENGTH, 0));
+        return ETHER_LENGTH + IP_LENGTH;
+    }
+
+    /**
+     * Fills in the Ethernet header of a frame.
+     *
+     * @param destination The destination MAC address.
+     * @param source The source MAC address.
+     * @param ethertype The ethertype.
+     */
+    private void ether(long destination, long source, int ethertype) {
+        putMac(0, destination);
+        putMac(6, source);
+        frameBuffer.putShort(12, (short) ethertype);
+    }
+
+    /**
+     * Writes a MAC address into the frame.
+     *
+     * @param index The index in the frame.
+     * @param mac The address, in the low 48 bits.
+     */
+    private void putMac(int index, long mac) {
+        frameBuffer.putShort(index, (short) (mac >>> 32)).putInt(index + 2, (int) mac);
+    }
+
+    /**
+     * Fills a payload with printable text, so hex dumps of it are readable.
+     *
+     * @param data The array holding the payload.
+     * @param index The index where the payload starts.
+     * @param length The length of the payload.
+     */
+    private void payload(byte[] data, int index, int length) {
+        int letter = random.nextInt(26);
+        for(int i = 0; i < length; i++) {
+            data[index + i] = (byte) ('a' + (letter + i) % 26);
+        }
+    }
+
+    /**
+     * Computes a TCP or UDP checksum, which covers a pseudo-header of the addresses, protocol, and length too.
+     *
+     * @param data The array holding the segment.
+     * @param index The index where the segment starts.
+     * @param length The length of the segment.
+     * @param source The sending host.
+     * @param destination The receiving host.
+     * @param protocol The IP protocol.
+     * @return The checksum.
+     */
+    private int transportChecksum(byte[] data, int index, int length, int source, int destination, int protocol) {
+        int sourceAddress = address(source);
+        int destinationAddress = address(destination);
+        long pseudo = (sourceAddress >>> 16) + (sourceAddress & 0xffff) + (destinationAddress >>> 16)
+                + (destinationAddress & 0xffff) + protocol + length;
+        return ~sum(data, index, length, pseudo) & 0xffff;
+    }
+
+    /**
+     * Computes the ones' complement sum of 16-bit words, as used by the IP checksums.
+     *
+     * @param data The array holding the words.
+     * @param index The index of the first word.
+     * @param length The number of bytes; an odd last byte is padded with 0.
+     * @param initial A sum to start from.
+     * @return The folded 16-bit sum.
+     */
+    private static int sum(byte[] data, int index, int length, long initial) {
+        long sum = initial;
+        int end = index + length - 1;
+        for(int i = index; i < end; i += 2) {
+            sum += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+        }
+        if((length & 1) != 0) {
+            sum += (data[index + length - 1] & 0xff) << 8;
+        }
+        while((sum >>> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >>> 16);
+        }
+        return (int) sum;
+    }
+
+    /**
+     * Getter method for a host's address.
+     *
+     * @param host The host.
+     * @return Its address in 10.0.0.0/8.
+     */
+    private static int address(int host) {
+        return 0x0a000000 | (host + 1);
+    }
+
+    /**
+     * Getter method for a host's MAC address.
+     *
+     * @param host The host.
+     * @return A locally administered MAC address for it.
+     */
+    private static long mac(int host) {
+        return 0x020000000000L | (host + 1);
+    }
+
+    /**
+     * Takes the next IP identification.
+     *
+     * @return The identification.
+     */
+    private int nextIdentification() {
+        return identification++ & 0xffff;
+    }
+
+    /**
+     * Writes the frame as the next record of the capture, padded to the Ethernet minimum.
+     *
+     * @param length The length of the frame.
+     */
+    private void write(int length) throws IOException {
+        if(length < MIN_FRAME) {
+            Arrays.fill(frame, length, MIN_FRAME, (byte) 0);
+            length = MIN_FRAME;
+        }
+
+        // Exponentially distributed gaps, as from independent arrivals
+        time += (long) (-Math.log(1 - random.nextDouble()) * meanGap);
+        record.clear();
+        record.putInt((int) (time / 1_000_000_000L)).putInt((int) (time % 1_000_000_000L / 1000))
+                .putInt(length).putInt(length);
+        out.write(record.array());
+        out.write(frame, 0, length);
+
+        frames++;
+        bytes += record.capacity() + length;
+    }
+
+    /**
+     * Getter method for the number of frames written.
+     *
+     * @return The number of frames written.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Getter method for the number of bytes written.
+     *
+     * @return The size of the capture so far, in bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public static void main(String[] args) {
+        long frames = 1_000_000;
+        long size = Long.MAX_VALUE;
+        long seed = 1;
+        int hosts = 10_000;
+        int conversations = 100_000;
+        double exponent = 1.1;
+        long meanGap = 10_000;
+        String file = null;
+
+        try {
+            for(int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-n":
+                        frames = Long.parseLong(value(args, ++i));
+                        size = Long.MAX_VALUE;
+                        break;
+                    case "--size":
+                        size = Long.parseLong(value(args, ++i)) << 20;
+                        frames = Long.MAX_VALUE;
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value(args, ++i));
+                        break;
+                    case "--hosts":
+                        hosts = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--conversations":
+                        conversations = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--zipf":
+                        exponent = Double.parseDouble(value(args, ++i));
+                        break;
+                    case "--gap":
+                        meanGap = Long.parseLong(value(args, ++i)) * 1000;
+                        break;
+                    default:
+                        if(args[i].startsWith("-") || file != null) {
+                            throw new IllegalArgumentException("Unexpected argument \"" + args[i] + "\".");
+                        }
+                        file = args[i];
+                }
+            }
+            if(file == null) {
+                throw new IllegalArgumentException("No output file was given.");
+            }
+            if(hosts < 2 || hosts >= 0xffffff || conversations < 1 || exponent <= 0 || meanGap < 0) {
+                throw new IllegalArgumentException("Need 2 to 16777214 hosts, 1 conversation, a positive exponent and gap.");
+            }
+        } catch (NumberFormatException e) {
+            printUsage("Expected a number: " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            printUsage(e.getMessage());
+            return;
+        }
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(file)), 1 << 20)) {
+            PcapGenerator generator = new PcapGenerator(out, seed, hosts, conversations, exponent, meanGap);
+            generator.writeHeader();
+            while(generator.getFrames() < frames && generator.getBytes() < size) {
+                generator.next();
+            }
+            System.out.println("Wrote " + generator.getFrames() + " frames (" + generator.getBytes() + " bytes) to " + file);
+        } catch (IOException e) {
+            printUsage("Couldn't write \"" + file + "\": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Getter method for the value of an option.
+     *
+     * @param args The command line arguments.
+     * @param i The index of the value.
+     * @return The value.
+     */
+    private static String value(String[] args, int i) {
+        if(i >= args.length) {
+            throw new IllegalArgumentException("Option \"" + args[i - 1] + "\" needs a value.");
+        }
+        return args[i];
+    }
+
+    /**
+     * This method is used to print the usage message.
+     *
+     * @param msg An error message.
+     */
+    public static void printUsage(String msg) {
+        System.out.println("Error: "+msg+"\n");
+
+        System.out.println("Usage: java PcapGenerator [options] <output.pcap>");
+        System.out.println("       -n <frames>           : Number of frames to write (default 1000000)");
+        System.out.println("       --size <MB>           : Write frames until the capture is this big, instead of -n");
+        System.out.println("       --seed <n>            : Seed of the random number generator (default 1)");
+        System.out.println("       --hosts <n>           : Number of hosts (default 10000)");
+        System.out.println("       --conversations <n>   : Number of conversations (default 100000)");
+        System.out.println("       --zipf <exponent>     : Skew of the host and conversation popularity (default 1.1)");
+        System.out.println("       --gap <microseconds>  : Mean time between frames (default 10)");
+    }
+}
@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The PipelineAnalyzer class runs an analysis over a capture in three stages, each on threads of its own, so that
+ * reading, decoding and writing the output all overlap: a reader copies each record into a slot of a ring buffer,
+ * decoders run forks of the analysis over the slots and render each frame's output into its slot, and the calling
+ * thread writes the slots' output in capture order and hands the slots back to the reader.
+ *
+ * The ring is a fixed array of reusable slots, and the stages pass them along with sequence counters alone, as in the
+ * LMAX Disruptor: each stage publishes how far it has got with a release store, and the next stage reads it and
+ * waits for it to pass the slot it needs. There is one writer per counter, so nothing needs a lock or a
+ * compare-and-set. The decoders share the ring by taking turns with batches of slots: decoder d handles batches d,
+ * d + decoders, and so on, and publishes its progress once per batch. The reader can be at most a ring's length ahead
+ * of the writer, which is the backpressure; how a stage waits is up to the WaitStrategy.
+ *
+ * Since each decoder sees every decoders-th batch rather than a contiguous part of the capture, this only suits
+ * analyses whose forks keep no state that depends on the order of frames, which is every analysis that forks but
+ * ExportAnalysis.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class PipelineAnalyzer {
+
+    private static final int OUTPUT_BUFFER = 1 << 16;      // Bytes of output buffered before writing it.
+    private static final int SLOT_BYTES = 2048;             // Bytes of record each slot starts with room for.
+    private static final int SLOT_TEXT = 1 << 10;           // Bytes of output each slot starts with room for.
+    private static final int SPINS = 100;                   // Times to check before yielding or sleeping.
+    private static final long SLEEP_NANOS = 50_000;         // Nanoseconds to sleep at a time while waiting.
+
+    /**
+     * How a stage waits for the one before or after it.
+     */
+    public enum WaitStrategy {
+        SPIN,       // Busy-wait: the least latency, but a whole core per waiting thread
+        YIELD,      // Busy-wait a little, then give up the core between checks
+        SLEEP       // Busy-wait a little, then sleep between checks
+    }
+
+    /**
+     * A counter of how far a stage has got, on a cache line of its own so that stages updating theirs don't slow each
+     * other down.
+     */
+    private static final class Sequence {
+
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(Sequence.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private long p1, p2, p3, p4, p5, p6, p7;        // Padding before value
+        private volatile long value;
+        private long p9, p10, p11, p12, p13, p14, p15;  // Padding after value
+
+        /**
+         * Reads the counter.
+         *
+         * @return The counter's value.
+         */
+        private long get() {
+            return value;
+        }
+
+        /**
+         * Publishes a new value, along with everything the stage wrote before it.
+         *
+         * @param next The new value.
+         */
+        private void set(long next) {
+            VALUE.setRelease(this, next);
+        }
+    }
+
+    /**
+     * A slot of the ring: a copy of one record, and the output rendered for it.
+     */
+    private static final class Slot {
+
+        private ByteBuffer bytes = ByteBuffer.allocate(SLOT_BYTES);
+        private long number;
+        private long seconds;
+        private int nanos;
+        private int capturedLength;
+        private int originalLength;
+        private int linkType;
+        private long position;
+        private final TextRenderer text = new TextRenderer(SLOT_TEXT);
+    }
+
+    private final int decoders;
+    private final int batch;
+    private final WaitStrategy wait;
+    private final Slot[] slots;
+    private final int mask;
+
+    private final Sequence cursor = new Sequence();         // Records the reader has put in the ring.
+    private final Sequence[] done;                          // By decoder: where it has decoded up to, in its batches.
+    private final Sequence written = new Sequence();        // Slots whose output has been written.
+    private volatile boolean finished;                      // Whether the reader has put in its last record.
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Constructor for PipelineAnalyzer.
+     *
+     * @param decoders The number of decoder threads.
+     * @param ringSize The number of slots, rounded up to a power of two, and to at least two batches per decoder.
+     * @param batch The number of slots a decoder handles before the next decoder's turn, and that a stage handles
+     *        between publishing its progress.
+     * @param wait How a stage waits for the one before or after it.
+     */
+    public PipelineAnalyzer(int decoders, int ringSize, int batch, WaitStrategy wait) {
+        this.decoders = decoders;
+        this.batch = batch;
+        this.wait = wait;
+
+        int size = Integer.highestOneBit(Math.max(ringSize, 2 * decoders * batch) - 1) << 1;
+        this.slots = new Slot[size];
+        for(int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+
+        this.done = new Sequence[decoders];
+        for(int i = 0; i < decoders; i++) {
+            done[i] = new Sequence();
+        }
+    }
+
+    /**
+     * Runs an analysis over every frame of a capture. Each decoder runs a fork of the analysis, and the forks are
+     * merged back into it at the end.
+     *
+     * @param filePath The path to the capture.
+     * @param analysis The analysis to run. Its canFork() must be true.
+     * @param out The stream to write the analysis' output to.
+     * @throws IOException If the capture can't be read or the output can't be written.
+     */
+    public void analyze(Path filePath, Analysis analysis, OutputStream out) throws IOException {
+        CaptureReader reader = new CaptureReader(filePath);
+        Thread[] threads = new Thread[decoders + 1];
+        Analysis[] workers = new Analysis[decoders];
+        threads[0] = new Thread(() -> read(reader), "pktanalyzer-reader");
+        for(int d = 0; d < decoders; d++) {
+            int decoder = d;
+            workers[d] = analysis.fork();
+            threads[d + 1] = new Thread(() -> decode(decoder, workers[decoder]), "pktanalyzer-decoder-" + (d + 1));
+        }
+
+        TextRenderer text = new TextRenderer(2 * OUTPUT_BUFFER);
+        try {
+            analysis.start(text);
+            text.writeTo(out);
+            for(Thread thread : threads) {
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            write(text, out);
+            for(Thread thread : threads) {
+                thread.join();
+            }
+            rethrow();
+
+            for(Analysis worker : workers) {
+                analysis.merge(worker);
+            }
+            analysis.finish(text);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the pipeline.", e);
+        } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);     // Stops the other stages
+            throw e;
+        } finally {
+            if(threads[0].getState() == Thread.State.NEW) {
+                reader.close();     // Otherwise the reader thread closes it
+            }
+            text.writeTo(out);
+            out.flush();
+        }
+    }
+
+    /**
+     * The reader stage: copies every record of the capture into the ring. Runs on the reader thread.
+     *
+     * @param reader The reader of the capture.
+     */
+    private void read(CaptureReader reader) {
+        Frame frame = new Frame();
+        long sequence = 0;
+        long free = slots.length;       // Slots up to here have been written out and can be reused
+
+        try (CaptureReader in = reader) {
+            while(in.next(frame)) {
+                if(sequence >= free) {
+                    cursor.set(sequence);
+                    free = waitFor(written, sequence - slots.length + 1, false) + slots.length;
+                }
+
+                Slot slot = slots[(int) sequence & mask];
+                int length = frame.getCapturedLength();
+                if(slot.bytes.capacity() < length) {
+                    slot.bytes = ByteBuffer.allocate(Math.max(length, 2 * slot.bytes.capacity()));
+                }
+                frame.getBuffer().get(frame.getOffset(), slot.bytes.array(), 0, length);
+                slot.number = frame.getNumber();
+                slot.seconds = frame.getSeconds();
+                slot.nanos = frame.getNanos();
+                slot.capturedLength = length;
+                slot.originalLength = frame.getOriginalLength();
+                slot.linkType = frame.getLinkType();
+                slot.position = frame.getPosition();
+
+                if(++sequence % batch == 0) {
+                    cursor.set(sequence);
+                }
+            }
+        } catch (CancellationException e) {
+            return;         // Another stage failed
+        } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        cursor.set(sequence);
+        finished = true;
+    }
+
+    /**
+     * A decoder stage: runs a fork of the analysis over every slot of the decoder's batches. Runs on a decoder thread.
+     *
+     * @param decoder The number of the decoder.
+     * @param worker The decoder's fork of the analysis.
+     */
+    private void decode(int decoder, Analysis worker) {
+        Frame frame = new Frame();
+        Packet packet = new Packet();     // Reused for every frame
+        Sequence progress = done[decoder];
+        long available = 0;               // Slots up to here hold records
+
+        try {
+            for(long start = (long) decoder * batch; ; start += (long) decoders * batch) {
+                for(long sequence = start; sequence < start + batch; sequence++) {
+                    if(sequence >= available) {
+                        progress.set(sequence);
+                        available = waitFor(cursor, sequence + 1, true);
+                        if(available <= sequence) {
+                            progress.set(Long.MAX_VALUE);     // The capture has ended
+                            return;
+                        }
+                    }
+
+                    Slot slot = slots[(int) sequence & mask];
+                    slot.text.reset();
+                    frame.set(slot.number, slot.seconds, slot.nanos, slot.capturedLength, slot.originalLength,
+                            slot.linkType, slot.position, slot.bytes, 0);
+                    worker.accept(frame, packet, slot.text);
+                }
+                progress.set(start + batch);
+            }
+        } catch (CancellationException e) {
+            // Another stage failed
+        } catch (RuntimeException | Error e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * The writer stage: writes the output of every slot in order, and hands each slot back to the reader. Runs on
+     * the calling thread.
+     *
+     * @param text The renderer to gather the output in.
+     * @param out The stream to write the output to.
+     * @throws IOException If another stage failed, or the output can't be written.
+     */
+    private void write(TextRenderer text, OutputStream out) throws IOException {
+        try {
+            for(long sequence = 0; ; sequence++) {
+                Sequence progress = done[(int) ((sequence / batch) % decoders)];
+                long decoded = progress.get();
+                if(decoded <= sequence) {
+                    written.set(sequence);
+                    decoded = waitFor(progress, sequence + 1, false);
+                }
+                if(decoded == Long.MAX_VALUE && sequence >= cursor.get()) {
+                    break;      // The decoder stopped at the end of the capture, before this slot
+                }
+
+                slots[(int) sequence & mask].text.writeTo(text);
+                if((sequence + 1) % batch == 0) {
+                    written.set(sequence + 1);
+                }
+                if(text.size() >= OUTPUT_BUFFER) {
+                    written.set(sequence + 1);
+                    text.writeTo(out);
+                }
+            }
+        } catch (CancellationException e) {
+            rethrow();
+        }
+    }
+
+    /**
+     * Waits for a stage's counter to reach a value.
+     *
+     * @param sequence The stage's counter.
+     * @param min The value to wait for.
+     * @param untilFinished Whether to stop waiting, and return a smaller value, once the reader has finished.
+     * @return The counter's value, which is at least min unless the reader finished first.
+     * @throws CancellationException If a stage failed.
+     */
+    private long waitFor(Sequence sequence, long min, boolean untilFinished) {
+        long value;
+        for(int tries = 0; (value = sequence.get()) < min; tries++) {
+            if(untilFinished && finished) {
+                return sequence.get();      // Now the final value
+            }
+            if(failure.get() != null) {
+                throw new CancellationException();
+            }
+
+            if(wait == WaitStrategy.SPIN || tries < SPINS) {
+                Thread.onSpinWait();
+            } else if(wait == WaitStrategy.YIELD || tries < 2 * SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(SLEEP_NANOS);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Throws what made a stage fail, if one did.
+     *
+     * @throws IOException If the reader failed to read the capture.
+     */
+    private void rethrow() throws IOException {
+        Throwable cause = failure.get();
+        if(cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if(cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if(cause instanceof Error) {
+            throw (Error) cause;
+        }
+    }
+}
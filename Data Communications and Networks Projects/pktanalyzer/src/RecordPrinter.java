@@ -0,0 +1,422 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The RecordPrinter class prints one machine-readable record per frame instead of the human-readable header layout:
+ * a JSON object per line (NDJSON), or a CSV row under a header row. Only the chosen fields are printed, and since
+ * headers are decoded lazily, only the headers and fields those need are ever decoded. Values are written straight
+ * into the TextRenderer, so no Strings are built per frame.
+ *
+ * A field the frame doesn't have, such as tcp.sport of a UDP datagram, is left out of the JSON object and left empty
+ * in the CSV row. If the frame ends before a field it should have, the JSON object gets "malformed":true and the
+ * fields from there on are missing.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class RecordPrinter extends Analysis {
+
+    private static final int FRAME = 0;                     // Layers a field can belong to.
+    private static final int ETHER = 1;
+    private static final int IP = 2;
+    private static final int TCP = 3;
+    private static final int UDP = 4;
+    private static final int ICMP = 5;
+    private static final int DATA = 6;
+
+    public static final String DEFAULT_FIELDS = "frame.number,frame.time,frame.len,eth.src,eth.dst,eth.type,ip.src,"
+            + "ip.dst,ip.proto,ip.ttl,ip.len,tcp.sport,tcp.dport,tcp.seq,tcp.ack,tcp.flags,tcp.window,udp.sport,"
+            + "udp.dport,udp.len,icmp.type,icmp.code,data.len";
+
+    /**
+     * The fields a record can have.
+     */
+    public enum Field {
+        FRAME_NUMBER("frame.number", FRAME),
+        FRAME_TIME("frame.time", FRAME),            // Seconds since the epoch, to the nanosecond
+        FRAME_LEN("frame.len", FRAME),              // Bytes on the wire
+        FRAME_CAPLEN("frame.caplen", FRAME),        // Bytes captured
+        ETH_DST("eth.dst", ETHER),
+        ETH_SRC("eth.src", ETHER),
+        ETH_TYPE("eth.type", ETHER),
+        IP_VERSION("ip.version", IP),
+        IP_HLEN("ip.hlen", IP),
+        IP_DSCP("ip.dscp", IP),
+        IP_ECN("ip.ecn", IP),
+        IP_LEN("ip.len", IP),
+        IP_ID("ip.id", IP),
+        IP_FLAGS("ip.flags", IP),
+        IP_FRAG("ip.frag", IP),                     // In bytes, like the text output
+        IP_TTL("ip.ttl", IP),
+        IP_PROTO("ip.proto", IP),
+        IP_CHECKSUM("ip.checksum", IP),
+        IP_SRC("ip.src", IP),
+        IP_DST("ip.dst", IP),
+        TCP_SPORT("tcp.sport", TCP),
+        TCP_DPORT("tcp.dport", TCP),
+        TCP_SEQ("tcp.seq", TCP),
+        TCP_ACK("tcp.ack", TCP),
+        TCP_HLEN("tcp.hlen", TCP),
+        TCP_FLAGS("tcp.flags", TCP),
+        TCP_WINDOW("tcp.window", TCP),
+        TCP_CHECKSUM("tcp.checksum", TCP),
+        TCP_URGENT("tcp.urgent", TCP),
+        UDP_SPORT("udp.sport", UDP),
+        UDP_DPORT("udp.dport", UDP),
+        UDP_LEN("udp.len", UDP),
+        UDP_CHECKSUM("udp.checksum", UDP),
+        ICMP_TYPE("icmp.type", ICMP),
+        ICMP_CODE("icmp.code", ICMP),
+        ICMP_CHECKSUM("icmp.checksum", ICMP),
+        DATA_LEN("data.len", DATA),                 // Bytes of TCP, UDP, or ICMP payload captured
+        DATA_HEX("data", DATA);                     // The payload itself, in hex
+
+        private final String name;
+        private final int layer;
+
+        /**
+         * Constructor for Field.
+         *
+         * @param name The name of the field in --fields and in the output.
+         * @param layer The layer the field belongs to.
+         */
+        Field(String name, int layer) {
+            this.name = name;
+            this.layer = layer;
+        }
+
+        /**
+         * Getter method for the name.
+         *
+         * @return The name of the field in --fields and in the output.
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final Field[] fields;
+    private final boolean json;
+
+    private Frame frame;                    // The frame being printed, and its layers so far.
+    private Packet packet;
+    private int decoded;                    // The layers up to this one have been looked for.
+    private boolean ethernet;
+    private IPHeader ip;
+    private Header transport;
+    private Data data;
+
+    /**
+     * Constructor for RecordPrinter.
+     *
+     * @param fields The fields to print, in order.
+     * @param json True for NDJSON, false for CSV.
+     */
+    public RecordPrinter(Field[] fields, boolean json) {
+        this.fields = fields;
+        this.json = json;
+    }
+
+    /**
+     * Parses a comma-separated list of field names.
+     *
+     * @param names The names, such as "ip.src,tcp.dport".
+     * @return The fields, in the order they were named.
+     * @throws IllegalArgumentException If a name isn't a field.
+     */
+    public static Field[] parseFields(String names) {
+        List<Field> fields = new ArrayList<>();
+        for(String name : names.split(",")) {
+            Field found = null;
+            for(Field field : Field.values()) {
+                if(field.name.equals(name.trim())) {
+                    found = field;
+                }
+            }
+            if(found == null) {
+                throw new IllegalArgumentException("Unknown field \"" + name.trim() + "\".");
+            }
+            fields.add(found);
+        }
+        return fields.toArray(new Field[0]);
+    }
+
+    /**
+     * Prints the CSV header row, naming the columns.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void start(TextRenderer out) {
+        if(!json) {
+            for(int i = 0; i < fields.length; i++) {
+                out.append((i == 0) ? "" : ",").append(fields[i].name);
+            }
+            out.newline();
+        }
+    }
+
+    /**
+     * Prints the record of one frame.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        this.frame = frame;
+        this.packet = packet;
+        this.decoded = FRAME;
+        this.ethernet = false;
+        this.ip = null;
+        this.transport = null;
+        this.data = null;
+
+        if(json) {
+            out.append('{');
+        }
+        boolean first = true;
+        for(int i = 0; i < fields.length; i++) {
+            Field field = fields[i];
+            int mark = out.size();
+            try {
+                if(!has(field.layer)) {
+                    if(!json && i > 0) {
+                        out.append(',');
+                    }
+                    continue;
+                }
+                if(json) {
+                    out.append(first ? "\"" : ",\"").append(field.name).append("\":");
+                } else if(i > 0) {
+                    out.append(',');
+                }
+                write(field, out);
+                first = false;
+            } catch (IndexOutOfBoundsException e) {
+                // Take back the field, and leave out the rest
+                out.truncate(mark);
+                if(json) {
+                    out.append(first ? "\"malformed\":true" : ",\"malformed\":true");
+                } else {
+                    out.repeat(',', fields.length - ((i == 0) ? 1 : i));
+                }
+                break;
+            }
+        }
+        if(json) {
+            out.append('}');
+        }
+        out.newline();
+    }
+
+    /**
+     * Checks whether the frame has a layer, decoding the layers below it first if they haven't been.
+     *
+     * @param layer The layer.
+     * @return True if the frame has it.
+     */
+    private boolean has(int layer) {
+        // TCP, UDP, and ICMP are found together, by the same step
+        int stage = (layer == DATA) ? TCP + 1 : Math.min(layer, TCP);
+        while(decoded < stage) {
+            switch (decoded++) {
+                case FRAME:
+                    ethernet = packet.wrap(frame);
+                    break;
+                case ETHER:
+                    ip = ethernet ? packet.getIPHeader() : null;
+                    break;
+                case IP:
+                    transport = (ip == null) ? null : ip.getSubHeader();
+                    break;
+                default:
+                    data = (transport instanceof TCPHeader) ? ((TCPHeader) transport).getData()
+                            : (transport instanceof UDPHeader) ? ((UDPHeader) transport).getData()
+                            : (transport instanceof ICMPHeader) ? ((ICMPHeader) transport).getData() : null;
+            }
+        }
+        switch (layer) {
+            case FRAME:
+                return true;
+            case ETHER:
+                return ethernet;
+            case IP:
+                return ip != null;
+            case TCP:
+                return transport instanceof TCPHeader;
+            case UDP:
+                return transport instanceof UDPHeader;
+            case ICMP:
+                return transport instanceof ICMPHeader;
+            default:
+                return transport != null;
+        }
+    }
+
+    /**
+     * Writes the value of a field of a layer the frame has.
+     *
+     * @param field The field.
+     * @param out The renderer to write to.
+     */
+    private void write(Field field, TextRenderer out) {
+        EtherHeader ether = packet.getEtherHeader();
+        switch (field) {
+            case FRAME_NUMBER:
+                out.decimal(frame.getNumber());
+                break;
+            case FRAME_TIME:
+                out.decimal(frame.getSeconds()).append('.').decimal(frame.getNanos(), 9);
+                break;
+            case FRAME_LEN:
+                out.decimal(frame.getOriginalLength());
+                break;
+            case FRAME_CAPLEN:
+                out.decimal(frame.getCapturedLength());
+                break;
+            case ETH_DST:
+                quoted(out).macAddress(ether.getDestinationMac());
+                quoted(out);
+                break;
+            case ETH_SRC:
+                quoted(out).macAddress(ether.getSourceMac());
+                quoted(out);
+                break;
+            case ETH_TYPE:
+                out.decimal(ether.getEthertype());
+                break;
+            case IP_VERSION:
+                out.decimal(ip.getVersion());
+                break;
+            case IP_HLEN:
+                out.decimal(ip.getHeaderLength());
+                break;
+            case IP_DSCP:
+                out.decimal(ip.getDscp());
+                break;
+            case IP_ECN:
+                out.decimal(ip.getEcn());
+                break;
+            case IP_LEN:
+                out.decimal(ip.getTotalLength());
+                break;
+            case IP_ID:
+                out.decimal(ip.getIdentification());
+                break;
+            case IP_FLAGS:
+                out.decimal(ip.getFlags());
+                break;
+            case IP_FRAG:
+                out.decimal(ip.getFragmentOffset() * 8);
+                break;
+            case IP_TTL:
+                out.decimal(ip.getTtl());
+                break;
+            case IP_PROTO:
+                out.decimal(ip.getProtocol());
+                break;
+            case IP_CHECKSUM:
+                out.decimal(ip.getHeaderChecksum());
+                break;
+            case IP_SRC:
+                quoted(out).ipAddress(ip.getSourceAddress());
+                quoted(out);
+                break;
+            case IP_DST:
+                quoted(out).ipAddress(ip.getDestinationAddress());
+                quoted(out);
+                break;
+            case TCP_SPORT:
+                out.decimal(((TCPHeader) transport).getSourcePort());
+                break;
+            case TCP_DPORT:
+                out.decimal(((TCPHeader) transport).getDestinationPort());
+                break;
+            case TCP_SEQ:
+                out.decimal(((TCPHeader) transport).getSequenceNumber());
+                break;
+            case TCP_ACK:
+                out.decimal(((TCPHeader) transport).getAckNumber());
+                break;
+            case TCP_HLEN:
+                out.decimal(((TCPHeader) transport).getDataOffset());
+                break;
+            case TCP_FLAGS:
+                out.decimal(((TCPHeader) transport).getFlags());
+                break;
+            case TCP_WINDOW:
+                out.decimal(((TCPHeader) transport).getWindow());
+                break;
+            case TCP_CHECKSUM:
+                out.decimal(((TCPHeader) transport).getChecksum());
+                break;
+            case TCP_URGENT:
+                out.decimal(((TCPHeader) transport).getUrgentPointer());
+                break;
+            case UDP_SPORT:
+                out.decimal(((UDPHeader) transport).getSourcePort());
+                break;
+            case UDP_DPORT:
+                out.decimal(((UDPHeader) transport).getDestinationPort());
+                break;
+            case UDP_LEN:
+                out.decimal(((UDPHeader) transport).getDatagramLength());
+                break;
+            case UDP_CHECKSUM:
+                out.decimal(((UDPHeader) transport).getChecksum());
+                break;
+            case ICMP_TYPE:
+                out.decimal(((ICMPHeader) transport).getType());
+                break;
+            case ICMP_CODE:
+                out.decimal(((ICMPHeader) transport).getCode());
+                break;
+            case ICMP_CHECKSUM:
+                out.decimal(((ICMPHeader) transport).getChecksum());
+                break;
+            case DATA_LEN:
+                out.decimal((data == null) ? 0 : data.getLength());
+                break;
+            default:
+                quoted(out);
+                if(data != null) {
+                    int end = data.getOffset() + data.getLength();
+                    for(int i = data.getOffset(); i < end; i++) {
+                        out.hexByte(data.getBuffer().get(i));
+                    }
+                }
+                quoted(out);
+        }
+    }
+
+    /**
+     * Writes the quote around a string value, which JSON needs and CSV doesn't.
+     *
+     * @param out The renderer to write to.
+     * @return The renderer.
+     */
+    private TextRenderer quoted(TextRenderer out) {
+        return json ? out.append('"') : out;
+    }
+
+    /**
+     * Records are independent of each other, so they can be printed by workers.
+     *
+     * @return True.
+     */
+    @Override
+    public boolean canFork() {
+        return true;
+    }
+
+    /**
+     * Makes a printer for a worker.
+     *
+     * @return A new RecordPrinter with the same fields.
+     */
+    @Override
+    public Analysis fork() {
+        return new RecordPrinter(fields, json);
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The ReservoirAnalysis class runs another analysis over a uniform random sample of a fixed number of frames, however
+ * long the capture is. The sample is kept in a reservoir of frame copies, filled with Li's algorithm L: after the
+ * reservoir fills up, the number of frames to skip before the next one replaces a random entry is drawn directly, so
+ * skipped frames cost a counter increment and the random number generator is only used for frames that are kept.
+ *
+ * The sample is only known once the last frame has been seen, so the other analysis is given the kept frames in
+ * capture order when the capture ends, followed by the sampling rate. It has to see every frame itself, so it can't be
+ * forked.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class ReservoirAnalysis extends Analysis {
+
+    private final int capacity;
+    private final Analysis analysis;
+    private final SplittableRandom random;
+    private final PrintStream summaryStream;
+
+    // The kept frames, by reservoir entry
+    private final ByteBuffer[] bytes;
+    private final long[] numbers;
+    private final long[] seconds;
+    private final int[] nanos;
+    private final int[] capturedLengths;
+    private final int[] originalLengths;
+    private final int[] linkTypes;
+    private final long[] positions;
+    private int size;
+
+    private long seen;
+    private long next;          // The number of the next frame (counting from 1) to go into the full reservoir.
+    private double weight;      // Algorithm L's W.
+
+    /**
+     * Constructor for ReservoirAnalysis.
+     *
+     * @param capacity The number of frames to keep.
+     * @param analysis The analysis to run over the kept frames.
+     * @param random The source of random numbers.
+     * @param summaryStream Where to print the sampling rate, or null to print it with the rest of the output.
+     */
+    public ReservoirAnalysis(int capacity, Analysis analysis, SplittableRandom random, PrintStream summaryStream) {
+        this.capacity = capacity;
+        this.analysis = analysis;
+        this.random = random;
+        this.summaryStream = summaryStream;
+
+        this.bytes = new ByteBuffer[capacity];
+        this.numbers = new long[capacity];
+        this.seconds = new long[capacity];
+        this.nanos = new int[capacity];
+        this.capturedLengths = new int[capacity];
+        this.originalLengths = new int[capacity];
+        this.linkTypes = new int[capacity];
+        this.positions = new long[capacity];
+
+        this.weight = Math.exp(Math.log(nextOpen()) / capacity);
+        this.next = capacity + skip() + 1;
+    }
+
+    /**
+     * Starts the other analysis.
+     *
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void start(TextRenderer out) {
+        analysis.start(out);
+    }
+
+    /**
+     * Puts a frame in the reservoir if its turn has come.
+     *
+     * @param frame The frame.
+     * @param packet Not used; frames are decoded when the capture ends.
+     * @param out Not used.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        seen++;
+        if(size < capacity) {
+            store(size++, frame);
+        } else if(seen == next) {
+            store(random.nextInt(capacity), frame);
+            weight *= Math.exp(Math.log(nextOpen()) / capacity);
+            next += skip() + 1;
+        }
+    }
+
+    /**
+     * Draws the number of frames to skip before the next one goes into the reservoir.
+     *
+     * @return The number of frames to skip.
+     */
+    private long skip() {
+        double skip = Math.floor(Math.log(nextOpen()) / Math.log1p(-weight));
+        return (skip >= Long.MAX_VALUE / 2 || Double.isNaN(skip)) ? Long.MAX_VALUE / 2 : (long) skip;
+    }
+
+    /**
+     * Draws a random number strictly between 0 and 1, so its logarithm is finite.
+     *
+     * @return The random number.
+     */
+    private double nextOpen() {
+        double value;
+        do {
+            value = random.nextDouble();
+        } while(value == 0);
+        return value;
+    }
+
+    /**
+     * Copies a frame into an entry of the reservoir.
+     *
+     * @param entry The entry.
+     * @param frame The frame.
+     */
+    private void store(int entry, Frame frame) {
+        int length = frame.getCapturedLength();
+        ByteBuffer copy = bytes[entry];
+        if(copy == null || copy.capacity() < length) {
+            copy = ByteBuffer.allocate(Math.max(length, 128));
+            bytes[entry] = copy;
+        }
+        frame.getBuffer().get(frame.getOffset(), copy.array(), 0, length);
+
+        numbers[entry] = frame.getNumber();
+        seconds[entry] = frame.getSeconds();
+        nanos[entry] = frame.getNanos();
+        capturedLengths[entry] = length;
+        originalLengths[entry] = frame.getOriginalLength();
+        linkTypes[entry] = frame.getLinkType();
+        positions[entry] = frame.getPosition();
+    }
+
+    /**
+     * Passes the kept frames to the other analysis in capture order, finishes it, then prints the sampling rate.
+     *
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void finish(TextRenderer out) {
+        Integer[] order = new Integer[size];
+        for(int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(numbers[a], numbers[b]));
+
+        Frame frame = new Frame();
+        Packet packet = new Packet();
+        for(int entry : order) {
+            frame.set(numbers[entry], seconds[entry], nanos[entry], capturedLengths[entry], originalLengths[entry],
+                    linkTypes[entry], positions[entry], bytes[entry], 0);
+            analysis.accept(frame, packet, out);
+        }
+        analysis.finish(out);
+        new SampledAnalysis.Summary("reservoir of " + capacity, seen, size).print(out, summaryStream);
+    }
+}
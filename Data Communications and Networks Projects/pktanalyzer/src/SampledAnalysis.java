@@ -0,0 +1,193 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * The SampledAnalysis class runs another analysis over a sample of the frames of a capture. Each frame is offered to a
+ * Sampler before the other analysis decodes anything, so frames left out of the sample cost almost nothing. After the
+ * other analysis has finished, the sampling rate is printed, so its counts can be scaled up to the whole capture. It is
+ * printed to a separate stream when the output is JSON or CSV records, which it would break.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class SampledAnalysis extends Analysis {
+
+    private final Sampler sampler;
+    private final Analysis analysis;
+    private final PrintStream summaryStream;
+
+    private long seen;
+    private long kept;
+
+    /**
+     * Constructor for SampledAnalysis.
+     *
+     * @param sampler Decides which frames are in the sample.
+     * @param analysis The analysis to run over the sample.
+     * @param summaryStream Where to print the sampling rate, or null to print it with the rest of the output.
+     */
+    public SampledAnalysis(Sampler sampler, Analysis analysis, PrintStream summaryStream) {
+        this.sampler = sampler;
+        this.analysis = analysis;
+        this.summaryStream = summaryStream;
+    }
+
+    /**
+     * Starts the other analysis.
+     *
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void start(TextRenderer out) {
+        analysis.start(out);
+    }
+
+    /**
+     * Passes a frame to the other analysis if it is in the sample.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        seen++;
+        if(sampler.keep(frame)) {
+            kept++;
+            analysis.accept(frame, packet, out);
+        }
+    }
+
+    /**
+     * Finishes the other analysis, then prints the sampling rate.
+     *
+     * @param out The renderer to write output to.
+     */
+    @Override
+    public void finish(TextRenderer out) {
+        analysis.finish(out);
+        new Summary(sampler.getDescription(), seen, kept).print(out, summaryStream);
+    }
+
+    /**
+     * A worker can be forked if the other analysis can be forked.
+     *
+     * @return True if the other analysis can be forked.
+     */
+    @Override
+    public boolean canFork() {
+        return analysis.canFork();
+    }
+
+    /**
+     * A worker samples its chunk with a fork of the sampler.
+     *
+     * @return A sampled worker of the other analysis, or null if it can't be forked.
+     */
+    @Override
+    public Analysis fork() {
+        Analysis worker = analysis.fork();
+        return (worker == null) ? null : new SampledAnalysis(sampler.fork(), worker, summaryStream);
+    }
+
+    /**
+     * Merges a worker of the other analysis, and the worker's counts.
+     *
+     * @param worker A worker created by fork().
+     */
+    @Override
+    public void merge(Analysis worker) {
+        SampledAnalysis other = (SampledAnalysis) worker;
+        analysis.merge(other.analysis);
+        seen += other.seen;
+        kept += other.kept;
+    }
+
+    /**
+     * Saves the counts and the other analysis' state. A random sampler's generator isn't saved; after a restore, it
+     * draws the same numbers it did at the start, which are just as random for frames it hasn't seen.
+     *
+     * @param out The stream to write the state to.
+     * @throws IOException If the state can't be written.
+     */
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        out.writeLong(seen);
+        out.writeLong(kept);
+        analysis.save(out);
+    }
+
+    /**
+     * Restores the counts and the other analysis' state.
+     *
+     * @param in The stream to read the state from.
+     * @throws IOException If the state can't be read.
+     */
+    @Override
+    public void restore(DataInputStream in) throws IOException {
+        seen = in.readLong();
+        kept = in.readLong();
+        analysis.restore(in);
+    }
+
+    /**
+     * The Summary class prints how a capture was sampled: how many frames were seen and kept, the sampling rate, and
+     * what to multiply counts by to scale them up to every frame.
+     */
+    static class Summary extends Header {
+
+        private final String description;
+        private final long seen;
+        private final long kept;
+
+        /**
+         * Constructor for Summary.
+         *
+         * @param description How frames were sampled, such as "1 in 100".
+         * @param seen The number of frames offered to the sampler.
+         * @param kept The number of frames in the sample.
+         */
+        Summary(String description, long seen, long kept) {
+            super("SAMPLE");
+            this.description = description;
+            this.seen = seen;
+            this.kept = kept;
+        }
+
+        /**
+         * Prints this Summary, with the rest of the output or to a stream of its own.
+         *
+         * @param out The renderer of the rest of the output.
+         * @param stream The stream to print to instead, or null.
+         */
+        void print(TextRenderer out, PrintStream stream) {
+            if(stream == null) {
+                render(out);
+            } else {
+                stream.print(this);
+                stream.flush();
+            }
+        }
+
+        /**
+         * Renders this Summary.
+         *
+         * @param out The renderer to write to.
+         */
+        @Override
+        public void render(TextRenderer out) {
+            double rate = (seen == 0) ? 1 : (double) kept / seen;
+
+            out.newline();
+            beginHeader(out, "Sampling Summary");
+            line(out).append("Sampling      = ").append(description).newline();
+            line(out).append("Frames seen   = ").decimal(seen).newline();
+            line(out).append("Frames kept   = ").decimal(kept).newline();
+            line(out).append("Sampling rate = ").append(String.format("%.6f", rate)).newline();
+            line(out).append("Scale counts by ").append((kept == 0) ? "-" : String.format("%.3f", 1 / rate))
+                    .append(" to estimate the whole capture").newline();
+            endHeader(out);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * This is an abstract class for the ways of sampling the frames of a capture. A sampler decides whether to keep a frame
+ * from its record and at most a few raw bytes, like a Filter, so frames that aren't kept are never decoded.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public abstract class Sampler {
+
+    /**
+     * Decides whether to keep a frame.
+     *
+     * @param frame The frame.
+     * @return True if the frame is in the sample.
+     */
+    public abstract boolean keep(Frame frame);
+
+    /**
+     * Creates a sampler for a worker thread to sample one chunk of the capture with.
+     *
+     * @return A sampler that samples the same way. This one, if it keeps no state.
+     */
+    public Sampler fork() {
+        return this;
+    }
+
+    /**
+     * Describes how frames are sampled, for the summary.
+     *
+     * @return A description such as "1 in 100".
+     */
+    public abstract String getDescription();
+
+    /**
+     * Keeps every nth frame of the capture, counting from the first, by frame number. Since the frame number is part of
+     * the record, workers keep the same frames a single thread would.
+     */
+    static final class Systematic extends Sampler {
+
+        private final long interval;
+
+        /**
+         * Constructor for Systematic.
+         *
+         * @param interval Keep one frame in this many.
+         */
+        Systematic(long interval) {
+            this.interval = interval;
+        }
+
+        @Override
+        public boolean keep(Frame frame) {
+            return (frame.getNumber() - 1) % interval == 0;
+        }
+
+        @Override
+        public String getDescription() {
+            return "1 in " + interval;
+        }
+    }
+
+    /**
+     * Keeps each frame with a fixed probability, independently of the others.
+     */
+    static final class Random extends Sampler {
+
+        private final double probability;
+        private final SplittableRandom random;
+
+        /**
+         * Constructor for Random.
+         *
+         * @param probability The chance of keeping each frame.
+         * @param random The source of random numbers.
+         */
+        Random(double probability, SplittableRandom random) {
+            this.probability = probability;
+            this.random = random;
+        }
+
+        @Override
+        public boolean keep(Frame frame) {
+            return random.nextDouble() < probability;
+        }
+
+        /**
+         * Each worker draws from its own split of the random numbers.
+         *
+         * @return A new Random sampler with the same probability.
+         */
+        @Override
+        public Sampler fork() {
+            return new Random(probability, random.split());
+        }
+
+        @Override
+        public String getDescription() {
+            return "random, probability " + probability;
+        }
+    }
+
+    /**
+     * Keeps every frame of some flows, chosen by a hash of the flow. The hash doesn't depend on the direction, so both
+     * directions of a connection are kept or dropped together. For IPv4 the flow is the 5-tuple, except that fragments
+     * after the first have no ports and count as a flow of their own between the same addresses; for anything else it
+     * is the pair of MAC addresses and the ethertype.
+     */
+    static final class Flow extends Sampler {
+
+        private static final int MAC = 0;                       // Byte location where the MAC addresses start.
+        private static final int ETHERTYPE = 12;                // Byte location where the ethertype starts.
+        private static final int IP = 14;                       // Byte location where the IP header starts.
+        private static final int IP_FRAGMENT = IP + 6;          // Byte location where the fragment offset starts.
+        private static final int IP_PROTOCOL = IP + 9;          // Byte location where the IP protocol starts.
+        private static final int IP_SOURCE = IP + 12;           // Byte location where the source address starts.
+        private static final int IP_DESTINATION = IP + 16;      // Byte location where the destination address starts.
+        private static final int MIN_IP_FRAME = IP + 20;        // Smallest frame holding an IP header.
+
+        private final double probability;
+        private final long threshold;                           // Hashes below this are kept.
+        private final long seed;
+
+        /**
+         * Constructor for Flow.
+         *
+         * @param probability The chance of keeping each flow.
+         * @param seed Changes which flows are kept.
+         */
+        Flow(double probability, long seed) {
+            this.probability = probability;
+            this.threshold = (long) (probability * (1L << 53));
+            this.seed = seed * 0x9e3779b97f4a7c15L;
+        }
+
+        @Override
+        public boolean keep(Frame frame) {
+            return (hash(frame.getBuffer(), frame.getOffset(), frame.getCapturedLength()) >>> 11) < threshold;
+        }
+
+        /**
+         * Hashes the flow of a frame, the same way for both directions.
+         *
+         * @param buffer The buffer holding the frame.
+         * @param offset The index in buffer where the frame starts.
+         * @param length The number of bytes captured of the frame.
+         * @return The hash.
+         */
+        private long hash(ByteBuffer buffer, int offset, int length) {
+            long a;
+            long b;
+            long kind;
+            if(length >= MIN_IP_FRAME && Utility.readU16(buffer, offset + ETHERTYPE) == Utility.EtherTypes.IP
+                    && Utility.highNibble(Utility.readU8(buffer, offset + IP)) == 4) {
+                kind = Utility.readU8(buffer, offset + IP_PROTOCOL);
+                a = Utility.readU32(buffer, offset + IP_SOURCE) << 16;
+                b = Utility.readU32(buffer, offset + IP_DESTINATION) << 16;
+
+                int start = IP + 4 * Utility.lowNibble(Utility.readU8(buffer, offset + IP));
+                if((kind == Utility.Protocols.TCP || kind == Utility.Protocols.UDP) && start + 4 <= length
+                        && Utility.bits(Utility.readU16(buffer, offset + IP_FRAGMENT), 0, 13) == 0) {
+                    a |= Utility.readU16(buffer, offset + start);
+                    b |= Utility.readU16(buffer, offset + start + 2);
+                }
+            } else if(length >= IP) {
+                kind = Utility.readU16(buffer, offset + ETHERTYPE) << 8;
+                a = Utility.readU48(buffer, offset + MAC);
+                b = Utility.readU48(buffer, offset + MAC + 6);
+            } else {
+                kind = -1;
+                a = 0;
+                b = 0;
+            }
+
+            long hash = Math.min(a, b) * 0x9e3779b97f4a7c15L ^ Math.max(a, b) * 0xc2b2ae3d27d4eb4fL
+                    ^ (kind + seed) * 0x165667b19e3779f9L;
+            hash = (hash ^ (hash >>> 31)) * 0xbf58476d1ce4e5b9L;
+            return hash ^ (hash >>> 29);
+        }
+
+        @Override
+        public String getDescription() {
+            return "by flow, probability " + probability;
+        }
+    }
+}
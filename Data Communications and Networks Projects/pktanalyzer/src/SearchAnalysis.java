@@ -0,0 +1,451 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The SearchAnalysis class looks for a set of patterns in the payloads of a capture with a PatternMatcher, and prints a
+ * line for every packet (or TCP stream) in which any of them turn up, followed by how often each pattern matched.
+ * Payloads are scanned in place, in the buffer the capture was read into, so nothing is copied or converted to text.
+ *
+ * Without streams, each IPv4 packet's TCP, UDP or ICMP data is scanned on its own (or the raw IP payload, for fragments
+ * and other protocols), and workers can scan chunks of the capture. With streams, TCP connections are put back together
+ * first and each direction is scanned as one run of bytes, so patterns split across segments are found too; the scan
+ * starts over after bytes that were never captured.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class SearchAnalysis extends Analysis implements StreamListener, PatternMatcher.MatchListener {
+
+    private final PatternMatcher matcher;
+    private TCPReassembler reassembler = null;          // Null unless searching streams.
+    private FragmentReassembler fragments = null;       // Null unless searching streams.
+    private final Report report = new Report();
+
+    private final long[] lastScans;                     // By pattern: the scan it last matched in.
+    private final long[] firstEnds;                     // By pattern: where it first ended in that scan.
+    private final int[] hits;                           // The patterns matched in the current scan, in order.
+    private int hitCount;
+    private long scan;                                  // Numbers the scans, from 1.
+    private long base;                                  // Subtracted from a match's end to get its payload offset.
+    private StreamState current;                        // The stream being scanned, if searching streams.
+
+    private final long[] matchCounts;                   // By pattern: the packets or streams it matched in.
+    private TextRenderer out;                           // Where stream matches are printed; set for every frame.
+    private long frames;
+    private long malformedFrames;
+    private long scannedBytes;
+    private long matched;                               // Packets or streams with any match.
+
+    /**
+     * Constructor for a SearchAnalysis that scans each packet on its own.
+     *
+     * @param matcher The patterns to look for.
+     */
+    public SearchAnalysis(PatternMatcher matcher) {
+        this.matcher = matcher;
+        this.lastScans = new long[matcher.getPatternCount()];
+        this.firstEnds = new long[matcher.getPatternCount()];
+        this.hits = new int[matcher.getPatternCount()];
+        this.matchCounts = new long[matcher.getPatternCount()];
+    }
+
+    /**
+     * Constructor for a SearchAnalysis that scans reassembled TCP streams.
+     *
+     * @param matcher The patterns to look for.
+     * @param poolBytes The most memory used to buffer out-of-order data, in bytes.
+     * @param maxBufferedBytes The most out-of-order data buffered for one stream, in bytes.
+     * @param idleTimeout How long a connection may go without segments before it is closed, in nanoseconds.
+     * @param fragments Puts fragmented datagrams back together.
+     */
+    public SearchAnalysis(PatternMatcher matcher, long poolBytes, int maxBufferedBytes, long idleTimeout,
+                          FragmentReassembler fragments) {
+        this(matcher);
+        this.reassembler = new TCPReassembler(this, poolBytes, maxBufferedBytes, idleTimeout);
+        this.fragments = fragments;
+    }
+
+    /**
+     * Scans the payload of one frame, or feeds it to the reassembler.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param out The renderer to print matches to.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        this.out = out;
+        frames++;
+
+        try {
+            if(!packet.wrap(frame) || packet.getIPHeader() == null) {
+                return;
+            }
+            if(reassembler != null) {
+                IPHeader ip = fragments.accept(packet.getIPHeader(), frame.getTimestamp(), frame.getOriginalLength());
+                if(ip != null) {
+                    reassembler.accept(ip, frame.getTimestamp());
+                }
+            } else {
+                scanPacket(frame, packet.getIPHeader(), out);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            malformedFrames++;
+        }
+    }
+
+    /**
+     * Scans the payload of an IPv4 packet, and prints a line if any pattern matched.
+     *
+     * @param frame The frame holding the packet.
+     * @param ip The packet's IP header.
+     * @param out The renderer to print to.
+     */
+    private void scanPacket(Frame frame, IPHeader ip, TextRenderer out) {
+        TCPHeader tcp;
+        UDPHeader udp;
+        ICMPHeader icmp;
+        Data data = null;
+        int sourcePort = -1;
+        int destinationPort = -1;
+        if((tcp = ip.getTCPHeader()) != null) {
+            data = tcp.getData();
+            sourcePort = tcp.getSourcePort();
+            destinationPort = tcp.getDestinationPort();
+        } else if((udp = ip.getUDPHeader()) != null) {
+            data = udp.getData();
+            sourcePort = udp.getSourcePort();
+            destinationPort = udp.getDestinationPort();
+        } else if((icmp = ip.getICMPHeader()) != null) {
+            data = icmp.getData();
+        }
+
+        ByteBuffer buffer = ip.getBuffer();
+        int start;
+        int length;
+        if(data != null) {
+            // Ethernet pads short frames, and the padding isn't part of the payload
+            start = data.getOffset();
+            length = Math.max(0, Math.min(data.getLength(), ip.getOffset() + ip.getTotalLength() - start));
+        } else if(ip.getSubHeader() == null) {
+            start = ip.getOffset() + ip.getHeaderLength();
+            length = Math.max(0, Math.min(ip.getTotalLength(), ip.getLength()) - ip.getHeaderLength());
+        } else {
+            return;
+        }
+
+        beginScan(start);
+        matcher.scan(buffer, start, length, matcher.getStartState(), this);
+        scannedBytes += length;
+        if(hitCount == 0) {
+            return;
+        }
+
+        matched++;
+        String name = Utility.getProtocolName(ip.getProtocol());
+        report.line(out).append("frame ").decimal(frame.getNumber()).append(' ');
+        if(name != null) {
+            out.append(name);
+        } else {
+            out.decimal(ip.getProtocol());
+        }
+        out.append(' ').ipAddress(ip.getSourceAddress());
+        if(sourcePort >= 0) {
+            out.append(':').decimal(sourcePort);
+        }
+        out.append(" -> ").ipAddress(ip.getDestinationAddress());
+        if(destinationPort >= 0) {
+            out.append(':').decimal(destinationPort);
+        }
+        for(int i = 0; i < hitCount; i++) {
+            hit(out.append((i == 0) ? " " : ", "), hits[i]);
+        }
+        out.newline();
+    }
+
+    /**
+     * Starts a new scan: forgets which patterns matched in the last one.
+     *
+     * @param base Subtracted from a match's end to get its offset.
+     */
+    private void beginScan(long base) {
+        scan++;
+        hitCount = 0;
+        this.base = base;
+    }
+
+    /**
+     * Notes a pattern the first time it matches in a scan.
+     *
+     * @param pattern The number of the pattern.
+     * @param end The index in the buffer just after the occurrence's last byte.
+     */
+    @Override
+    public void matched(int pattern, int end) {
+        if(lastScans[pattern] == scan) {
+            return;
+        }
+        lastScans[pattern] = scan;
+        firstEnds[pattern] = end - base;
+
+        if(current == null) {
+            hits[hitCount++] = pattern;
+            matchCounts[pattern]++;
+        } else if(current.add(pattern, matcher.getPatternCount())) {
+            // The first match of the pattern in the stream
+            if(current.isFirst()) {
+                matched++;
+            }
+            matchCounts[pattern]++;
+            TCPStream stream = current.stream;
+            report.line(out).append("stream ")
+                    .ipAddress(stream.getSourceAddress()).append(':').decimal(stream.getSourcePort()).append(" -> ")
+                    .ipAddress(stream.getDestinationAddress()).append(':').decimal(stream.getDestinationPort());
+            hit(out.append(' '), pattern).newline();
+        }
+    }
+
+    /**
+     * Appends a pattern and the offset where it first started in the current scan.
+     *
+     * @param out The renderer to write to.
+     * @param pattern The number of the pattern.
+     * @return The renderer.
+     */
+    private TextRenderer hit(TextRenderer out, int pattern) {
+        return out.append('"').append(matcher.getName(pattern)).append("\"@")
+                .decimal(firstEnds[pattern] - matcher.getLength(pattern));
+    }
+
+    /**
+     * Starts scanning a stream.
+     *
+     * @param stream The stream.
+     */
+    @Override
+    public void opened(TCPStream stream) {
+        stream.setAttachment(new StreamState(stream, matcher.getStartState()));
+    }
+
+    /**
+     * Scans the next bytes of a stream, carrying on from where the last ones left off.
+     *
+     * @param stream The stream.
+     * @param buffer The buffer holding the bytes.
+     * @param offset The index in buffer where the bytes start.
+     * @param length The number of bytes.
+     */
+    @Override
+    public void data(TCPStream stream, ByteBuffer buffer, int offset, int length) {
+        StreamState state = (StreamState) stream.getAttachment();
+        current = state;
+        beginScan(offset - state.position);     // Offsets are in the stream
+        state.scanState = matcher.scan(buffer, offset, length, state.scanState, this);
+        state.position += length;
+        scannedBytes += length;
+        current = null;
+    }
+
+    /**
+     * Starts the scan of a stream over, since no pattern can match across missing bytes.
+     *
+     * @param stream The stream.
+     * @param length The number of bytes skipped.
+     */
+    @Override
+    public void gap(TCPStream stream, int length) {
+        StreamState state = (StreamState) stream.getAttachment();
+        state.scanState = matcher.getStartState();
+        state.position += length;
+    }
+
+    /**
+     * Lets go of a stream's scan.
+     *
+     * @param stream The stream.
+     */
+    @Override
+    public void closed(TCPStream stream) {
+        stream.setAttachment(null);
+    }
+
+    /**
+     * Closes the connections that are still open, and prints how often each pattern matched.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void finish(TextRenderer out) {
+        this.out = out;
+        if(reassembler != null) {
+            reassembler.closeAll();
+        }
+
+        String unit = (reassembler != null) ? "streams" : "packets";
+        out.newline();
+        report.beginHeader(out, "Search Summary");
+        report.line(out).append("Frames           = ").decimal(frames).newline();
+        report.line(out).append("Malformed frames = ").decimal(malformedFrames).newline();
+        report.line(out).append("Scanned bytes    = ").decimal(scannedBytes).newline();
+        report.line(out).append("Matching ").append(unit).append(" = ").decimal(matched).newline();
+        report.line(out).append("Patterns         = ").decimal(matcher.getPatternCount()).append(" (")
+                .decimal(matcher.getStateCount()).append(" states, ").decimal(matcher.getClassCount())
+                .append(" byte classes)").newline();
+        for(int pattern = 0; pattern < matchCounts.length; pattern++) {
+            report.line(out).append('"').append(matcher.getName(pattern)).append("\" ").append(unit).append('=')
+                    .decimal(matchCounts[pattern]).newline();
+        }
+        report.endHeader(out);
+    }
+
+    /**
+     * Packets are scanned on their own, but streams have to be put back together from every frame.
+     *
+     * @return True unless searching streams.
+     */
+    @Override
+    public boolean canFork() {
+        return reassembler == null;
+    }
+
+    /**
+     * Makes a search for a worker.
+     *
+     * @return A new SearchAnalysis with the same patterns, or null if searching streams.
+     */
+    @Override
+    public Analysis fork() {
+        return (reassembler != null) ? null : new SearchAnalysis(matcher);
+    }
+
+    /**
+     * Adds a worker's counts to this analysis.
+     *
+     * @param worker A worker created by fork().
+     */
+    @Override
+    public void merge(Analysis worker) {
+        SearchAnalysis other = (SearchAnalysis) worker;
+        for(int pattern = 0; pattern < matchCounts.length; pattern++) {
+            matchCounts[pattern] += other.matchCounts[pattern];
+        }
+        frames += other.frames;
+        malformedFrames += other.malformedFrames;
+        scannedBytes += other.scannedBytes;
+        matched += other.matched;
+    }
+
+    /**
+     * Saves the counts. Streams that are still open aren't saved, so this is only of use when scanning packets.
+     *
+     * @param out The stream to write the state to.
+     * @throws IOException If the state can't be written.
+     */
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        out.writeLong(frames);
+        out.writeLong(malformedFrames);
+        out.writeLong(scannedBytes);
+        out.writeLong(matched);
+        out.writeInt(matchCounts.length);
+        for(long count : matchCounts) {
+            out.writeLong(count);
+        }
+    }
+
+    /**
+     * Restores the counts.
+     *
+     * @param in The stream to read the state from.
+     * @throws IOException If the state can't be read, or is of other patterns.
+     */
+    @Override
+    public void restore(DataInputStream in) throws IOException {
+        frames = in.readLong();
+        malformedFrames = in.readLong();
+        scannedBytes = in.readLong();
+        matched = in.readLong();
+        if(in.readInt() != matchCounts.length) {
+            throw new IOException("Saved search is of other patterns.");
+        }
+        for(int pattern = 0; pattern < matchCounts.length; pattern++) {
+            matchCounts[pattern] = in.readLong();
+        }
+    }
+
+    /**
+     * The StreamState class is the scan of one stream: the automaton's state after its bytes so far, and which
+     * patterns have matched in it.
+     */
+    private static class StreamState {
+
+        private final TCPStream stream;
+        private int scanState;
+        private long position;              // Bytes of the stream scanned or skipped so far.
+        private long[] matchedPatterns;     // A bit per pattern; null until one matches.
+        private int matchedCount;
+
+        /**
+         * Constructor for StreamState.
+         *
+         * @param stream The stream.
+         * @param scanState The state to start scanning in.
+         */
+        private StreamState(TCPStream stream, int scanState) {
+            this.stream = stream;
+            this.scanState = scanState;
+        }
+
+        /**
+         * Notes that a pattern matched in the stream.
+         *
+         * @param pattern The number of the pattern.
+         * @param patterns The number of patterns.
+         * @return True if it hadn't matched in the stream before.
+         */
+        private boolean add(int pattern, int patterns) {
+            if(matchedPatterns == null) {
+                matchedPatterns = new long[(patterns + 63) >>> 6];
+            }
+            long bit = 1L << pattern;
+            if((matchedPatterns[pattern >>> 6] & bit) != 0) {
+                return false;
+            }
+            matchedPatterns[pattern >>> 6] |= bit;
+            matchedCount++;
+            return true;
+        }
+
+        /**
+         * Checks whether the pattern just added was the first to match in the stream.
+         *
+         * @return True if exactly one pattern has matched in the stream.
+         */
+        private boolean isFirst() {
+            return matchedCount == 1;
+        }
+    }
+
+    /**
+     * The Report class prints the lines of a search.
+     */
+    private static class Report extends Header {
+
+        /**
+         * Constructor for Report.
+         */
+        private Report() {
+            super("SEARCH");
+        }
+
+        /**
+         * Lines are printed by SearchAnalysis.
+         *
+         * @param out The renderer to write to.
+         */
+        @Override
+        public void render(TextRenderer out) {
+        }
+    }
+}
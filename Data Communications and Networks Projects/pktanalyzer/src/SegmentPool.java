@@ -0,0 +1,105 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The SegmentPool class hands out the fixed-size buffers that TCP streams hold out-of-order data in, and that IP
+ * fragments wait for the rest of their datagram in. Buffers are created as they are first needed, up to a fixed
+ * number, and are recycled instead of freed, so the memory used for reassembly is bounded by the size of the pool
+ * however many connections or datagrams are stalled, without allocating all of it for runs that never need it.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class SegmentPool {
+
+    public static final int SEGMENT_SIZE = 2048;    // Bytes held by one segment; larger payloads use several.
+
+    /**
+     * One buffered piece of a stream: up to SEGMENT_SIZE bytes starting at a sequence number. Segments of a stream
+     * form a singly linked list ordered by sequence number.
+     */
+    static class Segment {
+
+        final byte[] data = new byte[SEGMENT_SIZE];
+        final ByteBuffer view = ByteBuffer.wrap(data);  // Handed to listeners, so buffered data is seen like any other.
+
+        int sequence;
+        int length;
+        Segment next;
+    }
+
+    private final int maxSegments;
+
+    private Segment free;           // Recycled segments, linked through next.
+    private int allocated;
+    private int inUse;
+    private int peakInUse;
+
+    /**
+     * Constructor for SegmentPool.
+     *
+     * @param maxBytes The most memory the pool may use for buffered data, in bytes.
+     */
+    public SegmentPool(long maxBytes) {
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / SEGMENT_SIZE));
+    }
+
+    /**
+     * Takes a segment out of the pool.
+     *
+     * @return An empty segment, or null if the pool is used up.
+     */
+    Segment acquire() {
+        Segment segment = free;
+        if(segment != null) {
+            free = segment.next;
+        } else if(allocated < maxSegments) {
+            segment = new Segment();
+            allocated++;
+        } else {
+            return null;
+        }
+
+        segment.next = null;
+        inUse++;
+        peakInUse = Math.max(peakInUse, inUse);
+        return segment;
+    }
+
+    /**
+     * Puts a segment back into the pool.
+     *
+     * @param segment The segment, which must not be used afterwards.
+     */
+    void release(Segment segment) {
+        segment.length = 0;
+        segment.next = free;
+        free = segment;
+        inUse--;
+    }
+
+    /**
+     * Getter method for the size of the pool.
+     *
+     * @return The most segments the pool will hand out at once.
+     */
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    /**
+     * Getter method for the number of segments handed out.
+     *
+     * @return The number of segments currently holding data.
+     */
+    public int getInUse() {
+        return inUse;
+    }
+
+    /**
+     * Getter method for the most segments ever handed out at once.
+     *
+     * @return The peak number of segments holding data.
+     */
+    public int getPeakInUse() {
+        return peakInUse;
+    }
+}
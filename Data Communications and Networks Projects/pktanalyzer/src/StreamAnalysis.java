@@ -0,0 +1,131 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The StreamAnalysis class puts the TCP connections of a capture back together and prints one line for each direction
+ * of each connection when it closes, followed by totals. It is also the simplest example of a StreamListener.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class StreamAnalysis extends Analysis implements StreamListener {
+
+    private final TCPReassembler reassembler;
+    private final FragmentReassembler fragments;
+    private final StreamRecord record = new StreamRecord();
+
+    private TextRenderer out;       // Where closed streams are printed; set for every frame.
+
+    private long frames;
+    private long segments;
+    private long malformedFrames;
+    private long deliveredBytes;
+    private long gapBytes;
+
+    /**
+     * Constructor for StreamAnalysis.
+     *
+     * @param poolBytes The most memory used to buffer out-of-order data, in bytes.
+     * @param maxBufferedBytes The most out-of-order data buffered for one stream, in bytes.
+     * @param idleTimeout How long a connection may go without segments before it is closed, in nanoseconds.
+     * @param fragments Puts fragmented datagrams back together.
+     */
+    public StreamAnalysis(long poolBytes, int maxBufferedBytes, long idleTimeout, FragmentReassembler fragments) {
+        this.reassembler = new TCPReassembler(this, poolBytes, maxBufferedBytes, idleTimeout);
+        this.fragments = fragments;
+    }
+
+    /**
+     * Feeds one frame to the reassembler.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param out The renderer to print closed streams to.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        this.out = out;
+        frames++;
+
+        try {
+            if(!packet.wrap(frame) || packet.getIPHeader() == null) {
+                return;
+            }
+            IPHeader ip = fragments.accept(packet.getIPHeader(), frame.getTimestamp(), frame.getOriginalLength());
+            if(ip != null && reassembler.accept(ip, frame.getTimestamp())) {
+                segments++;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            malformedFrames++;
+        }
+    }
+
+    /**
+     * Does nothing; streams are only printed when they close.
+     *
+     * @param stream The stream.
+     */
+    @Override
+    public void opened(TCPStream stream) {
+    }
+
+    /**
+     * Counts the bytes of a stream.
+     *
+     * @param stream The stream.
+     * @param buffer The buffer holding the bytes.
+     * @param offset The index in buffer where the bytes start.
+     * @param length The number of bytes.
+     */
+    @Override
+    public void data(TCPStream stream, ByteBuffer buffer, int offset, int length) {
+        deliveredBytes += length;
+    }
+
+    /**
+     * Counts the missing bytes of a stream.
+     *
+     * @param stream The stream.
+     * @param length The number of bytes skipped.
+     */
+    @Override
+    public void gap(TCPStream stream, int length) {
+        gapBytes += length;
+    }
+
+    /**
+     * Prints a stream that has closed.
+     *
+     * @param stream The stream.
+     */
+    @Override
+    public void closed(TCPStream stream) {
+        record.set(stream);
+        record.render(out);
+    }
+
+    /**
+     * Closes the connections that are still open, and prints totals.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void finish(TextRenderer out) {
+        this.out = out;
+        reassembler.closeAll();
+
+        SegmentPool pool = reassembler.getPool();
+        out.newline();
+        record.beginHeader(out, "Stream Summary");
+        record.line(out).append("Frames             = ").decimal(frames).newline();
+        record.line(out).append("TCP segments       = ").decimal(segments).newline();
+        record.line(out).append("Malformed frames   = ").decimal(malformedFrames).newline();
+        record.line(out).append("IP fragments       = ").decimal(fragments.getFragments()).newline();
+        record.line(out).append("Reassembled        = ").decimal(fragments.getReassembled()).newline();
+        record.line(out).append("Incomplete         = ").decimal(fragments.getTimedOut() + fragments.getDropped() + fragments.getPending()).newline();
+        record.line(out).append("Connections        = ").decimal(reassembler.getTotalConnections()).newline();
+        record.line(out).append("Delivered bytes    = ").decimal(deliveredBytes).newline();
+        record.line(out).append("Missing bytes      = ").decimal(gapBytes).newline();
+        record.line(out).append("Peak buffered      = ").decimal((long) pool.getPeakInUse() * SegmentPool.SEGMENT_SIZE / 1024)
+                .append(" of ").decimal((long) pool.getMaxSegments() * SegmentPool.SEGMENT_SIZE / 1024).append(" KB").newline();
+        record.endHeader(out);
+    }
+}
@@ -0,0 +1,45 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The StreamListener interface is how analyses consume the byte streams put back together by a TCPReassembler. Every
+ * connection has two streams, one for each direction. Each stream is opened, then gets its bytes in order through
+ * data() (with gap() standing in for bytes that never arrived), and is finally closed.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public interface StreamListener {
+
+    /**
+     * Called for both streams of a connection when its first segment is seen.
+     *
+     * @param stream The stream.
+     */
+    void opened(TCPStream stream);
+
+    /**
+     * Called with the next bytes of a stream, in order and without duplicates.
+     *
+     * @param stream The stream.
+     * @param buffer The buffer holding the bytes. Only valid until this method returns.
+     * @param offset The index in buffer where the bytes start.
+     * @param length The number of bytes.
+     */
+    void data(TCPStream stream, ByteBuffer buffer, int offset, int length);
+
+    /**
+     * Called when the reassembler gives up on bytes of a stream that were never captured, or that didn't fit in
+     * memory while waiting for them.
+     *
+     * @param stream The stream.
+     * @param length The number of bytes skipped.
+     */
+    void gap(TCPStream stream, int length);
+
+    /**
+     * Called for both streams of a connection when it ends: after both sides sent FIN, after a RST, after it has been
+     * idle too long, or at the end of the capture.
+     *
+     * @param stream The stream.
+     */
+    void closed(TCPStream stream);
+}
@@ -0,0 +1,42 @@
+/**
+ * The StreamRecord class prints one direction of a reassembled TCP connection on a single line: its endpoints and how
+ * many bytes were delivered, skipped, received more than once, and buffered out of order.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class StreamRecord extends Header {
+
+    private TCPStream stream;
+
+    /**
+     * Constructor for a StreamRecord that isn't pointing at a stream yet. Use set() to give it one.
+     */
+    public StreamRecord() {
+        super("STREAM");
+    }
+
+    /**
+     * Points this record at a stream.
+     *
+     * @param stream The stream.
+     */
+    public void set(TCPStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Renders this stream on one line.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        line(out).append(stream.isClient() ? "client " : "server ")
+                .ipAddress(stream.getSourceAddress()).append(':').decimal(stream.getSourcePort()).append(" -> ")
+                .ipAddress(stream.getDestinationAddress()).append(':').decimal(stream.getDestinationPort())
+                .append(" bytes=").decimal(stream.getDeliveredBytes())
+                .append(" gaps=").decimal(stream.getGapBytes())
+                .append(" retransmitted=").decimal(stream.getRetransmittedBytes())
+                .append(" out-of-order=").decimal(stream.getOutOfOrderSegments()).newline();
+    }
+}
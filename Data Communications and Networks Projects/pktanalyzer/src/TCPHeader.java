@@ -1,5 +1,4 @@
-import java.math.BigInteger;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * The TCPHeader class represents the TCP section of a packet, assuming the packet uses TCP protocol.
@@ -21,27 +20,30 @@ public class TCPHeader extends Header {
 
     private static final int MIN_PKT_LENGTH = 20;                       // Minimum length of packet.
 
-    private int sourcePort;
-    private int destinationPort;
-    private int sequenceNumber;
-    private BigInteger ackNumber;
-    private int dataOffset;
-    private byte[] flags;
-    private byte ns;
-    private byte cwr;
-    private byte ece;
-    private byte urg;
-    private byte ack;
-    private byte psh;
-    private byte rst;
-    private byte syn;
-    private byte fin;
-    private int window;
-    private byte[] checksum;
-    private byte[] urgPointer;
-    private boolean hasOptions;
-
-    private Data data = null;
+    public static final int FIN = 0x001;                                // Bit of the FIN flag in getFlags().
+    public static final int SYN = 0x002;                                // Bit of the SYN flag in getFlags().
+    public static final int RST = 0x004;                                // Bit of the RST flag in getFlags().
+    public static final int PSH = 0x008;                                // Bit of the PSH flag in getFlags().
+    public static final int ACK = 0x010;                                // Bit of the ACK flag in getFlags().
+    public static final int URG = 0x020;                                // Bit of the URG flag in getFlags().
+    public static final int ECE = 0x040;                                // Bit of the ECE flag in getFlags().
+    public static final int CWR = 0x080;                                // Bit of the CWR flag in getFlags().
+    public static final int NS = 0x100;                                 // Bit of the NS flag in getFlags().
+
+    private Data data = null;                   // Set the first time it is asked for
+    private boolean dataDecoded;
+    private final Data dataView = new Data();   // Reused from packet to packet
+    private IPHeader ipHeader = null;           // The datagram this is the payload of, if any
+    private Header application = null;          // Set the first time it is asked for
+    private boolean applicationDecoded;
+    private final DissectorRegistry.Headers applicationHeaders = new DissectorRegistry.Headers(Dissector.PORT, this);
+
+    /**
+     * Constructor for a TCPHeader that isn't pointing at a packet yet. Use wrap() to give it one.
+     */
+    public TCPHeader() {
+        super("TCP");
+    }
 
     /**
      * The constructor for TCPHeader. It extract information from a packet.
@@ -49,69 +51,231 @@ public class TCPHeader extends Header {
      * @param raw The raw packet in a byte array.
      */
     public TCPHeader(byte[] raw) {
-        super("TCP");
+        this();
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
+    }
+
+    /**
+     * Checks that the slice this header is pointing at can hold a TCP header, and forgets the previous data.
+     */
+    @Override
+    protected void decode() {
+        require(MIN_PKT_LENGTH);
+
+        this.data = null;
+        this.dataDecoded = false;
+        this.application = null;
+        this.applicationDecoded = false;
+    }
+
+    /**
+     * Getter method for source port.
+     *
+     * @return The source port.
+     */
+    public int getSourcePort() {
+        return Utility.readU16(buffer, offset + SOURCE_PORT);
+    }
+
+    /**
+     * Getter method for destination port.
+     *
+     * @return The destination port.
+     */
+    public int getDestinationPort() {
+        return Utility.readU16(buffer, offset + DESTINATION_PORT);
+    }
+
+    /**
+     * Getter method for sequence number.
+     *
+     * @return The sequence number, from 0 to 2^32 - 1.
+     */
+    public long getSequenceNumber() {
+        return Utility.readU32(buffer, offset + SEQUENCE_NUMBER);
+    }
+
+    /**
+     * Getter method for acknowledgement number.
+     *
+     * @return The acknowledgement number, from 0 to 2^32 - 1.
+     */
+    public long getAckNumber() {
+        return Utility.readU32(buffer, offset + ACK_NUMBER);
+    }
+
+    /**
+     * Getter method for data offset.
+     *
+     * @return The length of the TCP header, in bytes.
+     */
+    public int getDataOffset() {
+        return 4 * Utility.bits(Utility.readU16(buffer, offset + OFFSET_RESERVED_NS), 12, 4);
+    }
+
+    /**
+     * Getter method for flags.
+     *
+     * @return The nine flag bits; test them with the FIN, SYN, ... constants.
+     */
+    public int getFlags() {
+        return Utility.bits(Utility.readU16(buffer, offset + OFFSET_RESERVED_NS), 0, 9);
+    }
+
+    /**
+     * Getter method for window.
+     *
+     * @return The window size.
+     */
+    public int getWindow() {
+        return Utility.readU16(buffer, offset + WINDOW_SIZE);
+    }
+
+    /**
+     * Getter method for checksum.
+     *
+     * @return The checksum.
+     */
+    public int getChecksum() {
+        return Utility.readU16(buffer, offset + CHECKSUM);
+    }
+
+    /**
+     * Getter method for urgent pointer.
+     *
+     * @return The urgent pointer.
+     */
+    public int getUrgentPointer() {
+        return Utility.readU16(buffer, offset + URGENT_POINTER);
+    }
+
+    /**
+     * Checks whether the header has options.
+     *
+     * @return True if the header is longer than 20 bytes.
+     */
+    public boolean hasOptions() {
+        return getDataOffset() > OPTIONS;
+    }
+
+    /**
+     * Checks the checksum, which covers the segment and the IP pseudo-header.
+     *
+     * @return Whether the checksum is correct, or UNVERIFIED if the segment wasn't all captured or isn't in an IP
+     * datagram.
+     */
+    public Checksum.Status getChecksumStatus() {
+        if(ipHeader == null) {
+            return Checksum.Status.UNVERIFIED;
+        }
+        return Checksum.verify(buffer, offset, ipHeader.getPayloadLength(), ipHeader.getPseudoHeaderSum(), length);
+    }
+
+    /**
+     * Tells this header which IP header it is the payload of, so it can check its checksum.
+     *
+     * @param ipHeader The IP header.
+     */
+    void setIPHeader(IPHeader ipHeader) {
+        this.ipHeader = ipHeader;
+    }
 
-        byte[] temp;
-
-        // Extract TCP header information.
-        this.sourcePort = Utility.byteToInt(Arrays.copyOfRange(raw, SOURCE_PORT, DESTINATION_PORT));
-        this.destinationPort = Utility.byteToInt(Arrays.copyOfRange(raw, DESTINATION_PORT, SEQUENCE_NUMBER));
-        this.sequenceNumber = Utility.byteToInt(Arrays.copyOfRange(raw, SEQUENCE_NUMBER, ACK_NUMBER));
-        this.ackNumber = new BigInteger(Utility.byteToHexString(Arrays.copyOfRange(raw, ACK_NUMBER, OFFSET_RESERVED_NS), Utility.HexStringType.NO_PREFIX), 16);
-        temp = Utility.splitByte(raw[OFFSET_RESERVED_NS]);
-        this.dataOffset = 4 * Utility.byteToInt(temp[0]);
-        temp = Utility.splitByte(temp[1], 7);
-        this.ns = temp[1];
-        this.flags = Utility.combine(ns, raw[CWR_ECE_URG_ACK_PSH_RST_SYN_FIN]);
-        temp = Utility.toBits(raw[CWR_ECE_URG_ACK_PSH_RST_SYN_FIN]);
-        this.cwr = temp[0];
-        this.ece = temp[1];
-        this.urg = temp[2];
-        this.ack = temp[3];
-        this.psh = temp[4];
-        this.rst = temp[5];
-        this.syn = temp[6];
-        this.fin = temp[7];
-        this.window = Utility.byteToInt(Arrays.copyOfRange(raw, WINDOW_SIZE, CHECKSUM));
-        this.checksum = Arrays.copyOfRange(raw, CHECKSUM, URGENT_POINTER);
-        this.urgPointer = Arrays.copyOfRange(raw, URGENT_POINTER, OPTIONS);
-        this.hasOptions = (dataOffset > 20);
-
-        if(raw.length > MIN_PKT_LENGTH) {
-            this.data = new Data(Arrays.copyOfRange(raw, dataOffset, raw.length));
+    /**
+     * Getter method for data. It is decoded the first time it is asked for.
+     *
+     * @return The segment's data, or null if the segment has none.
+     */
+    public Data getData() {
+        if(!dataDecoded) {
+            if(length > MIN_PKT_LENGTH) {
+                int dataOffset = getDataOffset();
+                require(dataOffset);
+                dataView.wrap(buffer, offset + dataOffset, length - dataOffset);
+                this.data = dataView;
+            }
+            dataDecoded = true;
         }
+        return data;
     }
 
     /**
-     * Creates a String representation of this TCPHeader. Includes source port, destination port, sequence number,
-     * acknowledgement number, data offset, flags, window, checksum, urgent pointer, existence of options, and its data.
+     * Getter method for the header of the application protocol in the data, found through DissectorRegistry by the
+     * lower port first, then the other. It is decoded the first time it is asked for.
      *
-     * @return A String representation of this TCPHeader.
+     * @return The application header, or null if the segment has no data or no dissector decodes either port.
+     */
+    public Header getApplicationHeader() {
+        if(!applicationDecoded) {
+            Data payload = getData();
+            if(payload != null) {
+                int low = Math.min(getSourcePort(), getDestinationPort());
+                int high = Math.max(getSourcePort(), getDestinationPort());
+                application = applicationHeaders.get(low);
+                if(application == null) {
+                    application = applicationHeaders.get(high);
+                }
+                if(application != null) {
+                    application.wrap(payload.getBuffer(), payload.getOffset(), payload.getLength());
+                }
+            }
+            applicationDecoded = true;
+        }
+        return application;
+    }
+
+    /**
+     * Renders this TCPHeader. Includes source port, destination port, sequence number, acknowledgement number, data
+     * offset, flags, window, checksum, urgent pointer, existence of options, and its data.
+     *
+     * @param out The renderer to write to.
      */
     @Override
-    public String toString() {
-        return buildHeader("TCP Header",
-                String.format("Source port            = %d", sourcePort),
-                String.format("Destination port       = %d", destinationPort),
-                String.format("Sequence number        = %d", sequenceNumber),
-                String.format("Acknowledgement number = %d", ackNumber),
-                String.format("Data offset            = %d bytes", dataOffset),
-                String.format("Flags                  = %s", Utility.byteToHexString(flags, Utility.HexStringType.NORMAL)),
-                String.format("\t%d .... .... = %sNS pointer", Utility.byteToInt(ns), (Utility.byteToInt(ns) == 0) ? "No " : ""),
-                String.format("\t. %d... .... = %sCWR pointer", Utility.byteToInt(cwr), (Utility.byteToInt(cwr) == 0) ? "No " : ""),
-                String.format("\t. .%d.. .... = %sECE pointer", Utility.byteToInt(ece), (Utility.byteToInt(ece) == 0) ? "No " : ""),
-                String.format("\t. ..%d. .... = %sURG pointer", Utility.byteToInt(urg), (Utility.byteToInt(urg) == 0) ? "No " : ""),
-                String.format("\t. ...%d .... = %sACK pointer", Utility.byteToInt(ack), (Utility.byteToInt(ack) == 0) ? "No " : ""),
-                String.format("\t. .... %d... = %sPSH pointer", Utility.byteToInt(psh), (Utility.byteToInt(psh) == 0) ? "No " : ""),
-                String.format("\t. .... .%d.. = %sRST pointer", Utility.byteToInt(rst), (Utility.byteToInt(rst) == 0) ? "No " : ""),
-                String.format("\t. .... ..%d. = %sSYN pointer", Utility.byteToInt(syn), (Utility.byteToInt(syn) == 0) ? "No " : ""),
-                String.format("\t. .... ...%d = %sFIN pointer", Utility.byteToInt(fin), (Utility.byteToInt(fin) == 0) ? "No " : ""),
-                String.format("Window                 = %d", window),
-                String.format("Checksum               = %s", Utility.byteToHexString(checksum, Utility.HexStringType.NORMAL)),
-                String.format("Urgent pointer         = %s", Utility.byteToHexString(urgPointer, Utility.HexStringType.NORMAL)),
-                (hasOptions) ? "Has options" : "No options") +
-
-                // Now, get the data
-                ((data == null) ? "" : data.toString());
+    public void render(TextRenderer out) {
+        int flags = getFlags();
+        Data payload = getData();
+
+        beginHeader(out, "TCP Header");
+        line(out).append("Source port            = ").decimal(getSourcePort()).newline();
+        line(out).append("Destination port       = ").decimal(getDestinationPort()).newline();
+        line(out).append("Sequence number        = ").decimal((int) getSequenceNumber()).newline();
+        line(out).append("Acknowledgement number = ").decimal(getAckNumber()).newline();
+        line(out).append("Data offset            = ").decimal(getDataOffset()).append(" bytes").newline();
+        line(out).append("Flags                  = 0x").hex(flags, 4).newline();
+        flag(out, "\t", Utility.bit(flags, 8), " .... .... = ", "NS pointer");
+        flag(out, "\t. ", Utility.bit(flags, 7), "... .... = ", "CWR pointer");
+        flag(out, "\t. .", Utility.bit(flags, 6), ".. .... = ", "ECE pointer");
+        flag(out, "\t. ..", Utility.bit(flags, 5), ". .... = ", "URG pointer");
+        flag(out, "\t. ...", Utility.bit(flags, 4), " .... = ", "ACK pointer");
+        flag(out, "\t. .... ", Utility.bit(flags, 3), "... = ", "PSH pointer");
+        flag(out, "\t. .... .", Utility.bit(flags, 2), ".. = ", "RST pointer");
+        flag(out, "\t. .... ..", Utility.bit(flags, 1), ". = ", "SYN pointer");
+        flag(out, "\t. .... ...", Utility.bit(flags, 0), " = ", "FIN pointer");
+        line(out).append("Window                 = ").decimal(getWindow()).newline();
+        line(out).append("Checksum               = 0x").hex(getChecksum(), 4)
+                .append(" (").append(getChecksumStatus().getLabel()).append(')').newline();
+        line(out).append("Urgent pointer         = 0x").hex(getUrgentPointer(), 4).newline();
+        line(out).append((hasOptions()) ? "Has options" : "No options").newline();
+        endHeader(out);
+
+        // Now, get the data, decoded by its application protocol if there is a dissector for it
+        Header decoded = getApplicationHeader();
+        if(decoded != null) {
+            decoded.render(out);
+        } else if(payload != null) {
+            payload.render(out);
+        }
+    }
+
+    /**
+     * Renders one line of the flag breakdown.
+     *
+     * @param out The renderer to write to.
+     * @param before The bit pattern before the flag's bit.
+     * @param bit The flag's bit.
+     * @param after The bit pattern after the flag's bit.
+     * @param name The name of the flag.
+     */
+    private void flag(TextRenderer out, String before, int bit, String after, String name) {
+        line(out).append(before).decimal(bit).append(after).append((bit == 0) ? "No " : "").append(name).newline();
     }
 }
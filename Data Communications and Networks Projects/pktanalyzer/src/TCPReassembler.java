@@ -0,0 +1,242 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The TCPReassembler class turns the TCP segments of a capture back into the byte streams of its connections, and
+ * passes them to a StreamListener as they are put together. Connections are keyed by their addresses and ports in
+ * either direction.
+ *
+ * Out-of-order data is buffered in segments from a shared SegmentPool, so all connections together never buffer more
+ * than the pool holds, and each stream buffers at most a fixed number of bytes. A stream that runs out of either
+ * stops waiting for its missing bytes and reports them as a gap, so one stalled connection can't hold up the rest.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class TCPReassembler {
+
+    /**
+     * The addresses and ports of a connection, ordered so that both directions give the same key.
+     */
+    private static final class Key {
+
+        private long addresses;
+        private long ports;
+
+        /**
+         * Sets the key to a connection.
+         *
+         * @param source The source address of a segment.
+         * @param destination The destination address of the segment.
+         * @param sourcePort The source port of the segment.
+         * @param destinationPort The destination port of the segment.
+         * @return This key.
+         */
+        private Key set(int source, int destination, int sourcePort, int destinationPort) {
+            long from = ((source & 0xffffffffL) << 16) | sourcePort;
+            long to = ((destination & 0xffffffffL) << 16) | destinationPort;
+            this.addresses = Math.min(from, to);
+            this.ports = Math.max(from, to);
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).addresses == addresses && ((Key) other).ports == ports;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = addresses * 0x9e3779b97f4a7c15L ^ ports * 0xc2b2ae3d27d4eb4fL;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    private final StreamListener listener;
+    private final SegmentPool pool;
+    private final int maxBufferedBytes;
+    private final long idleTimeout;
+
+    private final Map<Key, TCPStream> connections = new HashMap<>();  // Client side of every open connection.
+    private final Key lookup = new Key();                               // Reused to look up existing connections
+
+    private long lastSweep = Long.MIN_VALUE;
+    private long totalConnections;
+    private long skippedFragments;
+
+    /**
+     * Constructor for TCPReassembler.
+     *
+     * @param listener Gets the reassembled streams.
+     * @param poolBytes The most memory used to buffer out-of-order data for all connections together, in bytes.
+     * @param maxBufferedBytes The most out-of-order data buffered for one stream, in bytes.
+     * @param idleTimeout How long a connection may go without segments before it is closed, in nanoseconds.
+     */
+    public TCPReassembler(StreamListener listener, long poolBytes, int maxBufferedBytes, long idleTimeout) {
+        this.listener = listener;
+        this.pool = new SegmentPool(poolBytes);
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Handles one IP datagram. Anything that isn't a whole TCP segment is ignored.
+     *
+     * @param ip The datagram.
+     * @param timestamp The arrival time of the datagram, in nanoseconds.
+     * @return True if the datagram was a TCP segment.
+     */
+    public boolean accept(IPHeader ip, long timestamp) {
+        if(timestamp - lastSweep >= idleTimeout || lastSweep == Long.MIN_VALUE) {
+            sweep(timestamp);
+        }
+
+        TCPHeader tcp = ip.getTCPHeader();
+        if(tcp == null) {
+            return false;
+        }
+        if(ip.getFragmentOffset() != 0 || ip.isMoreFragments()) {
+            // Only a piece of the segment: it needs the datagram put back together first
+            skippedFragments++;
+            return false;
+        }
+
+        // The payload ends where the datagram does; anything after that is link-layer padding
+        int headerLength = tcp.getDataOffset();
+        int payloadLength = Math.min(ip.getTotalLength(), ip.getLength()) - ip.getHeaderLength() - headerLength;
+        if(headerLength < 20 || payloadLength < 0) {
+            throw new IndexOutOfBoundsException("TCP segment is shorter than its header");
+        }
+
+        int source = ip.getSourceAddress();
+        int destination = ip.getDestinationAddress();
+        int sourcePort = tcp.getSourcePort();
+        int destinationPort = tcp.getDestinationPort();
+        int flags = tcp.getFlags();
+
+        TCPStream stream = connections.get(lookup.set(source, destination, sourcePort, destinationPort));
+        if(stream == null) {
+            // A SYN-ACK comes from the server; anything else is taken to come from the client
+            boolean fromServer = (flags & (TCPHeader.SYN | TCPHeader.ACK)) == (TCPHeader.SYN | TCPHeader.ACK);
+            stream = fromServer
+                    ? new TCPStream(this, destination, source, destinationPort, sourcePort)
+                    : new TCPStream(this, source, destination, sourcePort, destinationPort);
+            connections.put(new Key().set(source, destination, sourcePort, destinationPort), stream);
+            totalConnections++;
+
+            listener.opened(stream);
+            listener.opened(stream.getReverse());
+        }
+
+        TCPStream client = stream;
+        if(stream.getSourceAddress() != source || stream.getSourcePort() != sourcePort) {
+            stream = stream.getReverse();
+        }
+        stream.segment((int) tcp.getSequenceNumber(), flags, tcp.getBuffer(), tcp.getOffset() + headerLength,
+                payloadLength, timestamp);
+
+        if((flags & TCPHeader.RST) != 0 || (client.isClosed() && client.getReverse().isClosed())) {
+            connections.remove(lookup);
+            close(client);
+        }
+        return true;
+    }
+
+    /**
+     * Closes every connection that has been idle for longer than the idle timeout.
+     *
+     * @param now The current time, in nanoseconds.
+     */
+    public void sweep(long now) {
+        lastSweep = now;
+
+        Iterator<TCPStream> iterator = connections.values().iterator();
+        while(iterator.hasNext()) {
+            TCPStream client = iterator.next();
+            if(now - Math.max(client.getLastSeen(), client.getReverse().getLastSeen()) > idleTimeout) {
+                iterator.remove();
+                close(client);
+            }
+        }
+    }
+
+    /**
+     * Closes every connection, for example at the end of a capture.
+     */
+    public void closeAll() {
+        for(TCPStream client : connections.values()) {
+            close(client);
+        }
+        connections.clear();
+    }
+
+    /**
+     * Delivers what is left of both streams of a connection and tells the listener they are closed.
+     *
+     * @param client The client side of the connection, already removed from the connections.
+     */
+    private void close(TCPStream client) {
+        TCPStream server = client.getReverse();
+        client.flush();
+        server.flush();
+        client.close();
+        server.close();
+
+        listener.closed(client);
+        listener.closed(server);
+    }
+
+    /**
+     * Getter method for the listener.
+     *
+     * @return The listener that gets the reassembled streams.
+     */
+    StreamListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Getter method for the segment pool.
+     *
+     * @return The pool that out-of-order data is buffered in.
+     */
+    public SegmentPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Getter method for the per-stream buffering limit.
+     *
+     * @return The most out-of-order data buffered for one stream, in bytes.
+     */
+    public int getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    /**
+     * Getter method for the number of open connections.
+     *
+     * @return The number of connections that haven't been closed.
+     */
+    public int getOpenConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Getter method for the number of connections ever seen.
+     *
+     * @return The number of connections seen.
+     */
+    public long getTotalConnections() {
+        return totalConnections;
+    }
+
+    /**
+     * Getter method for the number of fragmented segments skipped.
+     *
+     * @return The number of IP fragments holding TCP that were ignored.
+     */
+    public long getSkippedFragments() {
+        return skippedFragments;
+    }
+}
@@ -0,0 +1,405 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The TCPStream class puts one direction of a TCP connection back together. Segments are handed to it in capture
+ * order; bytes that continue the stream are passed straight to the listener, and bytes that arrive early are copied
+ * into pooled segments until the bytes before them show up. Retransmitted and overlapping bytes are only delivered
+ * once: whichever copy of a byte is first in sequence order wins, and between equal copies the first to arrive does.
+ *
+ * Sequence numbers are compared by the sign of their 32-bit difference, so streams may wrap around 2^32.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class TCPStream {
+
+    private final TCPReassembler reassembler;
+    private final TCPStream reverse;
+    private final boolean client;
+
+    private final int sourceAddress;
+    private final int destinationAddress;
+    private final int sourcePort;
+    private final int destinationPort;
+
+    private boolean synced;             // Set once nextSequence is known.
+    private int nextSequence;           // Sequence number of the next byte to deliver.
+    private boolean finished;           // Set once a FIN was seen.
+    private int finSequence;            // Sequence number of the FIN.
+    private boolean closed;
+
+    private SegmentPool.Segment head;   // Buffered segments, ordered by sequence number.
+    private SegmentPool.Segment tail;
+    private int bufferedBytes;
+
+    private long deliveredBytes;
+    private long gapBytes;
+    private long retransmittedBytes;
+    private long outOfOrderSegments;
+    private long lastSeen;
+
+    private Object attachment;
+
+    /**
+     * Constructor for the client side of a connection. It creates the server side too.
+     *
+     * @param reassembler The reassembler the connection belongs to.
+     * @param clientAddress The client's address.
+     * @param serverAddress The server's address.
+     * @param clientPort The client's port.
+     * @param serverPort The server's port.
+     */
+    TCPStream(TCPReassembler reassembler, int clientAddress, int serverAddress, int clientPort, int serverPort) {
+        this.reassembler = reassembler;
+        this.client = true;
+        this.sourceAddress = clientAddress;
+        this.destinationAddress = serverAddress;
+        this.sourcePort = clientPort;
+        this.destinationPort = serverPort;
+        this.reverse = new TCPStream(this);
+    }
+
+    /**
+     * Constructor for the server side of a connection.
+     *
+     * @param clientSide The client side of the connection.
+     */
+    private TCPStream(TCPStream clientSide) {
+        this.reassembler = clientSide.reassembler;
+        this.client = false;
+        this.sourceAddress = clientSide.destinationAddress;
+        this.destinationAddress = clientSide.sourceAddress;
+        this.sourcePort = clientSide.destinationPort;
+        this.destinationPort = clientSide.sourcePort;
+        this.reverse = clientSide;
+    }
+
+    /**
+     * Handles a segment sent in this stream's direction.
+     *
+     * @param sequence The segment's sequence number.
+     * @param flags The segment's TCP flags.
+     * @param buffer The buffer holding the segment's payload.
+     * @param offset The index in buffer where the payload starts.
+     * @param length The length of the payload.
+     * @param timestamp The arrival time of the segment, in nanoseconds.
+     */
+    void segment(int sequence, int flags, ByteBuffer buffer, int offset, int length, long timestamp) {
+        lastSeen = timestamp;
+
+        if((flags & TCPHeader.SYN) != 0) {
+            // The SYN takes up one sequence number of its own; data starts after it
+            sequence++;
+            if(!synced) {
+                nextSequence = sequence;
+                synced = true;
+            }
+        } else if(!synced) {
+            // The capture started in the middle of the connection: start with the first byte we see
+            nextSequence = sequence;
+            synced = true;
+        }
+
+        if((flags & TCPHeader.FIN) != 0 && !finished) {
+            finished = true;
+            finSequence = sequence + length;
+        }
+
+        if(length > 0) {
+            data(sequence, buffer, offset, length);
+        }
+
+        if(finished && nextSequence - finSequence >= 0) {
+            closed = true;
+        }
+    }
+
+    /**
+     * Delivers or buffers a segment's payload.
+     *
+     * @param sequence The sequence number of the first byte.
+     * @param buffer The buffer holding the bytes.
+     * @param offset The index in buffer where the bytes start.
+     * @param length The number of bytes.
+     */
+    private void data(int sequence, ByteBuffer buffer, int offset, int length) {
+        while(length > 0) {
+            // Cut off whatever was already delivered
+            int behind = nextSequence - sequence;
+            if(behind >= length) {
+                retransmittedBytes += length;
+                return;
+            }
+            if(behind > 0) {
+                retransmittedBytes += behind;
+                sequence += behind;
+                offset += behind;
+                length -= behind;
+            }
+
+            if(sequence == nextSequence) {
+                deliver(buffer, offset, length);
+                drain();
+                return;
+            }
+
+            // The segment came early: keep a copy until the bytes before it arrive
+            int chunk = Math.min(length, SegmentPool.SEGMENT_SIZE);
+            SegmentPool.Segment segment = null;
+            if(bufferedBytes + chunk <= reassembler.getMaxBufferedBytes()) {
+                segment = reassembler.getPool().acquire();
+            }
+            if(segment == null) {
+                // Out of memory for this stream: stop waiting for the missing bytes and try again
+                skipTo(sequence);
+                continue;
+            }
+
+            buffer.get(offset, segment.data, 0, chunk);
+            segment.sequence = sequence;
+            segment.length = chunk;
+            insert(segment);
+
+            sequence += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Adds a segment to the buffered segments, keeping them in sequence order. Segments usually arrive in order after a
+     * hole, so the tail is checked first.
+     *
+     * @param segment The segment to add.
+     */
+    private void insert(SegmentPool.Segment segment) {
+        outOfOrderSegments++;
+        bufferedBytes += segment.length;
+
+        if(head == null) {
+            head = segment;
+            tail = segment;
+        } else if(segment.sequence - tail.sequence >= 0) {
+            tail.next = segment;
+            tail = segment;
+        } else if(segment.sequence - head.sequence < 0) {
+            segment.next = head;
+            head = segment;
+        } else {
+            SegmentPool.Segment before = head;
+            while(before.next.sequence - segment.sequence <= 0) {
+                before = before.next;
+            }
+            segment.next = before.next;
+            before.next = segment;
+        }
+    }
+
+    /**
+     * Delivers the buffered segments that now continue the stream.
+     */
+    private void drain() {
+        while(head != null && head.sequence - nextSequence <= 0) {
+            SegmentPool.Segment segment = head;
+            head = segment.next;
+            if(head == null) {
+                tail = null;
+            }
+            bufferedBytes -= segment.length;
+
+            int behind = nextSequence - segment.sequence;
+            if(behind < segment.length) {
+                retransmittedBytes += behind;
+                deliver(segment.view, behind, segment.length - behind);
+            } else {
+                retransmittedBytes += segment.length;
+            }
+            reassembler.getPool().release(segment);
+        }
+    }
+
+    /**
+     * Gives up on the bytes missing before a sequence number or the first buffered segment, whichever comes first,
+     * and delivers what can be delivered after them.
+     *
+     * @param sequence The sequence number to skip to.
+     */
+    private void skipTo(int sequence) {
+        if(head != null && head.sequence - sequence < 0) {
+            sequence = head.sequence;
+        }
+
+        int missing = sequence - nextSequence;
+        if(missing > 0) {
+            gapBytes += missing;
+            nextSequence = sequence;
+            reassembler.getListener().gap(this, missing);
+        }
+        drain();
+    }
+
+    /**
+     * Sends bytes that continue the stream to the listener.
+     *
+     * @param buffer The buffer holding the bytes.
+     * @param offset The index in buffer where the bytes start.
+     * @param length The number of bytes.
+     */
+    private void deliver(ByteBuffer buffer, int offset, int length) {
+        nextSequence += length;
+        deliveredBytes += length;
+        reassembler.getListener().data(this, buffer, offset, length);
+    }
+
+    /**
+     * Delivers everything still buffered, skipping the bytes that never arrived, and releases the buffers.
+     */
+    void flush() {
+        while(head != null) {
+            skipTo(head.sequence);
+        }
+    }
+
+    /**
+     * Getter method for the other direction of the connection.
+     *
+     * @return The stream going the other way.
+     */
+    public TCPStream getReverse() {
+        return reverse;
+    }
+
+    /**
+     * Checks whether this stream was sent by the side that opened the connection. If the capture doesn't hold the
+     * handshake, the side seen first is taken to be the client.
+     *
+     * @return True if this is the client-to-server stream.
+     */
+    public boolean isClient() {
+        return client;
+    }
+
+    /**
+     * Getter method for the sender's address.
+     *
+     * @return The address the stream's bytes are sent from.
+     */
+    public int getSourceAddress() {
+        return sourceAddress;
+    }
+
+    /**
+     * Getter method for the receiver's address.
+     *
+     * @return The address the stream's bytes are sent to.
+     */
+    public int getDestinationAddress() {
+        return destinationAddress;
+    }
+
+    /**
+     * Getter method for the sender's port.
+     *
+     * @return The port the stream's bytes are sent from.
+     */
+    public int getSourcePort() {
+        return sourcePort;
+    }
+
+    /**
+     * Getter method for the receiver's port.
+     *
+     * @return The port the stream's bytes are sent to.
+     */
+    public int getDestinationPort() {
+        return destinationPort;
+    }
+
+    /**
+     * Checks whether the stream has ended, either because every byte up to its FIN was delivered or because the
+     * connection was closed.
+     *
+     * @return True if the stream has ended.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Marks the stream as ended.
+     */
+    void close() {
+        closed = true;
+    }
+
+    /**
+     * Getter method for the number of bytes delivered.
+     *
+     * @return The number of bytes passed to StreamListener.data().
+     */
+    public long getDeliveredBytes() {
+        return deliveredBytes;
+    }
+
+    /**
+     * Getter method for the number of bytes skipped.
+     *
+     * @return The number of bytes passed to StreamListener.gap().
+     */
+    public long getGapBytes() {
+        return gapBytes;
+    }
+
+    /**
+     * Getter method for the number of bytes received more than once.
+     *
+     * @return The number of retransmitted or overlapping bytes that were dropped.
+     */
+    public long getRetransmittedBytes() {
+        return retransmittedBytes;
+    }
+
+    /**
+     * Getter method for the number of segments that arrived early.
+     *
+     * @return The number of segments that had to be buffered.
+     */
+    public long getOutOfOrderSegments() {
+        return outOfOrderSegments;
+    }
+
+    /**
+     * Getter method for the number of bytes waiting for earlier bytes.
+     *
+     * @return The number of bytes buffered.
+     */
+    public int getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * Getter method for when the stream was last sent a segment.
+     *
+     * @return The arrival time of the stream's latest segment, in nanoseconds.
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    /**
+     * Getter method for the listener's own state for this stream.
+     *
+     * @return Whatever was last given to setAttachment(), or null.
+     */
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * Setter method for the listener's own state for this stream, such as a parser that consumes it.
+     *
+     * @param attachment The state to keep with the stream.
+     */
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+}
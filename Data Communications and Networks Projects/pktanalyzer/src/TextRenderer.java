@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The TextRenderer class collects the text output of headers in a reusable byte buffer. Numbers, hex and addresses are
+ * written straight into the buffer from lookup tables, so rendering a packet doesn't build any intermediate Strings.
+ * All output is ASCII, one byte per character.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class TextRenderer implements Appendable {
+
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final byte[] HEX_PAIRS = new byte[512];     // Two lowercase hex digits for every byte value.
+
+    static {
+        for(int i = 0; i < 256; i++) {
+            HEX_PAIRS[2 * i] = (byte) Utility.HEX_DIGITS[i >>> 4];
+            HEX_PAIRS[2 * i + 1] = (byte) Utility.HEX_DIGITS[i & 0x0f];
+        }
+    }
+
+    private byte[] bytes;
+    private int count;
+
+    /**
+     * Constructor for TextRenderer.
+     */
+    public TextRenderer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor for TextRenderer with a given starting capacity.
+     *
+     * @param capacity The number of bytes the buffer starts with. It grows as needed.
+     */
+    public TextRenderer(int capacity) {
+        this.bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Makes room for a number of bytes at the end of the buffer.
+     *
+     * @param extra The number of bytes about to be written.
+     */
+    private void ensure(int extra) {
+        if(count + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+        }
+    }
+
+    /**
+     * Appends a character. Characters outside of ASCII are not supported.
+     *
+     * @param c The character to append.
+     * @return This renderer.
+     */
+    @Override
+    public TextRenderer append(char c) {
+        ensure(1);
+        bytes[count++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Appends a sequence of characters.
+     *
+     * @param text The characters to append.
+     * @return This renderer.
+     */
+    @Override
+    public TextRenderer append(CharSequence text) {
+        return append(text, 0, text.length());
+    }
+
+    /**
+     * Appends part of a sequence of characters.
+     *
+     * @param text The characters to append.
+     * @param start The index of the first character to append.
+     * @param end The index after the last character to append.
+     * @return This renderer.
+     */
+    @Override
+    public TextRenderer append(CharSequence text, int start, int end) {
+        ensure(end - start);
+        for(int i = start; i < end; i++) {
+            bytes[count++] = (byte) text.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a character a number of times.
+     *
+     * @param c The character to append.
+     * @param times The number of times to append it.
+     * @return This renderer.
+     */
+    public TextRenderer repeat(char c, int times) {
+        if(times > 0) {
+            ensure(times);
+            Arrays.fill(bytes, count, count + times, (byte) c);
+            count += times;
+        }
+        return this;
+    }
+
+    /**
+     * Appends a line break.
+     *
+     * @return This renderer.
+     */
+    public TextRenderer newline() {
+        return append('\n');
+    }
+
+    /**
+     * Appends a number in decimal, like "%d" would.
+     *
+     * @param value The number to append.
+     * @return This renderer.
+     */
+    public TextRenderer decimal(long value) {
+        if(value == Long.MIN_VALUE) {
+            return append(Long.toString(value));    // Can't be negated
+        }
+        if(value < 0) {
+            append('-');
+            value = -value;
+        }
+        return decimal(value, 1);
+    }
+
+    /**
+     * Appends a non-negative number in decimal, padded with zeros to a width, like "%0<width>d" would.
+     *
+     * @param value The number to append. Must not be negative.
+     * @param width The minimum number of digits.
+     * @return This renderer.
+     */
+    public TextRenderer decimal(long value, int width) {
+        int digits = 1;
+        for(long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, width);
+
+        ensure(digits);
+        for(int i = count + digits - 1; i >= count; i--) {
+            bytes[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        count += digits;
+        return this;
+    }
+
+    /**
+     * Appends the low bits of a number in lowercase hex without a prefix, like "%0<digits>x" would for numbers that
+     * fit.
+     *
+     * @param value The number to append.
+     * @param digits The number of hex digits to append.
+     * @return This renderer.
+     */
+    public TextRenderer hex(long value, int digits) {
+        ensure(digits);
+        for(int i = count + digits - 1; i >= count; i--) {
+            bytes[i] = (byte) Utility.HEX_DIGITS[(int) (value & 0x0f)];
+            value >>>= 4;
+        }
+        count += digits;
+        return this;
+    }
+
+    /**
+     * Appends a byte as two lowercase hex digits.
+     *
+     * @param data The byte to append.
+     * @return This renderer.
+     */
+    public TextRenderer hexByte(int data) {
+        ensure(2);
+        int pair = 2 * (data & 0xff);
+        bytes[count++] = HEX_PAIRS[pair];
+        bytes[count++] = HEX_PAIRS[pair + 1];
+        return this;
+    }
+
+    /**
+     * Appends a 32-bit address as a decimal IP address.
+     *
+     * @param address The address, most significant byte first.
+     * @return This renderer.
+     */
+    public TextRenderer ipAddress(int address) {
+        return decimal(Utility.bits(address, 24, 8)).append('.').decimal(Utility.bits(address, 16, 8)).append('.')
+                .decimal(Utility.bits(address, 8, 8)).append('.').decimal(Utility.bits(address, 0, 8));
+    }
+
+    /**
+     * Appends a 48-bit MAC address as colon-delimited hex.
+     *
+     * @param address The address, in the low 48 bits.
+     * @return This renderer.
+     */
+    public TextRenderer macAddress(long address) {
+        for(int shift = 40; shift > 0; shift -= 8) {
+            hexByte((int) (address >>> shift)).append(':');
+        }
+        return hexByte((int) address);
+    }
+
+    /**
+     * Appends a 128-bit address as an IPv6 address, in the shortest form of RFC 5952: lowercase hex groups without
+     * leading zeros, and the longest run of two or more zero groups written as "::".
+     *
+     * @param buffer The buffer holding the address. Must be big endian.
+     * @param index The index of the address's first byte.
+     * @return This renderer.
+     */
+    public TextRenderer ipv6Address(ByteBuffer buffer, int index) {
+        // Find the longest run of zero groups; the first one wins a tie
+        int runStart = -1;
+        int runLength = 1;
+        for(int group = 0, start = 0; group < 8; group++) {
+            if(Utility.readU16(buffer, index + 2 * group) != 0) {
+                start = group + 1;
+            } else if(group - start + 1 > runLength) {
+                runStart = start;
+                runLength = group - start + 1;
+            }
+        }
+
+        for(int group = 0; group < 8; group++) {
+            if(group == runStart) {
+                append("::");
+                group += runLength - 1;
+                continue;
+            }
+            if(group > 0 && group != runStart + runLength) {
+                append(':');
+            }
+            int value = Utility.readU16(buffer, index + 2 * group);
+            hex(value, (value > 0xfff) ? 4 : (value > 0xff) ? 3 : (value > 0xf) ? 2 : 1);
+        }
+        return this;
+    }
+
+    /**
+     * Getter method for the number of bytes rendered.
+     *
+     * @return The number of bytes in the buffer.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Throws away everything after a given size, for example to take back a half-rendered packet.
+     *
+     * @param size The number of bytes to keep.
+     */
+    public void truncate(int size) {
+        count = Math.min(count, Math.max(size, 0));
+    }
+
+    /**
+     * Empties the buffer so it can be reused. The buffer keeps its capacity.
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * Writes everything rendered so far to a stream, then empties the buffer.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream can't be written to.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Moves everything rendered so far to the end of another renderer, then empties this one.
+     *
+     * @param out The renderer to append to.
+     */
+    public void writeTo(TextRenderer out) {
+        out.ensure(count);
+        System.arraycopy(bytes, 0, out.bytes, out.count, count);
+        out.count += count;
+        count = 0;
+    }
+
+    /**
+     * Gets everything rendered so far as a String.
+     *
+     * @return The rendered text.
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, count, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The TopTalkerAnalysis class finds the source and destination addresses, ports and conversations of a capture with the
+ * most packets and the most bytes. Each of them is counted in a HeavyHitters, so memory stays the same however many
+ * hosts the capture holds, at the cost of counts that may be a little too high; the error bound is printed with them.
+ *
+ * Addresses and conversations are counted for every IPv4 frame, and ports for every TCP or UDP one. A conversation is
+ * the pair of addresses, either way round. Workers count their chunks into their own sketches, which are merged.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class TopTalkerAnalysis extends Analysis {
+
+    private static final int SOURCE_ADDRESS = 0;        // What is counted, by HeavyHitters index / 2.
+    private static final int DESTINATION_ADDRESS = 1;
+    private static final int SOURCE_PORT = 2;
+    private static final int DESTINATION_PORT = 3;
+    private static final int CONVERSATION = 4;
+    private static final String[] TITLES = {"Source Addresses", "Destination Addresses", "Source Ports",
+            "Destination Ports", "Conversations"};
+
+    private final HeavyHitters[] counts = new HeavyHitters[2 * TITLES.length];  // By packets, then by bytes.
+    private final double failure;
+    private final Report report = new Report();
+
+    private long frames;
+    private long ipFrames;
+    private long malformedFrames;
+
+    /**
+     * Constructor for TopTalkerAnalysis.
+     *
+     * @param top The number of top entries to keep of each kind.
+     * @param error The most a count may be too high by, as a fraction of the total, such as 0.001.
+     * @param failure The largest chance of a count being off by more than that, such as 0.001.
+     */
+    public TopTalkerAnalysis(int top, double error, double failure) {
+        this.failure = failure;
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = new HeavyHitters(top, CountMinSketch.forError(error, failure));
+        }
+    }
+
+    /**
+     * Constructor for a worker, with empty counts of the same size as another TopTalkerAnalysis.
+     *
+     * @param other The analysis to copy the sizes of.
+     */
+    private TopTalkerAnalysis(TopTalkerAnalysis other) {
+        this.failure = other.failure;
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = other.counts[i].copySize();
+        }
+    }
+
+    /**
+     * Counts one frame towards its addresses, ports and conversation.
+     *
+     * @param frame The frame.
+     * @param packet A packet to decode the frame with.
+     * @param out The renderer to write output to. Nothing is written until the end.
+     */
+    @Override
+    public void accept(Frame frame, Packet packet, TextRenderer out) {
+        frames++;
+
+        try {
+            if(!packet.wrap(frame)) {
+                return;
+            }
+            IPHeader ip = packet.getIPHeader();
+            if(ip == null) {
+                return;
+            }
+            ipFrames++;
+
+            long length = frame.getOriginalLength();
+            long source = ip.getSourceAddress() & 0xffffffffL;
+            long destination = ip.getDestinationAddress() & 0xffffffffL;
+            add(SOURCE_ADDRESS, source, length);
+            add(DESTINATION_ADDRESS, destination, length);
+            add(CONVERSATION, (Math.min(source, destination) << 32) | Math.max(source, destination), length);
+
+            TCPHeader tcp;
+            UDPHeader udp;
+            long protocol = (long) ip.getProtocol() << 16;
+            if((tcp = ip.getTCPHeader()) != null) {
+                add(SOURCE_PORT, protocol | tcp.getSourcePort(), length);
+                add(DESTINATION_PORT, protocol | tcp.getDestinationPort(), length);
+            } else if((udp = ip.getUDPHeader()) != null) {
+                add(SOURCE_PORT, protocol | udp.getSourcePort(), length);
+                add(DESTINATION_PORT, protocol | udp.getDestinationPort(), length);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            malformedFrames++;
+        }
+    }
+
+    /**
+     * Counts a packet towards a key, by packets and by bytes.
+     *
+     * @param kind What the key is, such as SOURCE_ADDRESS.
+     * @param key The key.
+     * @param length The length of the packet, in bytes.
+     */
+    private void add(int kind, long key, long length) {
+        counts[2 * kind].add(key, 1);
+        counts[2 * kind + 1].add(key, length);
+    }
+
+    /**
+     * Prints the top entries of each kind, by packets and by bytes, followed by totals.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void finish(TextRenderer out) {
+        long memory = 0;
+        for(int i = 0; i < counts.length; i++) {
+            memory += counts[i].getMemory();
+            report.render(out, TITLES[i / 2], i % 2 == 1, i / 2, counts[i]);
+        }
+
+        CountMinSketch sketch = counts[0].getSketch();
+        report.beginHeader(out, "Top Talker Summary");
+        report.line(out).append("Frames           = ").decimal(frames).newline();
+        report.line(out).append("IP frames        = ").decimal(ipFrames).newline();
+        report.line(out).append("Malformed frames = ").decimal(malformedFrames).newline();
+        report.line(out).append("Sketch size      = ").decimal(sketch.getDepth()).append(" x ").decimal(sketch.getWidth())
+                .append(" counters, ").decimal(memory >> 10).append(" KB in total").newline();
+        report.line(out).append("Failure chance   = ").append(String.valueOf(failure))
+                .append(" (of any count being more than its bound too high)").newline();
+        report.endHeader(out);
+    }
+
+    /**
+     * Sketches can be added together, so counting can be split across workers.
+     *
+     * @return True.
+     */
+    @Override
+    public boolean canFork() {
+        return true;
+    }
+
+    /**
+     * Makes a counter for a worker.
+     *
+     * @return A new TopTalkerAnalysis with empty counts of the same size.
+     */
+    @Override
+    public Analysis fork() {
+        return new TopTalkerAnalysis(this);
+    }
+
+    /**
+     * Adds a worker's counts to this analysis.
+     *
+     * @param worker A worker created by fork().
+     */
+    @Override
+    public void merge(Analysis worker) {
+        TopTalkerAnalysis other = (TopTalkerAnalysis) worker;
+        for(int i = 0; i < counts.length; i++) {
+            counts[i].merge(other.counts[i]);
+        }
+        frames += other.frames;
+        ipFrames += other.ipFrames;
+        malformedFrames += other.malformedFrames;
+    }
+
+    /**
+     * Saves the frame counts and every HeavyHitters.
+     *
+     * @param out The stream to write the state to.
+     * @throws IOException If the state can't be written.
+     */
+    @Override
+    public void save(DataOutputStream out) throws IOException {
+        out.writeLong(frames);
+        out.writeLong(ipFrames);
+        out.writeLong(malformedFrames);
+        for(HeavyHitters count : counts) {
+            count.save(out);
+        }
+    }
+
+    /**
+     * Restores the frame counts and every HeavyHitters.
+     *
+     * @param in The stream to read the state from.
+     * @throws IOException If the state can't be read.
+     */
+    @Override
+    public void restore(DataInputStream in) throws IOException {
+        frames = in.readLong();
+        ipFrames = in.readLong();
+        malformedFrames = in.readLong();
+        for(HeavyHitters count : counts) {
+            count.restore(in);
+        }
+    }
+
+    /**
+     * The Report class prints the top entries of one HeavyHitters, one per line.
+     */
+    private static class Report extends Header {
+
+        /**
+         * Constructor for Report.
+         */
+        private Report() {
+            super("TOP");
+        }
+
+        /**
+         * Prints a section of top entries.
+         *
+         * @param out The renderer to write to.
+         * @param title What the entries are, such as "Source Addresses".
+         * @param byBytes True if the entries are counted in bytes, false if in packets.
+         * @param kind What the keys are, such as SOURCE_ADDRESS.
+         * @param counts The counts.
+         */
+        private void render(TextRenderer out, String title, boolean byBytes, int kind, HeavyHitters counts) {
+            beginHeader(out, "Top " + title + " by " + (byBytes ? "Bytes" : "Packets"));
+            long[] keys = counts.getTopKeys();
+            for(int rank = 0; rank < keys.length; rank++) {
+                line(out).decimal(rank + 1).append(". ");
+                key(out, kind, keys[rank]);
+                out.append(byBytes ? " bytes=" : " packets=").decimal(counts.estimate(keys[rank])).newline();
+            }
+            line(out).append("Total = ").decimal(counts.getSketch().getTotal())
+                    .append(", counts are at most ").decimal(counts.getSketch().getErrorBound()).append(" too high")
+                    .newline();
+            endHeader(out);
+        }
+
+        /**
+         * Appends a key: an address, a protocol and port, or a pair of addresses.
+         *
+         * @param out The renderer to write to.
+         * @param kind What the key is, such as SOURCE_ADDRESS.
+         * @param key The key.
+         */
+        private static void key(TextRenderer out, int kind, long key) {
+            switch (kind) {
+                case SOURCE_PORT:
+                case DESTINATION_PORT:
+                    int protocol = (int) Utility.bits(key, 16, 8);
+                    String name = Utility.getProtocolName(protocol);
+                    if(name != null) {
+                        out.append(name);
+                    } else {
+                        out.decimal(protocol);
+                    }
+                    out.append(' ').decimal((int) Utility.bits(key, 0, 16));
+                    break;
+                case CONVERSATION:
+                    out.ipAddress((int) (key >>> 32)).append(" <-> ").ipAddress((int) key);
+                    break;
+                default:
+                    out.ipAddress((int) key);
+            }
+        }
+
+        /**
+         * Sections are printed with the other render method.
+         *
+         * @param out The renderer to write to.
+         */
+        @Override
+        public void render(TextRenderer out) {
+        }
+    }
+}
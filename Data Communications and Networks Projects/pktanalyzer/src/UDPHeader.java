@@ -1,4 +1,4 @@
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * The UDPHeader class represents the UDP section of a packet, assuming the packet uses UDP protocol.
@@ -15,12 +15,20 @@ public class UDPHeader extends Header {
 
     private static final int MIN_PKT_LENGTH = 8;                        // Minimum length of packet.
 
-    private int sourcePort;
-    private int destinationPort;
-    private int length;
-    private byte[] checksum;
+    private Data data = null;                   // Set the first time it is asked for
+    private boolean dataDecoded;
+    private final Data dataView = new Data();   // Reused from packet to packet
+    private IPHeader ipHeader = null;           // The datagram this is the payload of, if any
+    private Header application = null;          // Set the first time it is asked for
+    private boolean applicationDecoded;
+    private final DissectorRegistry.Headers applicationHeaders = new DissectorRegistry.Headers(Dissector.PORT, this);
 
-    private Data data = null;
+    /**
+     * Constructor for an UDPHeader that isn't pointing at a packet yet. Use wrap() to give it one.
+     */
+    public UDPHeader() {
+        super("UDP");
+    }
 
     /**
      * The constructor for UDPHeader. It extracts information from a packet.
@@ -28,34 +36,148 @@ public class UDPHeader extends Header {
      * @param raw The raw packet in a byte array.
      */
     public UDPHeader(byte[] raw) {
-        super("UDP");
+        this();
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
+    }
+
+    /**
+     * Checks that the slice this header is pointing at can hold a UDP header, and forgets the previous data.
+     */
+    @Override
+    protected void decode() {
+        require(DATA);
+
+        this.data = null;
+        this.dataDecoded = false;
+        this.application = null;
+        this.applicationDecoded = false;
+    }
+
+    /**
+     * Getter method for source port.
+     *
+     * @return The source port.
+     */
+    public int getSourcePort() {
+        return Utility.readU16(buffer, offset + SOURCE_PORT);
+    }
+
+    /**
+     * Getter method for destination port.
+     *
+     * @return The destination port.
+     */
+    public int getDestinationPort() {
+        return Utility.readU16(buffer, offset + DESTINATION_PORT);
+    }
 
-        // Extract UDP header information.
-        this.sourcePort = Utility.byteToInt(Arrays.copyOfRange(raw, SOURCE_PORT, DESTINATION_PORT));
-        this.destinationPort = Utility.byteToInt(Arrays.copyOfRange(raw, DESTINATION_PORT, LENGTH));
-        this.length = Utility.byteToInt(Arrays.copyOfRange(raw, LENGTH, CHECKSUM));
-        this.checksum = Arrays.copyOfRange(raw, CHECKSUM, DATA);
+    /**
+     * Getter method for the length field.
+     *
+     * @return The length of the header and data according to the header, in bytes.
+     */
+    public int getDatagramLength() {
+        return Utility.readU16(buffer, offset + LENGTH);
+    }
 
-        if(raw.length > MIN_PKT_LENGTH) {
-            this.data = new Data(Arrays.copyOfRange(raw, DATA, raw.length));
+    /**
+     * Getter method for checksum.
+     *
+     * @return The checksum.
+     */
+    public int getChecksum() {
+        return Utility.readU16(buffer, offset + CHECKSUM);
+    }
+
+    /**
+     * Checks the checksum, which covers the datagram and the IP pseudo-header.
+     *
+     * @return Whether the checksum is correct, UNUSED if the sender left it out, or UNVERIFIED if the datagram wasn't
+     * all captured or isn't in an IP datagram.
+     */
+    public Checksum.Status getChecksumStatus() {
+        if(getChecksum() == 0) {
+            return Checksum.Status.UNUSED;
+        }
+        if(ipHeader == null) {
+            return Checksum.Status.UNVERIFIED;
         }
+        return Checksum.verify(buffer, offset, ipHeader.getPayloadLength(), ipHeader.getPseudoHeaderSum(), length);
     }
 
     /**
-     * Creates a String representation of this UDPHeader. Includes source port, destination port, length, checksum, and
-     * its data.
+     * Tells this header which IP header it is the payload of, so it can check its checksum.
      *
-     * @return A String representation of this UDPHeader.
+     * @param ipHeader The IP header.
+     */
+    void setIPHeader(IPHeader ipHeader) {
+        this.ipHeader = ipHeader;
+    }
+
+    /**
+     * Getter method for data. It is decoded the first time it is asked for.
+     *
+     * @return The datagram's data, or null if the datagram has none.
+     */
+    public Data getData() {
+        if(!dataDecoded) {
+            if(length > MIN_PKT_LENGTH) {
+                dataView.wrap(buffer, offset + DATA, length - DATA);
+                this.data = dataView;
+            }
+            dataDecoded = true;
+        }
+        return data;
+    }
+
+    /**
+     * Getter method for the header of the application protocol in the data, found through DissectorRegistry by the
+     * lower port first, then the other. It is decoded the first time it is asked for.
+     *
+     * @return The application header, or null if the datagram has no data or no dissector decodes either port.
+     */
+    public Header getApplicationHeader() {
+        if(!applicationDecoded) {
+            Data payload = getData();
+            if(payload != null) {
+                int low = Math.min(getSourcePort(), getDestinationPort());
+                int high = Math.max(getSourcePort(), getDestinationPort());
+                application = applicationHeaders.get(low);
+                if(application == null) {
+                    application = applicationHeaders.get(high);
+                }
+                if(application != null) {
+                    application.wrap(payload.getBuffer(), payload.getOffset(), payload.getLength());
+                }
+            }
+            applicationDecoded = true;
+        }
+        return application;
+    }
+
+    /**
+     * Renders this UDPHeader. Includes source port, destination port, length, checksum, and its data.
+     *
+     * @param out The renderer to write to.
      */
     @Override
-    public String toString() {
-        return buildHeader("UDP Header",
-                String.format("Source port      = %d", sourcePort),
-                String.format("Destination port = %d", destinationPort),
-                String.format("Length           = %d bytes", length),
-                String.format("Checksum         = %s", Utility.byteToHexString(checksum, Utility.HexStringType.NORMAL))) +
-
-                // Now, get the data
-                ((data == null) ? "" : data.toString());
+    public void render(TextRenderer out) {
+        Data payload = getData();
+
+        beginHeader(out, "UDP Header");
+        line(out).append("Source port      = ").decimal(getSourcePort()).newline();
+        line(out).append("Destination port = ").decimal(getDestinationPort()).newline();
+        line(out).append("Length           = ").decimal(getDatagramLength()).append(" bytes").newline();
+        line(out).append("Checksum         = 0x").hex(getChecksum(), 4)
+                .append(" (").append(getChecksumStatus().getLabel()).append(')').newline();
+        endHeader(out);
+
+        // Now, get the data, decoded by its application protocol if there is a dissector for it
+        Header decoded = getApplicationHeader();
+        if(decoded != null) {
+            decoded.render(out);
+        } else if(payload != null) {
+            payload.render(out);
+        }
     }
 }
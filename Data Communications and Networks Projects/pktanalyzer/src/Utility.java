@@ -1,4 +1,4 @@
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * The Utility class provides static functions for various formatting and bitwise tasks.
@@ -9,6 +9,8 @@ public class Utility {
 
     public static final int BYTE_LENGTH = 8;
 
+    static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();     // Lookup table for printing hex
+
     /**
      * Turns a byte array into an int.
      * Assumes big endian and 4 byte int size.
@@ -32,7 +34,139 @@ public class Utility {
      * @return An int created from the byte.
      */
     public static int byteToInt(byte data) {
-        return byteToInt(new byte[]{data});
+        return data & 0xff;
+    }
+
+    /**
+     * Reads an unsigned byte.
+     *
+     * @param buffer The buffer to read from.
+     * @param index The index of the byte.
+     * @return The byte, from 0 to 255.
+     */
+    public static int readU8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xff;
+    }
+
+    /**
+     * Reads an unsigned big endian 16-bit number.
+     *
+     * @param buffer The buffer to read from. Must be big endian.
+     * @param index The index of the first byte.
+     * @return The number, from 0 to 65535.
+     */
+    public static int readU16(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xffff;
+    }
+
+    /**
+     * Reads an unsigned big endian 32-bit number.
+     *
+     * @param buffer The buffer to read from. Must be big endian.
+     * @param index The index of the first byte.
+     * @return The number, from 0 to 2^32 - 1.
+     */
+    public static long readU32(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xffffffffL;
+    }
+
+    /**
+     * Reads an unsigned big endian 48-bit number, such as a MAC address.
+     *
+     * @param buffer The buffer to read from. Must be big endian.
+     * @param index The index of the first byte.
+     * @return The number, in the low 48 bits.
+     */
+    public static long readU48(ByteBuffer buffer, int index) {
+        return ((long) readU16(buffer, index) << 32) | readU32(buffer, index + 2);
+    }
+
+    /**
+     * Reads an unsigned byte.
+     *
+     * @param bytes The array to read from.
+     * @param index The index of the byte.
+     * @return The byte, from 0 to 255.
+     */
+    public static int readU8(byte[] bytes, int index) {
+        return bytes[index] & 0xff;
+    }
+
+    /**
+     * Reads an unsigned big endian 16-bit number.
+     *
+     * @param bytes The array to read from.
+     * @param index The index of the first byte.
+     * @return The number, from 0 to 65535.
+     */
+    public static int readU16(byte[] bytes, int index) {
+        return ((bytes[index] & 0xff) << 8) | (bytes[index + 1] & 0xff);
+    }
+
+    /**
+     * Reads an unsigned big endian 32-bit number.
+     *
+     * @param bytes The array to read from.
+     * @param index The index of the first byte.
+     * @return The number, from 0 to 2^32 - 1.
+     */
+    public static long readU32(byte[] bytes, int index) {
+        return ((long) readU16(bytes, index) << 16) | readU16(bytes, index + 2);
+    }
+
+    /**
+     * Gets the high four bits of a byte.
+     *
+     * @param data The byte, from 0 to 255.
+     * @return The high nibble, from 0 to 15.
+     */
+    public static int highNibble(int data) {
+        return (data >>> 4) & 0x0f;
+    }
+
+    /**
+     * Gets the low four bits of a byte.
+     *
+     * @param data The byte, from 0 to 255.
+     * @return The low nibble, from 0 to 15.
+     */
+    public static int lowNibble(int data) {
+        return data & 0x0f;
+    }
+
+    /**
+     * Gets a single bit of a number.
+     *
+     * @param data The number.
+     * @param position The position of the bit, counting from 0 at the least significant bit.
+     * @return The bit, 0 or 1.
+     */
+    public static int bit(int data, int position) {
+        return (data >>> position) & 1;
+    }
+
+    /**
+     * Gets a range of bits of a number.
+     *
+     * @param data The number.
+     * @param position The position of the lowest bit of the range, counting from 0 at the least significant bit.
+     * @param count The number of bits in the range (at most 31).
+     * @return The bits, shifted down to start at bit 0.
+     */
+    public static int bits(int data, int position, int count) {
+        return (data >>> position) & ((1 << count) - 1);
+    }
+
+    /**
+     * Gets a range of bits of a long number.
+     *
+     * @param data The number.
+     * @param position The position of the lowest bit of the range, counting from 0 at the least significant bit.
+     * @param count The number of bits in the range (at most 63).
+     * @return The bits, shifted down to start at bit 0.
+     */
+    public static long bits(long data, int position, int count) {
+        return (data >>> position) & ((1L << count) - 1);
     }
 
     /**
@@ -63,35 +197,28 @@ public class Utility {
      * @return String representation of the given hex.
      */
     public static String byteToHexString(byte[] bytes, HexStringType type) {
-        String output = "";
-        switch (type) {
-            case COLON:
-                if(bytes.length > 0) {
-                    output += String.format("%02x", bytes[0]);
-
-                    for(int i = 1; i < bytes.length; i++) {
-                        output += String.format(":%02x", bytes[i]);
-                    }
-                }
-                break;
-
-            case NO_PREFIX:
-                for(byte data : bytes) {
-                    output += String.format("%02x", data);
-                }
-                break;
-
-            default:    // Assume HexStringType NORMAL
-                if(bytes.length > 0) {
-                    output = "0x";
-
-                    for(byte data : bytes) {
-                        output += String.format("%02x", data);
-                    }
-                }
+        if(bytes.length == 0) {
+            return "";
         }
 
-        return output;
+        // Every byte takes two digits, plus a colon between bytes or a "0x" in front
+        int digits = 2 * bytes.length;
+        char[] output = new char[(type == HexStringType.COLON) ? digits + bytes.length - 1
+                : (type == HexStringType.NO_PREFIX) ? digits : digits + 2];
+        int pos = 0;
+        if(type != HexStringType.COLON && type != HexStringType.NO_PREFIX) {    // Assume HexStringType NORMAL
+            output[pos++] = '0';
+            output[pos++] = 'x';
+        }
+        for(int i = 0; i < bytes.length; i++) {
+            if(type == HexStringType.COLON && i > 0) {
+                output[pos++] = ':';
+            }
+            output[pos++] = HEX_DIGITS[(bytes[i] >>> 4) & 0x0f];
+            output[pos++] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+
+        return new String(output);
     }
 
     /**
@@ -113,6 +240,27 @@ public class Utility {
         return output;
     }
 
+    /**
+     * Turns a 32-bit address into a decimal IP address.
+     *
+     * @param address The address, most significant byte first.
+     * @return Decimal IP address representation of the given address.
+     */
+    public static String intToIPAddress(int address) {
+        return bits(address, 24, 8) + "." + bits(address, 16, 8) + "." + bits(address, 8, 8) + "." + bits(address, 0, 8);
+    }
+
+    /**
+     * Turns a 48-bit MAC address into colon-delimited hex (ab:cd:ef:01:23:45).
+     *
+     * @param address The address, most significant byte first, in the low 48 bits.
+     * @return Colon-delimited hex representation of the given address.
+     */
+    public static String longToMacAddress(long address) {
+        return String.format("%02x:%02x:%02x:%02x:%02x:%02x", bits(address, 40, 8), bits(address, 32, 8),
+                bits(address, 24, 8), bits(address, 16, 8), bits(address, 8, 8), bits(address, 0, 8));
+    }
+
     /**
      * Overloaded byteToHexString function to accept a single byte.
      *
@@ -121,12 +269,10 @@ public class Utility {
      * @return String representation of the given hex.
      */
     public static String byteToHexString(byte data, HexStringType type) {
-        return byteToHexString(new byte[]{data}, type);
+        String pair = new String(new char[]{HEX_DIGITS[(data >>> 4) & 0x0f], HEX_DIGITS[data & 0x0f]});
+        return (type == HexStringType.NORMAL) ? "0x" + pair : pair;
     }
 
-    private static final byte[] IP = new byte[]{(byte) 0x08, (byte) 0x00};      // The hex value for IP ethertype
-    private static final byte[] ARP = new byte[]{(byte) 0x08, (byte) 0x06};     // The hex value for ARP ethertype
-
     /**
      * Figures out the name of the given ethertype
      *
@@ -134,24 +280,45 @@ public class Utility {
      * @return The name of the ethertype.
      */
     public static String getEtherType(byte[] ethertype) {
-        if(Arrays.equals(ethertype, IP)) {
-            return "IP";
-        } else if(Arrays.equals(ethertype, ARP)) {
-            return "ARP";
-        } else if(byteToInt(ethertype) <= 1500) {
+        return getEtherType(byteToInt(ethertype));
+    }
+
+    /**
+     * Overloads getEtherType to accept the ethertype as a number.
+     *
+     * @param ethertype The ethertype to analyze.
+     * @return The name of the ethertype.
+     */
+    public static String getEtherType(int ethertype) {
+        String name = DissectorRegistry.getName(Dissector.ETHERTYPE, ethertype & 0xffff);
+        if(name != null) {
+            return name;
+        } else if(ethertype <= 1500) {
             return "Length Field";
         } else {
             return "Unknown Type";
         }
     }
 
+    /**
+     * Figures out the name of the given IP protocol.
+     *
+     * @param protocol The IP protocol number.
+     * @return The name of the protocol, or null if it isn't one pktanalyzer decodes.
+     */
+    public static String getProtocolName(int protocol) {
+        return DissectorRegistry.getName(Dissector.PROTOCOL, protocol & 0xff);
+    }
+
     /**
      * Splits a byte into a byte array of two bytes.
      *
      * @param data The byte to split.
      * @param split The number of bits in the first piece.
      * @return A byte array containing the split byte.
+     * @deprecated Allocates an array on every call. Use {@link #bits(int, int, int)} or the nibble getters instead.
      */
+    @Deprecated
     public static byte[] splitByte(byte data, int split) {
         byte piece1 = (byte) ((data & 0xff) >>> (BYTE_LENGTH - split));
         byte piece2 = (byte) (( ( (byte)((data & 0xff) << split) ) & 0xff) >>> split);
@@ -164,7 +331,9 @@ public class Utility {
      *
      * @param data The byte to split.
      * @return A byte array containing the split byte.
+     * @deprecated Allocates an array on every call. Use {@link #highNibble(int)} and {@link #lowNibble(int)} instead.
      */
+    @Deprecated
     public static byte[] splitByte(byte data) {
         return splitByte(data, BYTE_LENGTH/2);
     }
@@ -174,7 +343,9 @@ public class Utility {
      *
      * @param bytes The byte array to break up.
      * @return A byte array of singular bits (i.e. 0000000x).
+     * @deprecated Allocates an array on every call. Use {@link #bit(int, int)} instead.
      */
+    @Deprecated
     public static byte[] toBits(byte[] bytes) {
         byte[] bits = new byte[bytes.length * BYTE_LENGTH];
 
@@ -191,7 +362,9 @@ public class Utility {
      *
      * @param data The byte to break up.
      * @return A byte array of singular bits (i.e. 0000000x).
+     * @deprecated Allocates an array on every call. Use {@link #bit(int, int)} instead.
      */
+    @Deprecated
     public static byte[] toBits(byte data) {
         return toBits(new byte[]{data});
     }
@@ -202,7 +375,10 @@ public class Utility {
      * @param a The first byte array.
      * @param b The second byte array.
      * @return The combined byte array.
+     * @deprecated Allocates an array on every call. Read the combined value with {@link #readU16(ByteBuffer, int)} or
+     * {@link #readU32(ByteBuffer, int)} instead.
      */
+    @Deprecated
     public static byte[] combine(byte[] a, byte[] b) {
         byte[] ab = new byte[a.length + b.length];
 
@@ -225,7 +401,10 @@ public class Utility {
      * @param a The first byte.
      * @param b The byte array.
      * @return The combined byte array.
+     * @deprecated Allocates an array on every call. Read the combined value with {@link #readU16(ByteBuffer, int)} or
+     * {@link #readU32(ByteBuffer, int)} instead.
      */
+    @Deprecated
     public static byte[] combine(byte a, byte[] b) {
         return combine(new byte[]{a}, b);
     }
@@ -236,11 +415,25 @@ public class Utility {
      * @param a The first byte.
      * @param b The second byte.
      * @return The combined byte array.
+     * @deprecated Allocates an array on every call. Read the combined value with {@link #readU16(ByteBuffer, int)} or
+     * {@link #readU32(ByteBuffer, int)} instead.
      */
+    @Deprecated
     public static byte[] combine(byte a, byte b) {
         return combine(new byte[]{a}, new byte[]{b});
     }
 
+    /**
+     * A list of tracked ethertypes.
+     */
+    public static class EtherTypes {
+        public static final int IP = 0x0800;
+        public static final int ARP = 0x0806;
+        public static final int VLAN = 0x8100;
+        public static final int QINQ = 0x88a8;
+        public static final int IPV6 = 0x86dd;
+    }
+
     /**
      * A list of tracked packet types.
      */
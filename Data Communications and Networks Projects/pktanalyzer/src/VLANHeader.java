@@ -0,0 +1,122 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The VLANHeader class represents an 802.1Q VLAN tag, assuming the packet's ethertype is 802.1Q (or 802.1ad, for the
+ * outer tag of a double-tagged frame). The tag is followed by the ethertype of what it carries, which is decoded
+ * through DissectorRegistry like the payload of an ether header.
+ *
+ * @author Steven Yu (sky3947)
+ */
+public class VLANHeader extends Header {
+
+    private static final int TAG_CONTROL = 0;       // Byte location where priority, DEI and VLAN ID start.
+    private static final int ETHERTYPE = 2;         // Byte location where the ethertype of the payload starts.
+    private static final int PAYLOAD = 4;           // Byte location where the payload starts.
+
+    private Header payload = null;                  // Set the first time it is asked for
+    private boolean payloadDecoded;
+    private final DissectorRegistry.Headers payloadHeaders = new DissectorRegistry.Headers(Dissector.ETHERTYPE, this);
+
+    /**
+     * Constructor for a VLANHeader that isn't pointing at a packet yet. Use wrap() to give it one.
+     */
+    public VLANHeader() {
+        super("VLAN");
+    }
+
+    /**
+     * Constructor for VLANHeader. It extracts information from a packet.
+     *
+     * @param raw The raw packet in a byte array.
+     */
+    public VLANHeader(byte[] raw) {
+        this();
+        wrap(ByteBuffer.wrap(raw), 0, raw.length);
+    }
+
+    /**
+     * Checks that the slice this header is pointing at can hold a VLAN tag, and forgets the previous payload.
+     */
+    @Override
+    protected void decode() {
+        require(PAYLOAD);
+
+        this.payload = null;
+        this.payloadDecoded = false;
+    }
+
+    /**
+     * Getter method for priority.
+     *
+     * @return The priority code point, from 0 to 7.
+     */
+    public int getPriority() {
+        return Utility.bits(Utility.readU16(buffer, offset + TAG_CONTROL), 13, 3);
+    }
+
+    /**
+     * Getter method for the drop eligible indicator.
+     *
+     * @return The DEI bit, 0 or 1.
+     */
+    public int getDropEligible() {
+        return Utility.bit(Utility.readU16(buffer, offset + TAG_CONTROL), 12);
+    }
+
+    /**
+     * Getter method for VLAN ID.
+     *
+     * @return The VLAN ID, from 0 to 4095.
+     */
+    public int getVlanId() {
+        return Utility.bits(Utility.readU16(buffer, offset + TAG_CONTROL), 0, 12);
+    }
+
+    /**
+     * Getter method for ethertype.
+     *
+     * @return The ethertype of the payload.
+     */
+    public int getEthertype() {
+        return Utility.readU16(buffer, offset + ETHERTYPE);
+    }
+
+    /**
+     * Getter method for the payload's header. It is decoded the first time it is asked for.
+     *
+     * @return The header of the payload, or null if no dissector decodes its ethertype.
+     */
+    public Header getPayload() {
+        if(!payloadDecoded) {
+            payload = payloadHeaders.get(getEthertype());
+            if(payload != null) {
+                payload.wrap(buffer, offset + PAYLOAD, length - PAYLOAD);
+            }
+            payloadDecoded = true;
+        }
+        return payload;
+    }
+
+    /**
+     * Renders this VLANHeader. Includes priority, DEI, VLAN ID, ethertype, and its payload.
+     *
+     * @param out The renderer to write to.
+     */
+    @Override
+    public void render(TextRenderer out) {
+        int ethertype = getEthertype();
+        Header inner = getPayload();
+
+        beginHeader(out, "VLAN Header");
+        line(out).append("Priority  = ").decimal(getPriority()).newline();
+        line(out).append("DEI       = ").decimal(getDropEligible()).newline();
+        line(out).append("VLAN ID   = ").decimal(getVlanId()).newline();
+        line(out).append("Ethertype = ").hex(ethertype, 4).append(" (").append(Utility.getEtherType(ethertype)).append(')').newline();
+        endHeader(out);
+
+        // Now, get the payload
+        if(inner != null) {
+            inner.render(out);
+        }
+    }
+}
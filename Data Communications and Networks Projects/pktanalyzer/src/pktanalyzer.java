@@ -1,41 +1,258 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 /**
  * The pktanalyzer program extracts and displays different headers of captured packets in a given file. First, it
  * displays the ethernet header fields of the captured frames. Second, if the ethernet frame contains an IP datagram, it
  * prints the IP header. Third, it prints the packets encapsulated in the IP datagram (TCP, UDP, or ICMP packets).
  *
+ * The file can either hold a single raw ethernet frame, or be a pcap/pcapng capture holding any number of frames,
+ * optionally gzip-compressed. Given several files, or directories or glob patterns of them, it analyzes them as a
+ * batch, several at a time.
+ *
  * @author Steven Yu (sky3947)
  */
 public class pktanalyzer {
 
+    private static final int OUTPUT_BUFFER = 1 << 16;   // Bytes of output buffered before writing to stdout.
+    private static final String INDEX_SUFFIX = ".idx";  // Added to a capture's name to name its index.
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";    // Added to a capture's name to name its checkpoint.
+
     public static void main(String[] args) {
-        // Check if correct number of arguments were supplied
-        if(args.length == 0) {
-            printUsage("No was packet supplied.");
-        } else if(args.length > 1) {
-            printUsage("More than one argument was be given.");
-        } else {
-            // Check if file path and file are valid
-            String currentDirectory = System.getProperty("user.dir");
-            String filePath = currentDirectory.replace("\\", "/")+"/"+args[0];
-
-            try {
+        // Check if correct arguments were supplied
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            printUsage(e.getMessage());
+            return;
+        }
+
+        // Check if file path and file are valid
+        String currentDirectory = System.getProperty("user.dir");
+        Path filePath = Paths.get(currentDirectory).resolve(options.getFile());
+
+        if(options.getFiles().size() > 1 || BatchAnalyzer.isPattern(options.getFile()) || Files.isDirectory(filePath)) {
+            batch(Paths.get(currentDirectory), options);
+            return;
+        }
+
+        try {
+            if(CaptureReader.isCapture(filePath)) {
+                Path indexPath = Paths.get(filePath + INDEX_SUFFIX);
+                if(options.getMode() == Options.Mode.INDEX) {
+                    IndexBuilder builder = new IndexBuilder(filePath, indexPath);
+                    builder.build();
+                    System.out.print(builder);
+                    return;
+                }
+                if(options.isFollow()) {
+                    follow(filePath, options);
+                    return;
+                }
+
+                CaptureIndex index = null;
+                if(options.needsIndex() || (options.getFilter() != null && Files.exists(indexPath)
+                        && !Decompressor.isCompressed(filePath))) {
+                    try {
+                        index = new CaptureIndex(indexPath, filePath);
+                    } catch (NoSuchFileException | CaptureReader.CaptureFormatException e) {
+                        if(options.needsIndex() && e instanceof NoSuchFileException) {
+                            printUsage("No index of \""+options.getFile()+"\" was found; build one with --index.");
+                            return;
+                        } else if(options.needsIndex()) {
+                            printUsage("Can't use the index of \""+options.getFile()+"\": "+e.getMessage()
+                                    +" Rebuild it with --index.");
+                            return;
+                        }
+                        // Without the index, the filter is tested on every frame as usual
+                    }
+                }
+                CaptureIndex.Postings selection = (index == null) ? null : options.selectFrames(index);
+                if(selection == null && index != null) {
+                    index.close();      // The filter can't use it
+                }
+
+                Analysis analysis;
+                try {
+                    analysis = options.createAnalysis();
+                } catch (IOException e) {
+                    printUsage("Couldn't create \""+options.getExportFile()+"\": "+e.getMessage());
+                    return;
+                }
+                OutputStream out = new FileOutputStream(FileDescriptor.out);
+
+                if(selection != null) {
+                    try {
+                        analyzeFrames(filePath, index, selection, analysis, out);
+                    } finally {
+                        index.close();
+                    }
+                } else if(options.isPipeline() && analysis.canFork()) {
+                    new PipelineAnalyzer(options.getThreads(), options.getRingSize(), options.getRingBatch(),
+                            options.getRingWait()).analyze(filePath, analysis, out);
+                } else if(options.getThreads() > 1 && analysis.canFork()) {
+                    new ParallelAnalyzer(options.getThreads()).analyze(filePath, analysis, out);
+                } else {
+                    if(options.isPipeline() || options.getThreads() > 1) {
+                        String option = options.isPipeline() ? "--pipeline" : "-j";
+                        System.err.println("Ignoring " + option + ": this analysis has to see every frame in order, "
+                                + "so it runs on one thread.");
+                    }
+                    analyzeCapture(filePath, analysis, out);
+                }
+            } else {
                 // Using NIO to read bytes to an array
-                byte[] data = Files.readAllBytes(Paths.get(filePath));
+                byte[] data = Files.readAllBytes(filePath);
+                Filter filter = options.getFilter();
+                if(filter != null && !filter.matches(ByteBuffer.wrap(data), 0, data.length)) {
+                    return;
+                }
                 Packet packet = new Packet(data);
 
                 // Print out the packet's contents
                 System.out.println(packet.toString());
-            } catch (NoSuchFileException e) {
-                printUsage("No such file \""+args[0]+"\" was found.");
-            } catch (IOException e) {
-                // Shouldn't be reachable
-                printUsage("Oops- some uncaught error occurred!");
             }
+        } catch (NoSuchFileException e) {
+            printUsage("No such file \""+options.getFile()+"\" was found.");
+        } catch (CaptureFollower.CheckpointException e) {
+            printUsage("Can't resume from the checkpoint of \""+options.getFile()+"\": "+e.getMessage()
+                    +" Delete it to start over.");
+        } catch (CaptureReader.CaptureFormatException e) {
+            printUsage("Malformed capture \""+options.getFile()+"\": "+e.getMessage());
+        } catch (UncheckedIOException e) {
+            // Only an export writes to a file of its own; anything else failed reading the capture or printing
+            if(options.getExportFile() != null) {
+                printUsage("Couldn't write \""+options.getExportFile()+"\": "+e.getCause().getMessage());
+            } else {
+                printUsage("Couldn't read or write \""+options.getFile()+"\": "+e.getCause().getMessage());
+            }
+        } catch (IOException e) {
+            // Shouldn't be reachable
+            printUsage("Oops- some uncaught error occurred!");
+        }
+    }
+
+    /**
+     * Runs the analysis over every file of a batch, several at a time, and prints a summary of them all. Exits with
+     * status 1 if any file couldn't be analyzed.
+     *
+     * @param directory The directory the files are relative to.
+     * @param options The command line options.
+     */
+    private static void batch(Path directory, Options options) {
+        try {
+            options.checkBatch();
+        } catch (IllegalArgumentException e) {
+            printUsage(e.getMessage());
+            return;
+        }
+
+        try {
+            List<Path> files = BatchAnalyzer.expand(directory, options.getFiles());
+            if(files.isEmpty()) {
+                printUsage("No captures were found in \""+String.join("\", \"", options.getFiles())+"\".");
+                return;
+            }
+            BatchAnalyzer analyzer = new BatchAnalyzer(options.getBatchThreads(), options.getBatchMemory(),
+                    options.getFormat().equals("text"), options.getFilter());
+            analyzer.analyze(files, directory, options::createAnalysis, new FileOutputStream(FileDescriptor.out));
+            if(analyzer.getFailed() > 0) {
+                System.exit(1);
+            }
+        } catch (NoSuchFileException e) {
+            printUsage("No such file \""+e.getFile()+"\" was found.");
+        } catch (IOException e) {
+            printUsage("Couldn't read or write the batch: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the analysis over a capture that is still being written, resuming from its checkpoint if there is one.
+     *
+     * @param filePath The path to the capture.
+     * @param options The command line options.
+     * @throws IOException If the capture or checkpoint can't be read, or the checkpoint can't be written.
+     */
+    private static void follow(Path filePath, Options options) throws IOException {
+        Path checkpointPath = (options.getCheckpointFile() == null) ? Paths.get(filePath + CHECKPOINT_SUFFIX)
+                : Paths.get(System.getProperty("user.dir")).resolve(options.getCheckpointFile());
+        Analysis analysis = options.createAnalysis();
+        new CaptureFollower(filePath, checkpointPath, options.getArguments())
+                .follow(analysis, new FileOutputStream(FileDescriptor.out));
+    }
+
+    /**
+     * Runs an analysis over every frame of a pcap or pcapng capture.
+     *
+     * @param filePath The path to the capture.
+     * @param analysis The analysis to run.
+     * @param out The stream to write the analysis' output to.
+     * @throws IOException If the capture can't be read.
+     */
+    public static void analyzeCapture(Path filePath, Analysis analysis, OutputStream out) throws IOException {
+        TextRenderer text = new TextRenderer(2 * OUTPUT_BUFFER);
+        Frame frame = new Frame();
+        Packet packet = new Packet();     // Reused for every frame
+
+        try (CaptureReader reader = new CaptureReader(filePath)) {
+            analysis.start(text);
+            while(reader.next(frame)) {
+                analysis.accept(frame, packet, text);
+
+                if(text.size() >= OUTPUT_BUFFER) {
+                    text.writeTo(out);
+                }
+            }
+            analysis.finish(text);
+        } finally {
+            text.writeTo(out);
+            out.flush();
+        }
+    }
+
+    /**
+     * Runs an analysis over some of the frames of a capture, found through its index, without reading the others.
+     *
+     * @param filePath The path to the capture.
+     * @param index The capture's index.
+     * @param frames The numbers of the frames to analyze.
+     * @param analysis The analysis to run.
+     * @param out The stream to write the analysis' output to.
+     * @throws IOException If the capture can't be read.
+     */
+    public static void analyzeFrames(Path filePath, CaptureIndex index, CaptureIndex.Postings frames,
+                                     Analysis analysis, OutputStream out) throws IOException {
+        TextRenderer text = new TextRenderer(2 * OUTPUT_BUFFER);
+        Frame frame = new Frame();
+        Packet packet = new Packet();     // Reused for every frame
+
+        try (CaptureReader reader = new CaptureReader(filePath)) {
+            analysis.start(text);
+            for(long number = frames.next(); number > 0 && number <= index.getFrameCount(); number = frames.next()) {
+                reader.seek(index.getSectionStart(number), index.getPosition(number), number);
+                if(!reader.next(frame)) {
+                    break;
+                }
+                analysis.accept(frame, packet, text);
+
+                if(text.size() >= OUTPUT_BUFFER) {
+                    text.writeTo(out);
+                }
+            }
+            analysis.finish(text);
+        } finally {
+            text.writeTo(out);
+            out.flush();
         }
     }
 
@@ -47,7 +264,43 @@ public class pktanalyzer {
     public static void printUsage(String msg) {
         System.out.println("Error: "+msg+"\n");
 
-        System.out.println("Usage: java pktanalyzer <datafile>");
-        System.out.println("       <datafile> : The path to the packet to analyze");
+        System.out.println("Usage: java pktanalyzer [options] <datafile> [<datafile> ...]");
+        System.out.println("       <datafile>             : The path to the packet or pcap/pcapng capture to analyze, which may be gzipped;");
+        System.out.println("                                several files, directories or glob patterns such as \"logs/**.pcap\" make a batch");
+        System.out.println("       -j <threads>           : Decode a capture with this many threads (default 1), or analyze this many");
+        System.out.println("                                files of a batch at once (default the number of processors)");
+        System.out.println("       --pipeline             : Read, decode on -j threads, and write on threads of their own, through a ring buffer");
+        System.out.println("       --ring <slots>         : Frames the pipeline's reader may be ahead of its writer (default 4096)");
+        System.out.println("       --ring-batch <n>       : Frames a pipeline stage handles between handing them on (default 64)");
+        System.out.println("       --ring-wait <strategy> : How pipeline stages wait for each other: spin, yield, or sleep (default)");
+        System.out.println("       --batch-memory <MB>    : Files of a batch in flight at once, by size, plus their buffered output (default 64)");
+        System.out.println("       -f <expression>        : Only analyze frames that pass a filter, such as \"tcp port 80 and host 10.0.0.1\"");
+        System.out.println("       --sample <n>           : Only analyze one frame in n, starting with the first");
+        System.out.println("       --sample-rate <p>      : Only analyze each frame with probability p");
+        System.out.println("       --sample-flows <p>     : Only analyze the frames of each flow with probability p, all or none of them");
+        System.out.println("       --reservoir <n>        : Only analyze n frames picked at random from the whole capture");
+        System.out.println("       --sample-seed <n>      : Seed of the random sampling options (default 1)");
+        System.out.println("       --flows                : Print a summary of each TCP/UDP/ICMP flow instead of packets");
+        System.out.println("       --flow-timeout <secs>  : Close a flow or connection once it has been idle this long (default 60)");
+        System.out.println("       --max-flows <n>        : Flows to keep at once before printing the oldest (default 1048576)");
+        System.out.println("       --streams              : Reassemble TCP connections and print a summary of each direction");
+        System.out.println("       --top-talkers          : Print the addresses, ports and conversations with the most packets and bytes");
+        System.out.println("       --top <n>              : Top talkers to print of each kind (default 10)");
+        System.out.println("       --top-error <e>        : Most a top talker count may be too high by, of the total (default 0.001)");
+        System.out.println("       --top-failure <p>      : Chance of a count being off by more than that (default 0.001)");
+        System.out.println("       --stream-memory <MB>   : Out-of-order TCP data to buffer in total (default 64)");
+        System.out.println("       --stream-buffer <KB>   : Out-of-order TCP data to buffer per stream (default 1024)");
+        System.out.println("       --fragment-memory <MB> : IP fragments to buffer while waiting for the rest of a datagram (default 16)");
+        System.out.println("       --search <pattern>     : Print the packets whose payload holds a pattern, such as \"GET |2f|\"; repeatable");
+        System.out.println("       --search-file <file>   : Search for each line of a file as a pattern");
+        System.out.println("       --follow               : Keep reading frames as they are appended to the capture, until interrupted");
+        System.out.println("       --checkpoint <file>    : Where --follow saves its progress to resume from (default <datafile>.ckpt)");
+        System.out.println("       --stats <secs>         : Print throughput to stderr this often (0 for never) and stage timings at the end");
+        System.out.println("       --format <format>      : Print packets as text (default), json (one object per line), or csv");
+        System.out.println("       --fields <a>,<b>,...   : Fields to print with json or csv, such as \"ip.src,tcp.dport\"; see readme.txt");
+        System.out.println("       --export <file>        : Write the decoded header fields of every frame to a columnar file instead");
+        System.out.println("       --index                : Write an index of the capture to <datafile>.idx, for the options below");
+        System.out.println("       --frames <n>[-<m>]     : Only analyze frames n to m, read through the index");
+        System.out.println("       --flow <a:p>,<b:q>     : Only analyze the TCP/UDP frames between two endpoints, read through the index");
     }
 }
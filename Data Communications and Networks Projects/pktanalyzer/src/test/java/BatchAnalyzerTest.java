@@ -0,0 +1,195 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for BatchAnalyzer: every file that fails is counted and listed in the summary, whether it is missing,
+ * malformed, or its analysis throws an exception or an Error, the output it buffered is dropped, and the other files
+ * of the batch are still analyzed and written whole.
+ *
+ * @author Steven Yu (sky3947)
+ */
+@Timeout(60)
+class BatchAnalyzerTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Prints a line for every frame, and the number of frames at the end. Can be made to throw partway through.
+     */
+    private static final class FrameCounter extends Analysis {
+
+        private final int failAt;           // The frame to fail on, or 0.
+        private final Throwable failure;    // What to throw there.
+        private final int width;            // Characters printed per frame.
+        private long frames;
+
+        /**
+         * Constructor for FrameCounter.
+         *
+         * @param failAt The number of the frame to throw on, or 0 to never throw.
+         * @param failure What to throw; an Error or a RuntimeException.
+         * @param width The number of characters to print for each frame.
+         */
+        private FrameCounter(int failAt, Throwable failure, int width) {
+            this.failAt = failAt;
+            this.failure = failure;
+            this.width = width;
+        }
+
+        @Override
+        public void accept(Frame frame, Packet packet, TextRenderer out) {
+            if(frame.getNumber() == failAt) {
+                if(failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            frames++;
+            out.append("frame ").decimal(frame.getNumber()).append(" ".repeat(width)).newline();
+        }
+
+        @Override
+        public void finish(TextRenderer out) {
+            out.append("frames=").decimal(frames).newline();
+        }
+    }
+
+    /**
+     * Writes a synthetic capture.
+     *
+     * @param name The name of the file, in the test's directory.
+     * @param frames At least how many frames to write.
+     * @return The path to the capture.
+     * @throws IOException If the capture can't be written.
+     */
+    private Path capture(String name, int frames) throws IOException {
+        Path path = directory.resolve(name);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            PcapGenerator generator = new PcapGenerator(out, 3947, 20, 50, 1.0, 1_000_000);
+            generator.writeHeader();
+            while(generator.getFrames() < frames) {
+                generator.next();
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Writes a capture whose first record claims to be 2 GB long.
+     *
+     * @param name The name of the file, in the test's directory.
+     * @return The path to the capture.
+     * @throws IOException If the capture can't be written.
+     */
+    private Path malformed(String name) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(24 + 16 + 64).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(0, 0xa1b2c3d4).putShort(4, (short) 2).putShort(6, (short) 4).putInt(16, 65535).putInt(20, 1);
+        bytes.putInt(32, 0x7ffffff8).putInt(36, 0x7ffffff8);
+        return Files.write(directory.resolve(name), bytes.array());
+    }
+
+    /**
+     * Runs a batch, with each file's output under a banner and the summary at the end.
+     *
+     * @param analyzer The analyzer.
+     * @param files The files.
+     * @param analyses Makes the analysis of the n-th file started, counting from 1.
+     * @return The output.
+     * @throws IOException If the output can't be written.
+     */
+    private String run(BatchAnalyzer analyzer, List<Path> files, IntFunction<Analysis> analyses) throws IOException {
+        AtomicInteger created = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzer.analyze(files, directory, () -> analyses.apply(created.incrementAndGet()), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void countsMissingAndMalformedFiles() throws IOException {
+        List<Path> files = List.of(capture("a.pcap", 100), malformed("bad.pcap"), directory.resolve("gone.pcap"),
+                capture("b.pcap", 200));
+        BatchAnalyzer analyzer = new BatchAnalyzer(2, 64, true, null);
+        String output = run(analyzer, files, n -> new FrameCounter(0, null, 0));
+
+        assertEquals(2, analyzer.getFailed());
+        assertTrue(output.contains("===== a.pcap =====\n"));
+        assertTrue(output.contains("===== b.pcap =====\n"));
+        assertFalse(output.contains("===== bad.pcap"));
+        assertTrue(output.contains("BATCH: \tFiles            = 4\n"));
+        assertTrue(output.contains("BATCH: \tFailed           = 2\n"));
+        assertTrue(output.contains("BATCH: \t  bad.pcap: malformed capture: Bad record length at offset 24.\n"));
+        assertTrue(output.contains("BATCH: \t  gone.pcap: no such file\n"));
+    }
+
+    @Test
+    void dropsTheBufferedOutputOfFilesThatThrow() throws IOException {
+        List<Path> files = List.of(capture("a.pcap", 100), capture("b.pcap", 100), capture("c.pcap", 100),
+                capture("d.pcap", 100));
+
+        // One file at a time, so the second file's analysis runs out of memory and the third's has a bug
+        BatchAnalyzer analyzer = new BatchAnalyzer(1, 64, true, null);
+        String output = run(analyzer, files, n -> (n == 2) ? new FrameCounter(50, new OutOfMemoryError("heap"), 0)
+                : (n == 3) ? new FrameCounter(70, new IllegalStateException("bug"), 0)
+                : new FrameCounter(0, null, 0));
+
+        assertEquals(2, analyzer.getFailed());
+        assertFalse(output.contains("===== b.pcap"));
+        assertFalse(output.contains("===== c.pcap"));
+        String a = output.substring(output.indexOf("===== a.pcap =====\n"), output.indexOf("===== d.pcap =====\n"));
+        assertTrue(a.startsWith("===== a.pcap =====\nframe 1\n"));
+        assertTrue(a.endsWith("frames=" + (a.split("\n").length - 2) + "\n"));
+        assertTrue(output.contains("BATCH: \tFiles            = 4\n"));
+        assertTrue(output.contains("BATCH: \tFailed           = 2\n"));
+        assertTrue(output.contains("BATCH: \t  b.pcap: java.lang.OutOfMemoryError: heap\n"));
+        assertTrue(output.contains("BATCH: \t  c.pcap: java.lang.IllegalStateException: bug\n"));
+    }
+
+    @Test
+    void marksStreamedOutputOfAFileThatFails() throws IOException {
+        List<Path> files = List.of(capture("big.pcap", 3000), capture("after.pcap", 100));
+
+        // A kilobyte of output per frame outgrows a budget of 1 MB, so it is written out before the file fails
+        BatchAnalyzer analyzer = new BatchAnalyzer(1, 1, true, null);
+        String output = run(analyzer, files, n -> (n == 1) ? new FrameCounter(2500, new OutOfMemoryError(), 1000)
+                : new FrameCounter(0, null, 0));
+
+        assertEquals(1, analyzer.getFailed());
+        int start = output.indexOf("===== big.pcap =====\n");
+        int end = output.indexOf("===== big.pcap failed; its output is incomplete =====\n");
+        assertTrue(start == 0 && end > start, "the streamed output comes first, with its end marked");
+        assertFalse(output.substring(start, end).contains("frame 2500 "));
+        assertFalse(output.contains("frames=" + 2499));
+        assertTrue(output.indexOf("===== after.pcap =====\n") > end);
+        assertTrue(output.contains("BATCH: \tFiles            = 2\n"));
+        assertTrue(output.contains("BATCH: \t  big.pcap: java.lang.OutOfMemoryError\n"));
+    }
+
+    @Test
+    void countsNothingWhenEveryFileSucceeds() throws IOException {
+        List<Path> files = List.of(capture("a.pcap", 50), capture("b.pcap", 50), capture("c.pcap", 50));
+        BatchAnalyzer analyzer = new BatchAnalyzer(3, 1, true, null);
+        String output = run(analyzer, files, n -> new FrameCounter(0, null, 0));
+
+        assertEquals(0, analyzer.getFailed());
+        assertTrue(output.contains("BATCH: \tFiles            = 3\n"));
+        assertTrue(output.contains("BATCH: \tFailed           = 0\n"));
+    }
+}
@@ -0,0 +1,318 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for CaptureFollower and the save() and restore() of analyses: a record that is only partly written is read
+ * once the rest of it arrives, a run resumed from a checkpoint reads only the frames after it and ends with the same
+ * results as one run over the whole capture, and checkpoints of other captures or options, or damaged ones, aren't
+ * resumed from.
+ *
+ * @author Steven Yu (sky3947)
+ */
+@Timeout(60)
+class CaptureFollowerTest {
+
+    @TempDir
+    Path directory;
+
+    private byte[] bytes;               // The whole capture.
+    private final List<Integer> records = new ArrayList<>();   // Where each record starts in it, and where it ends.
+
+    /**
+     * Counts the frames an analysis is given, and notes the number of the first one.
+     */
+    private static final class Counted extends Analysis {
+
+        private final Analysis analysis;
+        private final AtomicLong frames = new AtomicLong();
+        private volatile long first;
+
+        /**
+         * Constructor for Counted.
+         *
+         * @param analysis The analysis to count the frames of.
+         */
+        private Counted(Analysis analysis) {
+            this.analysis = analysis;
+        }
+
+        @Override
+        public void start(TextRenderer out) {
+            analysis.start(out);
+        }
+
+        @Override
+        public void accept(Frame frame, Packet packet, TextRenderer out) {
+            if(first == 0) {
+                first = frame.getNumber();
+            }
+            analysis.accept(frame, packet, out);
+            frames.incrementAndGet();
+        }
+
+        @Override
+        public void finish(TextRenderer out) {
+            analysis.finish(out);
+        }
+
+        @Override
+        public void save(DataOutputStream out) throws IOException {
+            analysis.save(out);
+        }
+
+        @Override
+        public void restore(DataInputStream in) throws IOException {
+            analysis.restore(in);
+        }
+    }
+
+    /**
+     * Follows a capture on another thread.
+     */
+    private static final class Run {
+
+        private final CaptureFollower follower;
+        private final Counted analysis;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final Thread thread;
+        private volatile Throwable failure;
+
+        /**
+         * Starts following a capture.
+         *
+         * @param capture The capture.
+         * @param args The command line, which makes the analysis and has to match the checkpoint's.
+         * @throws IOException If the analysis can't be created.
+         */
+        private Run(Path capture, String... args) throws IOException {
+            Options options = Options.parse(args);
+            follower = new CaptureFollower(capture, checkpoint(capture), options.getArguments());
+            analysis = new Counted(options.createAnalysis());
+            thread = new Thread(() -> {
+                try {
+                    follower.follow(analysis, out);
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            });
+            thread.start();
+        }
+
+        /**
+         * Waits until the analysis has been given a number of frames.
+         *
+         * @param frames The number of frames.
+         * @throws InterruptedException If the test is interrupted.
+         */
+        private void await(long frames) throws InterruptedException {
+            while(analysis.frames.get() < frames && thread.isAlive()) {
+                Thread.sleep(10);
+            }
+            assertEquals(frames, analysis.frames.get(), "frames read");
+        }
+
+        /**
+         * Stops following and waits for the follower to finish.
+         *
+         * @return The output.
+         * @throws Exception If following failed.
+         */
+        private String stop() throws Exception {
+            follower.stop();
+            thread.join();
+            if(failure instanceof Exception) {
+                throw (Exception) failure;
+            } else if(failure != null) {
+                throw (Error) failure;
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Names the checkpoint of a capture.
+     *
+     * @param capture The capture.
+     * @return The path to its checkpoint.
+     */
+    private static Path checkpoint(Path capture) {
+        return capture.resolveSibling(capture.getFileName() + ".ckpt");
+    }
+
+    /**
+     * Makes up a synthetic capture, and finds where each record starts.
+     *
+     * @throws IOException If the capture can't be written or read.
+     */
+    private void generate() throws IOException {
+        Path path = directory.resolve("whole.pcap");
+        try (OutputStream out = Files.newOutputStream(path)) {
+            PcapGenerator generator = new PcapGenerator(out, 3947, 20, 50, 1.0, 1_000_000);
+            generator.writeHeader();
+            while(generator.getFrames() < 600) {
+                generator.next();
+            }
+        }
+        bytes = Files.readAllBytes(path);
+        Frame frame = new Frame();
+        try (CaptureReader reader = new CaptureReader(path)) {
+            while(reader.next(frame)) {
+                records.add((int) frame.getPosition());
+            }
+        }
+        records.add(bytes.length);
+    }
+
+    /**
+     * Appends part of the capture to a file.
+     *
+     * @param path The file.
+     * @param from Where the part starts in the capture.
+     * @param to Where the part ends.
+     * @throws IOException If the file can't be written.
+     */
+    private void append(Path path, int from, int to) throws IOException {
+        Files.write(path, Arrays.copyOfRange(bytes, from, to), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Runs an analysis over the whole capture at once.
+     *
+     * @param args The command line, which makes the analysis.
+     * @return The output.
+     * @throws IOException If the capture can't be read.
+     */
+    private String whole(String... args) throws IOException {
+        Path path = directory.resolve("whole.pcap");
+        Analysis analysis = Options.parse(args).createAnalysis();
+        TextRenderer text = new TextRenderer(1 << 16);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Frame frame = new Frame();
+        Packet packet = new Packet();
+        try (CaptureReader reader = new CaptureReader(path)) {
+            analysis.start(text);
+            while(reader.next(frame)) {
+                analysis.accept(frame, packet, text);
+                text.writeTo(out);
+            }
+            analysis.finish(text);
+            text.writeTo(out);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void resumesFromTheCheckpointWithTheSameResults() throws Exception {
+        generate();
+        Path capture = directory.resolve("a.pcap");
+        int frames = records.size() - 1;
+        for(String[] options : new String[][] {{"--top-talkers"}, {"--top-talkers", "-f", "tcp"},
+                {"--top-talkers", "--sample", "3"}, {"--flows"}}) {
+            Files.deleteIfExists(capture);
+            Files.deleteIfExists(checkpoint(capture));
+            String[] args = new String[options.length + 2];
+            System.arraycopy(options, 0, args, 0, options.length);
+            args[options.length] = "--follow";
+            args[options.length + 1] = capture.toString();
+            String what = String.join(" ", options);
+
+            // Up to halfway through frame 101; the rest of it arrives while following
+            append(capture, 0, records.get(100) + 20);
+            Run first = new Run(capture, args);
+            first.await(100);
+            append(capture, records.get(100) + 20, records.get(250));
+            first.await(250);
+            first.stop();
+            assertTrue(Files.exists(checkpoint(capture)), what);
+
+            append(capture, records.get(250), records.get(frames));
+            Run second = new Run(capture, args);
+            second.await(frames - 250);
+            assertEquals(251, second.analysis.first, what);
+            String output = second.stop();
+
+            // Flows evicted before the checkpoint were printed by the first run, so only the totals are the same
+            String expected = whole(args);
+            if(options[0].equals("--flows")) {
+                output = output.substring(output.lastIndexOf("Flow Summary"));
+                expected = expected.substring(expected.lastIndexOf("Flow Summary"));
+            }
+            assertEquals(expected, output, what);
+        }
+    }
+
+    @Test
+    void startsOverWithoutAMatchingCheckpoint() throws Exception {
+        generate();
+        Path capture = directory.resolve("a.pcap");
+        append(capture, 0, records.get(100));
+        Run run = new Run(capture, "--top-talkers", "--follow", capture.toString());
+        run.await(100);
+        run.stop();
+        byte[] saved = Files.readAllBytes(checkpoint(capture));
+
+        // Made with other options
+        run = new Run(capture, "--top-talkers", "--top", "5", "--follow", capture.toString());
+        run.await(100);
+        assertEquals(1, run.analysis.first);
+        run.stop();
+
+        // Of a capture whose first frame is different
+        Files.write(checkpoint(capture), saved);
+        byte[] changed = Files.readAllBytes(capture);
+        changed[24 + 16 + 6] ^= 1;      // The first frame's source MAC address
+        Files.write(capture, changed);
+        run = new Run(capture, "--top-talkers", "--follow", capture.toString());
+        run.await(100);
+        assertEquals(1, run.analysis.first);
+        run.stop();
+
+        // Of a longer capture than this one
+        Files.write(checkpoint(capture), saved);
+        Files.write(capture, Arrays.copyOf(bytes, records.get(50)));
+        run = new Run(capture, "--top-talkers", "--follow", capture.toString());
+        run.await(50);
+        assertEquals(1, run.analysis.first);
+        run.stop();
+    }
+
+    @Test
+    void refusesDamagedCheckpoints() throws Exception {
+        generate();
+        Path capture = directory.resolve("a.pcap");
+        append(capture, 0, records.get(100));
+        Run run = new Run(capture, "--flows", "--follow", capture.toString());
+        run.await(100);
+        run.stop();
+        byte[] saved = Files.readAllBytes(checkpoint(capture));
+        String arguments = Options.parse(new String[] {"--flows", "--follow", capture.toString()}).getArguments();
+
+        // Cut off in the analysis' state, or not a checkpoint at all
+        for(byte[] damaged : new byte[][] {Arrays.copyOf(saved, saved.length - 8), Arrays.copyOf(bytes, 200)}) {
+            Files.write(checkpoint(capture), damaged);
+            CaptureFollower follower = new CaptureFollower(capture, checkpoint(capture), arguments);
+            assertThrows(CaptureFollower.CheckpointException.class,
+                    () -> follower.follow(new FlowAnalysis(1000, 60_000_000_000L,
+                            new FragmentReassembler(1 << 20, 64, 30_000_000_000L)), new ByteArrayOutputStream()));
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for IndexBuilder and CaptureIndex: every frame's position and timestamp reads back whatever order frames are
+ * looked up in, seeking to a position reads that frame, the posting lists of addresses and flows hold exactly the
+ * frames they appear in, posting lists combine, and indexes of other files or of changed captures are refused.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class CaptureIndexTest {
+
+    private static final int FRAMES = 1000;     // Several blocks, the last one partly filled.
+
+    @TempDir
+    Path directory;
+
+    /**
+     * What the capture holds, read frame by frame without the index.
+     */
+    private static final class Expected {
+
+        private final List<Long> positions = new ArrayList<>();
+        private final List<Long> timestamps = new ArrayList<>();
+        private final Map<Integer, List<Long>> addresses = new HashMap<>();
+        private final Map<List<Integer>, List<Long>> flows = new HashMap<>();
+    }
+
+    /**
+     * Writes a synthetic capture and indexes it.
+     *
+     * @param name The name of the capture, in the test's directory.
+     * @return The path to the capture; the index is next to it, with ".idx" added.
+     * @throws IOException If the capture or the index can't be written.
+     */
+    private Path capture(String name) throws IOException {
+        Path path = directory.resolve(name);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            PcapGenerator generator = new PcapGenerator(out, 3947, 20, 50, 1.0, 1_000_000);
+            generator.writeHeader();
+            while(generator.getFrames() < FRAMES) {
+                generator.next();
+            }
+        }
+        new IndexBuilder(path, index(path)).build();
+        return path;
+    }
+
+    /**
+     * Names the index of a capture.
+     *
+     * @param capture The capture.
+     * @return The path to its index.
+     */
+    private static Path index(Path capture) {
+        return capture.resolveSibling(capture.getFileName() + ".idx");
+    }
+
+    /**
+     * Reads a capture in order, noting each frame's position, timestamp, addresses, and flow.
+     *
+     * @param capture The capture.
+     * @return What the index should hold.
+     * @throws IOException If the capture can't be read.
+     */
+    private static Expected read(Path capture) throws IOException {
+        Expected expected = new Expected();
+        Frame frame = new Frame();
+        Packet packet = new Packet();
+        try (CaptureReader reader = new CaptureReader(capture)) {
+            while(reader.next(frame)) {
+                expected.positions.add(frame.getPosition());
+                expected.timestamps.add(frame.getTimestamp());
+                packet.wrap(frame);
+                IPHeader ip = packet.getIPHeader();
+                if(ip == null) {
+                    continue;
+                }
+                long number = frame.getNumber();
+                for(int address : new int[] {ip.getSourceAddress(), ip.getDestinationAddress()}) {
+                    List<Long> frames = expected.addresses.computeIfAbsent(address, a -> new ArrayList<>());
+                    if(frames.isEmpty() || frames.get(frames.size() - 1) != number) {
+                        frames.add(number);
+                    }
+                }
+                TCPHeader tcp = ip.getTCPHeader();
+                UDPHeader udp = ip.getUDPHeader();
+                if(tcp != null) {
+                    expected.flows.computeIfAbsent(List.of(ip.getSourceAddress(), tcp.getSourcePort(),
+                            ip.getDestinationAddress(), tcp.getDestinationPort()), f -> new ArrayList<>()).add(number);
+                } else if(udp != null) {
+                    expected.flows.computeIfAbsent(List.of(ip.getSourceAddress(), udp.getSourcePort(),
+                            ip.getDestinationAddress(), udp.getDestinationPort()), f -> new ArrayList<>()).add(number);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Walks a set of frame numbers to its end.
+     *
+     * @param postings The frame numbers.
+     * @return The frame numbers, in order.
+     */
+    private static List<Long> list(CaptureIndex.Postings postings) {
+        List<Long> frames = new ArrayList<>();
+        for(long frame = postings.next(); frame >= 0; frame = postings.next()) {
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    @Test
+    void findsEveryFramesPositionAndTimestamp() throws IOException {
+        Path capture = capture("a.pcap");
+        Expected expected = read(capture);
+        try (CaptureIndex index = new CaptureIndex(index(capture), capture)) {
+            assertEquals(expected.positions.size(), index.getFrameCount());
+            assertTrue(index.getFrameCount() >= FRAMES);
+
+            // In order, which goes on from the frame before; backwards, which starts each frame from its block; and
+            // at random, which does a bit of both
+            for(int n = 1; n <= index.getFrameCount(); n++) {
+                assertEquals((long) expected.positions.get(n - 1), index.getPosition(n), "position of frame " + n);
+                assertEquals((long) expected.timestamps.get(n - 1), index.getTimestamp(n), "timestamp of frame " + n);
+            }
+            for(int n = (int) index.getFrameCount(); n >= 1; n--) {
+                assertEquals((long) expected.timestamps.get(n - 1), index.getTimestamp(n), "timestamp of frame " + n);
+                assertEquals((long) expected.positions.get(n - 1), index.getPosition(n), "position of frame " + n);
+            }
+            Random random = new Random(3947);
+            for(int i = 0; i < 2000; i++) {
+                int n = 1 + random.nextInt((int) index.getFrameCount());
+                assertEquals((long) expected.positions.get(n - 1), index.getPosition(n), "position of frame " + n);
+            }
+
+            assertEquals(0, index.getSectionStart(1));
+            assertThrows(IndexOutOfBoundsException.class, () -> index.getPosition(0));
+            assertThrows(IndexOutOfBoundsException.class, () -> index.getTimestamp(index.getFrameCount() + 1));
+        }
+    }
+
+    @Test
+    void seeksToTheFramesItFinds() throws IOException {
+        Path capture = capture("a.pcap");
+        Expected expected = read(capture);
+        Frame frame = new Frame();
+        try (CaptureIndex index = new CaptureIndex(index(capture), capture);
+             CaptureReader reader = new CaptureReader(capture)) {
+            for(long n : new long[] {index.getFrameCount(), 1, 129, 128, 500}) {
+                reader.seek(index.getSectionStart(n), index.getPosition(n), n);
+                assertTrue(reader.next(frame));
+                assertEquals(n, frame.getNumber());
+                assertEquals((long) expected.timestamps.get((int) n - 1), frame.getTimestamp());
+            }
+        }
+    }
+
+    @Test
+    void listsTheFramesOfEachAddressAndFlow() throws IOException {
+        Path capture = capture("a.pcap");
+        Expected expected = read(capture);
+        assertFalse(expected.addresses.isEmpty());
+        assertFalse(expected.flows.isEmpty());
+        try (CaptureIndex index = new CaptureIndex(index(capture), capture)) {
+            for(Map.Entry<Integer, List<Long>> entry : expected.addresses.entrySet()) {
+                assertEquals(entry.getValue(), list(index.getAddressFrames(entry.getKey())),
+                        "frames of " + Integer.toHexString(entry.getKey()));
+            }
+            assertEquals(List.of(), list(index.getAddressFrames(0x7f000001)));
+
+            // A flow's frames in both directions, looked up from either end
+            Map<List<Integer>, List<Long>> both = new HashMap<>();
+            for(Map.Entry<List<Integer>, List<Long>> entry : expected.flows.entrySet()) {
+                List<Integer> f = entry.getKey();
+                List<Integer> key = (Integer.toUnsignedLong(f.get(0)) << 16 | f.get(1))
+                        <= (Integer.toUnsignedLong(f.get(2)) << 16 | f.get(3)) ? f
+                        : List.of(f.get(2), f.get(3), f.get(0), f.get(1));
+                both.computeIfAbsent(key, k -> new ArrayList<>()).addAll(entry.getValue());
+            }
+            for(Map.Entry<List<Integer>, List<Long>> entry : both.entrySet()) {
+                List<Long> frames = entry.getValue();
+                frames.sort(null);
+                List<Integer> f = entry.getKey();
+                assertEquals(frames, list(index.getFlowFrames(f.get(0), f.get(1), f.get(2), f.get(3))));
+                assertEquals(frames, list(index.getFlowFrames(f.get(2), f.get(3), f.get(0), f.get(1))));
+            }
+            List<Integer> f = both.keySet().iterator().next();
+            assertEquals(List.of(), list(index.getFlowFrames(f.get(0), f.get(1) ^ 1, f.get(2), f.get(3))));
+        }
+    }
+
+    @Test
+    void combinesPostingLists() throws IOException {
+        Path capture = capture("a.pcap");
+        Expected expected = read(capture);
+        List<Integer> addresses = new ArrayList<>(expected.addresses.keySet());
+        int a = addresses.get(0);
+        int b = addresses.get(1);
+        try (CaptureIndex index = new CaptureIndex(index(capture), capture)) {
+            List<Long> and = new ArrayList<>(expected.addresses.get(a));
+            and.retainAll(expected.addresses.get(b));
+            assertEquals(and, list(CaptureIndex.Postings.and(index.getAddressFrames(a), index.getAddressFrames(b))));
+
+            List<Long> or = new ArrayList<>(expected.addresses.get(a));
+            for(long n : expected.addresses.get(b)) {
+                if(!or.contains(n)) {
+                    or.add(n);
+                }
+            }
+            or.sort(null);
+            assertEquals(or, list(CaptureIndex.Postings.or(index.getAddressFrames(a), index.getAddressFrames(b))));
+
+            List<Long> within = new ArrayList<>(expected.addresses.get(a));
+            within.removeIf(n -> n < 100 || n > 300);
+            assertEquals(within, list(CaptureIndex.Postings.and(index.getAddressFrames(a),
+                    CaptureIndex.Postings.range(100, 300))));
+        }
+        assertEquals(List.of(3L, 4L, 5L), list(CaptureIndex.Postings.range(3, 5)));
+        assertEquals(List.of(), list(CaptureIndex.Postings.range(1, 0)));
+
+        CaptureIndex.Postings range = CaptureIndex.Postings.range(1, 10);
+        assertEquals(4, range.advance(4));
+        assertEquals(4, range.advance(2));
+        assertEquals(5, range.next());
+        assertEquals(-1, range.advance(11));
+    }
+
+    @Test
+    void refusesOtherFilesAndChangedCaptures() throws IOException {
+        Path capture = capture("a.pcap");
+        Path other = capture("b.pcap");
+
+        // Not an index, or an index too short to hold a header
+        assertThrows(CaptureReader.CaptureFormatException.class, () -> new CaptureIndex(capture, capture).close());
+        Path cut = Files.write(directory.resolve("cut.idx"), new byte[IndexBuilder.HEADER_LENGTH - 1]);
+        assertThrows(CaptureReader.CaptureFormatException.class, () -> new CaptureIndex(cut, capture).close());
+
+        // The same frames, but written at a different time
+        Files.setLastModifiedTime(other, FileTime.fromMillis(Files.getLastModifiedTime(capture).toMillis() - 5000));
+        assertThrows(CaptureReader.CaptureFormatException.class,
+                () -> new CaptureIndex(index(capture), other).close());
+
+        // A frame appended since the index was built
+        Files.write(capture, new byte[16], StandardOpenOption.APPEND);
+        assertThrows(CaptureReader.CaptureFormatException.class,
+                () -> new CaptureIndex(index(capture), capture).close());
+    }
+}
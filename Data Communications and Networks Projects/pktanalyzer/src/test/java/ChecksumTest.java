@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for Checksum: the word-at-a-time sum agrees with summing 16-bit words one by one for every length and
+ * alignment, odd last bytes are padded with zero, folding adds the carries back in, and verify() tells correct,
+ * wrong, and partly captured checksums apart.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class ChecksumTest {
+
+    /**
+     * Sums a region one 16-bit word at a time, the way RFC 1071 describes it.
+     *
+     * @param bytes The bytes.
+     * @param offset The index where the region starts.
+     * @param length The length of the region.
+     * @param initial A sum to start from.
+     * @return The sum, folded to 16 bits.
+     */
+    private static int reference(byte[] bytes, int offset, int length, long initial) {
+        long sum = initial;
+        for(int i = 0; i < length; i += 2) {
+            int high = bytes[offset + i] & 0xff;
+            int low = (i + 1 < length) ? bytes[offset + i + 1] & 0xff : 0;
+            sum += (high << 8) | low;
+        }
+        while(sum > 0xffff) {
+            sum = (sum & 0xffff) + (sum >>> 16);
+        }
+        return (int) sum;
+    }
+
+    @Test
+    void sumsTheRfc1071Example() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] {0x00, 0x01, (byte) 0xf2, 0x03,
+                (byte) 0xf4, (byte) 0xf5, (byte) 0xf6, (byte) 0xf7});
+        assertEquals(0xddf2, Checksum.sum(buffer, 0, 8, 0));
+    }
+
+    @Test
+    void padsAnOddLastByteWithZero() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] {0x12, 0x34, 0x56, 0x78, (byte) 0x9a, (byte) 0xff});
+        assertEquals(0x9a00, Checksum.sum(buffer, 4, 1, 0));
+        assertEquals(0x02ad, Checksum.sum(buffer, 0, 5, 0));            // 0x1234 + 0x5678 + 0x9a00, folded
+        assertEquals(0x3456 + 0x789a, Checksum.sum(buffer, 1, 4, 0));
+        assertEquals(0, Checksum.sum(buffer, 3, 0, 0));
+    }
+
+    @Test
+    void agreesWithSummingWordByWord() {
+        Random random = new Random(3947);
+        byte[] bytes = new byte[600];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        // Every length from 0 to past a few 8-byte words, at every alignment, and some long ones
+        for(int offset = 0; offset < 8; offset++) {
+            for(int length = 0; length <= 40; length++) {
+                assertEquals(reference(bytes, offset, length, 0), Checksum.sum(buffer, offset, length, 0),
+                        "offset " + offset + ", length " + length);
+            }
+        }
+        for(int length = 41; length <= 590; length += 37) {
+            long initial = random.nextInt() & 0xffffffffL;
+            assertEquals(reference(bytes, 3, length, initial), Checksum.sum(buffer, 3, length, initial),
+                    "length " + length);
+        }
+    }
+
+    @Test
+    void carriesAcrossManyWordsOfOnes() {
+        // Every 32-bit half of every long is all ones, so the 64-bit total carries into its upper bits early
+        byte[] bytes = new byte[1 << 16];
+        Arrays.fill(bytes, (byte) 0xff);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertEquals(0xffff, Checksum.sum(buffer, 0, bytes.length, 0));
+        assertEquals(reference(bytes, 0, bytes.length - 1, 0xffffffffL),
+                Checksum.sum(buffer, 0, bytes.length - 1, 0xffffffffL));
+        assertEquals(reference(bytes, 1, bytes.length - 2, 0), Checksum.sum(buffer, 1, bytes.length - 2, 0));
+    }
+
+    @Test
+    void foldsCarriesBackIn() {
+        assertEquals(0, Checksum.fold(0));
+        assertEquals(0xffff, Checksum.fold(0xffff));
+        assertEquals(0x0001, Checksum.fold(0x10000));
+        assertEquals(0xffff, Checksum.fold(0x1fffe));
+        assertEquals(0x2468, Checksum.fold(0x12340000L + 0x1234));
+        assertEquals(0xffff, Checksum.fold(0xffffffffffffL));
+        assertEquals(0xffff, Checksum.fold(-1L));
+    }
+
+    @Test
+    void sumsThePseudoHeader() {
+        // 10.0.0.1 to 192.168.1.5, TCP, 20 bytes
+        long sum = Checksum.pseudoHeaderSum(0x0a000001, 0xc0a80105, 6, 20);
+        assertEquals(0x0a00 + 0x0001 + 0xc0a8 + 0x0105 + 6 + 20, sum);
+        assertEquals(0x0001 + 0x0000 + 0xffff + 0xffff + 17 + 8, Checksum.pseudoHeaderSum(0x00010000, -1, 17, 8));
+    }
+
+    @Test
+    void verifiesRegionsHoldingTheirChecksum() {
+        ByteBuffer header = ByteBuffer.allocate(21);
+        header.put(0, (byte) 0x45).putShort(2, (short) 21).put(8, (byte) 64).put(9, (byte) 17);
+        header.putInt(12, 0x0a000001).putInt(16, 0x0a000002).put(20, (byte) 0x5a);
+        header.putShort(10, (short) ~Checksum.sum(header, 0, 21, 0));
+
+        assertEquals(Checksum.Status.VALID, Checksum.verify(header, 0, 21, 0, 21));
+        assertEquals(Checksum.Status.UNVERIFIED, Checksum.verify(header, 0, 21, 0, 20));
+        assertEquals(Checksum.Status.UNVERIFIED, Checksum.verify(header, 0, -1, 0, 21));
+        header.put(8, (byte) 63);
+        assertEquals(Checksum.Status.INVALID, Checksum.verify(header, 0, 21, 0, 21));
+    }
+}
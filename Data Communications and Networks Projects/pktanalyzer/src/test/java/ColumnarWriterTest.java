@@ -0,0 +1,254 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for ColumnarWriter and ColumnarReader: every column type reads back as written across row groups, dictionary
+ * encoding is picked only when it is smaller, rows added a few at a time land in the same row groups as rows added at
+ * once, the footer's statistics, and files that aren't columnar.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class ColumnarWriterTest {
+
+    private static final String[] NAMES = {"small", "port", "address", "time"};
+    private static final int[] TYPES = {ColumnarWriter.U8, ColumnarWriter.U16, ColumnarWriter.U32, ColumnarWriter.I64};
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Makes up rows whose values are wider than their columns, so only the column's width of each is kept.
+     *
+     * @param count The number of rows.
+     * @param distinct How many different values each column holds, or 0 for random values.
+     * @return The rows.
+     */
+    private static ColumnarWriter.Rows rows(int count, int distinct) {
+        Random random = new Random(3947);
+        ColumnarWriter.Rows rows = new ColumnarWriter.Rows(NAMES.length, 1);
+        for(int row = 0; row < count; row++) {
+            rows.add();
+            for(int column = 0; column < NAMES.length; column++) {
+                long value = random.nextLong();
+                rows.set(column, (distinct == 0) ? value : (value & 0xff) % distinct - distinct / 2);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Keeps the part of a value that a column stores.
+     *
+     * @param type The column's type.
+     * @param value The value.
+     * @return The value as read back: unsigned unless the column is I64.
+     */
+    private static long stored(int type, long value) {
+        return (type == ColumnarWriter.I64) ? value : value & ((1L << (8 * type)) - 1);
+    }
+
+    /**
+     * Writes rows to a file.
+     *
+     * @param name The name of the file, in the test's directory.
+     * @param dictionaries Whether each column may be dictionary encoded.
+     * @param rowGroupSize The number of rows in a row group.
+     * @param batches The rows, added one batch at a time.
+     * @return The path to the file.
+     * @throws IOException If the file can't be written.
+     */
+    private Path write(String name, boolean[] dictionaries, int rowGroupSize, ColumnarWriter.Rows... batches)
+            throws IOException {
+        Path path = directory.resolve(name);
+        try (ColumnarWriter writer = new ColumnarWriter(path, NAMES, TYPES, dictionaries, rowGroupSize)) {
+            for(ColumnarWriter.Rows batch : batches) {
+                writer.write(batch);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Reads every value of a column back.
+     *
+     * @param reader The reader.
+     * @param column The column.
+     * @return The column's values, in order.
+     * @throws IOException If the file can't be read.
+     */
+    private static long[] column(ColumnarReader reader, int column) throws IOException {
+        long[] values = new long[(int) reader.getRowCount()];
+        long[] group = new long[reader.getRowGroupSize()];
+        int at = 0;
+        for(int g = 0; g < reader.getRowGroupCount(); g++) {
+            int count = reader.read(column, g, group);
+            System.arraycopy(group, 0, values, at, count);
+            at += count;
+        }
+        return values;
+    }
+
+    /**
+     * Checks that a file holds the given rows, in order.
+     *
+     * @param path The file.
+     * @param rows The rows.
+     * @throws IOException If the file can't be read.
+     */
+    private static void assertHolds(Path path, ColumnarWriter.Rows rows) throws IOException {
+        try (ColumnarReader reader = new ColumnarReader(path)) {
+            assertEquals(rows.size(), reader.getRowCount());
+            for(int column = 0; column < NAMES.length; column++) {
+                long[] values = column(reader, column);
+                for(int row = 0; row < rows.size(); row++) {
+                    assertEquals(stored(TYPES[column], rows.get(column, row)), values[row],
+                            NAMES[column] + " of row " + row);
+                }
+            }
+        }
+    }
+
+    @Test
+    void readsBackEveryTypeAcrossRowGroups() throws IOException {
+        ColumnarWriter.Rows rows = rows(1000, 0);
+        Path path = write("plain.pktc", new boolean[4], 300, rows);
+        assertHolds(path, rows);
+
+        try (ColumnarReader reader = new ColumnarReader(path)) {
+            assertEquals(4, reader.getColumnCount());
+            assertEquals(4, reader.getRowGroupCount());
+            assertEquals(300, reader.getRowGroupSize());
+            assertEquals(100, reader.getRowCount(3));
+            for(int column = 0; column < NAMES.length; column++) {
+                assertEquals(NAMES[column], reader.getColumnName(column));
+                assertEquals(TYPES[column], reader.getColumnType(column));
+                assertEquals(column, reader.findColumn(NAMES[column]));
+                assertEquals(ColumnarWriter.PLAIN, reader.getEncoding(column, 0));
+                assertEquals(300 * TYPES[column], reader.getChunkLength(column, 0));
+            }
+            assertEquals(-1, reader.findColumn("missing"));
+        }
+    }
+
+    @Test
+    void recordsEachRowGroupsSmallestAndLargestValue() throws IOException {
+        ColumnarWriter.Rows rows = rows(250, 0);
+        Path path = write("stats.pktc", new boolean[4], 100, rows);
+
+        try (ColumnarReader reader = new ColumnarReader(path)) {
+            for(int group = 0; group < 3; group++) {
+                for(int column = 0; column < NAMES.length; column++) {
+                    long min = Long.MAX_VALUE;
+                    long max = Long.MIN_VALUE;
+                    for(int row = 100 * group; row < Math.min(250, 100 * (group + 1)); row++) {
+                        long value = stored(TYPES[column], rows.get(column, row));
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                    assertEquals(min, reader.getMin(column, group), NAMES[column] + " in group " + group);
+                    assertEquals(max, reader.getMax(column, group), NAMES[column] + " in group " + group);
+                }
+            }
+        }
+    }
+
+    @Test
+    void usesADictionaryOnlyWhenItIsSmaller() throws IOException {
+        boolean[] dictionaries = {true, true, true, true};
+
+        // A few distinct values: a dictionary with a 1-byte index, except for U8, where it saves nothing
+        ColumnarWriter.Rows few = rows(1000, 5);
+        Path path = write("few.pktc", dictionaries, 1000, few);
+        assertHolds(path, few);
+        try (ColumnarReader reader = new ColumnarReader(path)) {
+            assertEquals(ColumnarWriter.PLAIN, reader.getEncoding(0, 0));
+            assertEquals(ColumnarWriter.DICTIONARY, reader.getEncoding(1, 0));
+            assertEquals(ColumnarWriter.DICTIONARY, reader.getEncoding(3, 0));
+            assertEquals(4 + 5 * 8 + 1000, reader.getChunkLength(3, 0));
+        }
+
+        // Hundreds of distinct values: a 2-byte index, which only pays off for the wide columns
+        ColumnarWriter.Rows many = new ColumnarWriter.Rows(NAMES.length, 1);
+        for(int row = 0; row < 2000; row++) {
+            many.add();
+            for(int column = 0; column < NAMES.length; column++) {
+                many.set(column, -1000L * (row % 300));
+            }
+        }
+        path = write("many.pktc", dictionaries, 2000, many);
+        assertHolds(path, many);
+        try (ColumnarReader reader = new ColumnarReader(path)) {
+            assertEquals(ColumnarWriter.PLAIN, reader.getEncoding(1, 0));
+            assertEquals(ColumnarWriter.DICTIONARY, reader.getEncoding(2, 0));
+            assertEquals(4 + 300 * 4 + 2 * 2000, reader.getChunkLength(2, 0));
+        }
+
+        // Random values, or a column that may not use one: no dictionary
+        ColumnarWriter.Rows random = rows(1000, 0);
+        path = write("random.pktc", dictionaries, 1000, random);
+        assertHolds(path, random);
+        path = write("none.pktc", new boolean[4], 1000, few);
+        try (ColumnarReader reader = new ColumnarReader(path)) {
+            for(int column = 0; column < NAMES.length; column++) {
+                assertEquals(ColumnarWriter.PLAIN, reader.getEncoding(column, 0));
+            }
+        }
+    }
+
+    @Test
+    void fillsRowGroupsFromBatchesOfAnySize() throws IOException {
+        ColumnarWriter.Rows all = rows(103, 0);
+        ColumnarWriter.Rows[] batches = new ColumnarWriter.Rows[15];
+        for(int b = 0; b < batches.length; b++) {
+            batches[b] = new ColumnarWriter.Rows(NAMES.length, 1);
+            for(int row = 7 * b; row < Math.min(103, 7 * (b + 1)); row++) {
+                batches[b].add();
+                for(int column = 0; column < NAMES.length; column++) {
+                    batches[b].set(column, all.get(column, row));
+                }
+            }
+        }
+
+        Path pieces = write("pieces.pktc", new boolean[4], 10, batches);
+        Path whole = write("whole.pktc", new boolean[4], 10, all);
+        assertHolds(pieces, all);
+        assertTrue(Arrays.equals(Files.readAllBytes(whole), Files.readAllBytes(pieces)));
+    }
+
+    @Test
+    void writesAFileWithNoRows() throws IOException {
+        Path path = write("empty.pktc", new boolean[4], 10);
+        try (ColumnarReader reader = new ColumnarReader(path)) {
+            assertEquals(0, reader.getRowGroupCount());
+            assertEquals(0, reader.getRowCount());
+            assertEquals(4, reader.getColumnCount());
+        }
+    }
+
+    @Test
+    void rejectsFilesThatArentColumnar() throws IOException {
+        Path path = write("cut.pktc", new boolean[4], 10, rows(25, 0));
+        byte[] bytes = Files.readAllBytes(path);
+
+        Path shortFile = Files.write(directory.resolve("short.pktc"), Arrays.copyOf(bytes, 20));
+        Path cut = Files.write(directory.resolve("cut-footer.pktc"), Arrays.copyOf(bytes, bytes.length - 1));
+        byte[] shifted = Arrays.copyOf(bytes, bytes.length);
+        shifted[bytes.length - 12] += 4;        // The footer's position
+        Path moved = Files.write(directory.resolve("moved.pktc"), shifted);
+
+        for(Path bad : new Path[] {shortFile, cut, moved}) {
+            assertThrows(CaptureReader.CaptureFormatException.class, () -> new ColumnarReader(bad).close(),
+                    bad.getFileName().toString());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for CountMinSketch: estimates are never too low and rarely off by more than the error bound, merging two
+ * sketches gives the sketch of both streams, and counters survive a checkpoint.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class CountMinSketchTest {
+
+    /**
+     * Counts a skewed stream of keys, a few of them often and most of them rarely.
+     *
+     * @param sketch The sketch to count the keys in.
+     * @param counts The true count of each key, added to.
+     * @param seed The seed of the stream.
+     * @param length The number of keys in the stream.
+     */
+    private static void count(CountMinSketch sketch, Map<Long, Long> counts, long seed, int length) {
+        Random random = new Random(seed);
+        for(int i = 0; i < length; i++) {
+            long key = (random.nextInt(4) == 0) ? random.nextInt(10) : random.nextInt(5000);
+            long count = 1 + random.nextInt(1500);
+            sketch.add(key, count);
+            counts.merge(key, count, Long::sum);
+        }
+    }
+
+    /**
+     * Saves a sketch and reads it back into another.
+     *
+     * @param from The sketch to save.
+     * @param into The sketch to restore into.
+     * @throws IOException If the sketches aren't the same size.
+     */
+    private static void copy(CountMinSketch from, CountMinSketch into) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            from.save(out);
+        }
+        into.restore(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    void roundsTheWidthUpToAPowerOfTwo() {
+        assertEquals(1024, new CountMinSketch(1000, 3).getWidth());
+        assertEquals(1024, new CountMinSketch(1024, 3).getWidth());
+        assertEquals(1, new CountMinSketch(0, 1).getWidth());
+        assertEquals(4096, CountMinSketch.forError(0.001, 0.01).getWidth());
+        assertEquals(5, CountMinSketch.forError(0.001, 0.01).getDepth());
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(16, 0));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(16, CountMinSketch.MAX_DEPTH + 1));
+    }
+
+    @Test
+    void neverEstimatesTooLow() {
+        CountMinSketch sketch = new CountMinSketch(512, 4);
+        Map<Long, Long> counts = new HashMap<>();
+        count(sketch, counts, 3947, 20000);
+
+        long total = counts.values().stream().mapToLong(Long::longValue).sum();
+        assertEquals(total, sketch.getTotal());
+        int over = 0;
+        for(Map.Entry<Long, Long> entry : counts.entrySet()) {
+            long estimate = sketch.estimate(entry.getKey());
+            assertTrue(estimate >= entry.getValue(), "estimate of " + entry.getKey());
+            if(estimate - entry.getValue() > sketch.getErrorBound()) {
+                over++;
+            }
+        }
+        // e^-4 of the keys, about 2%, may be off by more than the bound
+        assertTrue(over < counts.size() / 20, over + " of " + counts.size() + " keys are off by more than the bound");
+        assertEquals(0, new CountMinSketch(512, 4).estimate(1));
+    }
+
+    @Test
+    void mergesIntoTheSketchOfBothStreams() {
+        CountMinSketch whole = new CountMinSketch(256, 5);
+        CountMinSketch first = whole.copySize();
+        CountMinSketch second = whole.copySize();
+        Map<Long, Long> counts = new HashMap<>();
+        count(whole, counts, 1, 5000);
+        count(whole, counts, 2, 7000);
+        count(first, new HashMap<>(), 1, 5000);
+        count(second, new HashMap<>(), 2, 7000);
+
+        first.merge(second);
+        assertEquals(whole.getTotal(), first.getTotal());
+        for(long key = 0; key < 5000; key++) {
+            assertEquals(whole.estimate(key), first.estimate(key), "estimate of " + key);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> first.merge(new CountMinSketch(512, 5)));
+        assertThrows(IllegalArgumentException.class, () -> first.merge(new CountMinSketch(256, 4)));
+    }
+
+    @Test
+    void savesAndRestoresItsCounters() throws IOException {
+        CountMinSketch sketch = new CountMinSketch(256, 3);
+        count(sketch, new HashMap<>(), 3947, 3000);
+
+        CountMinSketch restored = sketch.copySize();
+        restored.add(42, 1000);
+        copy(sketch, restored);
+        assertEquals(sketch.getTotal(), restored.getTotal());
+        for(long key = 0; key < 5000; key++) {
+            assertEquals(sketch.estimate(key), restored.estimate(key), "estimate of " + key);
+        }
+
+        assertThrows(IOException.class, () -> copy(sketch, new CountMinSketch(128, 3)));
+        assertThrows(IOException.class, () -> copy(sketch, new CountMinSketch(256, 4)));
+    }
+}
@@ -0,0 +1,245 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for FilterCompiler and Filter: operator precedence, the raw-byte tests of addresses, ports, protocols and TCP
+ * flags at their offsets (including past IP options), fragments and truncated frames, and syntax errors.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class FilterTest {
+
+    private static final int CLIENT = 0x0a000001;   // 10.0.0.1
+    private static final int SERVER = 0xc0a80105;   // 192.168.1.5
+    private static final int TCP = 6;
+    private static final int UDP = 17;
+    private static final int ICMP = 1;
+
+    /**
+     * Builds an Ethernet frame holding an IPv4 datagram, with correct checksums.
+     *
+     * @param protocol The IP protocol: TCP, UDP, or anything else for an 8-byte payload of zeros.
+     * @param sourcePort The source port, if TCP or UDP.
+     * @param destinationPort The destination port, if TCP or UDP.
+     * @param tcpFlags The TCP flags, if TCP.
+     * @param options The number of 4-byte words of IP options.
+     * @return The frame.
+     */
+    private static ByteBuffer frame(int protocol, int sourcePort, int destinationPort, int tcpFlags, int options) {
+        int ip = 14;
+        int headerLength = 20 + 4 * options;
+        int segment = (protocol == TCP) ? 20 : 8;
+        ByteBuffer frame = ByteBuffer.allocate(ip + headerLength + segment);
+        frame.putShort(12, (short) 0x0800);
+        frame.put(ip, (byte) (0x40 | headerLength / 4));
+        frame.putShort(ip + 2, (short) (headerLength + segment));
+        frame.put(ip + 8, (byte) 64);
+        frame.put(ip + 9, (byte) protocol);
+        frame.putInt(ip + 12, CLIENT);
+        frame.putInt(ip + 16, SERVER);
+        frame.putShort(ip + 10, (short) ~Checksum.sum(frame, ip, headerLength, 0));
+
+        int start = ip + headerLength;
+        if(protocol == TCP || protocol == UDP) {
+            frame.putShort(start, (short) sourcePort);
+            frame.putShort(start + 2, (short) destinationPort);
+        }
+        if(protocol == TCP) {
+            frame.putShort(start + 12, (short) (0x5000 | tcpFlags));
+            long pseudo = Checksum.pseudoHeaderSum(CLIENT, SERVER, TCP, segment);
+            frame.putShort(start + 16, (short) ~Checksum.sum(frame, start, segment, pseudo));
+        } else if(protocol == UDP) {
+            frame.putShort(start + 4, (short) segment);
+            long pseudo = Checksum.pseudoHeaderSum(CLIENT, SERVER, UDP, segment);
+            frame.putShort(start + 6, (short) ~Checksum.sum(frame, start, segment, pseudo));
+        } else if(protocol == ICMP) {
+            frame.put(start, (byte) 8);
+            frame.putShort(start + 2, (short) ~Checksum.sum(frame, start, segment, 0));
+        }
+        return frame;
+    }
+
+    /**
+     * Builds a TCP frame with no IP options.
+     *
+     * @param sourcePort The source port.
+     * @param destinationPort The destination port.
+     * @param tcpFlags The TCP flags.
+     * @return The frame.
+     */
+    private static ByteBuffer tcp(int sourcePort, int destinationPort, int tcpFlags) {
+        return frame(TCP, sourcePort, destinationPort, tcpFlags, 0);
+    }
+
+    /**
+     * Builds a UDP frame with no IP options.
+     *
+     * @param sourcePort The source port.
+     * @param destinationPort The destination port.
+     * @return The frame.
+     */
+    private static ByteBuffer udp(int sourcePort, int destinationPort) {
+        return frame(UDP, sourcePort, destinationPort, 0, 0);
+    }
+
+    /**
+     * Compiles a filter and tests a whole frame with it.
+     *
+     * @param expression The filter expression.
+     * @param frame The frame.
+     * @return True if the frame passes.
+     */
+    private static boolean matches(String expression, ByteBuffer frame) {
+        return FilterCompiler.compile(expression).matches(frame, 0, frame.capacity());
+    }
+
+    @Test
+    void bindsAndTighterThanOr() {
+        // Read as tcp or (udp and port 53), not as (tcp or udp) and port 53
+        assertTrue(matches("tcp or udp and port 53", tcp(40000, 80, TCPHeader.ACK)));
+        assertTrue(matches("tcp or udp and port 53", udp(40000, 53)));
+        assertFalse(matches("tcp or udp and port 53", udp(40000, 123)));
+        assertTrue(matches("udp port 53 || tcp && port 443", udp(5353, 53)));
+        assertFalse(matches("udp port 53 || tcp && port 443", tcp(40000, 80, TCPHeader.ACK)));
+
+        // "and" may be left out, and binds the same way
+        assertFalse(matches("tcp or udp port 53", udp(40000, 123)));
+        assertTrue(matches("host 10.0.0.1 port 80", tcp(40000, 80, TCPHeader.ACK)));
+        assertFalse(matches("host 10.0.0.1 port 80", tcp(40000, 443, TCPHeader.ACK)));
+    }
+
+    @Test
+    void bindsNotTighterThanAnd() {
+        assertTrue(matches("not tcp and udp", udp(1, 2)));
+        assertFalse(matches("not tcp and udp", tcp(1, 2, 0)));
+        assertFalse(matches("!udp && port 2", udp(1, 3)));
+        assertTrue(matches("not (tcp and port 1) and port 2", udp(1, 2)));
+        assertFalse(matches("not (tcp or udp)", tcp(1, 2, 0)));
+        assertTrue(matches("not not tcp", tcp(1, 2, 0)));
+        assertTrue(matches("(udp or tcp) and (port 1 or port 9)", tcp(1, 2, 0)));
+    }
+
+    @Test
+    void testsAddressesAndNetworks() {
+        ByteBuffer frame = tcp(40000, 80, TCPHeader.SYN);
+        assertTrue(matches("host 10.0.0.1", frame));
+        assertTrue(matches("host 192.168.1.5", frame));
+        assertTrue(matches("src host 10.0.0.1", frame));
+        assertFalse(matches("dst host 10.0.0.1", frame));
+        assertTrue(matches("dst net 192.168.0.0/16", frame));
+        assertFalse(matches("src net 192.168.0.0/16", frame));
+        assertTrue(matches("net 10/8", frame));
+        assertTrue(matches("net 0.0.0.0/0", frame));
+        assertTrue(matches("src net 10.0.0.0/31", frame));
+        assertFalse(matches("dst net 10.0.0.0/31", frame));
+    }
+
+    @Test
+    void testsPortsOfTheRightProtocolAndDirection() {
+        assertTrue(matches("port 80", tcp(40000, 80, 0)));
+        assertTrue(matches("port 80", udp(80, 40000)));
+        assertTrue(matches("tcp dst port 80", tcp(40000, 80, 0)));
+        assertFalse(matches("tcp src port 80", tcp(40000, 80, 0)));
+        assertFalse(matches("udp port 80", tcp(40000, 80, 0)));
+        assertTrue(matches("src port 0x1f90", udp(8080, 1)));
+        assertFalse(matches("port 0", frame(ICMP, 0, 0, 0, 0)));
+    }
+
+    @Test
+    void findsTheTransportHeaderPastIpOptions() {
+        // With 8 bytes of options, the ports and flags are 8 bytes further into the frame
+        ByteBuffer frame = frame(TCP, 40000, 80, TCPHeader.SYN | TCPHeader.ACK, 2);
+        assertTrue(matches("tcp src port 40000 and dst port 80", frame));
+        assertTrue(matches("tcp[flags] & (syn|ack) = (syn|ack)", frame));
+        assertFalse(matches("badsum", frame));
+    }
+
+    @Test
+    void comparesMaskedTcpFlags() {
+        ByteBuffer syn = tcp(40000, 80, TCPHeader.SYN);
+        ByteBuffer synAck = tcp(80, 40000, TCPHeader.SYN | TCPHeader.ACK);
+        ByteBuffer rst = tcp(80, 40000, TCPHeader.RST | TCPHeader.ACK);
+
+        // Without a comparison, any of the masked flags will do
+        assertTrue(matches("tcp[flags] & (syn|rst)", syn));
+        assertTrue(matches("tcp[flags] & syn|rst", rst));
+        assertFalse(matches("tcp[flags] & fin", synAck));
+
+        assertTrue(matches("tcp[flags] & (syn|ack) = syn", syn));
+        assertFalse(matches("tcp[flags] & (syn|ack) = syn", synAck));
+        assertTrue(matches("tcp[flags] & (syn|ack) != syn", synAck));
+        assertTrue(matches("tcp[tcpflags] & tcp-rst != 0", rst));
+        assertTrue(matches("tcp[flags] & 0x12 = 0x12", synAck));
+
+        // UDP frames have no TCP flags, whatever the bytes at the same offset hold
+        assertFalse(matches("tcp[flags] & 0x1ff != 0x1ff", udp(1, 2)));
+    }
+
+    @Test
+    void skipsLaterFragmentsAndShortFrames() {
+        ByteBuffer fragment = tcp(40000, 80, TCPHeader.SYN);
+        fragment.putShort(20, (short) 0x0001);     // Offset 8: no transport header
+        assertTrue(matches("tcp", fragment));
+        assertFalse(matches("port 80", fragment));
+        assertFalse(matches("tcp[flags] & syn", fragment));
+
+        // Cut off in the middle of the TCP header: the ports are there, the flags aren't
+        ByteBuffer frame = tcp(40000, 80, TCPHeader.SYN);
+        Filter port = FilterCompiler.compile("port 80");
+        Filter flags = FilterCompiler.compile("tcp[flags] & syn");
+        assertTrue(port.matches(frame, 0, 38));
+        assertFalse(port.matches(frame, 0, 37));
+        assertFalse(flags.matches(frame, 0, 47));
+        assertTrue(flags.matches(frame, 0, 48));
+        assertFalse(FilterCompiler.compile("host 10.0.0.1").matches(frame, 0, 33));
+        assertFalse(FilterCompiler.compile("ip").matches(frame, 0, 13));
+    }
+
+    @Test
+    void testsFramesAtAnOffsetInTheirBuffer() {
+        ByteBuffer frame = udp(5353, 53);
+        ByteBuffer buffer = ByteBuffer.allocate(frame.capacity() + 100);
+        buffer.put(37, frame.array());
+        Filter filter = FilterCompiler.compile("udp dst port 53 and src host 10.0.0.1");
+        assertTrue(filter.matches(buffer, 37, frame.capacity()));
+        assertFalse(filter.matches(buffer, 36, frame.capacity()));
+    }
+
+    @Test
+    void findsBadChecksums() {
+        Filter badsum = FilterCompiler.compile("badsum");
+        for(ByteBuffer frame : new ByteBuffer[] {tcp(1, 2, 0), udp(1, 2), frame(ICMP, 0, 0, 0, 0)}) {
+            assertFalse(badsum.matches(frame, 0, frame.capacity()));
+            ByteBuffer broken = ByteBuffer.wrap(frame.array().clone());
+            broken.put(broken.capacity() - 1, (byte) (broken.get(broken.capacity() - 1) ^ 1));
+            assertTrue(badsum.matches(broken, 0, broken.capacity()));
+        }
+
+        // A wrong IP header checksum, and a zero UDP checksum, which isn't checked
+        ByteBuffer header = tcp(1, 2, 0);
+        header.put(22, (byte) 63);
+        assertTrue(badsum.matches(header, 0, header.capacity()));
+        ByteBuffer unchecked = udp(1, 2);
+        unchecked.putShort(40, (short) 0);
+        unchecked.putShort(36, (short) 9);
+        assertFalse(badsum.matches(unchecked, 0, unchecked.capacity()));
+    }
+
+    @Test
+    void reportsSyntaxErrors() {
+        for(String expression : new String[] {"", "  ", "host", "port 70000", "net 10.0.0.0/33", "host 1.2.3.4.5",
+                "tcp[seq] & 1", "tcp[flags] syn", "(tcp", "tcp )", "proto", "src tcp", "and tcp", "tcp or", "~"}) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> FilterCompiler.compile(expression), expression);
+            assertFalse(e.getMessage().isEmpty());
+        }
+        assertEquals("Bad filter: Unexpected \")\".", assertThrows(IllegalArgumentException.class,
+                () -> FilterCompiler.compile("tcp )")).getMessage());
+    }
+}
@@ -0,0 +1,196 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for FlowTable: counting packets per flow, growing on demand, evicting idle flows and the oldest flows of a full
+ * table, lookups that still work after backward-shift deletion, and saving and restoring the flows.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class FlowTableTest {
+
+    private static final long NEVER = Long.MAX_VALUE / 4;    // An idle timeout no test reaches.
+    private static final int UDP = 17;
+
+    /**
+     * Adds one packet of a UDP flow from 10.0.0.1 to 10.0.0.2, told apart from the other flows by its source port.
+     *
+     * @param table The table.
+     * @param port The source port.
+     * @param timestamp The arrival time of the packet.
+     * @return The flow's slot.
+     */
+    private static int add(FlowTable table, int port, long timestamp) {
+        return table.add(0x0a000001, 0x0a000002, port, 53, UDP, 100, timestamp, 0);
+    }
+
+    /**
+     * Lists the flows in a table.
+     *
+     * @param table The table.
+     * @return Every flow, as "source port:packets:bytes:first:last", sorted.
+     */
+    private static Set<String> flows(FlowTable table) {
+        Set<String> flows = new TreeSet<>();
+        table.forEach(slot -> flows.add(table.getSourcePort(slot) + ":" + table.getPackets(slot) + ":"
+                + table.getBytes(slot) + ":" + table.getFirstSeen(slot) + ":" + table.getLastSeen(slot)));
+        return flows;
+    }
+
+    @Test
+    void countsPacketsPerFlow() {
+        FlowTable table = new FlowTable(16, NEVER, null);
+        table.add(0x0a000001, 0x0a000002, 40000, 80, 6, 60, 1, TCPHeader.SYN);
+        table.add(0x0a000001, 0x0a000002, 40000, 80, 6, 1500, 2, TCPHeader.ACK | TCPHeader.PSH);
+        int slot = table.add(0x0a000001, 0x0a000002, 40000, 80, 6, 40, 3, TCPHeader.ACK);
+        table.add(0x0a000002, 0x0a000001, 80, 40000, 6, 60, 4, TCPHeader.SYN | TCPHeader.ACK);
+
+        assertEquals(2, table.size());
+        assertEquals(2, table.getTotalFlows());
+        assertEquals(0x0a000001, table.getSourceAddress(slot));
+        assertEquals(0x0a000002, table.getDestinationAddress(slot));
+        assertEquals(40000, table.getSourcePort(slot));
+        assertEquals(80, table.getDestinationPort(slot));
+        assertEquals(6, table.getProtocol(slot));
+        assertEquals(3, table.getPackets(slot));
+        assertEquals(1600, table.getBytes(slot));
+        assertEquals(1, table.getFirstSeen(slot));
+        assertEquals(3, table.getLastSeen(slot));
+        assertEquals(1, table.getFlagCount(slot, 1));     // SYN
+        assertEquals(1, table.getFlagCount(slot, 3));     // PSH
+        assertEquals(2, table.getFlagCount(slot, 4));     // ACK
+    }
+
+    @Test
+    void growsOnlyAsFlowsArrive() {
+        FlowTable table = new FlowTable(1_000_000, NEVER, null);
+        assertEquals(64, table.getCapacity());
+
+        for(int port = 0; port < 1000; port++) {
+            add(table, port, port);
+            assertTrue(2 * table.size() <= table.getCapacity(), "load over one half at " + table.size() + " flows");
+        }
+        assertEquals(2048, table.getCapacity());
+        assertEquals(1000, flows(table).size());
+
+        // Never past what maxFlows needs, however many flows come
+        FlowTable small = new FlowTable(100, NEVER, null);
+        for(int port = 0; port < 1000; port++) {
+            add(small, port, port);
+        }
+        assertEquals(256, small.getCapacity());
+        assertTrue(small.size() <= 100);
+
+        // A limit too big for the slots to count still starts small
+        FlowTable huge = new FlowTable(Integer.MAX_VALUE, NEVER, null);
+        add(huge, 1, 1);
+        assertEquals(64, huge.getCapacity());
+    }
+
+    @Test
+    void evictsIdleFlows() {
+        List<Integer> evicted = new ArrayList<>();
+        FlowTable table = new FlowTable(16, 10, (t, slot) -> evicted.add(t.getSourcePort(slot)));
+        add(table, 1, 0);
+        add(table, 2, 5);
+
+        // The sweep at 12 runs before the packet is counted, so flow 1 is evicted and starts over
+        add(table, 1, 12);
+        assertEquals(List.of(1), evicted);
+        assertEquals(3, table.getTotalFlows());
+
+        // No sweep until 10 after the last one
+        add(table, 3, 16);
+        assertEquals(List.of(1), evicted);
+        add(table, 3, 22);
+        assertEquals(List.of(1, 2), evicted);
+        assertEquals(2, table.getEvictedFlows());
+        assertEquals(2, table.size());
+
+        table.evictAll();
+        assertEquals(0, table.size());
+        assertEquals(4, evicted.size());
+    }
+
+    @Test
+    void evictsTheOldestFlowsOfAFullTable() {
+        List<Integer> evicted = new ArrayList<>();
+        FlowTable table = new FlowTable(8, NEVER, (t, slot) -> evicted.add(t.getSourcePort(slot)));
+        for(int port = 1; port <= 8; port++) {
+            add(table, port, port);
+        }
+        add(table, 9, 9);
+
+        // None of them is idle, so the least recently seen quarter goes, rounded up to whole timestamps
+        evicted.sort(null);
+        assertEquals(List.of(1, 2, 3), evicted);
+        assertEquals(6, table.size());
+        assertEquals(9, table.getTotalFlows());
+    }
+
+    @Test
+    void findsEveryFlowAfterRemovingOthers() {
+        FlowTable table = new FlowTable(4096, NEVER, null);
+        int flows = 1500;
+        for(int port = 0; port < flows; port++) {
+            // Scatter the last-seen times, so the flows removed below are spread over every probe sequence
+            add(table, port, (port * 7919L) % flows);
+        }
+        table.sweep(NEVER + flows / 2);
+
+        Set<Integer> kept = new HashSet<>();
+        for(int port = 0; port < flows; port++) {
+            if((port * 7919L) % flows >= flows / 2) {
+                kept.add(port);
+            }
+        }
+        assertEquals(kept.size(), table.size());
+
+        // A flow the shifts had lost would be added again as a new flow, with one packet
+        for(int port : kept) {
+            int slot = add(table, port, NEVER + flows);
+            assertEquals(port, table.getSourcePort(slot));
+            assertEquals(2, table.getPackets(slot), "flow " + port);
+        }
+        assertEquals(flows, table.getTotalFlows());
+        assertEquals(kept.size(), table.size());
+    }
+
+    @Test
+    void restoresSavedFlows() throws IOException {
+        FlowTable table = new FlowTable(1000, 1_000, null);
+        for(int port = 0; port < 300; port++) {
+            add(table, port % 200, port);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        table.save(new DataOutputStream(bytes));
+
+        FlowTable restored = new FlowTable(1000, 1_000, null);
+        restored.restore(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(flows(table), flows(restored));
+        assertEquals(table.getTotalFlows(), restored.getTotalFlows());
+        assertTrue(2 * restored.size() <= restored.getCapacity());
+
+        // Flows restored into the table are found again rather than added twice
+        add(restored, 0, 300);
+        assertEquals(200, restored.size());
+
+        FlowTable tooSmall = new FlowTable(100, 1_000, null);
+        assertThrows(IOException.class,
+                () -> tooSmall.restore(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+}
@@ -0,0 +1,195 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for FragmentReassembler: fragments that arrive out of order, more than once, or overlapping, and the header
+ * checksum of the reassembled datagram.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class FragmentReassemblerTest {
+
+    private static final int SOURCE = 0x0a000001;       // 10.0.0.1
+    private static final int DESTINATION = 0x0a000002;  // 10.0.0.2
+    private static final int UDP = 17;
+
+    private final FragmentReassembler reassembler = new FragmentReassembler(1 << 20, 16, 1_000_000_000L);
+    private long time;
+
+    /**
+     * Builds an IPv4 fragment of a UDP datagram, with a valid header checksum.
+     *
+     * @param identification The datagram's identification.
+     * @param start The offset of the fragment's payload in the datagram, in bytes. Must be a multiple of 8.
+     * @param more Whether more fragments follow.
+     * @param payload The fragment's payload.
+     * @return A header pointing at the fragment.
+     */
+    private static IPHeader fragment(int identification, int start, boolean more, byte[] payload) {
+        ByteBuffer packet = ByteBuffer.allocate(20 + payload.length);
+        packet.put(0, (byte) 0x45);
+        packet.putShort(2, (short) packet.capacity());
+        packet.putShort(4, (short) identification);
+        packet.putShort(6, (short) ((more ? 0x2000 : 0) | start / 8));
+        packet.put(8, (byte) 64);
+        packet.put(9, (byte) UDP);
+        packet.putInt(12, SOURCE);
+        packet.putInt(16, DESTINATION);
+        packet.putShort(10, (short) ~Checksum.sum(packet, 0, 20, 0));
+        packet.put(20, payload);
+        return new IPHeader(packet.array());
+    }
+
+    /**
+     * Builds the payload of a UDP datagram: an 8-byte UDP header and its data.
+     *
+     * @param length The length of the payload.
+     * @return The payload.
+     */
+    private static byte[] datagram(int length) {
+        byte[] payload = new byte[length];
+        for(int i = 8; i < length; i++) {
+            payload[i] = (byte) i;
+        }
+        ByteBuffer.wrap(payload).putShort(0, (short) 5353).putShort(2, (short) 5353).putShort(4, (short) length);
+        return payload;
+    }
+
+    /**
+     * Hands a fragment of a datagram to the reassembler.
+     *
+     * @param payload The whole payload of the datagram.
+     * @param start The offset of the fragment's payload in the datagram, in bytes.
+     * @param end The offset in the datagram where the fragment's payload ends, in bytes.
+     * @return What the reassembler returned.
+     */
+    private IPHeader send(byte[] payload, int start, int end) {
+        IPHeader ip = fragment(1, start, end < payload.length, Arrays.copyOfRange(payload, start, end));
+        return reassembler.accept(ip, ++time, ip.getLength() + 14);
+    }
+
+    /**
+     * Copies the payload out of a reassembled datagram, and checks its header.
+     *
+     * @param ip The reassembled datagram.
+     * @param length The expected length of its payload.
+     * @return The payload.
+     */
+    private static byte[] payload(IPHeader ip, int length) {
+        assertNotNull(ip);
+        assertFalse(ip.isFragment());
+        assertEquals(20 + length, ip.getTotalLength());
+        assertEquals(Checksum.Status.VALID, ip.getHeaderChecksumStatus());
+
+        byte[] payload = new byte[length];
+        ip.getBuffer().get(ip.getOffset() + 20, payload);
+        return payload;
+    }
+
+    @Test
+    void passesWholeDatagramsThrough() {
+        IPHeader ip = fragment(1, 0, false, datagram(40));
+        assertSame(ip, reassembler.accept(ip, 1, 74));
+        assertEquals(0, reassembler.getFragments());
+    }
+
+    @Test
+    void reassemblesFragmentsOutOfOrder() {
+        byte[] payload = datagram(100);
+        assertNull(send(payload, 80, 100));
+        assertNull(send(payload, 0, 40));
+        assertEquals(1, reassembler.getPending());
+
+        IPHeader ip = send(payload, 40, 80);
+        assertArrayEquals(payload, payload(ip, 100));
+        assertNotNull(ip.getUDPHeader());
+        assertEquals(3 * (14 + 20) + 100, reassembler.getWireLength());
+        assertEquals(3, reassembler.getFragments());
+        assertEquals(1, reassembler.getReassembled());
+        assertEquals(0, reassembler.getPending());
+    }
+
+    @Test
+    void ignoresDuplicateFragments() {
+        byte[] payload = datagram(64);
+        assertNull(send(payload, 0, 32));
+        assertNull(send(payload, 0, 32));
+        assertArrayEquals(payload, payload(send(payload, 32, 64), 64));
+        assertEquals(1, reassembler.getReassembled());
+
+        // A duplicate of a datagram that's already been put back together starts a new one, which never completes
+        assertNull(send(payload, 32, 64));
+        assertEquals(1, reassembler.getPending());
+    }
+
+    @Test
+    void keepsTheFirstCopyOfOverlappingData() {
+        byte[] first = datagram(48);
+        byte[] second = datagram(48);
+        Arrays.fill(first, 8, 48, (byte) 'a');
+        Arrays.fill(second, 8, 48, (byte) 'b');
+
+        assertNull(send(first, 0, 32));
+        byte[] reassembled = payload(send(second, 16, 48), 48);
+        assertArrayEquals(Arrays.copyOfRange(first, 0, 32), Arrays.copyOfRange(reassembled, 0, 32));
+        assertArrayEquals(Arrays.copyOfRange(second, 32, 48), Arrays.copyOfRange(reassembled, 32, 48));
+
+        // The other way around, the later fragment's bytes are the ones that arrived first
+        assertNull(send(second, 16, 48));
+        reassembled = payload(send(first, 0, 32), 48);
+        assertArrayEquals(Arrays.copyOfRange(first, 0, 16), Arrays.copyOfRange(reassembled, 0, 16));
+        assertArrayEquals(Arrays.copyOfRange(second, 16, 48), Arrays.copyOfRange(reassembled, 16, 48));
+    }
+
+    @Test
+    void fillsInAPartlyCoveredLastUnit() {
+        byte[] payload = datagram(45);      // Ends partway through its last 8-byte unit
+        assertNull(send(payload, 24, 45));
+        assertNull(send(payload, 24, 45));
+        assertArrayEquals(payload, payload(send(payload, 0, 24), 45));
+    }
+
+    @Test
+    void fixesUpTheHeaderChecksum() {
+        byte[] payload = datagram(64);
+        IPHeader first = fragment(7, 0, true, Arrays.copyOfRange(payload, 0, 32));
+        IPHeader last = fragment(7, 32, false, Arrays.copyOfRange(payload, 32, 64));
+        assertNull(reassembler.accept(first, 1, 66));
+        IPHeader ip = reassembler.accept(last, 2, 66);
+
+        // Recomputing it from scratch gives the same checksum as updating it did
+        ByteBuffer header = ByteBuffer.allocate(20);
+        ip.getBuffer().get(ip.getOffset(), header.array(), 0, 20);
+        int updated = header.getShort(10) & 0xffff;
+        header.putShort(10, (short) 0);
+        assertEquals(~Checksum.sum(header, 0, 20, 0) & 0xffff, updated);
+        assertEquals(Checksum.Status.VALID, ip.getHeaderChecksumStatus());
+        assertFalse(ip.isMoreFragments());
+        assertEquals(0, ip.getFragmentOffset());
+
+        // A first fragment with a bad checksum gives a datagram with a bad checksum
+        first = fragment(8, 0, true, Arrays.copyOfRange(payload, 0, 32));
+        last = fragment(8, 32, false, Arrays.copyOfRange(payload, 32, 64));
+        first.getBuffer().put(10, (byte) (first.getBuffer().get(10) ^ 0x55));
+        assertNull(reassembler.accept(first, 3, 66));
+        assertEquals(Checksum.Status.INVALID, reassembler.accept(last, 4, 66).getHeaderChecksumStatus());
+    }
+
+    @Test
+    void dropsDatagramsThatTimeOut() {
+        byte[] payload = datagram(64);
+        assertNull(send(payload, 0, 32));
+        reassembler.sweep(time + 2_000_000_000L);
+        assertEquals(1, reassembler.getTimedOut());
+        assertEquals(0, reassembler.getPending());
+    }
+}
@@ -0,0 +1,138 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for HeavyHitters: the heaviest keys of a stream are kept, in order, merging the HeavyHitters of two parts of a
+ * stream finds the heaviest keys of the whole, and the top keys survive a checkpoint.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class HeavyHittersTest {
+
+    /**
+     * Counts the keys 1 to 8 with weights 8 down to 1, shuffled among light keys from 1000 up.
+     *
+     * @param hitters The HeavyHitters to count the keys in.
+     * @param seed The seed of the stream.
+     */
+    private static void count(HeavyHitters hitters, long seed) {
+        Random random = new Random(seed);
+        for(int i = 0; i < 20000; i++) {
+            if(random.nextInt(4) == 0) {
+                long key = 1 + random.nextInt(8);
+                hitters.add(key, 100 * (9 - key));
+            } else {
+                hitters.add(1000 + random.nextInt(2000), 1);
+            }
+        }
+    }
+
+    /**
+     * Converts keys to a long array.
+     *
+     * @param keys The keys.
+     * @return The keys.
+     */
+    private static long[] keys(long... keys) {
+        return keys;
+    }
+
+    /**
+     * Saves a HeavyHitters and reads it back into another.
+     *
+     * @param from The HeavyHitters to save.
+     * @param into The HeavyHitters to restore into.
+     * @throws IOException If they aren't the same size.
+     */
+    private static void copy(HeavyHitters from, HeavyHitters into) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            from.save(out);
+        }
+        into.restore(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    void keepsTheHeaviestKeysInOrder() {
+        HeavyHitters hitters = new HeavyHitters(5, new CountMinSketch(4096, 4));
+        count(hitters, 3947);
+        assertArrayEquals(keys(1, 2, 3, 4, 5), hitters.getTopKeys());
+
+        HeavyHitters few = new HeavyHitters(5, new CountMinSketch(4096, 4));
+        few.add(7, 3);
+        few.add(9, 5);
+        few.add(7, 4);
+        assertArrayEquals(keys(7, 9), few.getTopKeys());
+        assertEquals(7, few.estimate(7));
+        assertArrayEquals(keys(), new HeavyHitters(5, new CountMinSketch(64, 2)).getTopKeys());
+    }
+
+    @Test
+    void mergesIntoTheHeaviestKeysOfBothStreams() {
+        HeavyHitters whole = new HeavyHitters(5, new CountMinSketch(4096, 4));
+        HeavyHitters first = whole.copySize();
+        HeavyHitters second = whole.copySize();
+        count(whole, 1);
+        count(whole, 2);
+        count(first, 1);
+        count(second, 2);
+
+        first.merge(second);
+        assertArrayEquals(whole.getTopKeys(), first.getTopKeys());
+        for(long key = 1; key <= 8; key++) {
+            assertEquals(whole.estimate(key), first.estimate(key), "estimate of " + key);
+        }
+    }
+
+    @Test
+    void estimatesKeysAgainWhenMerging() {
+        // Key 2 is second on both sides, but first once they are added together; key 1 stays ahead of key 3 because
+        // a tie doesn't push a key out
+        HeavyHitters first = new HeavyHitters(2, new CountMinSketch(4096, 4));
+        HeavyHitters second = first.copySize();
+        first.add(1, 100);
+        first.add(2, 90);
+        second.add(3, 100);
+        second.add(2, 90);
+
+        first.merge(second);
+        assertArrayEquals(keys(2, 1), first.getTopKeys());
+        assertEquals(180, first.estimate(2));
+        assertEquals(100, first.estimate(3));
+
+        HeavyHitters smaller = new HeavyHitters(2, new CountMinSketch(1024, 4));
+        assertThrows(IllegalArgumentException.class, () -> first.merge(smaller));
+    }
+
+    @Test
+    void savesAndRestoresItsTopKeys() throws IOException {
+        HeavyHitters hitters = new HeavyHitters(5, new CountMinSketch(4096, 4));
+        count(hitters, 3947);
+
+        HeavyHitters restored = hitters.copySize();
+        restored.add(99, 1_000_000);
+        copy(hitters, restored);
+        assertArrayEquals(hitters.getTopKeys(), restored.getTopKeys());
+        assertEquals(hitters.estimate(1), restored.estimate(1));
+        assertEquals(0, restored.estimate(99));
+
+        // Counting goes on from where the checkpoint left off
+        hitters.add(8, 1_000_000);
+        restored.add(8, 1_000_000);
+        assertArrayEquals(hitters.getTopKeys(), restored.getTopKeys());
+        assertEquals(8, restored.getTopKeys()[0]);
+
+        assertThrows(IOException.class, () -> copy(hitters, new HeavyHitters(4, new CountMinSketch(4096, 4))));
+        assertThrows(IOException.class, () -> copy(hitters, new HeavyHitters(5, new CountMinSketch(2048, 4))));
+    }
+}
@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for PatternMatcher: matches found through failure links, overlapping and nested patterns reported through
+ * output links, scans carried on from one buffer to the next, and the pattern syntax.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class PatternMatcherTest {
+
+    /**
+     * Scans a text in one go.
+     *
+     * @param matcher The matcher.
+     * @param text The text.
+     * @return Every occurrence, as "pattern@end", in the order they were reported.
+     */
+    private static List<String> scan(PatternMatcher matcher, String text) {
+        List<String> found = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        matcher.scan(buffer, 0, buffer.capacity(), matcher.getStartState(),
+                (pattern, end) -> found.add(matcher.getName(pattern) + "@" + end));
+        return found;
+    }
+
+    @Test
+    void findsOverlappingPatterns() {
+        PatternMatcher matcher = new PatternMatcher(List.of("he", "she", "his", "hers"));
+        assertEquals(List.of("she@4", "he@4", "hers@6"), scan(matcher, "ushers"));
+        assertEquals(List.of("his@3", "she@5", "he@5"), scan(matcher, "hishe"));
+    }
+
+    @Test
+    void followsFailureLinks() {
+        // After "abc" fails on "e", the scan has to carry on from "bc" rather than from the start
+        PatternMatcher matcher = new PatternMatcher(List.of("abcd", "bce"));
+        assertEquals(List.of("bce@4"), scan(matcher, "abce"));
+        assertEquals(List.of("abcd@6"), scan(matcher, "ababcd"));
+    }
+
+    @Test
+    void followsOutputLinksPastStatesWithoutMatches() {
+        // The failure chain of "abcd" is "bcd", where nothing ends, then "cd", where a pattern does
+        PatternMatcher matcher = new PatternMatcher(List.of("abcd", "bcdz", "cd", "d"));
+        assertEquals(List.of("abcd@4", "cd@4", "d@4"), scan(matcher, "abcd"));
+        assertEquals(List.of("cd@4", "d@4", "bcdz@5"), scan(matcher, "xbcdz"));
+    }
+
+    @Test
+    void reportsEveryOccurrenceOfARepeatedPattern() {
+        PatternMatcher matcher = new PatternMatcher(List.of("aa", "aaa"));
+        assertEquals(List.of("aa@2", "aaa@3", "aa@3", "aaa@4", "aa@4"), scan(matcher, "aaaa"));
+    }
+
+    @Test
+    void agreesWithBruteForce() {
+        Random random = new Random(3947);
+        for(int round = 0; round < 200; round++) {
+            List<String> patterns = new ArrayList<>();
+            for(int p = 1 + random.nextInt(8); p > 0; p--) {
+                patterns.add(randomText(random, 1 + random.nextInt(5)));
+            }
+            String text = randomText(random, 300);
+
+            List<String> expected = new ArrayList<>();
+            for(String pattern : new LinkedHashSet<>(patterns)) {
+                for(int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1)) {
+                    expected.add(pattern + "@" + (i + pattern.length()));
+                }
+            }
+            List<String> found = scan(new PatternMatcher(patterns), text);
+            Collections.sort(expected);
+            Collections.sort(found);
+            assertEquals(expected, found, "patterns " + patterns);
+        }
+    }
+
+    @Test
+    void carriesOnFromOneBufferToTheNext() {
+        PatternMatcher matcher = new PatternMatcher(List.of("he", "she", "his", "hers"));
+        byte[] text = "ushershishe".getBytes(StandardCharsets.US_ASCII);
+        List<String> whole = scan(matcher, "ushershishe");
+
+        for(int split = 0; split <= text.length; split++) {
+            // Each piece sits in a buffer of its own, at an offset, so ends are relative to the piece
+            List<String> found = new ArrayList<>();
+            ByteBuffer first = ByteBuffer.allocate(split + 3);
+            first.put(3, text, 0, split);
+            ByteBuffer second = ByteBuffer.wrap(text, split, text.length - split).slice();
+            int state = matcher.scan(first, 3, split, matcher.getStartState(),
+                    (pattern, end) -> found.add(matcher.getName(pattern) + "@" + (end - 3)));
+            int at = split;
+            matcher.scan(second, 0, text.length - split, state,
+                    (pattern, end) -> found.add(matcher.getName(pattern) + "@" + (end + at)));
+            assertEquals(whole, found, "split at " + split);
+        }
+    }
+
+    @Test
+    void parsesHexBytes() {
+        assertArrayEquals("GET /".getBytes(StandardCharsets.US_ASCII), PatternMatcher.parse("GET |2f|"));
+        assertArrayEquals(new byte[] {0x0d, 0x0a, 0x0d, 0x0a}, PatternMatcher.parse("|0d 0a 0D 0A|"));
+        assertArrayEquals(new byte[] {'a', (byte) 0xff, 'b'}, PatternMatcher.parse("a|ff|b"));
+
+        assertThrows(IllegalArgumentException.class, () -> PatternMatcher.parse(""));
+        assertThrows(IllegalArgumentException.class, () -> PatternMatcher.parse("||"));
+        assertThrows(IllegalArgumentException.class, () -> PatternMatcher.parse("a|2f"));
+        assertThrows(IllegalArgumentException.class, () -> PatternMatcher.parse("|2g|"));
+        assertThrows(IllegalArgumentException.class, () -> PatternMatcher.parse("|abc|"));
+    }
+
+    @Test
+    void keepsTheFirstOfDuplicatePatterns() {
+        PatternMatcher matcher = new PatternMatcher(List.of("GET /", "GET |2f|", "|ff|"));
+        assertEquals(2, matcher.getPatternCount());
+        assertEquals("GET /", matcher.getName(0));
+        assertEquals(5, matcher.getLength(0));
+        assertEquals(1, matcher.getLength(1));
+        assertEquals(List.of("GET /@5"), scan(matcher, "GET /"));
+        assertEquals(List.of("|ff|@2"), scan(matcher, "a\u00ff"));
+    }
+
+    /**
+     * Makes up text over a small alphabet, so that patterns overlap often.
+     *
+     * @param random The source of randomness.
+     * @param length The length of the text.
+     * @return The text.
+     */
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for(int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(3)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,198 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for PipelineAnalyzer: the output matches a run on one thread, whatever the number of decoders, the size of
+ * the ring and batches, and the wait strategy, including captures that end partway through a batch or are empty.
+ *
+ * @author Steven Yu (sky3947)
+ */
+@Timeout(60)
+class PipelineAnalyzerTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Prints the number of every frame, and counts the frames its workers saw.
+     */
+    private static final class FrameCounter extends Analysis {
+
+        private final int failAt;       // The frame to fail on, or 0.
+        private long frames;
+
+        /**
+         * Constructor for FrameCounter.
+         *
+         * @param failAt The number of the frame to throw an exception on, or 0 to never throw one.
+         */
+        private FrameCounter(int failAt) {
+            this.failAt = failAt;
+        }
+
+        @Override
+        public void accept(Frame frame, Packet packet, TextRenderer out) {
+            if(frame.getNumber() == failAt) {
+                throw new IllegalStateException("Failed on frame " + failAt);
+            }
+            frames++;
+            out.decimal(frame.getNumber()).newline();
+        }
+
+        @Override
+        public void finish(TextRenderer out) {
+            out.append("frames=").decimal(frames).newline();
+        }
+
+        @Override
+        public boolean canFork() {
+            return true;
+        }
+
+        @Override
+        public Analysis fork() {
+            return new FrameCounter(failAt);
+        }
+
+        @Override
+        public void merge(Analysis worker) {
+            frames += ((FrameCounter) worker).frames;
+        }
+    }
+
+    /**
+     * Writes a synthetic capture.
+     *
+     * @param name The name of the file, in the test's directory.
+     * @param frames At least how many frames to write. A fragmented datagram may make it a few more.
+     * @return The path to the capture.
+     * @throws IOException If the capture can't be written.
+     */
+    private Path capture(String name, int frames) throws IOException {
+        Path path = directory.resolve(name);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            PcapGenerator generator = new PcapGenerator(out, 3947, 20, 50, 1.0, 1_000_000);
+            generator.writeHeader();
+            while(generator.getFrames() < frames) {
+                generator.next();
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Runs an analysis on one thread.
+     *
+     * @param path The path to the capture.
+     * @param analysis The analysis.
+     * @return The output.
+     * @throws IOException If the capture can't be read.
+     */
+    private static String analyze(Path path, Analysis analysis) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pktanalyzer.analyzeCapture(path, analysis, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs an analysis through a pipeline.
+     *
+     * @param pipeline The pipeline.
+     * @param path The path to the capture.
+     * @param analysis The analysis.
+     * @return The output.
+     * @throws IOException If the capture can't be read.
+     */
+    private static String analyze(PipelineAnalyzer pipeline, Path path, Analysis analysis) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pipeline.analyze(path, analysis, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Makes the analysis the tests compare: every field of every frame.
+     *
+     * @return The analysis.
+     */
+    private static Analysis records() {
+        return new RecordPrinter(RecordPrinter.parseFields(RecordPrinter.DEFAULT_FIELDS), false);
+    }
+
+    @Test
+    void matchesOneThreadWithPartialBatches() throws IOException {
+        Path path = capture("partial.pcap", 1000);
+        String expected = analyze(path, records());
+
+        // Batches of 7 don't divide the capture, and with 3 decoders the last batch can belong to any of them
+        for(int decoders = 1; decoders <= 4; decoders++) {
+            PipelineAnalyzer pipeline = new PipelineAnalyzer(decoders, 16, 7, PipelineAnalyzer.WaitStrategy.SLEEP);
+            assertEquals(expected, analyze(pipeline, path, records()), decoders + " decoders");
+        }
+    }
+
+    @Test
+    void seesEveryFrameOnceInOrder() throws IOException {
+        Path path = capture("count.pcap", 500);
+        String expected = analyze(path, new FrameCounter(0));
+
+        for(int batch : new int[] {1, 2, 3, 64, 1000}) {
+            PipelineAnalyzer pipeline = new PipelineAnalyzer(3, 8, batch, PipelineAnalyzer.WaitStrategy.YIELD);
+            assertEquals(expected, analyze(pipeline, path, new FrameCounter(0)), "batches of " + batch);
+        }
+    }
+
+    @Test
+    void handlesEveryWaitStrategy() throws IOException {
+        Path path = capture("wait.pcap", 300);
+        String expected = analyze(path, records());
+
+        for(PipelineAnalyzer.WaitStrategy wait : PipelineAnalyzer.WaitStrategy.values()) {
+            PipelineAnalyzer pipeline = new PipelineAnalyzer(2, 32, 5, wait);
+            assertEquals(expected, analyze(pipeline, path, records()), wait.name());
+        }
+    }
+
+    @Test
+    void endsOnABatchBoundary() throws IOException {
+        Path path = capture("boundary.pcap", 200);
+        String expected = analyze(path, new FrameCounter(0));
+        int frames = expected.split("\n").length - 1;
+
+        // The capture ends exactly at the end of a batch, and of a turn of the decoders
+        for(int batch : new int[] {frames, frames / 2, 1}) {
+            if(batch > 0 && frames % batch == 0) {
+                PipelineAnalyzer pipeline = new PipelineAnalyzer(2, 4, batch, PipelineAnalyzer.WaitStrategy.SLEEP);
+                assertEquals(expected, analyze(pipeline, path, new FrameCounter(0)), "batches of " + batch);
+            }
+        }
+    }
+
+    @Test
+    void handlesAnEmptyCapture() throws IOException {
+        Path path = capture("empty.pcap", 0);
+        for(int decoders = 1; decoders <= 3; decoders++) {
+            PipelineAnalyzer pipeline = new PipelineAnalyzer(decoders, 8, 4, PipelineAnalyzer.WaitStrategy.SLEEP);
+            assertEquals("frames=0\n", analyze(pipeline, path, new FrameCounter(0)));
+        }
+    }
+
+    @Test
+    void stopsWhenADecoderFails() throws IOException {
+        Path path = capture("fail.pcap", 1000);
+        PipelineAnalyzer pipeline = new PipelineAnalyzer(2, 8, 4, PipelineAnalyzer.WaitStrategy.SLEEP);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> analyze(pipeline, path, new FrameCounter(300)));
+        assertEquals("Failed on frame 300", e.getMessage());
+    }
+}
@@ -0,0 +1,207 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for TCPReassembler and TCPStream: in-order and out-of-order delivery, overlap trimming, gaps, and sequence
+ * numbers that wrap around 2^32.
+ *
+ * @author Steven Yu (sky3947)
+ */
+class TCPReassemblerTest {
+
+    private static final int CLIENT = 0x0a000001;   // 10.0.0.1
+    private static final int SERVER = 0x0a000002;   // 10.0.0.2
+    private static final int CLIENT_PORT = 40000;
+    private static final int SERVER_PORT = 80;
+
+    /**
+     * Writes down what the reassembler delivers for the client's stream, with a '#' for every byte of a gap.
+     */
+    private static final class Recorder implements StreamListener {
+
+        private final StringBuilder client = new StringBuilder();
+        private TCPStream stream;
+        private int opened;
+        private int closed;
+
+        @Override
+        public void opened(TCPStream stream) {
+            if(stream.isClient()) {
+                this.stream = stream;
+            }
+            opened++;
+        }
+
+        @Override
+        public void data(TCPStream stream, ByteBuffer buffer, int offset, int length) {
+            if(stream.isClient()) {
+                byte[] bytes = new byte[length];
+                buffer.get(offset, bytes);
+                client.append(new String(bytes, StandardCharsets.US_ASCII));
+            }
+        }
+
+        @Override
+        public void gap(TCPStream stream, int length) {
+            if(stream.isClient()) {
+                client.append("#".repeat(length));
+            }
+        }
+
+        @Override
+        public void closed(TCPStream stream) {
+            closed++;
+        }
+    }
+
+    private final Recorder recorder = new Recorder();
+    private final TCPReassembler reassembler = new TCPReassembler(recorder, 1 << 20, 1 << 16, Long.MAX_VALUE);
+    private long time;
+
+    /**
+     * Builds an IPv4 datagram holding a TCP segment from the client to the server.
+     *
+     * @param sequence The segment's sequence number.
+     * @param flags The segment's TCP flags.
+     * @param payload The segment's payload.
+     * @return A header pointing at the datagram.
+     */
+    private static IPHeader segment(int sequence, int flags, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer packet = ByteBuffer.allocate(40 + data.length);
+        packet.put(0, (byte) 0x45);
+        packet.putShort(2, (short) packet.capacity());
+        packet.put(8, (byte) 64);
+        packet.put(9, (byte) 6);
+        packet.putInt(12, CLIENT);
+        packet.putInt(16, SERVER);
+        packet.putShort(20, (short) CLIENT_PORT);
+        packet.putShort(22, (short) SERVER_PORT);
+        packet.putInt(24, sequence);
+        packet.putShort(32, (short) (0x5000 | flags));
+        packet.put(40, data);
+        return new IPHeader(packet.array());
+    }
+
+    /**
+     * Hands a segment from the client to the reassembler.
+     *
+     * @param sequence The segment's sequence number.
+     * @param flags The segment's TCP flags.
+     * @param payload The segment's payload.
+     */
+    private void send(int sequence, int flags, String payload) {
+        assertTrue(reassembler.accept(segment(sequence, flags, payload), ++time));
+    }
+
+    @Test
+    void deliversSegmentsInOrder() {
+        send(1000, TCPHeader.SYN, "");
+        send(1001, TCPHeader.ACK, "hello ");
+        send(1007, TCPHeader.ACK, "world");
+        assertEquals("hello world", recorder.client.toString());
+        assertEquals(2, recorder.opened);
+        assertEquals(1, reassembler.getOpenConnections());
+    }
+
+    @Test
+    void buffersSegmentsThatArriveEarly() {
+        send(1000, TCPHeader.SYN, "");
+        send(1007, TCPHeader.ACK, "world");
+        send(1004, TCPHeader.ACK, "lo ");
+        assertEquals("", recorder.client.toString());
+
+        send(1001, TCPHeader.ACK, "hel");
+        assertEquals("hello world", recorder.client.toString());
+        assertEquals(0, reassembler.getPool().getInUse());
+    }
+
+    @Test
+    void trimsRetransmittedAndOverlappingBytes() {
+        send(1000, TCPHeader.SYN, "");
+        send(1001, TCPHeader.ACK, "abcdef");
+        send(1001, TCPHeader.ACK, "abc");       // All of it delivered already
+        send(1004, TCPHeader.ACK, "defghi");    // Only ghi is new
+        assertEquals("abcdefghi", recorder.client.toString());
+
+        TCPStream stream = recorder.stream;
+        assertEquals(9, stream.getDeliveredBytes());
+        assertEquals(6, stream.getRetransmittedBytes());
+    }
+
+    @Test
+    void trimsOverlapsBetweenBufferedSegments() {
+        send(1000, TCPHeader.SYN, "");
+        send(1001, TCPHeader.ACK, "ab");
+        send(1005, TCPHeader.ACK, "efgh");
+        send(1007, TCPHeader.ACK, "GHij");      // Overlaps the end of the segment before it
+        send(1005, TCPHeader.ACK, "EF");        // Same start as a buffered segment, which arrived first
+        send(1003, TCPHeader.ACK, "cd");
+        assertEquals("abcdefghij", recorder.client.toString());
+        assertEquals(4, recorder.stream.getRetransmittedBytes());
+        assertEquals(0, reassembler.getPool().getInUse());
+    }
+
+    @Test
+    void deliversAcrossSequenceWraparound() {
+        send(0xfffffff9, TCPHeader.SYN, "");    // Data starts at 0xfffffffa, six bytes before the wrap
+        send(0xfffffffa, TCPHeader.ACK, "abc");
+        send(0x00000002, TCPHeader.ACK, "ijk"); // Early, past the wrap
+        send(0xfffffffd, TCPHeader.ACK, "defgh");
+        assertEquals("abcdefghijk", recorder.client.toString());
+
+        send(0xfffffffa, TCPHeader.ACK, "abc"); // An old retransmission, from before the wrap
+        assertEquals("abcdefghijk", recorder.client.toString());
+        assertEquals(3, recorder.stream.getRetransmittedBytes());
+    }
+
+    @Test
+    void ordersBufferedSegmentsAcrossSequenceWraparound() {
+        send(0xfffffff9, TCPHeader.SYN, "");
+        send(0x00000004, TCPHeader.ACK, "klm");
+        send(0xfffffffd, TCPHeader.ACK, "def");
+        send(0x00000000, TCPHeader.ACK, "ghij");
+        assertEquals("", recorder.client.toString());
+
+        send(0xfffffffa, TCPHeader.ACK, "abc");
+        assertEquals("abcdefghijklm", recorder.client.toString());
+    }
+
+    @Test
+    void reportsMissingBytesAsAGapWhenClosed() {
+        send(1000, TCPHeader.SYN, "");
+        send(1001, TCPHeader.ACK, "abc");
+        send(1009, TCPHeader.ACK, "ijk");
+        reassembler.closeAll();
+
+        assertEquals("abc#####ijk", recorder.client.toString());
+        assertEquals(5, recorder.stream.getGapBytes());
+        assertEquals(2, recorder.closed);
+        assertEquals(0, reassembler.getOpenConnections());
+    }
+
+    @Test
+    void closesAfterFinInBothDirectionsOrRst() {
+        send(1000, TCPHeader.SYN, "");
+        send(1001, TCPHeader.ACK | TCPHeader.FIN, "bye");
+        assertEquals(1, reassembler.getOpenConnections());
+        send(1005, TCPHeader.RST, "");
+        assertEquals(0, reassembler.getOpenConnections());
+        assertEquals("bye", recorder.client.toString());
+        assertEquals(2, recorder.closed);
+    }
+
+    @Test
+    void ignoresFragments() {
+        IPHeader fragment = segment(1000, TCPHeader.ACK, "abc");
+        fragment.getBuffer().putShort(6, (short) 0x2000);   // More fragments
+        assertFalse(reassembler.accept(fragment, 1));
+        assertEquals(0, reassembler.getTotalConnections());
+    }
+}